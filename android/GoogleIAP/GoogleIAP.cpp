@@ -4,6 +4,8 @@
 #include "cocos2d.h"
 #include "platform/android/jni/JniHelper.h"
 
+#include <thread>
+
 USING_NS_CC;
 
 namespace sdkbox
@@ -11,66 +13,253 @@ namespace sdkbox
     static const char* CLASS_PURCHASE_MANAGER = "com/wrapper/iap/PurchaseManager";
     static const char* CLASS_PURCHASE_LISTENER = "com/wrapper/iap/PurchaseEventListener";
     static const std::string ConfigJsonPath = "res/sdkbox_config.json";
+    static const std::string DispatchSchedulerKey = "sdkbox_iap_dispatch_events";
     static bool autoFinishTransaction = false;
 
     /**
-     * get Instance of PurchaseManager (Java Object)
-     * @return
+     * JNI handles resolved once and reused by every IAP call.
+     * Classes and the PurchaseManager instance are held as global refs.
+     */
+    struct JavaBridge {
+        jclass purchaseManagerClass = nullptr;
+        jclass purchaseListenerClass = nullptr;
+        jobject purchaseManager = nullptr;
+
+        jmethodID listenerInit = nullptr;
+        jmethodID init = nullptr;
+        jmethodID beginDeferredInit = nullptr;
+        jmethodID completeDeferredInit = nullptr;
+        jmethodID prewarm = nullptr;
+        jmethodID updateSkuConfig = nullptr;
+        jmethodID initPlayPass = nullptr;
+        jmethodID purchase = nullptr;
+        jmethodID consume = nullptr;
+        jmethodID consumeBatch = nullptr;
+        jmethodID queryProductListAsync = nullptr;
+        jmethodID queryPurchases = nullptr;
+        jmethodID queryUnconsumedPurchases = nullptr;
+        jmethodID getPurchaseHistory = nullptr;
+        jmethodID getPurchaseHistoryPaged = nullptr;
+        jmethodID getSubscriptionOffers = nullptr;
+        jmethodID isOwned = nullptr;
+        jmethodID getToken = nullptr;
+        jmethodID watchEntitlement = nullptr;
+        jmethodID unwatchEntitlement = nullptr;
+        jmethodID getMetricsSnapshot = nullptr;
+        jmethodID setServerVerification = nullptr;
+        jmethodID verifyPurchase = nullptr;
+        jmethodID setPurchaseEventListener = nullptr;
+        jmethodID removePurchaseEventListener = nullptr;
+        jmethodID subscribe = nullptr;
+        jmethodID unsubscribe = nullptr;
+        jmethodID isInitialized = nullptr;
+        jmethodID setQueuedEventDispatch = nullptr;
+        jmethodID dispatchPendingEvents = nullptr;
+    };
+    static JavaBridge javaBridge;
+    static bool javaBridgeInitialized = false;
+
+    static jmethodID getMethodID(JNIEnv* env, jclass clazz, const char* name, const char* signature) {
+        jmethodID methodID = env->GetMethodID(clazz, name, signature);
+        if (methodID == nullptr) {
+            env->ExceptionClear();
+            CCLOGERROR("can not get method info: %s%s", name, signature);
+        }
+        return methodID;
+    }
+
+    /**
+     * resolve PurchaseManager / PurchaseEventListener classes and method ids
+     * @return false if PurchaseManager.init(Activity) has not run yet
      */
-    jobject getJavaPurchaseManager() {
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getStaticMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "getInstance", "()Lcom/wrapper/iap/PurchaseManager;")) {
+    static bool initJavaBridge() {
+        if (javaBridgeInitialized) {
+            return true;
+        }
+
+        JniMethodInfo getInstanceInfo;
+        if (!JniHelper::getStaticMethodInfo(getInstanceInfo, CLASS_PURCHASE_MANAGER, "getInstance", "()Lcom/wrapper/iap/PurchaseManager;")) {
             CC_ASSERT("can not get method info: com.wrapper.iap.PurchaseManager.getInstance()");
+            return false;
+        }
+        JniMethodInfo listenerInitInfo;
+        if (!JniHelper::getMethodInfo(listenerInitInfo, CLASS_PURCHASE_LISTENER, "<init>", "(J)V")) {
+            CC_ASSERT("can not get method info: iap.PurchaseEventListener<init>");
+            getInstanceInfo.env->DeleteLocalRef(getInstanceInfo.classID);
+            return false;
+        }
+
+        JNIEnv* env = getInstanceInfo.env;
+        jobject manager = env->CallStaticObjectMethod(getInstanceInfo.classID, getInstanceInfo.methodID);
+        if (manager == nullptr) {
+            // PurchaseManager.init(Activity) has not run yet
+            env->DeleteLocalRef(getInstanceInfo.classID);
+            env->DeleteLocalRef(listenerInitInfo.classID);
+            return false;
+        }
+
+        javaBridge.purchaseManagerClass = (jclass)env->NewGlobalRef(getInstanceInfo.classID);
+        javaBridge.purchaseListenerClass = (jclass)env->NewGlobalRef(listenerInitInfo.classID);
+        javaBridge.purchaseManager = env->NewGlobalRef(manager);
+        javaBridge.listenerInit = listenerInitInfo.methodID;
+        env->DeleteLocalRef(manager);
+        env->DeleteLocalRef(getInstanceInfo.classID);
+        env->DeleteLocalRef(listenerInitInfo.classID);
+
+        jclass clazz = javaBridge.purchaseManagerClass;
+        javaBridge.init = getMethodID(env, clazz, "init", "(Ljava/lang/String;)V");
+        javaBridge.beginDeferredInit = getMethodID(env, clazz, "beginDeferredInit", "()V");
+        javaBridge.completeDeferredInit = getMethodID(env, clazz, "completeDeferredInit", "(Ljava/lang/String;)V");
+        javaBridge.prewarm = getMethodID(env, clazz, "prewarm", "()V");
+        javaBridge.updateSkuConfig = getMethodID(env, clazz, "updateSkuConfig", "(Ljava/lang/String;)V");
+        javaBridge.initPlayPass = getMethodID(env, clazz, "initPlayPass", "(Ljava/lang/String;)V");
+        javaBridge.purchase = getMethodID(env, clazz, "purchase", "(Ljava/lang/String;)V");
+        javaBridge.consume = getMethodID(env, clazz, "consume", "(Ljava/lang/String;Ljava/lang/String;)V");
+        javaBridge.consumeBatch = getMethodID(env, clazz, "consumeBatch", "([Ljava/lang/String;[Ljava/lang/String;)V");
+        javaBridge.queryProductListAsync = getMethodID(env, clazz, "queryProductListAsync", "()V");
+        javaBridge.queryPurchases = getMethodID(env, clazz, "queryPurchases", "()V");
+        javaBridge.queryUnconsumedPurchases = getMethodID(env, clazz, "queryUnconsumedPurchases", "()V");
+        javaBridge.getPurchaseHistory = getMethodID(env, clazz, "getPurchaseHistory", "()V");
+        javaBridge.getPurchaseHistoryPaged = getMethodID(env, clazz, "getPurchaseHistoryPaged", "(I)I");
+        javaBridge.getSubscriptionOffers = getMethodID(env, clazz, "getSubscriptionOffers", "(Ljava/lang/String;)Ljava/lang/String;");
+        javaBridge.isOwned = getMethodID(env, clazz, "isOwned", "(Ljava/lang/String;)Z");
+        javaBridge.getToken = getMethodID(env, clazz, "getToken", "(Ljava/lang/String;)Ljava/lang/String;");
+        javaBridge.watchEntitlement = getMethodID(env, clazz, "watchEntitlement", "(Ljava/lang/String;)V");
+        javaBridge.unwatchEntitlement = getMethodID(env, clazz, "unwatchEntitlement", "(Ljava/lang/String;)V");
+        javaBridge.getMetricsSnapshot = getMethodID(env, clazz, "getMetricsSnapshot", "()Ljava/lang/String;");
+        javaBridge.setServerVerification = getMethodID(env, clazz, "setServerVerification", "(Ljava/lang/String;Ljava/lang/String;)V");
+        javaBridge.verifyPurchase = getMethodID(env, clazz, "verifyPurchase", "(Ljava/lang/String;Ljava/lang/String;)Z");
+        javaBridge.setPurchaseEventListener = getMethodID(env, clazz, "setPurchaseEventListener", "(Lcom/wrapper/iap/PurchaseEventListener;)V");
+        javaBridge.removePurchaseEventListener = getMethodID(env, clazz, "removePurchaseEventListener", "()V");
+        javaBridge.subscribe = getMethodID(env, clazz, "subscribe", "(Lcom/wrapper/iap/PurchaseEventListener;I)V");
+        javaBridge.unsubscribe = getMethodID(env, clazz, "unsubscribe", "(Lcom/wrapper/iap/PurchaseEventListener;)V");
+        javaBridge.isInitialized = getMethodID(env, clazz, "isInitialized", "()Z");
+        javaBridge.setQueuedEventDispatch = getMethodID(env, clazz, "setQueuedEventDispatch", "(Z)V");
+        javaBridge.dispatchPendingEvents = getMethodID(env, clazz, "dispatchPendingEvents", "()V");
+
+        javaBridgeInitialized = true;
+        return true;
+    }
+
+    static void callPurchaseManager(jmethodID methodID) {
+        if (!initJavaBridge() || methodID == nullptr) {
+            return;
         }
+        JniHelper::getEnv()->CallVoidMethod(javaBridge.purchaseManager, methodID);
+    }
 
-        return methodInfo.env->CallStaticObjectMethod(methodInfo.classID, methodInfo.methodID);
+    static void callPurchaseManager(jmethodID methodID, const std::string& arg0) {
+        if (!initJavaBridge() || methodID == nullptr) {
+            return;
+        }
+        JNIEnv* env = JniHelper::getEnv();
+        jstring jstrArg0 = env->NewStringUTF(arg0.c_str());
+        env->CallVoidMethod(javaBridge.purchaseManager, methodID, jstrArg0);
+        env->DeleteLocalRef(jstrArg0);
+    }
+
+    static void callPurchaseManager(jmethodID methodID, const std::string& arg0, const std::string& arg1) {
+        if (!initJavaBridge() || methodID == nullptr) {
+            return;
+        }
+        JNIEnv* env = JniHelper::getEnv();
+        jstring jstrArg0 = env->NewStringUTF(arg0.c_str());
+        jstring jstrArg1 = env->NewStringUTF(arg1.c_str());
+        env->CallVoidMethod(javaBridge.purchaseManager, methodID, jstrArg0, jstrArg1);
+        env->DeleteLocalRef(jstrArg0);
+        env->DeleteLocalRef(jstrArg1);
     }
 
     /**
      * create Instance of PurchaseEventListener (Java Object)
      * @param listener
-     * @return
+     * @return local ref, or nullptr if the bridge is not ready
      */
     jobject createJavaPurchaseEventListener(IAPListener* listener) {
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_LISTENER, "<init>", "(J)V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseEventListener<init>");
+        if (!initJavaBridge() || javaBridge.listenerInit == nullptr) {
+            return nullptr;
         }
 
         // run java code:
         // long delegate = (long)listener;
         // return new iap.PurchaseEventListener(delegate);
-        return methodInfo.env->NewObject(methodInfo.classID, methodInfo.methodID, (jlong)listener);
+        return JniHelper::getEnv()->NewObject(javaBridge.purchaseListenerClass, javaBridge.listenerInit, (jlong)listener);
     }
 
     void IAP::setGDPR(bool enable){}
 
-    void IAP::init(const char* jsconfig)
+    static bool startEventDispatch()
     {
-        jobject javaPurchaseManager = getJavaPurchaseManager();
+        if (!initJavaBridge()) {
+            CC_ASSERT("can not init java bridge: com.wrapper.iap.PurchaseManager");
+            return false;
+        }
 
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "init", "(Ljava/lang/String;)V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#init()");
+        // billing callbacks are queued on the java side and drained here once per frame,
+        // so listener callbacks always run on the game thread
+        if (javaBridge.setQueuedEventDispatch != nullptr && javaBridge.dispatchPendingEvents != nullptr) {
+            JniHelper::getEnv()->CallVoidMethod(javaBridge.purchaseManager, javaBridge.setQueuedEventDispatch, JNI_TRUE);
+            auto scheduler = Application::getInstance()->getScheduler();
+            scheduler->unschedule(DispatchSchedulerKey, &javaBridge);
+            scheduler->schedule([](float) {
+                callPurchaseManager(javaBridge.dispatchPendingEvents);
+            }, &javaBridge, 0, false, DispatchSchedulerKey);
         }
+        return true;
+    }
+
+    void IAP::init(const char* jsconfig)
+    {
+        if (!startEventDispatch()) {
+            return;
+        }
+
         const std::string& fullPath = FileUtils::getInstance()->fullPathForFilename(ConfigJsonPath);
         std::string configJsonString = FileUtils::getInstance()->getStringFromFile(fullPath);
-        jstring jstrConfigJsonString = methodInfo.env->NewStringUTF(configJsonString.c_str());
+        callPurchaseManager(javaBridge.init, configJsonString);
+    }
 
-        methodInfo.env->CallVoidMethod(javaPurchaseManager, methodInfo.methodID, jstrConfigJsonString);
+    void IAP::initDeferred()
+    {
+        if (!startEventDispatch()) {
+            return;
+        }
+        if (javaBridge.beginDeferredInit == nullptr || javaBridge.completeDeferredInit == nullptr) {
+            init();
+            return;
+        }
+
+        // marked pending on the game thread, so billing calls made right after initDeferred()
+        // wait for the config instead of racing the reader thread
+        JniHelper::getEnv()->CallVoidMethod(javaBridge.purchaseManager, javaBridge.beginDeferredInit);
+        // the path lookup fills FileUtils' cache and stays on the game thread,
+        // reading and parsing the config run on one reader thread
+        std::string fullPath = FileUtils::getInstance()->fullPathForFilename(ConfigJsonPath);
+        std::thread([fullPath]() {
+            std::string configJsonString = FileUtils::getInstance()->getStringFromFile(fullPath);
+            callPurchaseManager(javaBridge.completeDeferredInit, configJsonString);
+        }).detach();
     }
 
-    void IAP::initPlayPass(const std::string& noAdsPackId)
+    void IAP::prewarm()
     {
-        jobject javaPurchaseManager = getJavaPurchaseManager();
+        callPurchaseManager(javaBridge.prewarm);
+    }
 
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "initPlayPass", "(Ljava/lang/String;)V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#initPlayPass()");
+    void IAP::updateConfig(const char* jsonconfig)
+    {
+        if (jsonconfig != nullptr) {
+            callPurchaseManager(javaBridge.updateSkuConfig, jsonconfig);
+            return;
         }
+        const std::string& fullPath = FileUtils::getInstance()->fullPathForFilename(ConfigJsonPath);
+        std::string configJsonString = FileUtils::getInstance()->getStringFromFile(fullPath);
+        callPurchaseManager(javaBridge.updateSkuConfig, configJsonString);
+    }
 
-        jstring jstrNoAdsPackId = methodInfo.env->NewStringUTF(noAdsPackId.c_str());
-        methodInfo.env->CallVoidMethod(javaPurchaseManager, methodInfo.methodID, jstrNoAdsPackId);  
+    void IAP::initPlayPass(const std::string& noAdsPackId)
+    {
+        callPurchaseManager(javaBridge.initPlayPass, noAdsPackId);
     }
 
     void IAP::setDebug(bool debug){ }
@@ -83,102 +272,108 @@ namespace sdkbox
 
     void IAP::purchase(const std::string& name)
     { 
-        jobject javaPurchaseManager = getJavaPurchaseManager();
-
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "purchase", "(Ljava/lang/String;)V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#purchase()");
-        }
-
-        jstring jstrProductId = methodInfo.env->NewStringUTF(name.c_str());
-        methodInfo.env->CallVoidMethod(javaPurchaseManager, methodInfo.methodID, jstrProductId);        
+        callPurchaseManager(javaBridge.purchase, name);
     }
 
     void IAP::refresh()
     { 
-        jobject javaPurchaseManager = getJavaPurchaseManager();
-
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "queryProductListAsync", "()V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#queryProductListAsync()");
-        }
-
-        methodInfo.env->CallVoidMethod(javaPurchaseManager, methodInfo.methodID);        
+        callPurchaseManager(javaBridge.queryProductListAsync);
     }
 
     void IAP::restore()
     { 
-        jobject javaPurchaseManager = getJavaPurchaseManager();
-
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "queryPurchases", "()V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#queryPurchases()");
-        }
-
-        methodInfo.env->CallVoidMethod(javaPurchaseManager, methodInfo.methodID);        
+        callPurchaseManager(javaBridge.queryPurchases);
     }
 
     void IAP::consume(const std::string& productId, const std::string& purchaseToken) {
-        jobject javaPurchaseManager = getJavaPurchaseManager();
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "consume", "(Ljava/lang/String;Ljava/lang/String;)V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#consume()");
-        }
-        jstring jstrProductId = methodInfo.env->NewStringUTF(productId.c_str());
-        jstring jsrPurchaseToken = methodInfo.env->NewStringUTF(purchaseToken.c_str());
-        methodInfo.env->CallVoidMethod(javaPurchaseManager, methodInfo.methodID, jstrProductId, jsrPurchaseToken);
+        callPurchaseManager(javaBridge.consume, productId, purchaseToken);
     }
 
-    void IAP::queryPurchases() {
-        jobject javaPurchaseManager = getJavaPurchaseManager();
-
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "queryPurchases", "()V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#queryPurchases()");
+    void IAP::consume(const std::vector<Product>& products) {
+        if (!initJavaBridge() || javaBridge.consumeBatch == nullptr) {
+            return;
         }
+        JNIEnv* env = JniHelper::getEnv();
+        jclass stringClass = env->FindClass("java/lang/String");
+        jobjectArray productIds = env->NewObjectArray((jsize)products.size(), stringClass, nullptr);
+        jobjectArray purchaseTokens = env->NewObjectArray((jsize)products.size(), stringClass, nullptr);
+        for (size_t i = 0; i < products.size(); ++i) {
+            jstring productId = env->NewStringUTF(products[i].id.c_str());
+            jstring purchaseToken = env->NewStringUTF(products[i].purchaseToken.c_str());
+            env->SetObjectArrayElement(productIds, (jsize)i, productId);
+            env->SetObjectArrayElement(purchaseTokens, (jsize)i, purchaseToken);
+            env->DeleteLocalRef(productId);
+            env->DeleteLocalRef(purchaseToken);
+        }
+        env->CallVoidMethod(javaBridge.purchaseManager, javaBridge.consumeBatch, productIds, purchaseTokens);
+        env->DeleteLocalRef(productIds);
+        env->DeleteLocalRef(purchaseTokens);
+        env->DeleteLocalRef(stringClass);
+    }
 
-        methodInfo.env->CallVoidMethod(javaPurchaseManager, methodInfo.methodID);
+    void IAP::queryPurchases() {
+        callPurchaseManager(javaBridge.queryPurchases);
     }
 
     void IAP::queryUnconsumedPurchases() {
-        jobject javaPurchaseManager = getJavaPurchaseManager();
-
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "queryUnconsumedPurchases", "()V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#queryUnconsumedPurchases()");
-        }
-
-        methodInfo.env->CallVoidMethod(javaPurchaseManager, methodInfo.methodID);
+        callPurchaseManager(javaBridge.queryUnconsumedPurchases);
     }
 
     void IAP::setListener(IAPListener* listener)
     {         
-        jobject javaPurchaseManager = getJavaPurchaseManager();
-
         if(listener == nullptr) {
             removeListener();
             return;
         }
 
-        jobject JavaListener = createJavaPurchaseEventListener(listener);
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "setPurchaseEventListener", "(Lcom/wrapper/iap/PurchaseEventListener;)V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#setPurchaseEventListener()");
+        jobject javaListener = createJavaPurchaseEventListener(listener);
+        if (javaListener == nullptr || javaBridge.setPurchaseEventListener == nullptr) {
+            CC_ASSERT("can not create iap.PurchaseEventListener");
+            return;
         }
 
-        methodInfo.env->CallVoidMethod(javaPurchaseManager, methodInfo.methodID, JavaListener);        
+        JNIEnv* env = JniHelper::getEnv();
+        env->CallVoidMethod(javaBridge.purchaseManager, javaBridge.setPurchaseEventListener, javaListener);
+        env->DeleteLocalRef(javaListener);
     }
 
     void IAP::removeListener()
     { 
-        jobject javaPurchaseManager = getJavaPurchaseManager();
+        callPurchaseManager(javaBridge.removePurchaseEventListener);
+    }
 
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "removePurchaseEventListener", "()V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#removePurchaseEventListener()");
+    void IAP::addListener(IAPListener* listener, int topics)
+    {
+        if (listener == nullptr) {
+            return;
         }
 
-        methodInfo.env->CallVoidMethod(javaPurchaseManager, methodInfo.methodID);   
+        jobject javaListener = createJavaPurchaseEventListener(listener);
+        if (javaListener == nullptr || javaBridge.subscribe == nullptr) {
+            CC_ASSERT("can not create iap.PurchaseEventListener");
+            return;
+        }
+
+        JNIEnv* env = JniHelper::getEnv();
+        env->CallVoidMethod(javaBridge.purchaseManager, javaBridge.subscribe, javaListener, (jint)topics);
+        env->DeleteLocalRef(javaListener);
+    }
+
+    void IAP::removeListener(IAPListener* listener)
+    {
+        if (listener == nullptr) {
+            return;
+        }
+
+        // a new wrapper of the same delegate equals the subscribed one on the java side
+        jobject javaListener = createJavaPurchaseEventListener(listener);
+        if (javaListener == nullptr || javaBridge.unsubscribe == nullptr) {
+            return;
+        }
+
+        JNIEnv* env = JniHelper::getEnv();
+        env->CallVoidMethod(javaBridge.purchaseManager, javaBridge.unsubscribe, javaListener);
+        env->DeleteLocalRef(javaListener);
     }
 
     void IAP::enableUserSideVerification( bool b){ }
@@ -200,14 +395,96 @@ namespace sdkbox
 
     void IAP::getPurchaseHistory()
     { 
-        jobject javaPurchaseManager = getJavaPurchaseManager();
+        callPurchaseManager(javaBridge.getPurchaseHistory);
+    }
+
+    int IAP::getPurchaseHistory(int pageSize)
+    {
+        if (!initJavaBridge() || javaBridge.getPurchaseHistoryPaged == nullptr) {
+            return -1;
+        }
+        return (int)JniHelper::getEnv()->CallIntMethod(javaBridge.purchaseManager, javaBridge.getPurchaseHistoryPaged, (jint)pageSize);
+    }
 
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "getPurchaseHistory", "()V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#getPurchaseHistory()");
+    std::string IAP::getSubscriptionOffers(const std::string& productId)
+    {
+        if (!initJavaBridge() || javaBridge.getSubscriptionOffers == nullptr) {
+            return "[]";
         }
+        JNIEnv* env = JniHelper::getEnv();
+        jstring jstrProductId = env->NewStringUTF(productId.c_str());
+        jstring jstrOffers = (jstring)env->CallObjectMethod(javaBridge.purchaseManager, javaBridge.getSubscriptionOffers, jstrProductId);
+        env->DeleteLocalRef(jstrProductId);
+        std::string offers = JniHelper::jstring2string(jstrOffers);
+        env->DeleteLocalRef(jstrOffers);
+        return offers;
+    }
 
-        methodInfo.env->CallVoidMethod(javaPurchaseManager, methodInfo.methodID);        
+    bool IAP::isOwned(const std::string& productId)
+    {
+        if (!initJavaBridge() || javaBridge.isOwned == nullptr) {
+            return false;
+        }
+        JNIEnv* env = JniHelper::getEnv();
+        jstring jstrProductId = env->NewStringUTF(productId.c_str());
+        jboolean owned = env->CallBooleanMethod(javaBridge.purchaseManager, javaBridge.isOwned, jstrProductId);
+        env->DeleteLocalRef(jstrProductId);
+        return owned;
+    }
+
+    std::string IAP::getToken(const std::string& productId)
+    {
+        if (!initJavaBridge() || javaBridge.getToken == nullptr) {
+            return "";
+        }
+        JNIEnv* env = JniHelper::getEnv();
+        jstring jstrProductId = env->NewStringUTF(productId.c_str());
+        jstring jstrToken = (jstring)env->CallObjectMethod(javaBridge.purchaseManager, javaBridge.getToken, jstrProductId);
+        env->DeleteLocalRef(jstrProductId);
+        std::string token = JniHelper::jstring2string(jstrToken);
+        env->DeleteLocalRef(jstrToken);
+        return token;
+    }
+
+    void IAP::watchEntitlement(const std::string& productId)
+    {
+        callPurchaseManager(javaBridge.watchEntitlement, productId);
+    }
+
+    void IAP::unwatchEntitlement(const std::string& productId)
+    {
+        callPurchaseManager(javaBridge.unwatchEntitlement, productId);
+    }
+
+    std::string IAP::getMetricsSnapshot()
+    {
+        if (!initJavaBridge() || javaBridge.getMetricsSnapshot == nullptr) {
+            return "{}";
+        }
+        JNIEnv* env = JniHelper::getEnv();
+        jstring jstrSnapshot = (jstring)env->CallObjectMethod(javaBridge.purchaseManager, javaBridge.getMetricsSnapshot);
+        std::string snapshot = JniHelper::jstring2string(jstrSnapshot);
+        env->DeleteLocalRef(jstrSnapshot);
+        return snapshot;
+    }
+
+    void IAP::setServerVerification(const std::string& endpointUrl, const std::string& userId)
+    {
+        callPurchaseManager(javaBridge.setServerVerification, endpointUrl, userId);
+    }
+
+    bool IAP::verifyPurchase(const std::string& productId, const std::string& purchaseToken)
+    {
+        if (!initJavaBridge() || javaBridge.verifyPurchase == nullptr) {
+            return false;
+        }
+        JNIEnv* env = JniHelper::getEnv();
+        jstring jstrProductId = env->NewStringUTF(productId.c_str());
+        jstring jstrToken = env->NewStringUTF(purchaseToken.c_str());
+        jboolean queued = env->CallBooleanMethod(javaBridge.purchaseManager, javaBridge.verifyPurchase, jstrProductId, jstrToken);
+        env->DeleteLocalRef(jstrProductId);
+        env->DeleteLocalRef(jstrToken);
+        return queued;
     }
 
     std::string IAP::getInitializedErrMsg()
@@ -219,13 +496,10 @@ namespace sdkbox
 
     bool IAP::isEnabled()
     {
-        jobject javaPurchaseManager = getJavaPurchaseManager();
-
-        JniMethodInfo methodInfo;
-        if (!JniHelper::getMethodInfo(methodInfo, CLASS_PURCHASE_MANAGER, "isInitialized", "()V")) {
-            CC_ASSERT("can not get method info: iap.PurchaseManager#isInitialized()");
+        if (!initJavaBridge() || javaBridge.isInitialized == nullptr) {
+            return false;
         }
 
-        return methodInfo.env->CallBooleanMethod(javaPurchaseManager, methodInfo.methodID);
+        return JniHelper::getEnv()->CallBooleanMethod(javaBridge.purchaseManager, javaBridge.isInitialized);
     }
 }
\ No newline at end of file
@@ -7,6 +7,7 @@
 #ifndef _GOOGLE_IAP_H_
 #define _GOOGLE_IAP_H_
 
+#include <cstdint>
 #include <string>
 #include <vector>
 
@@ -18,11 +19,31 @@ namespace sdkbox
         NON_CONSUMABLE
     };
 
+    /**
+     * Event topics of IAP::addListener, keep in sync with com.wrapper.iap.PurchaseEventListener
+     */
+    enum IAPEventTopic
+    {
+        IAP_TOPIC_SETUP = 1 << 0,
+        IAP_TOPIC_CATALOG = 1 << 1,
+        IAP_TOPIC_PURCHASE = 1 << 2,
+        IAP_TOPIC_CONSUME = 1 << 3,
+        IAP_TOPIC_PLAY_PASS = 1 << 4,
+        IAP_TOPIC_UNCONSUMED = 1 << 5,
+        // getPurchaseHistory and getPurchaseHistoryPaged
+        IAP_TOPIC_HISTORY = 1 << 6,
+        IAP_TOPIC_ENTITLEMENT = 1 << 7,
+        IAP_TOPIC_VERIFICATION = 1 << 8,
+        // restore, onRestored / onRestoreFailure
+        IAP_TOPIC_RESTORE = 1 << 9,
+        IAP_TOPIC_ALL = (1 << 10) - 1
+    };
+
     // Product from SDKBox In App Purchase
     struct Product
     {
         Product() : name(""), id(""), title(""), description(""),
-        priceValue(0), price(""), currencyCode(""), receiptCipheredPayload(""),
+        priceValue(0), priceMicros(0), price(""), currencyCode(""), receiptCipheredPayload(""),
         receipt(""), transactionID(""), purchaseToken("") {}
 
         // The name specified in sdkbox_config.json
@@ -43,6 +64,9 @@ namespace sdkbox
         // Price value in float
         float priceValue;
 
+        // Exact price in millionths of the currency unit, as reported by Play
+        int64_t priceMicros;
+
         // Localized price
         std::string price;
 
@@ -118,6 +142,12 @@ namespace sdkbox
 
         virtual void onPurchaseHistory(const std::string& purchases) {};
 
+        /**
+         * One page of IAP::getPurchaseHistory(pageSize), a JSON array of purchase records.
+         * Pages of a request share its requestId, the last one has last == true.
+         */
+        virtual void onPurchaseHistoryPage(int requestId, const std::string& purchases, bool last) {};
+
         /**
          * Called when consume completed, just trigger on android
          */
@@ -128,6 +158,12 @@ namespace sdkbox
          */
          virtual void onConsumeFailure(const Product& p, const std::string& errorMsg, int errorCode) = 0;
 
+        /**
+         * Called once per IAP::consume(products) batch, after onConsumed / onConsumeFailure
+         * were called for each product
+         */
+        virtual void onConsumeBatchComplete(const std::vector<Product>& consumed, const std::vector<Product>& failed) {};
+
         /**
          * Called when IAP pay deferred
          *
@@ -141,6 +177,19 @@ namespace sdkbox
         
         virtual void onPlayPassStatusUpdate(bool active, const std::string& productToken) = 0;
         virtual void onUnConsumedProductsUpdate(const std::vector<Product>& products) = 0;
+
+        /**
+         * Ownership of a product passed to IAP::watchEntitlement changed,
+         * purchaseToken is empty when it is no longer owned
+         */
+        virtual void onEntitlementChanged(const std::string& productId, bool owned, const std::string& purchaseToken) {};
+
+        /**
+         * Server verdict for a receipt uploaded by IAP::setServerVerification,
+         * status is ok, duplicate, rejected or error, result is the server's JSON result object.
+         * ok and duplicate consumables are consumed before this is called
+         */
+        virtual void onReceiptVerified(const Product& p, const std::string& status, const std::string& result) {};
     };
 
     class IAP
@@ -159,6 +208,27 @@ namespace sdkbox
         */
         static void init(const char* jsonconfig = 0);
 
+        /**
+        * Initialize without slowing down game start: the config is read and parsed off the
+        * game thread and the billing connection starts on the first billing call, prewarm(),
+        * or once the app is idle (android.iap.prewarmDelayMs after init, -1 disables it).
+        * Time from init to ready is reported as time_to_ready_ms in getMetricsSnapshot()
+        */
+        static void initDeferred();
+
+        /**
+        * Start connecting billing ahead of need, e.g. from the shop entry point
+        */
+        static void prewarm();
+
+        /**
+        * Apply the android.iap.items of a new config without re-initializing,
+        * only added products are fetched and removed ones evicted
+        *
+        * @param jsonconfig full sdkbox config json, res/sdkbox_config.json is read again when null
+        */
+        static void updateConfig(const char* jsonconfig = 0);
+
         /**
          * Initialize Play Pass
         */
@@ -182,6 +252,11 @@ namespace sdkbox
         static void purchase(const std::string& name);
         static void consume(const std::string& productId, const std::string& purchaseToken);
 
+        /**
+        * Consume several purchases in one call, uses id and purchaseToken of each product
+        */
+        static void consume(const std::vector<Product>& products);
+
         /**
         * Refresh the IAP data(title, price, description)
         */
@@ -210,6 +285,18 @@ namespace sdkbox
         */
         static void removeListener();
 
+        /**
+        * Add a listener next to the one of setListener, it only receives the events of the
+        * given IAPEventTopic flags and events without any listener are not sent over JNI.
+        * Adding the same listener again replaces its topics
+        */
+        static void addListener(IAPListener* listener, int topics = IAP_TOPIC_ALL);
+
+        /**
+        * Remove a listener added with addListener, queued events are not delivered to it
+        */
+        static void removeListener(IAPListener* listener);
+
         static void enableUserSideVerification( bool b);
 
         /**
@@ -242,6 +329,58 @@ namespace sdkbox
          */
         static void getPurchaseHistory();
 
+        /*
+         * same records as getPurchaseHistory(), streamed through onPurchaseHistoryPage
+         * in pages of at most pageSize records
+         *
+         * @return request id of the pages, -1 if IAP is not initialized
+         */
+        static int getPurchaseHistory(int pageSize);
+
+        /*
+         * every base plan, offer and pricing phase of a subscription as a JSON array,
+         * the offer purchase() buys is flagged "selected"
+         *
+         * @return "[]" if the product is not a loaded subscription
+         */
+        static std::string getSubscriptionOffers(const std::string& productId);
+
+        /*
+         * ownership from the in-memory entitlement index, no Play round trip
+         */
+        static bool isOwned(const std::string& productId);
+
+        /*
+         * @return purchase token of an owned product, empty if it is not owned
+         */
+        static std::string getToken(const std::string& productId);
+
+        /*
+         * report ownership changes of productId through IAPListener::onEntitlementChanged
+         */
+        static void watchEntitlement(const std::string& productId);
+        static void unwatchEntitlement(const std::string& productId);
+
+        /*
+         * billing latencies (p50/p90/p99/max per operation), response code counts,
+         * in-flight calls and reconnects as a flat JSON object
+         */
+        static std::string getMetricsSnapshot();
+
+        /*
+         * post receipts passed to verifyPurchase to endpointUrl in batches,
+         * see IAPListener::onReceiptVerified, an empty endpointUrl stops uploading
+         */
+        static void setServerVerification(const std::string& endpointUrl, const std::string& userId);
+
+        /*
+         * queue an unconsumed purchase for the next verification batch,
+         * unsent receipts are kept across restarts and retried with backoff
+         * @return false if the receipt was not queued (verification not set up,
+         *         no open purchase with this token), verify it another way then
+         */
+        static bool verifyPurchase(const std::string& productId, const std::string& purchaseToken);
+
         /**
          * get initialized error message
          */
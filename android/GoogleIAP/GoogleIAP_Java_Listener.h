@@ -7,6 +7,7 @@
 #include "../external/sources/json/rapidjson.h"
 #include "../external/sources/json/document-wrapper.h"
 #include <cstring>
+#include <cstdint>
 
 USING_NS_CC;
 
@@ -20,6 +21,7 @@ namespace sdkbox {
         product.description = document["description"].GetString();
         product.price = document["price"].GetString();
         product.priceValue = document["priceValue"].GetFloat();
+        product.priceMicros = document["priceMicros"].GetInt64();
         product.currencyCode = document["currencyCode"].GetString();
         product.receipt = document["receipt"].GetString();
         product.receiptCipheredPayload= document["receiptCipheredPayload"].GetString();
@@ -37,6 +39,89 @@ namespace sdkbox {
         return products;
     }
 
+    /**
+     * Reader for com.wrapper.iap.ProductWireFormat, keep both sides in sync
+     */
+    class ProductBufferReader {
+    public:
+        ProductBufferReader(const uint8_t* data, size_t length) : _data(data), _length(length), _offset(0), _ok(data != nullptr) {}
+
+        bool ok() const { return _ok; }
+
+        int32_t readInt() {
+            int32_t value = 0;
+            read(&value, sizeof(value));
+            return value;
+        }
+
+        int64_t readLong() {
+            int64_t value = 0;
+            read(&value, sizeof(value));
+            return value;
+        }
+
+        std::string readString() {
+            int32_t length = readInt();
+            if (!_ok || length < 0 || _offset + (size_t)length > _length) {
+                _ok = false;
+                return "";
+            }
+            std::string value(reinterpret_cast<const char*>(_data + _offset), (size_t)length);
+            _offset += (size_t)length;
+            return value;
+        }
+
+    private:
+        void read(void* dest, size_t size) {
+            if (!_ok || _offset + size > _length) {
+                _ok = false;
+                return;
+            }
+            std::memcpy(dest, _data + _offset, size);
+            _offset += size;
+        }
+
+        const uint8_t* _data;
+        size_t _length;
+        size_t _offset;
+        bool _ok;
+    };
+
+    bool readProductsFromBuffer(JNIEnv *env, jobject buffer, jint length, std::vector<Product>& products) {
+        auto data = static_cast<const uint8_t*>(env->GetDirectBufferAddress(buffer));
+        ProductBufferReader reader(data, (size_t)length);
+        int32_t count = reader.readInt();
+        if (count < 0) {
+            return false;
+        }
+        products.reserve((size_t)count);
+        for (int32_t i = 0; i < count && reader.ok(); ++i) {
+            Product product;
+            product.id = reader.readString();
+            product.type = reader.readString().compare(0, 10, "consumable") == 0 ? IAP_Type::CONSUMABLE : IAP_Type::NON_CONSUMABLE;
+            product.title = reader.readString();
+            product.description = reader.readString();
+            product.price = reader.readString();
+            product.currencyCode = reader.readString();
+            product.receipt = reader.readString();
+            product.receiptCipheredPayload = reader.readString();
+            product.transactionID = reader.readString();
+            product.purchaseToken = reader.readString();
+            product.priceMicros = reader.readLong();
+            product.priceValue = (float)((double)product.priceMicros / 1000000.0);
+            products.push_back(product);
+        }
+        return reader.ok();
+    }
+
+    Product readProductFromBuffer(JNIEnv *env, jobject buffer, jint length) {
+        std::vector<Product> products;
+        if (!readProductsFromBuffer(env, buffer, length, products) || products.empty()) {
+            return Product();
+        }
+        return products[0];
+    }
+
     extern "C" {
     JNIEXPORT void JNICALL
     Java_com_wrapper_iap_PurchaseEventListener_onInitialized(JNIEnv *env, jobject thiz, jlong delegate, jboolean success) {
@@ -75,6 +160,13 @@ namespace sdkbox {
         listener->onPurchaseHistory(purchaseListJsonString);
     }
 
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onPurchaseHistoryPage(JNIEnv *env, jobject thiz, jlong delegate, jint requestId, jstring purchaseListJson, jboolean last) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        auto purchaseListJsonString = JniHelper::jstring2string(purchaseListJson);
+        listener->onPurchaseHistoryPage((int)requestId, purchaseListJsonString, last == JNI_TRUE);
+    }
+
     JNIEXPORT void JNICALL
     Java_com_wrapper_iap_PurchaseEventListener_onPurchaseSuccess(JNIEnv *env, jobject thiz, jlong delegate, jstring productJson) {
         auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
@@ -122,6 +214,33 @@ namespace sdkbox {
         listener->onConsumeFailure(getProductFromJsonDoc(document), messageString, (int)responseCode);
     }
 
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onConsumeBatchComplete(JNIEnv *env, jobject thiz, jlong delegate, jstring resultListJson) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        auto resultListJsonString = JniHelper::jstring2string(resultListJson);
+        rapidjson::Document document;
+        document.Parse(resultListJsonString.c_str());
+        if (!document.IsArray()) {
+            return;
+        }
+        std::vector<Product> consumed;
+        std::vector<Product> failed;
+        for (rapidjson::Value::ConstValueIterator iterator = document.Begin(); iterator != document.End(); ++iterator) {
+            const rapidjson::Value& result = *iterator;
+            Product product = getProductFromJsonDoc(result["product"]);
+            int responseCode = result["responseCode"].GetInt();
+            // per product callbacks first, existing listeners keep working unchanged
+            if (responseCode == 0) {
+                listener->onConsumed(product);
+                consumed.push_back(product);
+            } else {
+                listener->onConsumeFailure(product, result["message"].GetString(), responseCode);
+                failed.push_back(product);
+            }
+        }
+        listener->onConsumeBatchComplete(consumed, failed);
+    }
+
     JNIEXPORT void JNICALL
     Java_com_wrapper_iap_PurchaseEventListener_onRestored(JNIEnv *env, jobject thiz, jlong delegate, jstring productJson) {
         auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
@@ -176,5 +295,87 @@ namespace sdkbox {
         document.Parse(productListJsonString.c_str());
         listener->onUnConsumedProductsUpdate(getProductsFromJsonDoc(document));
     }
+
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onEntitlementChanged(JNIEnv *env, jobject thiz, jlong delegate, jstring productId, jboolean owned, jstring purchaseToken) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        auto productIdString = JniHelper::jstring2string(productId);
+        auto purchaseTokenString = JniHelper::jstring2string(purchaseToken);
+        listener->onEntitlementChanged(productIdString, owned, purchaseTokenString);
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onReceiptVerified(JNIEnv *env, jobject thiz, jlong delegate, jstring productJson, jstring status, jstring resultJson) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        auto productJsonString = JniHelper::jstring2string(productJson);
+        auto statusString = JniHelper::jstring2string(status);
+        auto resultJsonString = JniHelper::jstring2string(resultJson);
+        rapidjson::Document document;
+        document.Parse(productJsonString.c_str());
+        listener->onReceiptVerified(getProductFromJsonDoc(document), statusString, resultJsonString);
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onProductRequestSuccessBinary(JNIEnv *env, jobject thiz, jlong delegate, jobject buffer, jint length) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        std::vector<Product> products;
+        if (!readProductsFromBuffer(env, buffer, length, products)) {
+            listener->onProductRequestFailure("product request success, but decode buffer failed!!");
+        }
+        else {
+            listener->onProductRequestSuccess(products);
+        }
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onPurchaseSuccessBinary(JNIEnv *env, jobject thiz, jlong delegate, jobject buffer, jint length) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        listener->onSuccess(readProductFromBuffer(env, buffer, length));
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onPurchaseFailureBinary(JNIEnv *env, jobject thiz, jlong delegate, jobject buffer, jint length, jint responseCode, jstring message) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        auto messageString = JniHelper::jstring2string(message);
+        listener->onFailure(readProductFromBuffer(env, buffer, length), messageString, (int)responseCode);
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onPurchaseCanceledBinary(JNIEnv *env, jobject thiz, jlong delegate, jobject buffer, jint length) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        listener->onCanceled(readProductFromBuffer(env, buffer, length));
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onConsumeSuccessBinary(JNIEnv *env, jobject thiz, jlong delegate, jobject buffer, jint length) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        listener->onConsumed(readProductFromBuffer(env, buffer, length));
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onConsumeFailureBinary(JNIEnv *env, jobject thiz, jlong delegate, jobject buffer, jint length, jint responseCode, jstring message) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        auto messageString = JniHelper::jstring2string(message);
+        listener->onConsumeFailure(readProductFromBuffer(env, buffer, length), messageString, (int)responseCode);
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onQueryPurchasesSuccessBinary(JNIEnv *env, jobject thiz, jlong delegate, jobject buffer, jint length) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        std::vector<Product> products;
+        if (!readProductsFromBuffer(env, buffer, length, products)) {
+            listener->onQueryPurchasesFailure(-1, "query purchases success, but decode buffer failed!!");
+        } else {
+            listener->onQueryPurchasesSuccess(products);
+        }
+    }
+
+    JNIEXPORT void JNICALL
+    Java_com_wrapper_iap_PurchaseEventListener_onUnConsumedProductsUpdateBinary(JNIEnv *env, jobject thiz, jlong delegate, jobject buffer, jint length) {
+        auto listener = reinterpret_cast<sdkbox::IAPListener *>(delegate);
+        std::vector<Product> products;
+        readProductsFromBuffer(env, buffer, length, products);
+        listener->onUnConsumedProductsUpdate(products);
+    }
     }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package com.wrapper.iap;
+
+import android.app.Activity;
+
+import com.android.billingclient.api.FakeBillingClient;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Brings up PurchaseManager on a FakeBillingClient. PurchaseManager is a process wide
+ * singleton: tests extend HarnessTestBase, which resets it after every test, JMH forks one
+ * JVM per benchmark.
+ */
+public final class Harness {
+    public static final long TIMEOUT_MILLIS = 10 * 1000L;
+
+    public final PurchaseManager manager;
+    public final RecordingListener listener;
+    public final FakeBillingClient.Config config;
+
+    private Harness(PurchaseManager manager, RecordingListener listener, FakeBillingClient.Config config) {
+        this.manager = manager;
+        this.listener = listener;
+        this.config = config;
+    }
+
+    /**
+     * init() the manager with the whole fake catalog and wait until it is connected
+     * @param iapSettings extra keys of android.iap, may be null
+     */
+    public static Harness start(FakeBillingClient.Config config, JSONObject iapSettings, RecordingListener listener)
+            throws InterruptedException, TimeoutException {
+        FakeBillingClient.install(config);
+        PurchaseManager.init(new Activity());
+        PurchaseManager manager = PurchaseManager.getInstance();
+        manager.setPurchaseEventListener(listener);
+        manager.init(config.sdkboxConfig(iapSettings));
+        String initialized = listener.awaitEvent("onInitialized", TIMEOUT_MILLIS).payload;
+        if (initialized != null && !Boolean.parseBoolean(initialized)) {
+            throw new IllegalStateException("billing setup failed");
+        }
+        return new Harness(manager, listener, config);
+    }
+
+    public FakeBillingClient getClient() {
+        return FakeBillingClient.getClients().get(FakeBillingClient.getClients().size() - 1);
+    }
+
+    /**
+     * Load the catalog and wait for the unconsumed purchases that follow it
+     */
+    public void loadCatalog() throws InterruptedException, TimeoutException {
+        manager.queryProductListAsync();
+        listener.awaitEvent("onUnConsumedProductsUpdate", TIMEOUT_MILLIS);
+    }
+}
@@ -0,0 +1,232 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscriber recording every event instead of calling into native code. Binary payloads
+ * are kept as "binary:&lt;length&gt;".
+ */
+public class RecordingListener extends PurchaseEventListener {
+    private static final AtomicLong sNextDelegate = new AtomicLong(1);
+
+    public static final class Event {
+        public final String name;
+        public final String payload;
+
+        Event(String name, String payload) {
+            this.name = name;
+            this.payload = payload;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + payload + ")";
+        }
+    }
+
+    private final List<Event> mEvents = new ArrayList<>();
+    // index of the next event awaitEvent() looks at, per event name
+    private final Map<String, Integer> mCursors = new HashMap<>();
+    private final boolean mRecordPayloads;
+
+    public RecordingListener() {
+        this(true);
+    }
+
+    /**
+     * @param recordPayloads false only keeps the event names, for benchmarks
+     */
+    public RecordingListener(boolean recordPayloads) {
+        super(sNextDelegate.getAndIncrement());
+        mRecordPayloads = recordPayloads;
+    }
+
+    public synchronized List<Event> getEvents() {
+        return new ArrayList<>(mEvents);
+    }
+
+    public synchronized List<Event> getEvents(String name) {
+        List<Event> events = new ArrayList<>();
+        for (Event event : mEvents) {
+            if (event.name.equals(name)) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    public synchronized void clear() {
+        mEvents.clear();
+        mCursors.clear();
+    }
+
+    /**
+     * Wait for the next event of this name that was not returned by an earlier call
+     */
+    public synchronized Event awaitEvent(String name, long timeoutMillis) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        Integer cursor = mCursors.get(name);
+        int index = cursor != null ? cursor : 0;
+        while (true) {
+            for (; index < mEvents.size(); index++) {
+                Event event = mEvents.get(index);
+                if (event.name.equals(name)) {
+                    mCursors.put(name, index + 1);
+                    return event;
+                }
+            }
+            mCursors.put(name, index);
+            long remainingMillis = (deadline - System.nanoTime()) / 1000000L;
+            if (remainingMillis <= 0) {
+                throw new TimeoutException("no " + name + " event, got " + mEvents);
+            }
+            wait(remainingMillis);
+        }
+    }
+
+    protected synchronized void record(@NonNull String name, String payload) {
+        mEvents.add(new Event(name, mRecordPayloads ? payload : null));
+        notifyAll();
+    }
+
+    private void record(@NonNull String name, ByteBuffer buffer) {
+        record(name, "binary:" + buffer.limit());
+    }
+
+    private static String describe(int responseCode, String message) {
+        return responseCode + ":" + message;
+    }
+
+    @Override
+    public void onInitialized(boolean isSuccess) {
+        record("onInitialized", String.valueOf(isSuccess));
+    }
+
+    @Override
+    void onProductRequestSuccess(String productListJson) {
+        record("onProductRequestSuccess", productListJson);
+    }
+
+    @Override
+    void onProductRequestSuccess(ByteBuffer productList) {
+        record("onProductRequestSuccess", productList);
+    }
+
+    @Override
+    void onProductRequestFailure(String message) {
+        record("onProductRequestFailure", message);
+    }
+
+    @Override
+    void onPurchaseHistoryRequestSuccess(String purchaseListJson) {
+        record("onPurchaseHistoryRequestSuccess", purchaseListJson);
+    }
+
+    @Override
+    void onPurchaseHistoryPage(int requestId, String purchaseListJson, boolean last) {
+        record("onPurchaseHistoryPage", requestId + ":" + last + ":" + purchaseListJson);
+    }
+
+    @Override
+    void onPurchaseSuccess(String productJson) {
+        record("onPurchaseSuccess", productJson);
+    }
+
+    @Override
+    void onPurchaseSuccess(ByteBuffer product) {
+        record("onPurchaseSuccess", product);
+    }
+
+    @Override
+    void onPurchaseFailure(String productJson, int responseCode, String message) {
+        record("onPurchaseFailure", describe(responseCode, message) + ":" + productJson);
+    }
+
+    @Override
+    void onPurchaseFailure(ByteBuffer product, int responseCode, String message) {
+        record("onPurchaseFailure", describe(responseCode, message) + ":binary:" + product.limit());
+    }
+
+    @Override
+    void onPurchaseCanceled(String productJson) {
+        record("onPurchaseCanceled", productJson);
+    }
+
+    @Override
+    void onPurchaseCanceled(ByteBuffer product) {
+        record("onPurchaseCanceled", product);
+    }
+
+    @Override
+    void onConsumeSuccess(String productJson) {
+        record("onConsumeSuccess", productJson);
+    }
+
+    @Override
+    void onConsumeSuccess(ByteBuffer product) {
+        record("onConsumeSuccess", product);
+    }
+
+    @Override
+    void onConsumeFailure(String productJson, int responseCode, String message) {
+        record("onConsumeFailure", describe(responseCode, message) + ":" + productJson);
+    }
+
+    @Override
+    void onConsumeFailure(ByteBuffer product, int responseCode, String message) {
+        record("onConsumeFailure", describe(responseCode, message) + ":binary:" + product.limit());
+    }
+
+    @Override
+    void onConsumeBatchComplete(String resultListJson) {
+        record("onConsumeBatchComplete", resultListJson);
+    }
+
+    @Override
+    void onQueryPurchasesSuccess(String productListJson) {
+        record("onQueryPurchasesSuccess", productListJson);
+    }
+
+    @Override
+    void onQueryPurchasesSuccess(ByteBuffer productList) {
+        record("onQueryPurchasesSuccess", productList);
+    }
+
+    @Override
+    void onQueryPurchasesFailure(int responseCode, String message) {
+        record("onQueryPurchasesFailure", describe(responseCode, message));
+    }
+
+    @Override
+    void onPlayPassStatusUpdate(boolean active, String productToken) {
+        record("onPlayPassStatusUpdate", active + ":" + productToken);
+    }
+
+    @Override
+    void onEntitlementChanged(String productId, boolean owned, String purchaseToken) {
+        record("onEntitlementChanged", productId + ":" + owned + ":" + purchaseToken);
+    }
+
+    @Override
+    void onReceiptVerified(String productJson, String status, String resultJson) {
+        record("onReceiptVerified", status + ":" + productJson);
+    }
+
+    @Override
+    void onUnConsumedProductsUpdate(String productListJson) {
+        record("onUnConsumedProductsUpdate", productListJson);
+    }
+
+    @Override
+    void onUnConsumedProductsUpdate(ByteBuffer productList) {
+        record("onUnConsumedProductsUpdate", productList);
+    }
+}
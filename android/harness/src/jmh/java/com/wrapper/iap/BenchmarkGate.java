@@ -0,0 +1,114 @@
+package com.wrapper.iap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH result file with the stored baseline and exits with 1 when a benchmark got
+ * slower than the baseline score plus the tolerance. Scores are average times, lower is better.
+ * A benchmark only fails when even the low end of its 99.9% confidence interval is over the
+ * limit, so a noisy run on a busy machine does not fail the build.
+ *
+ * Baselines are only comparable on the machine that recorded them: record a new one with
+ * -PupdateBaseline when the CI runner changes.
+ *
+ * Usage: BenchmarkGate results.json baseline.json tolerance [--update]
+ */
+public class BenchmarkGate {
+    public static void main(String[] args) throws IOException, JSONException {
+        if (args.length < 3) {
+            System.err.println("usage: BenchmarkGate results.json baseline.json tolerance [--update]");
+            System.exit(2);
+        }
+        TreeMap<String, double[]> results = readResults(new File(args[0]));
+        File baselineFile = new File(args[1]);
+        double tolerance = Double.parseDouble(args[2]);
+        boolean update = args.length > 3 && args[3].equals("--update");
+
+        if (update) {
+            // written by hand to keep the keys sorted, so baseline updates diff cleanly
+            StringBuilder baseline = new StringBuilder("{\n  \"unit\": \"us/op\",\n  \"scores\": {");
+            String separator = "\n";
+            for (String key : results.keySet()) {
+                baseline.append(separator).append("    ").append(JSONObject.quote(key))
+                        .append(String.format(Locale.ENGLISH, ": %.3f", results.get(key)[0]));
+                separator = ",\n";
+            }
+            baseline.append("\n  }\n}\n");
+            Files.write(baselineFile.toPath(), baseline.toString().getBytes(StandardCharsets.UTF_8));
+            System.out.println("baseline written: " + baselineFile + " (" + results.size() + " benchmarks)");
+            return;
+        }
+
+        JSONObject scores = new JSONObject(new String(Files.readAllBytes(baselineFile.toPath()), StandardCharsets.UTF_8))
+                .getJSONObject("scores");
+        List<String> regressions = new ArrayList<>();
+        for (String key : results.keySet()) {
+            double score = results.get(key)[0];
+            double error = results.get(key)[1];
+            if (!scores.has(key)) {
+                System.out.println(String.format(Locale.ENGLISH, "NEW   %-80s %12.3f", key, score));
+                continue;
+            }
+            double baselineScore = scores.getDouble(key);
+            double change = score / baselineScore - 1;
+            boolean regressed = score - error > baselineScore * (1 + tolerance);
+            System.out.println(String.format(Locale.ENGLISH, "%-5s %-80s %12.3f +- %-10.3f %12.3f %+7.1f%%",
+                    regressed ? "FAIL" : "OK", key, score, error, baselineScore, change * 100));
+            if (regressed) {
+                regressions.add(key);
+            }
+        }
+        for (Iterator<String> it = scores.keys(); it.hasNext(); ) {
+            String key = it.next();
+            if (!results.containsKey(key)) {
+                System.out.println("MISSING " + key);
+            }
+        }
+        if (!regressions.isEmpty()) {
+            System.err.println(String.format(Locale.ENGLISH, "%d benchmarks regressed by more than %.0f%%: %s",
+                    regressions.size(), tolerance * 100, regressions));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return {score, score error} in us/op by "benchmark:param=value,..."
+     */
+    private static TreeMap<String, double[]> readResults(File file) throws IOException, JSONException {
+        JSONArray runs = new JSONArray(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        TreeMap<String, double[]> results = new TreeMap<>();
+        for (int i = 0; i < runs.length(); i++) {
+            JSONObject run = runs.getJSONObject(i);
+            StringBuilder key = new StringBuilder(run.getString("benchmark").replace("com.wrapper.iap.", ""));
+            JSONObject params = run.optJSONObject("params");
+            if (params != null) {
+                TreeMap<String, Object> sorted = new TreeMap<>(params.toMap());
+                String separator = ":";
+                for (String name : sorted.keySet()) {
+                    key.append(separator).append(name).append('=').append(sorted.get(name));
+                    separator = ",";
+                }
+            }
+            JSONObject metric = run.getJSONObject("primaryMetric");
+            if (!metric.getString("scoreUnit").equals("us/op")) {
+                throw new IllegalStateException(key + " is in " + metric.getString("scoreUnit") + ", expected us/op");
+            }
+            // NaN with a single measurement iteration
+            double error = metric.optDouble("scoreError", 0);
+            results.put(key.toString(), new double[]{metric.getDouble("score"), Double.isNaN(error) ? 0 : error});
+        }
+        return results;
+    }
+}
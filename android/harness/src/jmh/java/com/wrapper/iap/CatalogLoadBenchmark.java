@@ -0,0 +1,48 @@
+package com.wrapper.iap;
+
+import com.android.billingclient.api.FakeBillingClient;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * queryProductListAsync() end to end: chunked product queries, catalog merge, catalog
+ * cache write and the unconsumed purchases query that follows
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 6, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogLoadBenchmark {
+    @Param({"20", "200"})
+    public int catalogSize;
+
+    private Harness mHarness;
+
+    @Setup
+    public void setUp() throws Exception {
+        // every call revalidates against Play instead of returning the cached catalog
+        JSONObject iapSettings = new JSONObject().put("catalogCacheTtl", 0);
+        mHarness = Harness.start(new FakeBillingClient.Config().catalogSize(catalogSize), iapSettings, new RecordingListener(false));
+    }
+
+    @Benchmark
+    public void loadCatalog() throws Exception {
+        mHarness.loadCatalog();
+        mHarness.listener.clear();
+    }
+}
@@ -0,0 +1,67 @@
+package com.wrapper.iap;
+
+import com.android.billingclient.api.FakeBillingClient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marshalling a product list event for the native listener, JSON string against the
+ * ProductWireFormat buffer. The JNI call itself is not part of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventMarshallingBenchmark {
+    @Param({"20", "200"})
+    public int productCount;
+
+    @Param({"json", "binary"})
+    public String transport;
+
+    private final PurchaseEventBus mEvents = new PurchaseEventBus();
+    private List<Product> mProducts;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        mProducts = new ArrayList<>();
+        for (int i = 0; i < productCount; i++) {
+            mProducts.add(Product.createFromProductDetails(FakeBillingClient.productDetails(i), FakeBillingClient.configType(i)));
+        }
+        mEvents.setBinaryTransport(transport.equals("binary"));
+        mEvents.subscribe(new RecordingListener(false) {
+            @Override
+            void onProductRequestSuccess(String productListJson) {
+                blackhole.consume(productListJson);
+            }
+
+            @Override
+            void onProductRequestSuccess(ByteBuffer productList) {
+                blackhole.consume(productList.get(productList.limit() - 1));
+            }
+        }, PurchaseEventListener.TOPIC_CATALOG);
+    }
+
+    @Benchmark
+    public void productListEvent() {
+        mEvents.onQueryProductListSuccess(mProducts);
+    }
+}
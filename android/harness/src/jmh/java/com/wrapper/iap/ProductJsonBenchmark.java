@@ -0,0 +1,62 @@
+package com.wrapper.iap;
+
+import com.android.billingclient.api.FakeBillingClient;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Product list serialization: the JSONObject tree of Product.toJson() against the
+ * streaming Product.toJsonString() the event bus uses
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductJsonBenchmark {
+    @Param({"20", "200"})
+    public int productCount;
+
+    private List<Product> mProducts;
+
+    @Setup
+    public void setUp() {
+        mProducts = new ArrayList<>();
+        for (int i = 0; i < productCount; i++) {
+            // purchased products carry the receipt, the largest field
+            mProducts.add(Product.createFromProductDetails(FakeBillingClient.productDetails(i), FakeBillingClient.configType(i))
+                    .withPurchase("GPA.3300-0000-0000-" + i, "{\"purchaseToken\":\"token_" + i + "\",\"productId\":\"product_" + i + "\"}",
+                            "signature_" + i, "token_" + i));
+        }
+    }
+
+    @Benchmark
+    public String toJsonTree() throws Exception {
+        JSONArray json = new JSONArray();
+        for (Product product : mProducts) {
+            json.put(product.toJson());
+        }
+        return json.toString();
+    }
+
+    @Benchmark
+    public String toJsonStream() throws Exception {
+        return Product.toJsonString(mProducts);
+    }
+}
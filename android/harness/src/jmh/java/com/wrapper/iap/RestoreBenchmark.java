@@ -0,0 +1,49 @@
+package com.wrapper.iap;
+
+import com.android.billingclient.api.FakeBillingClient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * queryPurchases() with N owned purchases, the snapshot cache is off so every call queries Play
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 6, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RestoreBenchmark {
+    @Param({"10", "100"})
+    public int ownedPurchases;
+
+    private Harness mHarness;
+
+    @Setup
+    public void setUp() throws Exception {
+        FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(50).ownedPurchases(ownedPurchases);
+        mHarness = Harness.start(config, null, new RecordingListener(false));
+        mHarness.loadCatalog();
+        mHarness.manager.setPurchasesCacheWindow(0);
+        mHarness.listener.clear();
+    }
+
+    @Benchmark
+    public void restore() throws Exception {
+        mHarness.manager.queryPurchases();
+        mHarness.listener.awaitEvent("onQueryPurchasesSuccess", Harness.TIMEOUT_MILLIS);
+        mHarness.listener.clear();
+    }
+}
@@ -0,0 +1,176 @@
+// Cost of a GoogleIAP.cpp call into PurchaseManager with and without the cached JavaBridge.
+//
+// "uncached" repeats what every IAP call did before the bridge: JniHelper's class lookup
+// through the app ClassLoader, getInstance(), GetMethodID, the call and the local ref
+// cleanup. "cached" is the bridge's path: one call on global refs and stored method ids.
+//
+// Runs the harness classes in an embedded JVM, see the jniBenchmark task in build.gradle.
+// Usage: JniLookupBenchmark <classpath> [calls per round]
+
+#include <jni.h>
+
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <string>
+#include <vector>
+
+namespace {
+
+const char* CLASS_PURCHASE_MANAGER = "com.wrapper.iap.PurchaseManager";
+const int ROUNDS = 7;
+
+JNIEnv* env = nullptr;
+// what JniHelper caches at startup
+jobject classLoader = nullptr;
+jmethodID loadClassMethod = nullptr;
+
+// what the bridge caches on first use
+jclass purchaseManagerClass = nullptr;
+jobject purchaseManager = nullptr;
+jmethodID isInitializedMethod = nullptr;
+jmethodID isOwnedMethod = nullptr;
+
+void check(bool ok, const char* what) {
+    if (!ok || env->ExceptionCheck()) {
+        if (env->ExceptionCheck()) {
+            env->ExceptionDescribe();
+        }
+        std::fprintf(stderr, "failed: %s\n", what);
+        std::exit(1);
+    }
+}
+
+// JniHelper::getStaticMethodInfo / getMethodInfo: ClassLoader.loadClass, then the method id
+jclass loadClass(const char* className) {
+    jstring name = env->NewStringUTF(className);
+    jclass clazz = (jclass)env->CallObjectMethod(classLoader, loadClassMethod, name);
+    env->DeleteLocalRef(name);
+    return clazz;
+}
+
+jobject uncachedManager(jclass* clazz) {
+    *clazz = loadClass(CLASS_PURCHASE_MANAGER);
+    jmethodID getInstance = env->GetStaticMethodID(*clazz, "getInstance", "()Lcom/wrapper/iap/PurchaseManager;");
+    return env->CallStaticObjectMethod(*clazz, getInstance);
+}
+
+bool isInitializedUncached() {
+    jclass clazz;
+    jobject manager = uncachedManager(&clazz);
+    jclass methodClass = loadClass(CLASS_PURCHASE_MANAGER);
+    jmethodID method = env->GetMethodID(methodClass, "isInitialized", "()Z");
+    bool result = env->CallBooleanMethod(manager, method);
+    env->DeleteLocalRef(methodClass);
+    env->DeleteLocalRef(manager);
+    env->DeleteLocalRef(clazz);
+    return result;
+}
+
+bool isInitializedCached() {
+    return env->CallBooleanMethod(purchaseManager, isInitializedMethod);
+}
+
+bool isOwnedUncached(const std::string& productId) {
+    jclass clazz;
+    jobject manager = uncachedManager(&clazz);
+    jclass methodClass = loadClass(CLASS_PURCHASE_MANAGER);
+    jmethodID method = env->GetMethodID(methodClass, "isOwned", "(Ljava/lang/String;)Z");
+    jstring jProductId = env->NewStringUTF(productId.c_str());
+    bool result = env->CallBooleanMethod(manager, method, jProductId);
+    env->DeleteLocalRef(jProductId);
+    env->DeleteLocalRef(methodClass);
+    env->DeleteLocalRef(manager);
+    env->DeleteLocalRef(clazz);
+    return result;
+}
+
+bool isOwnedCached(const std::string& productId) {
+    jstring jProductId = env->NewStringUTF(productId.c_str());
+    bool result = env->CallBooleanMethod(purchaseManager, isOwnedMethod, jProductId);
+    env->DeleteLocalRef(jProductId);
+    return result;
+}
+
+template <typename Call>
+void run(const char* name, long calls, Call call) {
+    long sink = 0;
+    // warm up the JIT on the Java side
+    for (long i = 0; i < calls / 4; i++) {
+        sink += call();
+    }
+    std::vector<double> nanosPerCall;
+    for (int round = 0; round < ROUNDS; round++) {
+        auto start = std::chrono::steady_clock::now();
+        for (long i = 0; i < calls; i++) {
+            sink += call();
+        }
+        auto elapsed = std::chrono::steady_clock::now() - start;
+        nanosPerCall.push_back(std::chrono::duration<double, std::nano>(elapsed).count() / calls);
+    }
+    check(true, name);
+    std::sort(nanosPerCall.begin(), nanosPerCall.end());
+    std::printf("%-24s median %9.1f ns/call   min %9.1f   max %9.1f   (%ld)\n",
+                name, nanosPerCall[ROUNDS / 2], nanosPerCall.front(), nanosPerCall.back(), sink % 2);
+}
+
+} // namespace
+
+int main(int argc, char** argv) {
+    if (argc < 2) {
+        std::fprintf(stderr, "usage: %s <classpath> [calls per round]\n", argv[0]);
+        return 2;
+    }
+    long calls = argc > 2 ? std::atol(argv[2]) : 200000;
+
+    std::string classPath = std::string("-Djava.class.path=") + argv[1];
+    JavaVMOption options[1];
+    options[0].optionString = const_cast<char*>(classPath.c_str());
+    JavaVMInitArgs vmArgs;
+    vmArgs.version = JNI_VERSION_1_8;
+    vmArgs.nOptions = 1;
+    vmArgs.options = options;
+    vmArgs.ignoreUnrecognized = JNI_FALSE;
+    JavaVM* vm = nullptr;
+    if (JNI_CreateJavaVM(&vm, (void**)&env, &vmArgs) != JNI_OK) {
+        std::fprintf(stderr, "JNI_CreateJavaVM failed\n");
+        return 1;
+    }
+
+    // PurchaseManager.init(new Activity())
+    jclass activityClass = env->FindClass("android/app/Activity");
+    check(activityClass != nullptr, "android.app.Activity");
+    jobject activity = env->NewObject(activityClass, env->GetMethodID(activityClass, "<init>", "()V"));
+    jclass managerClass = env->FindClass("com/wrapper/iap/PurchaseManager");
+    check(managerClass != nullptr, "com.wrapper.iap.PurchaseManager");
+    env->CallStaticVoidMethod(managerClass, env->GetStaticMethodID(managerClass, "init", "(Landroid/app/Activity;)V"), activity);
+    check(true, "PurchaseManager.init(Activity)");
+
+    // JniHelper keeps the app ClassLoader, class lookups from native threads go through it
+    jclass classClass = env->FindClass("java/lang/Class");
+    jobject loader = env->CallObjectMethod(managerClass, env->GetMethodID(classClass, "getClassLoader", "()Ljava/lang/ClassLoader;"));
+    classLoader = env->NewGlobalRef(loader);
+    jclass classLoaderClass = env->FindClass("java/lang/ClassLoader");
+    loadClassMethod = env->GetMethodID(classLoaderClass, "loadClass", "(Ljava/lang/String;)Ljava/lang/Class;");
+    check(loadClassMethod != nullptr, "ClassLoader.loadClass");
+
+    // initJavaBridge()
+    jclass clazz;
+    jobject manager = uncachedManager(&clazz);
+    check(manager != nullptr, "getInstance()");
+    purchaseManagerClass = (jclass)env->NewGlobalRef(clazz);
+    purchaseManager = env->NewGlobalRef(manager);
+    isInitializedMethod = env->GetMethodID(purchaseManagerClass, "isInitialized", "()Z");
+    isOwnedMethod = env->GetMethodID(purchaseManagerClass, "isOwned", "(Ljava/lang/String;)Z");
+    check(isInitializedMethod != nullptr && isOwnedMethod != nullptr, "method ids");
+
+    const std::string productId = "product_1";
+    run("isInitialized uncached", calls, []() { return isInitializedUncached(); });
+    run("isInitialized cached", calls, []() { return isInitializedCached(); });
+    run("isOwned uncached", calls, [&productId]() { return isOwnedUncached(productId); });
+    run("isOwned cached", calls, [&productId]() { return isOwnedCached(productId); });
+
+    vm->DestroyJavaVM();
+    return 0;
+}
@@ -0,0 +1,38 @@
+package android.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Files go to a fresh temp directory per activity, override getFilesDir() to simulate a
+ * restart on the same storage
+ */
+public class Activity extends Context {
+    private File mFilesDir;
+
+    @Override
+    public synchronized File getFilesDir() {
+        if (mFilesDir == null) {
+            try {
+                mFilesDir = Files.createTempDirectory("iap-harness").toFile();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            mFilesDir.deleteOnExit();
+        }
+        return mFilesDir;
+    }
+
+    public final void runOnUiThread(Runnable action) {
+        if (Looper.getMainLooper().isCurrentThread()) {
+            action.run();
+        } else {
+            new Handler(Looper.getMainLooper()).post(action);
+        }
+    }
+}
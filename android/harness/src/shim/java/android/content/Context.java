@@ -0,0 +1,11 @@
+package android.content;
+
+import java.io.File;
+
+public abstract class Context {
+    public abstract File getFilesDir();
+
+    public Context getApplicationContext() {
+        return this;
+    }
+}
@@ -0,0 +1,45 @@
+package android.os;
+
+public class Handler {
+    private final Looper mLooper;
+
+    public Handler(Looper looper) {
+        if (looper == null) {
+            throw new NullPointerException("looper");
+        }
+        mLooper = looper;
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+
+    public final boolean post(Runnable r) {
+        return postAtTime(r, SystemClock.uptimeMillis());
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return postAtTime(r, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+    public final boolean postAtTime(Runnable r, long uptimeMillis) {
+        mLooper.mQueue.enqueue(this, r, null, uptimeMillis);
+        return true;
+    }
+
+    public final boolean postAtTime(Runnable r, Object token, long uptimeMillis) {
+        mLooper.mQueue.enqueue(this, r, token, uptimeMillis);
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        mLooper.mQueue.remove(this, r, null);
+    }
+
+    /**
+     * @param token null removes every message of this handler
+     */
+    public final void removeCallbacksAndMessages(Object token) {
+        mLooper.mQueue.remove(this, null, token);
+    }
+}
@@ -0,0 +1,57 @@
+package android.os;
+
+/**
+ * The main looper is a daemon thread named "main" started on first use. The thread that
+ * calls into PurchaseManager plays the game thread.
+ */
+public final class Looper {
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<>();
+    private static Looper sMainLooper;
+
+    final MessageQueue mQueue = new MessageQueue();
+    private Thread mThread;
+
+    private Looper() {
+    }
+
+    public static synchronized Looper getMainLooper() {
+        if (sMainLooper == null) {
+            final Looper looper = new Looper();
+            looper.mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sThreadLocal.set(looper);
+                    looper.mQueue.loop();
+                }
+            }, "main");
+            looper.mThread.setDaemon(true);
+            sMainLooper = looper;
+            looper.mThread.start();
+        }
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    public static MessageQueue myQueue() {
+        Looper looper = myLooper();
+        if (looper == null) {
+            throw new IllegalStateException("not called on a looper thread");
+        }
+        return looper.mQueue;
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    public MessageQueue getQueue() {
+        return mQueue;
+    }
+
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == mThread;
+    }
+}
@@ -0,0 +1,135 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Messages run in uptime order, ties in posting order. Idle handlers run once each time the
+ * queue runs out of due messages. An exception thrown by a message goes to the looper
+ * thread's uncaught exception handler and the loop carries on.
+ */
+public final class MessageQueue {
+    public interface IdleHandler {
+        /**
+         * @return true to keep the handler for the next idle period
+         */
+        boolean queueIdle();
+    }
+
+    private static class Message implements Comparable<Message> {
+        final Handler target;
+        final Runnable callback;
+        final Object token;
+        final long when;
+        final long sequence;
+
+        Message(Handler target, Runnable callback, Object token, long when, long sequence) {
+            this.target = target;
+            this.callback = callback;
+            this.token = token;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            if (when != other.when) {
+                return when < other.when ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Message> mMessages = new PriorityQueue<>();
+    private final List<IdleHandler> mIdleHandlers = new ArrayList<>();
+    private long mNextSequence = 0;
+    // idle handlers already ran since the last message
+    private boolean mIdleDispatched = false;
+
+    MessageQueue() {
+    }
+
+    public void addIdleHandler(IdleHandler handler) {
+        synchronized (this) {
+            mIdleHandlers.add(handler);
+            mIdleDispatched = false;
+            notifyAll();
+        }
+    }
+
+    public void removeIdleHandler(IdleHandler handler) {
+        synchronized (this) {
+            mIdleHandlers.remove(handler);
+        }
+    }
+
+    /**
+     * @return true if no message is due
+     */
+    public synchronized boolean isIdle() {
+        Message head = mMessages.peek();
+        return head == null || head.when > SystemClock.uptimeMillis();
+    }
+
+    synchronized void enqueue(Handler target, Runnable callback, Object token, long when) {
+        mMessages.add(new Message(target, callback, token, when, mNextSequence++));
+        notifyAll();
+    }
+
+    /**
+     * @param callback null matches every callback
+     * @param token null matches every token
+     */
+    synchronized void remove(Handler target, Runnable callback, Object token) {
+        for (Iterator<Message> it = mMessages.iterator(); it.hasNext(); ) {
+            Message message = it.next();
+            if (message.target == target && (callback == null || message.callback == callback)
+                    && (token == null || message.token == token)) {
+                it.remove();
+            }
+        }
+    }
+
+    void loop() {
+        while (true) {
+            Runnable next = null;
+            List<IdleHandler> idleHandlers = null;
+            synchronized (this) {
+                long now = SystemClock.uptimeMillis();
+                Message head = mMessages.peek();
+                if (head != null && head.when <= now) {
+                    mMessages.poll();
+                    next = head.callback;
+                    mIdleDispatched = false;
+                } else if (!mIdleDispatched && !mIdleHandlers.isEmpty()) {
+                    mIdleDispatched = true;
+                    idleHandlers = new ArrayList<>(mIdleHandlers);
+                } else {
+                    try {
+                        wait(head == null ? 0 : head.when - now);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+
+            try {
+                if (next != null) {
+                    next.run();
+                } else {
+                    for (IdleHandler handler : idleHandlers) {
+                        if (!handler.queueIdle()) {
+                            removeIdleHandler(handler);
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package android.os;
+
+/**
+ * Both clocks run on System.nanoTime(), the harness never sleeps the device
+ */
+public final class SystemClock {
+    private static final long ORIGIN_NANOS = System.nanoTime();
+
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return elapsedRealtimeNanos() / 1000000L;
+    }
+
+    public static long elapsedRealtime() {
+        return elapsedRealtimeNanos() / 1000000L;
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return System.nanoTime() - ORIGIN_NANOS;
+    }
+}
@@ -0,0 +1,43 @@
+package android.util;
+
+import java.nio.charset.StandardCharsets;
+
+public final class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int URL_SAFE = 8;
+
+    private Base64() {
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return decode(str.getBytes(StandardCharsets.US_ASCII), flags);
+    }
+
+    public static byte[] decode(byte[] input, int flags) {
+        // the MIME decoder skips line breaks like the Android one
+        return (flags & URL_SAFE) != 0 ? java.util.Base64.getUrlDecoder().decode(input) : java.util.Base64.getMimeDecoder().decode(input);
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return new String(encode(input, flags), StandardCharsets.US_ASCII);
+    }
+
+    public static byte[] encode(byte[] input, int flags) {
+        java.util.Base64.Encoder encoder = (flags & URL_SAFE) != 0 ? java.util.Base64.getUrlEncoder() : java.util.Base64.getEncoder();
+        if ((flags & NO_PADDING) != 0) {
+            encoder = encoder.withoutPadding();
+        }
+        byte[] encoded = encoder.encode(input);
+        if ((flags & NO_WRAP) != 0) {
+            return encoded;
+        }
+        // Android wraps at 76 columns and ends with a line break
+        StringBuilder wrapped = new StringBuilder();
+        for (int from = 0; from < encoded.length; from += 76) {
+            wrapped.append(new String(encoded, from, Math.min(76, encoded.length - from), StandardCharsets.US_ASCII)).append('\n');
+        }
+        return wrapped.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
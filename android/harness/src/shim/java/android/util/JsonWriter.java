@@ -0,0 +1,92 @@
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Same contract as the Android class, backed by the Gson streaming writer
+ */
+public final class JsonWriter implements Closeable {
+    private final com.google.gson.stream.JsonWriter mWriter;
+
+    public JsonWriter(Writer out) {
+        mWriter = new com.google.gson.stream.JsonWriter(out);
+    }
+
+    public void setIndent(String indent) {
+        mWriter.setIndent(indent);
+    }
+
+    public void setLenient(boolean lenient) {
+        mWriter.setLenient(lenient);
+    }
+
+    public boolean isLenient() {
+        return mWriter.isLenient();
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        mWriter.beginArray();
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        mWriter.endArray();
+        return this;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        mWriter.beginObject();
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        mWriter.endObject();
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        mWriter.name(name);
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        mWriter.value(value);
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        mWriter.nullValue();
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        mWriter.value(value);
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        mWriter.value(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        mWriter.value(value);
+        return this;
+    }
+
+    public JsonWriter value(Number value) throws IOException {
+        mWriter.value(value);
+        return this;
+    }
+
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+}
@@ -0,0 +1,62 @@
+package android.util;
+
+/**
+ * Quiet unless the harness runs with -Dharness.log=true, so failure injection does not
+ * flood test and benchmark output
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private static final boolean ENABLED = Boolean.getBoolean("harness.log");
+
+    private Log() {
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        return ENABLED;
+    }
+
+    public static int v(String tag, String msg) {
+        return println(VERBOSE, tag, msg, null);
+    }
+
+    public static int d(String tag, String msg) {
+        return println(DEBUG, tag, msg, null);
+    }
+
+    public static int i(String tag, String msg) {
+        return println(INFO, tag, msg, null);
+    }
+
+    public static int w(String tag, String msg) {
+        return println(WARN, tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return println(WARN, tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return println(ERROR, tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println(ERROR, tag, msg, tr);
+    }
+
+    private static int println(int level, String tag, String msg, Throwable tr) {
+        if (!ENABLED) {
+            return 0;
+        }
+        String line = "VDIWE".charAt(level - VERBOSE) + "/" + tag + " [" + Thread.currentThread().getName() + "]: " + msg;
+        System.err.println(line);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+        return line.length();
+    }
+}
@@ -0,0 +1,23 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.Nullable;
+
+public final class AccountIdentifiers {
+    private final String mObfuscatedAccountId;
+    private final String mObfuscatedProfileId;
+
+    AccountIdentifiers(@Nullable String obfuscatedAccountId, @Nullable String obfuscatedProfileId) {
+        mObfuscatedAccountId = obfuscatedAccountId;
+        mObfuscatedProfileId = obfuscatedProfileId;
+    }
+
+    @Nullable
+    public String getObfuscatedAccountId() {
+        return mObfuscatedAccountId;
+    }
+
+    @Nullable
+    public String getObfuscatedProfileId() {
+        return mObfuscatedProfileId;
+    }
+}
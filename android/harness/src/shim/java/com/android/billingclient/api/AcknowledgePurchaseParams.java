@@ -0,0 +1,40 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+
+public final class AcknowledgePurchaseParams {
+    private String mPurchaseToken;
+
+    @NonNull
+    public String getPurchaseToken() {
+        return mPurchaseToken;
+    }
+
+    @NonNull
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private String mPurchaseToken;
+
+        private Builder() {
+        }
+
+        @NonNull
+        public Builder setPurchaseToken(@NonNull String purchaseToken) {
+            mPurchaseToken = purchaseToken;
+            return this;
+        }
+
+        @NonNull
+        public AcknowledgePurchaseParams build() {
+            if (mPurchaseToken == null) {
+                throw new IllegalArgumentException("Purchase token must be set");
+            }
+            AcknowledgePurchaseParams params = new AcknowledgePurchaseParams();
+            params.mPurchaseToken = mPurchaseToken;
+            return params;
+        }
+    }
+}
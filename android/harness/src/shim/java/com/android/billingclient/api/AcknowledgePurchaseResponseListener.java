@@ -0,0 +1,7 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+
+public interface AcknowledgePurchaseResponseListener {
+    void onAcknowledgePurchaseResponse(@NonNull BillingResult billingResult);
+}
@@ -0,0 +1,96 @@
+package com.android.billingclient.api;
+
+import android.app.Activity;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The part of the Play Billing 5.1 API the wrapper uses. build() hands out a
+ * FakeBillingClient running the config passed to FakeBillingClient.install().
+ */
+public abstract class BillingClient {
+    public @interface ProductType {
+        String INAPP = "inapp";
+        String SUBS = "subs";
+    }
+
+    public @interface BillingResponseCode {
+        int SERVICE_TIMEOUT = -3;
+        int FEATURE_NOT_SUPPORTED = -2;
+        int SERVICE_DISCONNECTED = -1;
+        int OK = 0;
+        int USER_CANCELED = 1;
+        int SERVICE_UNAVAILABLE = 2;
+        int BILLING_UNAVAILABLE = 3;
+        int ITEM_UNAVAILABLE = 4;
+        int DEVELOPER_ERROR = 5;
+        int ERROR = 6;
+        int ITEM_ALREADY_OWNED = 7;
+        int ITEM_NOT_OWNED = 8;
+    }
+
+    public @interface ConnectionState {
+        int DISCONNECTED = 0;
+        int CONNECTING = 1;
+        int CONNECTED = 2;
+        int CLOSED = 3;
+    }
+
+    @NonNull
+    public static Builder newBuilder(@NonNull Context context) {
+        return new Builder();
+    }
+
+    public abstract boolean isReady();
+
+    public abstract int getConnectionState();
+
+    public abstract void startConnection(@NonNull BillingClientStateListener listener);
+
+    public abstract void endConnection();
+
+    public abstract void queryProductDetailsAsync(@NonNull QueryProductDetailsParams params, @NonNull ProductDetailsResponseListener listener);
+
+    public abstract void queryPurchasesAsync(@NonNull QueryPurchasesParams params, @NonNull PurchasesResponseListener listener);
+
+    public abstract void queryPurchaseHistoryAsync(@NonNull QueryPurchaseHistoryParams params, @NonNull PurchaseHistoryResponseListener listener);
+
+    @NonNull
+    public abstract BillingResult launchBillingFlow(@NonNull Activity activity, @NonNull BillingFlowParams params);
+
+    public abstract void consumeAsync(@NonNull ConsumeParams params, @NonNull ConsumeResponseListener listener);
+
+    public abstract void acknowledgePurchase(@NonNull AcknowledgePurchaseParams params, @NonNull AcknowledgePurchaseResponseListener listener);
+
+    public static final class Builder {
+        private PurchasesUpdatedListener mListener;
+        private boolean mPendingPurchasesEnabled;
+
+        private Builder() {
+        }
+
+        @NonNull
+        public Builder setListener(@NonNull PurchasesUpdatedListener listener) {
+            mListener = listener;
+            return this;
+        }
+
+        @NonNull
+        public Builder enablePendingPurchases() {
+            mPendingPurchasesEnabled = true;
+            return this;
+        }
+
+        @NonNull
+        public BillingClient build() {
+            if (mListener == null) {
+                throw new IllegalArgumentException("Please provide a valid listener for purchases updates.");
+            }
+            if (!mPendingPurchasesEnabled) {
+                throw new IllegalArgumentException("Support for pending purchases must be enabled.");
+            }
+            return FakeBillingClient.create(mListener);
+        }
+    }
+}
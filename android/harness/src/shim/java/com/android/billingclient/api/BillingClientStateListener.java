@@ -0,0 +1,9 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+
+public interface BillingClientStateListener {
+    void onBillingSetupFinished(@NonNull BillingResult billingResult);
+
+    void onBillingServiceDisconnected();
+}
@@ -0,0 +1,121 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class BillingFlowParams {
+    private List<ProductDetailsParams> mProductDetailsParamsList;
+    private String mObfuscatedAccountId;
+    private String mObfuscatedProfileId;
+
+    // read by FakeBillingClient
+    List<ProductDetailsParams> getProductDetailsParamsList() {
+        return mProductDetailsParamsList;
+    }
+
+    String getObfuscatedAccountId() {
+        return mObfuscatedAccountId;
+    }
+
+    String getObfuscatedProfileId() {
+        return mObfuscatedProfileId;
+    }
+
+    @NonNull
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private List<ProductDetailsParams> mProductDetailsParamsList;
+        private String mObfuscatedAccountId;
+        private String mObfuscatedProfileId;
+
+        private Builder() {
+        }
+
+        @NonNull
+        public Builder setProductDetailsParamsList(@NonNull List<ProductDetailsParams> productDetailsParamsList) {
+            mProductDetailsParamsList = new ArrayList<>(productDetailsParamsList);
+            return this;
+        }
+
+        @NonNull
+        public Builder setObfuscatedAccountId(@NonNull String obfuscatedAccountId) {
+            mObfuscatedAccountId = obfuscatedAccountId;
+            return this;
+        }
+
+        @NonNull
+        public Builder setObfuscatedProfileId(@NonNull String obfuscatedProfileId) {
+            mObfuscatedProfileId = obfuscatedProfileId;
+            return this;
+        }
+
+        @NonNull
+        public BillingFlowParams build() {
+            if (mProductDetailsParamsList == null || mProductDetailsParamsList.isEmpty()) {
+                throw new IllegalArgumentException("Details of the products must be provided");
+            }
+            BillingFlowParams params = new BillingFlowParams();
+            params.mProductDetailsParamsList = mProductDetailsParamsList;
+            params.mObfuscatedAccountId = mObfuscatedAccountId;
+            params.mObfuscatedProfileId = mObfuscatedProfileId;
+            return params;
+        }
+    }
+
+    public static final class ProductDetailsParams {
+        private ProductDetails mProductDetails;
+        private String mOfferToken;
+
+        ProductDetails getProductDetails() {
+            return mProductDetails;
+        }
+
+        String getOfferToken() {
+            return mOfferToken;
+        }
+
+        @NonNull
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        public static final class Builder {
+            private ProductDetails mProductDetails;
+            private String mOfferToken;
+
+            private Builder() {
+            }
+
+            @NonNull
+            public Builder setProductDetails(@NonNull ProductDetails productDetails) {
+                mProductDetails = productDetails;
+                return this;
+            }
+
+            @NonNull
+            public Builder setOfferToken(@NonNull String offerToken) {
+                mOfferToken = offerToken;
+                return this;
+            }
+
+            @NonNull
+            public ProductDetailsParams build() {
+                if (mProductDetails == null) {
+                    throw new NullPointerException("ProductDetails is required");
+                }
+                if (BillingClient.ProductType.SUBS.equals(mProductDetails.getProductType()) && mOfferToken == null) {
+                    throw new NullPointerException("offerToken is required for subscriptions");
+                }
+                ProductDetailsParams params = new ProductDetailsParams();
+                params.mProductDetails = mProductDetails;
+                params.mOfferToken = mOfferToken;
+                return params;
+            }
+        }
+    }
+}
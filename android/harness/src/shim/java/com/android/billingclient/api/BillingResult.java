@@ -0,0 +1,50 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+
+public final class BillingResult {
+    private int mResponseCode;
+    private String mDebugMessage = "";
+
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    @NonNull
+    public String getDebugMessage() {
+        return mDebugMessage;
+    }
+
+    @NonNull
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private int mResponseCode;
+        private String mDebugMessage = "";
+
+        private Builder() {
+        }
+
+        @NonNull
+        public Builder setResponseCode(int responseCode) {
+            mResponseCode = responseCode;
+            return this;
+        }
+
+        @NonNull
+        public Builder setDebugMessage(@NonNull String debugMessage) {
+            mDebugMessage = debugMessage;
+            return this;
+        }
+
+        @NonNull
+        public BillingResult build() {
+            BillingResult billingResult = new BillingResult();
+            billingResult.mResponseCode = mResponseCode;
+            billingResult.mDebugMessage = mDebugMessage;
+            return billingResult;
+        }
+    }
+}
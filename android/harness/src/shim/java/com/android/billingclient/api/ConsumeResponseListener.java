@@ -0,0 +1,7 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+
+public interface ConsumeResponseListener {
+    void onConsumeResponse(@NonNull BillingResult billingResult, @NonNull String purchaseToken);
+}
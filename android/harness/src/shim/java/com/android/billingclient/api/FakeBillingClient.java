@@ -0,0 +1,664 @@
+package com.android.billingclient.api;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deterministic in-process Play Billing for tests and benchmarks.
+ *
+ * The catalog holds product_0 .. product_{catalogSize - 1}: every tenth product is a
+ * subscription with a base plan and a free trial offer, every tenth a non-consumable and
+ * the rest are consumables. The user starts out owning {@code ownedPurchases} in-app
+ * purchases and has {@code historyRecords} history records per product type. A billing
+ * flow buys the product right away, consume and acknowledge update the owned purchases.
+ *
+ * Every callback is delivered asynchronously after {@code latencyMillis}, on a pool of
+ * "billing" threads or, like the real library, on the main looper. Failures are injected
+ * per call with a seeded random, or for every product query that asks for a failing id.
+ * Calls made while the client is not connected fail with SERVICE_DISCONNECTED.
+ */
+public class FakeBillingClient extends BillingClient {
+    public static final String PACKAGE_NAME = "com.wrapper.iap.harness";
+
+    public static final class Config {
+        private int mCatalogSize = 20;
+        private long mLatencyMillis = 0;
+        private int mOwnedPurchases = 0;
+        private int mHistoryRecords = 0;
+        private int mSetupResponseCode = BillingResponseCode.OK;
+        private int mPurchaseResponseCode = BillingResponseCode.OK;
+        private double mFailureRate = 0;
+        private int mFailureResponseCode = BillingResponseCode.SERVICE_UNAVAILABLE;
+        private final Set<String> mFailingProductIds = new HashSet<>();
+        private int mFailingAcknowledges = 0;
+        private int mAcknowledgeFailureCode = BillingResponseCode.ERROR;
+        private long mSeed = 1;
+        private boolean mCallbacksOnMainThread = false;
+
+        public Config catalogSize(int catalogSize) {
+            mCatalogSize = catalogSize;
+            return this;
+        }
+
+        public Config latencyMillis(long latencyMillis) {
+            mLatencyMillis = latencyMillis;
+            return this;
+        }
+
+        public Config ownedPurchases(int ownedPurchases) {
+            mOwnedPurchases = ownedPurchases;
+            return this;
+        }
+
+        public Config historyRecords(int historyRecords) {
+            mHistoryRecords = historyRecords;
+            return this;
+        }
+
+        public Config setupResponseCode(int responseCode) {
+            mSetupResponseCode = responseCode;
+            return this;
+        }
+
+        /**
+         * Result of every billing flow, e.g. USER_CANCELED
+         */
+        public Config purchaseResponseCode(int responseCode) {
+            mPurchaseResponseCode = responseCode;
+            return this;
+        }
+
+        /**
+         * @param failureRate share of queries, consumes and acknowledges that fail with responseCode
+         */
+        public Config failureRate(double failureRate, int responseCode) {
+            mFailureRate = failureRate;
+            mFailureResponseCode = responseCode;
+            return this;
+        }
+
+        /**
+         * Product queries that ask for this id fail with the failure response code
+         */
+        public Config failingProduct(String productId) {
+            mFailingProductIds.add(productId);
+            return this;
+        }
+
+        /**
+         * The first count acknowledges of each client fail with responseCode
+         */
+        public Config failingAcknowledges(int count, int responseCode) {
+            mFailingAcknowledges = count;
+            mAcknowledgeFailureCode = responseCode;
+            return this;
+        }
+
+        public Config seed(long seed) {
+            mSeed = seed;
+            return this;
+        }
+
+        public Config callbacksOnMainThread(boolean callbacksOnMainThread) {
+            mCallbacksOnMainThread = callbacksOnMainThread;
+            return this;
+        }
+
+        public int getCatalogSize() {
+            return mCatalogSize;
+        }
+
+        /**
+         * sdkbox_config.json configuring the whole catalog
+         * @param iapSettings extra keys of android.iap, may be null
+         */
+        public String sdkboxConfig(@Nullable JSONObject iapSettings) {
+            try {
+                JSONObject items = new JSONObject();
+                for (int i = 0; i < mCatalogSize; i++) {
+                    JSONObject item = new JSONObject();
+                    item.put("id", productId(i));
+                    item.put("type", configType(i));
+                    items.put("item_" + i, item);
+                }
+                JSONObject iap = iapSettings != null ? new JSONObject(iapSettings.toString()) : new JSONObject();
+                iap.put("key", "");
+                iap.put("items", items);
+                return new JSONObject().put("android", new JSONObject().put("iap", iap)).toString();
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final ScheduledExecutorService sExecutor = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "billing-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static volatile Config sConfig = new Config();
+    private static final List<FakeBillingClient> sClients = new CopyOnWriteArrayList<>();
+
+    private final Config mConfig;
+    private final PurchasesUpdatedListener mPurchasesUpdatedListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom;
+    // productId => ProductDetails JSON
+    private final Map<String, String> mCatalog = new LinkedHashMap<>();
+    // purchaseToken => owned purchase, per product type
+    private final Map<String, Purchase> mOwnedInApp = new LinkedHashMap<>();
+    private final Map<String, Purchase> mOwnedSubs = new LinkedHashMap<>();
+    private final List<PurchaseHistoryRecord> mInAppHistory = new ArrayList<>();
+    private final List<PurchaseHistoryRecord> mSubsHistory = new ArrayList<>();
+    private int mConnectionState = ConnectionState.DISCONNECTED;
+    private BillingClientStateListener mStateListener;
+    private int mNextPurchase = 0;
+
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mProductQueryCount = new AtomicInteger();
+    private final AtomicInteger mPurchasesQueryCount = new AtomicInteger();
+    private final AtomicInteger mHistoryQueryCount = new AtomicInteger();
+    private final AtomicInteger mBillingFlowCount = new AtomicInteger();
+    private final AtomicInteger mConsumeCount = new AtomicInteger();
+    private final AtomicInteger mAcknowledgeCount = new AtomicInteger();
+
+    /**
+     * Config of every client built from now on
+     */
+    public static void install(@NonNull Config config) {
+        sConfig = config;
+        sClients.clear();
+    }
+
+    /**
+     * End every client built so far and go back to the default config, between test scenarios
+     */
+    public static void reset() {
+        for (FakeBillingClient client : sClients) {
+            client.endConnection();
+        }
+        sClients.clear();
+        sConfig = new Config();
+    }
+
+    /**
+     * @return clients built since the last install(), oldest first
+     */
+    public static List<FakeBillingClient> getClients() {
+        return new ArrayList<>(sClients);
+    }
+
+    static FakeBillingClient create(PurchasesUpdatedListener listener) {
+        FakeBillingClient client = new FakeBillingClient(sConfig, listener);
+        sClients.add(client);
+        return client;
+    }
+
+    public static String productId(int index) {
+        return "product_" + index;
+    }
+
+    /**
+     * @return sdkbox item type of the product: consumable, non_consumable or subs
+     */
+    public static String configType(int index) {
+        switch (index % 10) {
+            case 9:
+                return "subs";
+            case 8:
+                return "non_consumable";
+            default:
+                return "consumable";
+        }
+    }
+
+    /**
+     * Play ProductDetails JSON of catalog product index
+     */
+    public static String productJson(int index) {
+        try {
+            String type = configType(index);
+            JSONObject json = new JSONObject();
+            json.put("productId", productId(index));
+            json.put("type", type.equals("subs") ? ProductType.SUBS : ProductType.INAPP);
+            json.put("title", "Product " + index + " (Harness Game)");
+            json.put("name", "Product " + index);
+            json.put("description", "Description of product " + index);
+            json.put("localizedIn", new JSONArray().put("en-US"));
+            json.put("skuDetailsToken", "details_token_" + index);
+            if (type.equals("subs")) {
+                long recurringMicros = 4990000L + 1000000L * (index % 3);
+                JSONArray offers = new JSONArray();
+                offers.put(offerJson(index, null, new JSONArray().put(phaseJson(recurringMicros, "P1M", 1, 0))));
+                offers.put(offerJson(index, "trial", new JSONArray()
+                        .put(phaseJson(0, "P1W", 2, 1))
+                        .put(phaseJson(recurringMicros, "P1M", 1, 0))));
+                json.put("subscriptionOfferDetails", offers);
+            } else {
+                long priceMicros = 990000L * (1 + index % 5);
+                JSONObject oneTime = new JSONObject();
+                oneTime.put("priceAmountMicros", priceMicros);
+                oneTime.put("priceCurrencyCode", "USD");
+                oneTime.put("formattedPrice", formatPrice(priceMicros));
+                json.put("oneTimePurchaseOfferDetails", oneTime);
+            }
+            return json.toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * ProductDetails of catalog product index, as queryProductDetailsAsync() returns them
+     */
+    public static ProductDetails productDetails(int index) {
+        try {
+            return new ProductDetails(productJson(index));
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static JSONObject offerJson(int index, @Nullable String offerId, JSONArray phases) throws JSONException {
+        JSONObject offer = new JSONObject();
+        offer.put("basePlanId", "monthly");
+        if (offerId != null) {
+            offer.put("offerId", offerId);
+            offer.put("offerTags", new JSONArray().put(offerId));
+        } else {
+            offer.put("offerTags", new JSONArray());
+        }
+        offer.put("offerIdToken", "offer_token_" + index + "_" + (offerId != null ? offerId : "base"));
+        offer.put("pricingPhases", phases);
+        return offer;
+    }
+
+    private static JSONObject phaseJson(long priceMicros, String billingPeriod, int recurrenceMode, int billingCycleCount) throws JSONException {
+        JSONObject phase = new JSONObject();
+        phase.put("priceAmountMicros", priceMicros);
+        phase.put("priceCurrencyCode", "USD");
+        phase.put("formattedPrice", priceMicros == 0 ? "Free" : formatPrice(priceMicros));
+        phase.put("billingPeriod", billingPeriod);
+        phase.put("recurrenceMode", recurrenceMode);
+        phase.put("billingCycleCount", billingCycleCount);
+        return phase;
+    }
+
+    private static String formatPrice(long priceMicros) {
+        return String.format(Locale.US, "$%.2f", priceMicros / 1000000.0);
+    }
+
+    private FakeBillingClient(Config config, PurchasesUpdatedListener listener) {
+        mConfig = config;
+        mPurchasesUpdatedListener = listener;
+        mRandom = new Random(config.mSeed);
+
+        List<Integer> inAppProducts = new ArrayList<>();
+        List<Integer> subsProducts = new ArrayList<>();
+        for (int i = 0; i < config.mCatalogSize; i++) {
+            mCatalog.put(productId(i), productJson(i));
+            (configType(i).equals("subs") ? subsProducts : inAppProducts).add(i);
+        }
+        for (int i = 0; i < config.mOwnedPurchases && !inAppProducts.isEmpty(); i++) {
+            int index = inAppProducts.get(i % inAppProducts.size());
+            // unconsumed consumables were never acknowledged, non-consumables were
+            Purchase purchase = newPurchase(productId(index), "owned_token_" + i, !configType(index).equals("consumable"), null);
+            mOwnedInApp.put(purchase.getPurchaseToken(), purchase);
+        }
+        for (int i = 0; i < config.mHistoryRecords; i++) {
+            if (!inAppProducts.isEmpty()) {
+                // the newest records are the owned purchases, the stream has to deduplicate them
+                String token = i < config.mOwnedPurchases ? "owned_token_" + i : "history_token_" + i;
+                mInAppHistory.add(newHistoryRecord(productId(inAppProducts.get(i % inAppProducts.size())), token, i));
+            }
+            if (!subsProducts.isEmpty()) {
+                mSubsHistory.add(newHistoryRecord(productId(subsProducts.get(i % subsProducts.size())), "subs_history_token_" + i, i));
+            }
+        }
+    }
+
+    private static Purchase newPurchase(String productId, String purchaseToken, boolean acknowledged, @Nullable String accountId) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("orderId", "GPA.3300-0000-0000-" + Math.abs(purchaseToken.hashCode() % 100000));
+            json.put("packageName", PACKAGE_NAME);
+            json.put("productId", productId);
+            json.put("purchaseTime", 1700000000000L + Math.abs(purchaseToken.hashCode() % 1000000));
+            json.put("purchaseState", 0);
+            json.put("purchaseToken", purchaseToken);
+            json.put("quantity", 1);
+            json.put("acknowledged", acknowledged);
+            if (accountId != null) {
+                json.put("obfuscatedAccountId", accountId);
+            }
+            return new Purchase(json.toString(), "signature_" + purchaseToken);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static PurchaseHistoryRecord newHistoryRecord(String productId, String purchaseToken, int index) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("productId", productId);
+            json.put("purchaseToken", purchaseToken);
+            json.put("purchaseTime", 1600000000000L + index * 1000L);
+            json.put("quantity", 1);
+            json.put("developerPayload", "");
+            return new PurchaseHistoryRecord(json.toString(), "signature_" + purchaseToken);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public int getProductQueryCount() {
+        return mProductQueryCount.get();
+    }
+
+    public int getPurchasesQueryCount() {
+        return mPurchasesQueryCount.get();
+    }
+
+    public int getHistoryQueryCount() {
+        return mHistoryQueryCount.get();
+    }
+
+    public int getBillingFlowCount() {
+        return mBillingFlowCount.get();
+    }
+
+    public int getConsumeCount() {
+        return mConsumeCount.get();
+    }
+
+    public int getAcknowledgeCount() {
+        return mAcknowledgeCount.get();
+    }
+
+    /**
+     * @return owned in-app purchases, oldest first
+     */
+    public synchronized List<Purchase> getOwnedPurchases() {
+        return new ArrayList<>(mOwnedInApp.values());
+    }
+
+    /**
+     * The Play service went away, the client reports it like the real one
+     */
+    public void simulateServiceDisconnected() {
+        final BillingClientStateListener listener;
+        synchronized (this) {
+            if (mConnectionState != ConnectionState.CONNECTED) {
+                return;
+            }
+            mConnectionState = ConnectionState.DISCONNECTED;
+            listener = mStateListener;
+        }
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                listener.onBillingServiceDisconnected();
+            }
+        });
+    }
+
+    @Override
+    public synchronized boolean isReady() {
+        return mConnectionState == ConnectionState.CONNECTED;
+    }
+
+    @Override
+    public synchronized int getConnectionState() {
+        return mConnectionState;
+    }
+
+    @Override
+    public void startConnection(@NonNull final BillingClientStateListener listener) {
+        synchronized (this) {
+            if (mConnectionState == ConnectionState.CONNECTED) {
+                deliver(listener, BillingResponseCode.OK);
+                return;
+            }
+            mConnectionState = ConnectionState.CONNECTING;
+            mStateListener = listener;
+        }
+        mConnectionCount.incrementAndGet();
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (FakeBillingClient.this) {
+                    if (mConnectionState != ConnectionState.CONNECTING) {
+                        // ended meanwhile
+                        return;
+                    }
+                    mConnectionState = mConfig.mSetupResponseCode == BillingResponseCode.OK ? ConnectionState.CONNECTED : ConnectionState.DISCONNECTED;
+                }
+                listener.onBillingSetupFinished(result(mConfig.mSetupResponseCode));
+            }
+        });
+    }
+
+    private void deliver(final BillingClientStateListener listener, final int responseCode) {
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                listener.onBillingSetupFinished(result(responseCode));
+            }
+        });
+    }
+
+    @Override
+    public synchronized void endConnection() {
+        mConnectionState = ConnectionState.CLOSED;
+    }
+
+    @Override
+    public void queryProductDetailsAsync(@NonNull QueryProductDetailsParams params, @NonNull final ProductDetailsResponseListener listener) {
+        mProductQueryCount.incrementAndGet();
+        int responseCode = check();
+        final List<ProductDetails> productDetailsList = new ArrayList<>();
+        for (QueryProductDetailsParams.Product product : params.getProductList()) {
+            if (mConfig.mFailingProductIds.contains(product.getProductId())) {
+                responseCode = mConfig.mFailureResponseCode;
+            }
+            String json = mCatalog.get(product.getProductId());
+            if (json == null) {
+                continue;
+            }
+            try {
+                ProductDetails productDetails = new ProductDetails(json);
+                if (productDetails.getProductType().equals(product.getProductType())) {
+                    productDetailsList.add(productDetails);
+                }
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        final int finalResponseCode = responseCode;
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                listener.onProductDetailsResponse(result(finalResponseCode),
+                        finalResponseCode == BillingResponseCode.OK ? productDetailsList : Collections.<ProductDetails>emptyList());
+            }
+        });
+    }
+
+    @Override
+    public void queryPurchasesAsync(@NonNull QueryPurchasesParams params, @NonNull final PurchasesResponseListener listener) {
+        mPurchasesQueryCount.incrementAndGet();
+        final int responseCode = check();
+        final List<Purchase> purchases;
+        synchronized (this) {
+            purchases = new ArrayList<>((ProductType.SUBS.equals(params.getProductType()) ? mOwnedSubs : mOwnedInApp).values());
+        }
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                listener.onQueryPurchasesResponse(result(responseCode),
+                        responseCode == BillingResponseCode.OK ? purchases : Collections.<Purchase>emptyList());
+            }
+        });
+    }
+
+    @Override
+    public void queryPurchaseHistoryAsync(@NonNull QueryPurchaseHistoryParams params, @NonNull final PurchaseHistoryResponseListener listener) {
+        mHistoryQueryCount.incrementAndGet();
+        final int responseCode = check();
+        final List<PurchaseHistoryRecord> records = ProductType.SUBS.equals(params.getProductType()) ? mSubsHistory : mInAppHistory;
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                listener.onPurchaseHistoryResponse(result(responseCode), responseCode == BillingResponseCode.OK ? records : null);
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    public BillingResult launchBillingFlow(@NonNull Activity activity, @NonNull BillingFlowParams params) {
+        mBillingFlowCount.incrementAndGet();
+        if (!isReady()) {
+            return result(BillingResponseCode.SERVICE_DISCONNECTED);
+        }
+        final int responseCode = mConfig.mPurchaseResponseCode;
+        final List<Purchase> purchases = new ArrayList<>();
+        if (responseCode == BillingResponseCode.OK) {
+            ProductDetails productDetails = params.getProductDetailsParamsList().get(0).getProductDetails();
+            synchronized (this) {
+                Purchase purchase = newPurchase(productDetails.getProductId(), "purchase_token_" + mNextPurchase++, false, params.getObfuscatedAccountId());
+                (ProductType.SUBS.equals(productDetails.getProductType()) ? mOwnedSubs : mOwnedInApp).put(purchase.getPurchaseToken(), purchase);
+                purchases.add(purchase);
+            }
+        }
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                mPurchasesUpdatedListener.onPurchasesUpdated(result(responseCode), responseCode == BillingResponseCode.OK ? purchases : null);
+            }
+        });
+        return result(BillingResponseCode.OK);
+    }
+
+    @Override
+    public void consumeAsync(@NonNull final ConsumeParams params, @NonNull final ConsumeResponseListener listener) {
+        mConsumeCount.incrementAndGet();
+        int responseCode = check();
+        if (responseCode == BillingResponseCode.OK) {
+            synchronized (this) {
+                responseCode = mOwnedInApp.remove(params.getPurchaseToken()) != null ? BillingResponseCode.OK : BillingResponseCode.ITEM_NOT_OWNED;
+            }
+        }
+        final int finalResponseCode = responseCode;
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                listener.onConsumeResponse(result(finalResponseCode), params.getPurchaseToken());
+            }
+        });
+    }
+
+    @Override
+    public void acknowledgePurchase(@NonNull AcknowledgePurchaseParams params, @NonNull final AcknowledgePurchaseResponseListener listener) {
+        int responseCode = mAcknowledgeCount.incrementAndGet() <= mConfig.mFailingAcknowledges
+                ? mConfig.mAcknowledgeFailureCode : check();
+        if (responseCode == BillingResponseCode.OK) {
+            synchronized (this) {
+                responseCode = acknowledge(mOwnedInApp, params.getPurchaseToken()) || acknowledge(mOwnedSubs, params.getPurchaseToken())
+                        ? BillingResponseCode.OK : BillingResponseCode.ITEM_NOT_OWNED;
+            }
+        }
+        final int finalResponseCode = responseCode;
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                listener.onAcknowledgePurchaseResponse(result(finalResponseCode));
+            }
+        });
+    }
+
+    // caller holds the lock
+    private static boolean acknowledge(Map<String, Purchase> owned, String purchaseToken) {
+        for (Iterator<Map.Entry<String, Purchase>> it = owned.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Purchase> entry = it.next();
+            if (!entry.getKey().equals(purchaseToken)) {
+                continue;
+            }
+            Purchase purchase = entry.getValue();
+            AccountIdentifiers accountIdentifiers = purchase.getAccountIdentifiers();
+            entry.setValue(newPurchase(purchase.getProducts().get(0), purchaseToken, true,
+                    accountIdentifiers != null ? accountIdentifiers.getObfuscatedAccountId() : null));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return response code of a call made now, SERVICE_DISCONNECTED when not connected
+     */
+    private int check() {
+        if (!isReady()) {
+            return BillingResponseCode.SERVICE_DISCONNECTED;
+        }
+        if (mConfig.mFailureRate > 0) {
+            synchronized (mRandom) {
+                if (mRandom.nextDouble() < mConfig.mFailureRate) {
+                    return mConfig.mFailureResponseCode;
+                }
+            }
+        }
+        return BillingResponseCode.OK;
+    }
+
+    private static BillingResult result(int responseCode) {
+        return BillingResult.newBuilder()
+                .setResponseCode(responseCode)
+                .setDebugMessage(responseCode == BillingResponseCode.OK ? "" : "injected by FakeBillingClient")
+                .build();
+    }
+
+    private void deliver(Runnable callback) {
+        if (mConfig.mCallbacksOnMainThread) {
+            mMainHandler.postDelayed(callback, mConfig.mLatencyMillis);
+        } else if (mConfig.mLatencyMillis > 0) {
+            sExecutor.schedule(callback, mConfig.mLatencyMillis, TimeUnit.MILLISECONDS);
+        } else {
+            sExecutor.execute(callback);
+        }
+    }
+}
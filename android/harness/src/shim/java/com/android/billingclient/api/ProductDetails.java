@@ -0,0 +1,231 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parsed from the product JSON like the Play library does, see FakeBillingClient.productJson()
+ */
+public final class ProductDetails {
+    public @interface RecurrenceMode {
+        int INFINITE_RECURRING = 1;
+        int FINITE_RECURRING = 2;
+        int NON_RECURRING = 3;
+    }
+
+    private final String mJsonString;
+    private final String mProductId;
+    private final String mProductType;
+    private final String mTitle;
+    private final String mName;
+    private final String mDescription;
+    private final OneTimePurchaseOfferDetails mOneTimePurchaseOfferDetails;
+    private final List<SubscriptionOfferDetails> mSubscriptionOfferDetails;
+
+    ProductDetails(@NonNull String jsonString) throws JSONException {
+        mJsonString = jsonString;
+        JSONObject json = new JSONObject(jsonString);
+        mProductId = json.getString("productId");
+        mProductType = json.getString("type");
+        mTitle = json.optString("title");
+        mName = json.optString("name");
+        mDescription = json.optString("description");
+        JSONObject oneTime = json.optJSONObject("oneTimePurchaseOfferDetails");
+        mOneTimePurchaseOfferDetails = oneTime != null ? new OneTimePurchaseOfferDetails(oneTime) : null;
+        JSONArray offers = json.optJSONArray("subscriptionOfferDetails");
+        if (offers != null) {
+            List<SubscriptionOfferDetails> offerDetails = new ArrayList<>();
+            for (int i = 0; i < offers.length(); i++) {
+                offerDetails.add(new SubscriptionOfferDetails(offers.getJSONObject(i)));
+            }
+            mSubscriptionOfferDetails = offerDetails;
+        } else {
+            mSubscriptionOfferDetails = null;
+        }
+    }
+
+    @NonNull
+    public String getProductId() {
+        return mProductId;
+    }
+
+    @NonNull
+    public String getProductType() {
+        return mProductType;
+    }
+
+    @NonNull
+    public String getTitle() {
+        return mTitle;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    @NonNull
+    public String getDescription() {
+        return mDescription;
+    }
+
+    @Nullable
+    public OneTimePurchaseOfferDetails getOneTimePurchaseOfferDetails() {
+        return mOneTimePurchaseOfferDetails;
+    }
+
+    @Nullable
+    public List<SubscriptionOfferDetails> getSubscriptionOfferDetails() {
+        return mSubscriptionOfferDetails;
+    }
+
+    @Override
+    public String toString() {
+        return "ProductDetails{jsonString='" + mJsonString + "'}";
+    }
+
+    public static final class OneTimePurchaseOfferDetails {
+        private final String mFormattedPrice;
+        private final long mPriceAmountMicros;
+        private final String mPriceCurrencyCode;
+
+        OneTimePurchaseOfferDetails(JSONObject json) {
+            mFormattedPrice = json.optString("formattedPrice");
+            mPriceAmountMicros = json.optLong("priceAmountMicros");
+            mPriceCurrencyCode = json.optString("priceCurrencyCode");
+        }
+
+        @NonNull
+        public String getFormattedPrice() {
+            return mFormattedPrice;
+        }
+
+        public long getPriceAmountMicros() {
+            return mPriceAmountMicros;
+        }
+
+        @NonNull
+        public String getPriceCurrencyCode() {
+            return mPriceCurrencyCode;
+        }
+    }
+
+    public static final class SubscriptionOfferDetails {
+        private final String mBasePlanId;
+        private final String mOfferId;
+        private final String mOfferToken;
+        private final List<String> mOfferTags;
+        private final PricingPhases mPricingPhases;
+
+        SubscriptionOfferDetails(JSONObject json) throws JSONException {
+            mBasePlanId = json.optString("basePlanId");
+            String offerId = json.optString("offerId");
+            mOfferId = offerId.isEmpty() ? null : offerId;
+            mOfferToken = json.getString("offerIdToken");
+            List<String> tags = new ArrayList<>();
+            JSONArray offerTags = json.optJSONArray("offerTags");
+            if (offerTags != null) {
+                for (int i = 0; i < offerTags.length(); i++) {
+                    tags.add(offerTags.getString(i));
+                }
+            }
+            mOfferTags = Collections.unmodifiableList(tags);
+            mPricingPhases = new PricingPhases(json.getJSONArray("pricingPhases"));
+        }
+
+        @NonNull
+        public String getBasePlanId() {
+            return mBasePlanId;
+        }
+
+        @Nullable
+        public String getOfferId() {
+            return mOfferId;
+        }
+
+        @NonNull
+        public String getOfferToken() {
+            return mOfferToken;
+        }
+
+        @NonNull
+        public List<String> getOfferTags() {
+            return mOfferTags;
+        }
+
+        @NonNull
+        public PricingPhases getPricingPhases() {
+            return mPricingPhases;
+        }
+    }
+
+    public static class PricingPhases {
+        private final List<PricingPhase> mPricingPhaseList;
+
+        PricingPhases(JSONArray json) throws JSONException {
+            List<PricingPhase> phases = new ArrayList<>();
+            for (int i = 0; i < json.length(); i++) {
+                phases.add(new PricingPhase(json.getJSONObject(i)));
+            }
+            mPricingPhaseList = Collections.unmodifiableList(phases);
+        }
+
+        @NonNull
+        public List<PricingPhase> getPricingPhaseList() {
+            return mPricingPhaseList;
+        }
+    }
+
+    public static final class PricingPhase {
+        private final String mFormattedPrice;
+        private final long mPriceAmountMicros;
+        private final String mPriceCurrencyCode;
+        private final String mBillingPeriod;
+        private final int mBillingCycleCount;
+        private final int mRecurrenceMode;
+
+        PricingPhase(JSONObject json) {
+            mFormattedPrice = json.optString("formattedPrice");
+            mPriceAmountMicros = json.optLong("priceAmountMicros");
+            mPriceCurrencyCode = json.optString("priceCurrencyCode");
+            mBillingPeriod = json.optString("billingPeriod");
+            mBillingCycleCount = json.optInt("billingCycleCount");
+            mRecurrenceMode = json.optInt("recurrenceMode");
+        }
+
+        @NonNull
+        public String getFormattedPrice() {
+            return mFormattedPrice;
+        }
+
+        public long getPriceAmountMicros() {
+            return mPriceAmountMicros;
+        }
+
+        @NonNull
+        public String getPriceCurrencyCode() {
+            return mPriceCurrencyCode;
+        }
+
+        @NonNull
+        public String getBillingPeriod() {
+            return mBillingPeriod;
+        }
+
+        public int getBillingCycleCount() {
+            return mBillingCycleCount;
+        }
+
+        public int getRecurrenceMode() {
+            return mRecurrenceMode;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsed from the purchase JSON like the Play library does
+ */
+public class Purchase {
+    public @interface PurchaseState {
+        int UNSPECIFIED_STATE = 0;
+        int PURCHASED = 1;
+        int PENDING = 2;
+    }
+
+    private final String mOriginalJson;
+    private final String mSignature;
+    private final JSONObject mParsedJson;
+
+    public Purchase(@NonNull String jsonPurchaseInfo, @NonNull String signature) throws JSONException {
+        mOriginalJson = jsonPurchaseInfo;
+        mSignature = signature;
+        mParsedJson = new JSONObject(jsonPurchaseInfo);
+    }
+
+    @NonNull
+    public List<String> getProducts() {
+        List<String> products = new ArrayList<>();
+        JSONArray productIds = mParsedJson.optJSONArray("productIds");
+        if (productIds != null) {
+            for (int i = 0; i < productIds.length(); i++) {
+                products.add(productIds.optString(i));
+            }
+        } else if (mParsedJson.has("productId")) {
+            products.add(mParsedJson.optString("productId"));
+        }
+        return products;
+    }
+
+    @Nullable
+    public String getOrderId() {
+        String orderId = mParsedJson.optString("orderId");
+        return orderId.isEmpty() ? null : orderId;
+    }
+
+    @NonNull
+    public String getPackageName() {
+        return mParsedJson.optString("packageName");
+    }
+
+    public long getPurchaseTime() {
+        return mParsedJson.optLong("purchaseTime");
+    }
+
+    @NonNull
+    public String getPurchaseToken() {
+        return mParsedJson.optString("token", mParsedJson.optString("purchaseToken"));
+    }
+
+    public int getPurchaseState() {
+        switch (mParsedJson.optInt("purchaseState", 1)) {
+            case 0:
+                return PurchaseState.PURCHASED;
+            case 4:
+                return PurchaseState.PENDING;
+            default:
+                return PurchaseState.UNSPECIFIED_STATE;
+        }
+    }
+
+    public int getQuantity() {
+        return mParsedJson.optInt("quantity", 1);
+    }
+
+    public boolean isAcknowledged() {
+        return mParsedJson.optBoolean("acknowledged", true);
+    }
+
+    public boolean isAutoRenewing() {
+        return mParsedJson.optBoolean("autoRenewing");
+    }
+
+    @NonNull
+    public String getOriginalJson() {
+        return mOriginalJson;
+    }
+
+    @NonNull
+    public String getSignature() {
+        return mSignature;
+    }
+
+    @Nullable
+    public AccountIdentifiers getAccountIdentifiers() {
+        String accountId = mParsedJson.optString("obfuscatedAccountId", null);
+        String profileId = mParsedJson.optString("obfuscatedProfileId", null);
+        if (accountId == null && profileId == null) {
+            return null;
+        }
+        return new AccountIdentifiers(accountId, profileId);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Purchase)) {
+            return false;
+        }
+        Purchase purchase = (Purchase) other;
+        return mOriginalJson.equals(purchase.mOriginalJson) && mSignature.equals(purchase.mSignature);
+    }
+
+    @Override
+    public int hashCode() {
+        return mOriginalJson.hashCode();
+    }
+}
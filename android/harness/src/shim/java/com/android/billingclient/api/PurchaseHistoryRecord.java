@@ -0,0 +1,59 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PurchaseHistoryRecord {
+    private final String mOriginalJson;
+    private final String mSignature;
+    private final JSONObject mParsedJson;
+
+    public PurchaseHistoryRecord(@NonNull String jsonPurchaseInfo, @NonNull String signature) throws JSONException {
+        mOriginalJson = jsonPurchaseInfo;
+        mSignature = signature;
+        mParsedJson = new JSONObject(jsonPurchaseInfo);
+    }
+
+    @NonNull
+    public List<String> getProducts() {
+        List<String> products = new ArrayList<>();
+        JSONArray productIds = mParsedJson.optJSONArray("productIds");
+        if (productIds != null) {
+            for (int i = 0; i < productIds.length(); i++) {
+                products.add(productIds.optString(i));
+            }
+        } else if (mParsedJson.has("productId")) {
+            products.add(mParsedJson.optString("productId"));
+        }
+        return products;
+    }
+
+    public long getPurchaseTime() {
+        return mParsedJson.optLong("purchaseTime");
+    }
+
+    @NonNull
+    public String getPurchaseToken() {
+        return mParsedJson.optString("token", mParsedJson.optString("purchaseToken"));
+    }
+
+    public int getQuantity() {
+        return mParsedJson.optInt("quantity", 1);
+    }
+
+    @NonNull
+    public String getOriginalJson() {
+        return mOriginalJson;
+    }
+
+    @NonNull
+    public String getSignature() {
+        return mSignature;
+    }
+}
@@ -0,0 +1,10 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+public interface PurchaseHistoryResponseListener {
+    void onPurchaseHistoryResponse(@NonNull BillingResult billingResult, @Nullable List<PurchaseHistoryRecord> purchaseHistoryRecords);
+}
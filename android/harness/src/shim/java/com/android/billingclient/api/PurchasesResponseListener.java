@@ -0,0 +1,9 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+
+public interface PurchasesResponseListener {
+    void onQueryPurchasesResponse(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases);
+}
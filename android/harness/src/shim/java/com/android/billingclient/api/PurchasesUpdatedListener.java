@@ -0,0 +1,10 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+public interface PurchasesUpdatedListener {
+    void onPurchasesUpdated(@NonNull BillingResult billingResult, @Nullable List<Purchase> purchases);
+}
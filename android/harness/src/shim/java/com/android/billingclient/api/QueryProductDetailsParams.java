@@ -0,0 +1,98 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class QueryProductDetailsParams {
+    private List<Product> mProductList;
+
+    // read by FakeBillingClient
+    List<Product> getProductList() {
+        return mProductList;
+    }
+
+    @NonNull
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private List<Product> mProductList;
+
+        private Builder() {
+        }
+
+        @NonNull
+        public Builder setProductList(@NonNull List<Product> productList) {
+            mProductList = new ArrayList<>(productList);
+            return this;
+        }
+
+        @NonNull
+        public QueryProductDetailsParams build() {
+            if (mProductList == null || mProductList.isEmpty()) {
+                throw new IllegalArgumentException("Product list cannot be empty");
+            }
+            String productType = mProductList.get(0).mProductType;
+            for (Product product : mProductList) {
+                if (!product.mProductType.equals(productType)) {
+                    throw new IllegalArgumentException("All products should be of the same product type");
+                }
+            }
+            QueryProductDetailsParams params = new QueryProductDetailsParams();
+            params.mProductList = mProductList;
+            return params;
+        }
+    }
+
+    public static final class Product {
+        private String mProductId;
+        private String mProductType;
+
+        String getProductId() {
+            return mProductId;
+        }
+
+        String getProductType() {
+            return mProductType;
+        }
+
+        @NonNull
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        public static final class Builder {
+            private String mProductId;
+            private String mProductType;
+
+            private Builder() {
+            }
+
+            @NonNull
+            public Builder setProductId(@NonNull String productId) {
+                mProductId = productId;
+                return this;
+            }
+
+            @NonNull
+            public Builder setProductType(@NonNull String productType) {
+                mProductType = productType;
+                return this;
+            }
+
+            @NonNull
+            public Product build() {
+                if (mProductId == null || mProductType == null) {
+                    throw new IllegalArgumentException("Product id and type must be set");
+                }
+                Product product = new Product();
+                product.mProductId = mProductId;
+                product.mProductType = mProductType;
+                return product;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.android.billingclient.api;
+
+import androidx.annotation.NonNull;
+
+public final class QueryPurchasesParams {
+    private String mProductType;
+
+    // read by FakeBillingClient
+    String getProductType() {
+        return mProductType;
+    }
+
+    @NonNull
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private String mProductType;
+
+        private Builder() {
+        }
+
+        @NonNull
+        public Builder setProductType(@NonNull String productType) {
+            mProductType = productType;
+            return this;
+        }
+
+        @NonNull
+        public QueryPurchasesParams build() {
+            if (mProductType == null) {
+                throw new IllegalArgumentException("Product type must be set");
+            }
+            QueryPurchasesParams params = new QueryPurchasesParams();
+            params.mProductType = mProductType;
+            return params;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.wrapper.iap;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.FakeBillingClient;
+import com.android.billingclient.api.ProductDetails;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Catalog refreshes, config updates, purchases, consumes, restores and lifecycle calls from
+ * several threads at once, while a reader checks every CatalogState it can grab
+ */
+public class ConcurrencyStressTest extends HarnessTestBase {
+    private static final int CATALOG_SIZE = 30;
+    private static final long DURATION_MILLIS = 3000;
+
+    private final List<String> mViolations = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void catalogStateIsNeverTorn() throws Exception {
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable e) {
+                mViolations.add("uncaught on " + thread.getName() + ": " + e);
+            }
+        });
+        final FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(CATALOG_SIZE)
+                .latencyMillis(1).failureRate(0.05, BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE);
+        final Harness harness = start(config, new JSONObject().put("catalogCacheTtl", 0).put("queryChunkSize", 7));
+        harness.loadCatalog();
+        harness.manager.setPurchasesCacheWindow(0);
+
+        final String fullConfig = config.sdkboxConfig(null);
+        final String reducedConfig = withItems(fullConfig, 0, CATALOG_SIZE - 10);
+        // product_8 turns from non_consumable into consumable
+        JSONObject retyped = new JSONObject(fullConfig);
+        retyped.getJSONObject("android").getJSONObject("iap").getJSONObject("items")
+                .put("item_8", new JSONObject().put("id", "product_8").put("type", "consumable"));
+        final String retypedConfig = retyped.toString();
+        // product_7 moves from INAPP to SUBS and product_9 the other way, while purchases and
+        // restores of both are running; Play has no details of either under its new type
+        JSONObject moved = new JSONObject(fullConfig);
+        moved.getJSONObject("android").getJSONObject("iap").getJSONObject("items")
+                .put("item_7", new JSONObject().put("id", "product_7").put("type", "subs"))
+                .put("item_9", new JSONObject().put("id", "product_9").put("type", "consumable"));
+        final String movedConfig = moved.toString();
+
+        final long deadline = System.currentTimeMillis() + DURATION_MILLIS;
+        final CountDownLatch done = new CountDownLatch(6);
+        start("refresh", done, deadline, new Action() {
+            @Override
+            public void run(Random random) {
+                harness.manager.queryProductListAsync();
+            }
+        });
+        start("config", done, deadline, new Action() {
+            @Override
+            public void run(Random random) {
+                String[] configs = {fullConfig, reducedConfig, retypedConfig, movedConfig};
+                harness.manager.updateSkuConfig(configs[random.nextInt(configs.length)]);
+            }
+        });
+        start("purchase", done, deadline, new Action() {
+            @Override
+            public void run(Random random) {
+                // every other purchase hits one of the products moving between INAPP and SUBS
+                int index = random.nextBoolean() ? random.nextInt(CATALOG_SIZE) : 7 + 2 * random.nextInt(2);
+                harness.manager.purchase(FakeBillingClient.productId(index));
+            }
+        });
+        start("query", done, deadline, new Action() {
+            @Override
+            public void run(Random random) {
+                if (random.nextBoolean()) {
+                    harness.manager.queryPurchases();
+                } else {
+                    harness.manager.getPurchaseHistory();
+                }
+            }
+        });
+        start("lifecycle", done, deadline, new Action() {
+            @Override
+            public void run(Random random) {
+                PurchaseManager.onStop();
+                PurchaseManager.onResume();
+            }
+        });
+        start("reader", done, deadline, new Action() {
+            @Override
+            public void run(Random random) {
+                check(harness.manager.getCatalog());
+            }
+        });
+        assertTrue(done.await(DURATION_MILLIS + Harness.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        // let the last callbacks land
+        Thread.sleep(500);
+        check(harness.manager.getCatalog());
+
+        for (RecordingListener.Event event : harness.listener.getEvents()) {
+            checkPayload(event);
+        }
+        assertEquals(Collections.<String>emptyList(), new ArrayList<>(mViolations.subList(0, Math.min(10, mViolations.size()))));
+        assertTrue(harness.listener.getEvents("onPurchaseSuccess").size() > 0);
+        assertTrue(harness.listener.getEvents("onQueryPurchasesSuccess").size() > 0);
+    }
+
+    private interface Action {
+        void run(Random random) throws Exception;
+    }
+
+    private void start(final String name, final CountDownLatch done, final long deadline, final Action action) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(name.hashCode());
+                try {
+                    while (System.currentTimeMillis() < deadline) {
+                        action.run(random);
+                        Thread.sleep(random.nextInt(3));
+                    }
+                } catch (Throwable e) {
+                    mViolations.add(name + " threw " + e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        }, "stress-" + name).start();
+    }
+
+    private void check(CatalogState catalog) {
+        for (Map.Entry<String, ProductDetails> entry : catalog.productDetails.entrySet()) {
+            String type = catalog.productTypes.get(entry.getKey());
+            if (type == null) {
+                mViolations.add("details of unconfigured " + entry.getKey());
+                continue;
+            }
+            String productType = type.equals("subs") ? BillingClient.ProductType.SUBS : BillingClient.ProductType.INAPP;
+            if (!productType.equals(entry.getValue().getProductType())) {
+                mViolations.add(entry.getKey() + " is configured as " + type + " but has " + entry.getValue().getProductType() + " details");
+            }
+            if (!entry.getKey().equals(entry.getValue().getProductId())) {
+                mViolations.add(entry.getKey() + " maps to details of " + entry.getValue().getProductId());
+            }
+        }
+    }
+
+    private void checkPayload(RecordingListener.Event event) {
+        if (event.payload == null || !event.name.endsWith("Success") && !event.name.endsWith("Update")) {
+            return;
+        }
+        try {
+            if (event.payload.startsWith("[")) {
+                new JSONArray(event.payload);
+            } else if (event.payload.startsWith("{")) {
+                new JSONObject(event.payload);
+            }
+        } catch (JSONException e) {
+            mViolations.add(event.name + " sent invalid JSON: " + e.getMessage());
+        }
+    }
+
+    private static String withItems(String sdkboxConfig, int from, int to) throws JSONException {
+        JSONObject config = new JSONObject(sdkboxConfig);
+        JSONObject items = config.getJSONObject("android").getJSONObject("iap").getJSONObject("items");
+        JSONObject kept = new JSONObject();
+        for (int i = from; i < to; i++) {
+            kept.put("item_" + i, items.getJSONObject("item_" + i));
+        }
+        config.getJSONObject("android").getJSONObject("iap").put("items", kept);
+        return config.toString();
+    }
+}
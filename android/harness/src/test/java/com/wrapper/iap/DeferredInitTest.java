@@ -0,0 +1,139 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.FakeBillingClient;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Calls made between beginDeferredInit() and the config being parsed on another thread
+ * wait for the config instead of finding the manager unconfigured
+ */
+public class DeferredInitTest extends HarnessTestBase {
+    @Test
+    public void callBeforeConfigIsHeld() throws Exception {
+        final FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(10);
+        RecordingListener listener = new RecordingListener();
+        final PurchaseManager manager = create(config, listener);
+
+        // what the native initDeferred() does: begin on the game thread, read and parse on a reader thread
+        manager.beginDeferredInit();
+        manager.queryProductListAsync();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                manager.completeDeferredInit(config.sdkboxConfig(null));
+            }
+        }, "config-reader");
+        reader.start();
+
+        listener.awaitEvent("onUnConsumedProductsUpdate", Harness.TIMEOUT_MILLIS);
+        int loaded = 0;
+        for (RecordingListener.Event event : listener.getEvents("onProductRequestSuccess")) {
+            loaded += new JSONArray(event.payload).length();
+        }
+        assertEquals(10, loaded);
+        reader.join();
+    }
+
+    @Test
+    public void historyAndConsumeBeforeConfigAreHeld() throws Exception {
+        // owned_token_0 is an unconsumed product_0
+        FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(10).ownedPurchases(1);
+        RecordingListener listener = new RecordingListener();
+        PurchaseManager manager = create(config, listener);
+
+        manager.beginDeferredInit();
+        int requestId = manager.getPurchaseHistoryPaged(5);
+        manager.getPurchaseHistory();
+        manager.consume("product_0", "owned_token_0");
+        manager.consumeBatch(new String[] {"product_0"}, new String[] {"owned_token_0"});
+        Thread.sleep(200);
+        // nothing reached Play before the config
+        assertTrue(FakeBillingClient.getClients().isEmpty());
+        assertTrue(listener.getEvents().isEmpty());
+
+        manager.completeDeferredInit(config.sdkboxConfig(null));
+        assertTrue(listener.awaitEvent("onPurchaseHistoryPage", Harness.TIMEOUT_MILLIS).payload.startsWith(requestId + ":"));
+        listener.awaitEvent("onPurchaseHistoryRequestSuccess", Harness.TIMEOUT_MILLIS);
+        JSONObject consumed = new JSONObject(listener.awaitEvent("onConsumeSuccess", Harness.TIMEOUT_MILLIS).payload);
+        assertEquals("owned_token_0", consumed.getString("purchaseToken"));
+        listener.awaitEvent("onConsumeBatchComplete", Harness.TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void badConfigStopsInit() throws Exception {
+        FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(10);
+        RecordingListener listener = new RecordingListener();
+        PurchaseManager manager = create(config, listener);
+
+        manager.init("{\"android\":{}}");
+        assertEquals("false", listener.awaitEvent("onInitialized", Harness.TIMEOUT_MILLIS).payload);
+        Thread.sleep(200);
+        assertTrue(FakeBillingClient.getClients().isEmpty());
+        assertFalse(manager.isInitialized());
+    }
+
+    @Test
+    public void badConfigStopsInitWithoutSetupSubscriber() throws Exception {
+        FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(10);
+        RecordingListener listener = new RecordingListener();
+        PurchaseManager manager = create(config, listener);
+        manager.removePurchaseEventListener();
+        manager.subscribe(listener, PurchaseEventListener.TOPIC_CATALOG);
+
+        manager.init("{\"android\":{}}");
+        Thread.sleep(200);
+        // no onInitialized to report it, but no connection either
+        assertTrue(FakeBillingClient.getClients().isEmpty());
+        assertTrue(listener.getEvents().isEmpty());
+    }
+
+    @Test
+    public void batchSettingsApplyAfterDeferredParse() throws Exception {
+        FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(10);
+        RecordingListener listener = new RecordingListener();
+        PurchaseManager manager = create(config, listener);
+
+        // never answers, every request stays in flight
+        final BlockingQueue<JSONObject> requests = new LinkedBlockingQueue<>();
+        manager.beginDeferredInit();
+        manager.setVerificationTransport(new VerificationTransport() {
+            @Override
+            public void post(@NonNull String requestJson, @NonNull Callback callback) {
+                try {
+                    requests.add(new JSONObject(requestJson));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }, "user_1");
+        manager.completeDeferredInit(config.sdkboxConfig(new JSONObject()
+                .put("verificationBatchSize", 2).put("verificationBatchDelayMs", 60 * 1000L)));
+
+        manager.queryProductListAsync();
+        listener.awaitEvent("onUnConsumedProductsUpdate", Harness.TIMEOUT_MILLIS);
+        for (int i = 1; i <= 3; i++) {
+            manager.purchase("product_" + i);
+            JSONObject purchased = new JSONObject(listener.awaitEvent("onPurchaseSuccess", Harness.TIMEOUT_MILLIS).payload);
+            assertTrue(manager.verifyPurchase(purchased.getString("id"), purchased.getString("purchaseToken")));
+        }
+
+        // the default batch (20 receipts, 2s) would send all three in one request
+        JSONObject request = requests.poll(Harness.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull(request);
+        assertEquals(2, request.getJSONArray("receipts").length());
+    }
+}
@@ -0,0 +1,42 @@
+package com.wrapper.iap;
+
+import com.android.billingclient.api.FakeBillingClient;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PurchaseManager end to end on the fake client: catalog, purchase and consume
+ */
+public class HarnessTest extends HarnessTestBase {
+    @Test
+    public void catalogPurchaseAndConsume() throws Exception {
+        // product_9 is a subscription, product_8 a non-consumable
+        FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(10).callbacksOnMainThread(true);
+        Harness harness = start(config, new JSONObject().put("queryChunkSize", 4));
+        harness.loadCatalog();
+
+        int loaded = 0;
+        for (RecordingListener.Event event : harness.listener.getEvents("onProductRequestSuccess")) {
+            loaded += new JSONArray(event.payload).length();
+        }
+        assertEquals(10, loaded);
+        // chunks are per product type: 9 inapp in 3 chunks, 1 subs
+        assertEquals(4, harness.getClient().getProductQueryCount());
+
+        harness.manager.purchase("product_3");
+        JSONObject purchased = new JSONObject(harness.listener.awaitEvent("onPurchaseSuccess", Harness.TIMEOUT_MILLIS).payload);
+        assertEquals("product_3", purchased.getString("id"));
+        String purchaseToken = purchased.getString("purchaseToken");
+        assertTrue(harness.manager.isOwned("product_3"));
+
+        harness.manager.consume("product_3", purchaseToken);
+        JSONObject consumed = new JSONObject(harness.listener.awaitEvent("onConsumeSuccess", Harness.TIMEOUT_MILLIS).payload);
+        assertEquals(purchaseToken, consumed.getString("purchaseToken"));
+        assertTrue(harness.getClient().getOwnedPurchases().isEmpty());
+    }
+}
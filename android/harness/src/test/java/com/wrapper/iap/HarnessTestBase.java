@@ -0,0 +1,41 @@
+package com.wrapper.iap;
+
+import android.app.Activity;
+
+import com.android.billingclient.api.FakeBillingClient;
+
+import org.json.JSONObject;
+import org.junit.After;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resets PurchaseManager and FakeBillingClient after every test, so a test class can hold
+ * several scenarios. Each test gets fresh storage, see Activity.getFilesDir().
+ */
+public abstract class HarnessTestBase {
+    @After
+    public void resetManager() {
+        PurchaseManager.resetForTests();
+        FakeBillingClient.reset();
+    }
+
+    /**
+     * Harness.start() with a new RecordingListener
+     * @param iapSettings extra keys of android.iap, may be null
+     */
+    protected Harness start(FakeBillingClient.Config config, JSONObject iapSettings) throws InterruptedException, TimeoutException {
+        return Harness.start(config, iapSettings, new RecordingListener());
+    }
+
+    /**
+     * init(Activity) without a config, for scenarios that drive init themselves
+     */
+    protected PurchaseManager create(FakeBillingClient.Config config, RecordingListener listener) {
+        FakeBillingClient.install(config);
+        PurchaseManager.init(new Activity());
+        PurchaseManager manager = PurchaseManager.getInstance();
+        manager.setPurchaseEventListener(listener);
+        return manager;
+    }
+}
@@ -0,0 +1,177 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PurchaseJournalTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final List<String> mErrors = new ArrayList<>();
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), PurchaseJournal.JOURNAL_FILE_NAME);
+    }
+
+    private PurchaseJournal open() {
+        PurchaseJournal journal = new PurchaseJournal(mFile, new PurchaseJournal.ErrorListener() {
+            @Override
+            public void onJournalError(@NonNull String message) {
+                mErrors.add(message);
+            }
+        });
+        journal.load();
+        return journal;
+    }
+
+    @Test
+    public void reloadsOpenPurchases() throws Exception {
+        PurchaseJournal journal = open();
+        journal.recordPurchased("token_1", "product_1", "order_1", "{\"receipt\":1}", "signature_1");
+        journal.recordPurchased("token_2", "product_2", "order_2", "{\"receipt\":2}", "signature_2");
+        journal.record("token_1", "product_1", PurchaseJournal.STATE_VERIFIED);
+        journal.awaitWrites();
+
+        PurchaseJournal reloaded = open();
+        List<PurchaseJournal.Entry> entries = reloaded.getOpenEntries();
+        assertEquals(2, entries.size());
+        PurchaseJournal.Entry first = entries.get(0);
+        assertEquals("token_1", first.purchaseToken);
+        assertEquals(PurchaseJournal.STATE_VERIFIED, first.state);
+        // a later transition keeps the receipt of the purchased record
+        assertEquals("order_1", first.orderId);
+        assertEquals("{\"receipt\":1}", first.receipt);
+        assertEquals("signature_1", first.signature);
+        assertEquals(PurchaseJournal.STATE_PURCHASED, reloaded.getState("token_2"));
+        assertTrue(mErrors.isEmpty());
+    }
+
+    @Test
+    public void terminalStatesClosePurchases() throws Exception {
+        PurchaseJournal journal = open();
+        journal.recordPurchased("token_1", "product_1", "order_1", "receipt_1", "signature_1");
+        journal.recordPurchased("token_2", "product_2", "order_2", "receipt_2", "signature_2");
+        journal.record("token_1", "product_1", PurchaseJournal.STATE_CONSUMED);
+        journal.record("token_2", "product_2", PurchaseJournal.STATE_ACKNOWLEDGED);
+        assertFalse(journal.contains("token_1"));
+        assertFalse(journal.contains("token_2"));
+        journal.awaitWrites();
+        long length = mFile.length();
+
+        // closing a purchase that is not open writes nothing
+        journal.record("token_3", "product_3", PurchaseJournal.STATE_CONSUMED);
+        journal.awaitWrites();
+        assertEquals(length, mFile.length());
+
+        assertTrue(open().getOpenEntries().isEmpty());
+    }
+
+    @Test
+    public void rejectedPurchasesStayClosed() throws Exception {
+        PurchaseJournal journal = open();
+        journal.recordPurchased("token_1", "product_1", "order_1", "receipt_1", "signature_1");
+        journal.record("token_1", "product_1", PurchaseJournal.STATE_REJECTED);
+        assertFalse(journal.contains("token_1"));
+        assertTrue(journal.isRejected("token_1"));
+
+        // Play still reports it as owned, reconciling must not reopen it
+        journal.recordPurchased("token_1", "product_1", "order_1", "receipt_1", "signature_1");
+        assertFalse(journal.contains("token_1"));
+        // rejected without having been journaled
+        journal.record("token_2", "product_2", PurchaseJournal.STATE_REJECTED);
+        journal.awaitWrites();
+
+        PurchaseJournal reloaded = open();
+        assertTrue(reloaded.getOpenEntries().isEmpty());
+        assertTrue(reloaded.isRejected("token_1"));
+        assertTrue(reloaded.isRejected("token_2"));
+    }
+
+    @Test
+    public void tornLastRecordIsSkipped() throws Exception {
+        PurchaseJournal journal = open();
+        journal.recordPurchased("token_1", "product_1", "order_1", "receipt_1", "signature_1");
+        journal.awaitWrites();
+        long intact = mFile.length();
+        journal.recordPurchased("token_2", "product_2", "order_2", "receipt_2", "signature_2");
+        journal.awaitWrites();
+
+        // killed in the middle of the second append
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.setLength(intact + (file.length() - intact) / 2);
+        }
+
+        PurchaseJournal reloaded = open();
+        assertEquals(1, reloaded.getOpenEntries().size());
+        assertEquals(PurchaseJournal.STATE_PURCHASED, reloaded.getState("token_1"));
+        assertNull(reloaded.getState("token_2"));
+        assertEquals(1, mErrors.size());
+
+        // appends after the torn record are read again on the next start
+        reloaded.recordPurchased("token_3", "product_3", "order_3", "receipt_3", "signature_3");
+        reloaded.awaitWrites();
+        assertTrue(open().contains("token_3"));
+    }
+
+    @Test
+    public void keepsOnlyRecentRejections() throws Exception {
+        PurchaseJournal journal = open();
+        int count = 3 * PurchaseJournal.MAX_REJECTED;
+        for (int i = 0; i < count; i++) {
+            journal.record("token_" + i, "product_1", PurchaseJournal.STATE_REJECTED);
+            if (i % 10 == 0) {
+                journal.awaitWrites();
+            }
+        }
+        assertFalse(journal.isRejected("token_0"));
+        assertTrue(journal.isRejected("token_" + (count - 1)));
+        journal.awaitWrites();
+
+        // compaction dropped the forgotten rejections from the file too
+        List<String> lines = Files.readAllLines(mFile.toPath(), StandardCharsets.UTF_8);
+        assertTrue("journal holds " + lines.size() + " records", lines.size() < count);
+        PurchaseJournal reloaded = open();
+        int oldestKept = count - PurchaseJournal.MAX_REJECTED;
+        assertFalse(reloaded.isRejected("token_" + (oldestKept - 1)));
+        assertTrue(reloaded.isRejected("token_" + oldestKept));
+        assertTrue(reloaded.isRejected("token_" + (count - 1)));
+    }
+
+    @Test
+    public void compactsClosedPurchases() throws Exception {
+        PurchaseJournal journal = open();
+        journal.recordPurchased("open_token", "product_0", "order_0", "receipt_0", "signature_0");
+        journal.record("rejected_token", "product_0", PurchaseJournal.STATE_REJECTED);
+        for (int i = 0; i < 200; i++) {
+            journal.recordPurchased("token_" + i, "product_1", "order_" + i, "receipt_" + i, "signature_" + i);
+            journal.record("token_" + i, "product_1", PurchaseJournal.STATE_CONSUMED);
+            // one batch per purchase, like purchases spread over a session
+            journal.awaitWrites();
+        }
+
+        List<String> lines = Files.readAllLines(mFile.toPath(), StandardCharsets.UTF_8);
+        assertTrue("journal holds " + lines.size() + " records", lines.size() < 200);
+        PurchaseJournal reloaded = open();
+        assertEquals(1, reloaded.getOpenEntries().size());
+        assertEquals("receipt_0", reloaded.getOpenEntries().get(0).receipt);
+        assertTrue(reloaded.isRejected("rejected_token"));
+    }
+}
@@ -0,0 +1,83 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.FakeBillingClient;
+import com.android.billingclient.api.Purchase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * What PurchaseManager does with the receipts the verification server granted
+ */
+public class ServerVerificationTest extends HarnessTestBase {
+    // grants every receipt right away
+    private static final VerificationTransport GRANT_ALL = new VerificationTransport() {
+        @Override
+        public void post(@NonNull String requestJson, @NonNull Callback callback) {
+            try {
+                JSONArray receipts = new JSONObject(requestJson).getJSONArray("receipts");
+                JSONArray results = new JSONArray();
+                for (int i = 0; i < receipts.length(); i++) {
+                    results.put(new JSONObject()
+                            .put("purchaseToken", receipts.getJSONObject(i).getString("purchaseToken"))
+                            .put("status", VerificationUploader.STATUS_OK));
+                }
+                callback.onResponse(200, new JSONObject().put("results", results).toString());
+            } catch (Exception e) {
+                callback.onError(String.valueOf(e.getMessage()));
+            }
+        }
+    };
+
+    @Test
+    public void verifiedNonConsumableIsAcknowledged() throws Exception {
+        // product_8 is a non-consumable, the acknowledge right after its purchase fails for good
+        FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(10)
+                .failingAcknowledges(1, BillingClient.BillingResponseCode.DEVELOPER_ERROR);
+        Harness harness = start(config, new JSONObject().put("verificationBatchDelayMs", 0));
+        harness.loadCatalog();
+        harness.manager.setVerificationTransport(GRANT_ALL, "user_1");
+
+        harness.manager.purchase("product_8");
+        String purchaseToken = new JSONObject(harness.listener.awaitEvent("onPurchaseSuccess", Harness.TIMEOUT_MILLIS).payload)
+                .getString("purchaseToken");
+        FakeBillingClient client = harness.getClient();
+        awaitAcknowledges(client, 1);
+
+        // still open in the journal, the server grant finishes it
+        assertTrue(harness.manager.verifyPurchase("product_8", purchaseToken));
+        assertTrue(harness.listener.awaitEvent("onReceiptVerified", Harness.TIMEOUT_MILLIS).payload
+                .startsWith(VerificationUploader.STATUS_OK + ":"));
+        awaitAcknowledges(client, 2);
+        long deadline = System.currentTimeMillis() + Harness.TIMEOUT_MILLIS;
+        while (!isAcknowledged(client, purchaseToken) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(isAcknowledged(client, purchaseToken));
+        assertEquals(0, harness.getClient().getConsumeCount());
+    }
+
+    private static void awaitAcknowledges(FakeBillingClient client, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + Harness.TIMEOUT_MILLIS;
+        while (client.getAcknowledgeCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(count, client.getAcknowledgeCount());
+    }
+
+    private static boolean isAcknowledged(FakeBillingClient client, String purchaseToken) {
+        for (Purchase purchase : client.getOwnedPurchases()) {
+            if (purchase.getPurchaseToken().equals(purchaseToken)) {
+                return purchase.isAcknowledged();
+            }
+        }
+        return false;
+    }
+}
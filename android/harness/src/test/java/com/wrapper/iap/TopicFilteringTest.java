@@ -0,0 +1,80 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.FakeBillingClient;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Topic filtering only skips building and delivering events, the billing work behind them
+ * runs whether or not anyone subscribed
+ */
+public class TopicFilteringTest extends HarnessTestBase {
+    private PurchaseManager start(FakeBillingClient.Config config, RecordingListener listener, int topics) throws Exception {
+        PurchaseManager manager = create(config, listener);
+        manager.removePurchaseEventListener();
+        manager.subscribe(listener, PurchaseEventListener.TOPIC_SETUP | topics);
+        manager.init(config.sdkboxConfig(null));
+        assertEquals("true", listener.awaitEvent("onInitialized", Harness.TIMEOUT_MILLIS).payload);
+        return manager;
+    }
+
+    @Test
+    public void unsubscribedTopicsStillRunTheirWork() throws Exception {
+        // owned_token_0 is an unconsumed product_0
+        FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(10).ownedPurchases(1);
+        RecordingListener listener = new RecordingListener();
+        PurchaseManager manager = start(config, listener, PurchaseEventListener.TOPIC_CATALOG);
+        manager.setVerificationTransport(new VerificationTransport() {
+            @Override
+            public void post(@NonNull String requestJson, @NonNull Callback callback) {
+            }
+        }, "user_1");
+
+        manager.queryProductListAsync();
+        // the unconsumed query after the catalog journals owned_token_0, verifyPurchase reads the journal
+        long deadline = System.currentTimeMillis() + Harness.TIMEOUT_MILLIS;
+        boolean journaled = false;
+        while (!journaled && System.currentTimeMillis() < deadline) {
+            journaled = manager.verifyPurchase("product_0", "owned_token_0");
+            Thread.sleep(20);
+        }
+        assertTrue(journaled);
+
+        FakeBillingClient client = FakeBillingClient.getClients().get(0);
+        manager.purchase("product_1");
+        deadline = System.currentTimeMillis() + Harness.TIMEOUT_MILLIS;
+        while (client.getBillingFlowCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, client.getBillingFlowCount());
+        assertTrue(listener.getEvents("onPurchaseSuccess").isEmpty());
+        assertTrue(listener.getEvents("onUnConsumedProductsUpdate").isEmpty());
+    }
+
+    @Test
+    public void restoreHasItsOwnTopic() throws Exception {
+        FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(10).ownedPurchases(2);
+        RecordingListener listener = new RecordingListener();
+        PurchaseManager manager = start(config, listener, PurchaseEventListener.TOPIC_CATALOG
+                | PurchaseEventListener.TOPIC_UNCONSUMED | PurchaseEventListener.TOPIC_RESTORE);
+        RecordingListener historyListener = new RecordingListener();
+        manager.subscribe(historyListener, PurchaseEventListener.TOPIC_HISTORY);
+
+        manager.queryProductListAsync();
+        // follows the whole catalog
+        listener.awaitEvent("onUnConsumedProductsUpdate", Harness.TIMEOUT_MILLIS);
+        manager.queryPurchases();
+        assertEquals(2, new JSONArray(listener.awaitEvent("onQueryPurchasesSuccess", Harness.TIMEOUT_MILLIS).payload).length());
+
+        manager.getPurchaseHistory();
+        historyListener.awaitEvent("onPurchaseHistoryRequestSuccess", Harness.TIMEOUT_MILLIS);
+        assertTrue(historyListener.getEvents("onQueryPurchasesSuccess").isEmpty());
+        assertTrue(listener.getEvents("onPurchaseHistoryRequestSuccess").isEmpty());
+    }
+}
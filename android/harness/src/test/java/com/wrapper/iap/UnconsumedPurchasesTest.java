@@ -0,0 +1,32 @@
+package com.wrapper.iap;
+
+import com.android.billingclient.api.FakeBillingClient;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * An unconsumed purchase that is both journaled and reported by Play is emitted once
+ */
+public class UnconsumedPurchasesTest extends HarnessTestBase {
+    @Test
+    public void journaledPurchaseIsEmittedOnce() throws Exception {
+        // owned_token_0 is an unconsumed product_0
+        FakeBillingClient.Config config = new FakeBillingClient.Config().catalogSize(10).ownedPurchases(1);
+        Harness harness = start(config, null);
+        harness.loadCatalog();
+        harness.manager.setPurchasesCacheWindow(0);
+
+        // journaled now, the next query finds it in the journal and in Play
+        harness.listener.clear();
+        harness.loadCatalog();
+        Thread.sleep(200);
+
+        assertEquals(1, harness.listener.getEvents("onUnConsumedProductsUpdate").size());
+        JSONArray products = new JSONArray(harness.listener.getEvents("onUnConsumedProductsUpdate").get(0).payload);
+        assertEquals(1, products.length());
+        assertEquals("owned_token_0", products.getJSONObject(0).getString("purchaseToken"));
+    }
+}
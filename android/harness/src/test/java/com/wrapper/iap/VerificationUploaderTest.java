@@ -0,0 +1,266 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Runs the uploader and HttpVerificationTransport against a local HTTP server that answers
+ * every receipt with "ok", unless a failure was queued for the next request.
+ */
+public class VerificationUploaderTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    // queued failure closing the connection without a response
+    private static final int DROP_CONNECTION = -1;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final BlockingQueue<JSONObject> mRequests = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<Integer> mFailures = new ConcurrentLinkedQueue<>();
+    private final BlockingQueue<String> mResults = new LinkedBlockingQueue<>();
+    private HttpServer mServer;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mFolder.getRoot(), VerificationUploader.QUEUE_FILE_NAME);
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/verify", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        try {
+            JSONObject request = new JSONObject(readFully(exchange.getRequestBody()));
+            mRequests.add(request);
+            Integer failure = mFailures.poll();
+            if (failure != null && failure == DROP_CONNECTION) {
+                return;
+            }
+            if (failure != null) {
+                exchange.sendResponseHeaders(failure, -1);
+                return;
+            }
+            JSONArray results = new JSONArray();
+            JSONArray receipts = request.getJSONArray("receipts");
+            for (int i = 0; i < receipts.length(); i++) {
+                JSONObject result = new JSONObject();
+                result.put("purchaseToken", receipts.getJSONObject(i).getString("purchaseToken"));
+                result.put("status", VerificationUploader.STATUS_OK);
+                results.put(result);
+            }
+            byte[] body = new JSONObject().put("results", results).toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (Exception e) {
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private HttpVerificationTransport newTransport() {
+        return new HttpVerificationTransport("http://" + mServer.getAddress().getHostString() + ":"
+                + mServer.getAddress().getPort() + "/verify");
+    }
+
+    private VerificationUploader newUploader() {
+        VerificationUploader uploader = new VerificationUploader(mFile, new VerificationUploader.Listener() {
+            @Override
+            public void onReceiptVerified(@NonNull Product product, @NonNull String status, @NonNull String resultJson) {
+                mResults.add(product.purchaseToken + ":" + status);
+            }
+        });
+        uploader.setRetryDelays(20, 100);
+        return uploader;
+    }
+
+    private static List<Product> purchases(int first, int count) {
+        List<Product> products = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            products.add(Product.placeholder("product_" + i, "token_" + i)
+                    .withPurchase("order_" + i, "{\"receipt\":" + i + "}", "signature_" + i, "token_" + i));
+        }
+        return products;
+    }
+
+    private JSONObject nextRequest() throws InterruptedException {
+        JSONObject request = mRequests.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("no request reached the server", request);
+        return request;
+    }
+
+    private String nextResult() throws InterruptedException {
+        String result = mResults.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("no receipt was verified", result);
+        return result;
+    }
+
+    private static List<String> tokens(JSONObject request) throws Exception {
+        List<String> tokens = new ArrayList<>();
+        JSONArray receipts = request.getJSONArray("receipts");
+        for (int i = 0; i < receipts.length(); i++) {
+            tokens.add(receipts.getJSONObject(i).getString("purchaseToken"));
+        }
+        return tokens;
+    }
+
+    @Test
+    public void sendsFullBatchesInOrder() throws Exception {
+        VerificationUploader uploader = newUploader();
+        // a long batch delay, only full batches and what follows an answered batch go out
+        uploader.setBatching(2, 60 * 1000L);
+        uploader.configure(newTransport(), "user_1");
+        uploader.enqueue(purchases(1, 5));
+
+        JSONObject first = nextRequest();
+        assertEquals("user_1", first.getString("userId"));
+        assertEquals("android", first.getString("os"));
+        JSONObject receipt = first.getJSONArray("receipts").getJSONObject(0);
+        assertEquals("product_1", receipt.getString("productId"));
+        assertEquals("{\"receipt\":1}", receipt.getString("receipt"));
+        assertEquals("signature_1", receipt.getString("signature"));
+        assertEquals("order_1", receipt.getString("transactionID"));
+        assertEquals(Arrays.asList("token_1", "token_2"), tokens(first));
+        assertEquals(Arrays.asList("token_3", "token_4"), tokens(nextRequest()));
+        assertEquals(Arrays.asList("token_5"), tokens(nextRequest()));
+
+        for (int i = 1; i <= 5; i++) {
+            assertEquals("token_" + i + ":" + VerificationUploader.STATUS_OK, nextResult());
+        }
+        assertNull(mRequests.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void retriesAfterServerError() throws Exception {
+        VerificationUploader uploader = newUploader();
+        uploader.setBatching(2, 0);
+        uploader.configure(newTransport(), "user_1");
+        mFailures.add(503);
+        mFailures.add(500);
+        uploader.enqueue(purchases(1, 2));
+
+        assertEquals(Arrays.asList("token_1", "token_2"), tokens(nextRequest()));
+        assertEquals(Arrays.asList("token_1", "token_2"), tokens(nextRequest()));
+        assertEquals(Arrays.asList("token_1", "token_2"), tokens(nextRequest()));
+        assertEquals("token_1:" + VerificationUploader.STATUS_OK, nextResult());
+        assertEquals("token_2:" + VerificationUploader.STATUS_OK, nextResult());
+        assertNull(mResults.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void retriesAfterDroppedConnection() throws Exception {
+        VerificationUploader uploader = newUploader();
+        uploader.setBatching(1, 0);
+        uploader.configure(newTransport(), "user_1");
+        mFailures.add(DROP_CONNECTION);
+        uploader.enqueue(purchases(1, 1));
+
+        assertEquals(Arrays.asList("token_1"), tokens(nextRequest()));
+        assertEquals(Arrays.asList("token_1"), tokens(nextRequest()));
+        assertEquals("token_1:" + VerificationUploader.STATUS_OK, nextResult());
+    }
+
+    @Test
+    public void sendsPersistedQueueAfterRestart() throws Exception {
+        // no transport yet, the receipts only reach the queue file
+        VerificationUploader stopped = newUploader();
+        stopped.enqueue(purchases(1, 3));
+        stopped.awaitWrites();
+
+        VerificationUploader restarted = newUploader();
+        restarted.load();
+        restarted.setBatching(10, 0);
+        restarted.configure(newTransport(), "user_1");
+        assertEquals(Arrays.asList("token_1", "token_2", "token_3"), tokens(nextRequest()));
+        for (int i = 1; i <= 3; i++) {
+            assertEquals("token_" + i + ":" + VerificationUploader.STATUS_OK, nextResult());
+        }
+
+        // answered receipts are gone from the file as well
+        restarted.awaitWrites();
+        assertEquals(0, new JSONArray(new String(Files.readAllBytes(mFile.toPath()), StandardCharsets.UTF_8)).length());
+    }
+
+    @Test
+    public void replacedTransportIsShutDown() throws Exception {
+        VerificationUploader uploader = newUploader();
+        uploader.setBatching(1, 0);
+        HttpVerificationTransport replaced = newTransport();
+        uploader.configure(replaced, "user_1");
+        uploader.configure(newTransport(), "user_2");
+
+        final BlockingQueue<String> errors = new LinkedBlockingQueue<>();
+        replaced.post("{}", new VerificationTransport.Callback() {
+            @Override
+            public void onResponse(int statusCode, @NonNull String body) {
+                errors.add("answered " + statusCode);
+            }
+
+            @Override
+            public void onError(@NonNull String message) {
+                errors.add(message);
+            }
+        });
+        assertEquals("transport shut down", errors.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // the new transport carries on
+        uploader.enqueue(purchases(1, 1));
+        assertEquals("user_2", nextRequest().getString("userId"));
+        assertEquals("token_1:" + VerificationUploader.STATUS_OK, nextResult());
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,286 @@
+package com.wrapper.iap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Owns the BillingClient connection lifecycle.
+ *
+ * A lost or failed connection is re-established with jittered exponential backoff.
+ * Operations issued while the client is not connected are queued with a deadline and
+ * replayed in order once onBillingSetupFinished reports OK; an operation whose deadline
+ * passes first is failed through {@link Operation#onUnavailable}.
+ */
+class BillingConnection {
+    private static final String TAG = "BillingConnection";
+    static final long DEFAULT_DEADLINE_MILLIS = 30 * 1000L;
+    private static final long BASE_RETRY_DELAY_MILLIS = 1000L;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60 * 1000L;
+    private static final int MAX_RETRY_ATTEMPTS = 8;
+
+    interface ClientFactory {
+        @NonNull BillingClient create();
+    }
+
+    interface StateListener {
+        void onSetupFinished(@NonNull BillingResult billingResult);
+
+        void onDisconnected();
+    }
+
+    interface Operation {
+        void run(@NonNull BillingClient billingClient);
+
+        /**
+         * The client did not connect before the operation's deadline
+         */
+        void onUnavailable(int responseCode, @NonNull String message);
+    }
+
+    private static class PendingOperation {
+        final Operation operation;
+        Runnable timeout;
+
+        PendingOperation(Operation operation) {
+            this.operation = operation;
+        }
+    }
+
+    private static final int STATE_DISCONNECTED = 0;
+    private static final int STATE_CONNECTING = 1;
+    private static final int STATE_CONNECTED = 2;
+
+    private final ClientFactory mClientFactory;
+    private final StateListener mStateListener;
+    private final BillingMetrics mMetrics;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random();
+
+    private final List<PendingOperation> mPendingOperations = new ArrayList<>();
+    private BillingClient mBillingClient;
+    private int mState = STATE_DISCONNECTED;
+    private int mRetryAttempts = 0;
+    // false after disconnect(), stops backoff from reconnecting in the background
+    private boolean mWanted = false;
+
+    private final Runnable mReconnect = new Runnable() {
+        @Override
+        public void run() {
+            startConnection();
+        }
+    };
+
+    BillingConnection(@NonNull ClientFactory clientFactory, @NonNull StateListener stateListener, @NonNull BillingMetrics metrics) {
+        mClientFactory = clientFactory;
+        mStateListener = stateListener;
+        mMetrics = metrics;
+    }
+
+    synchronized boolean isConnected() {
+        return mState == STATE_CONNECTED && mBillingClient != null && mBillingClient.isReady();
+    }
+
+    synchronized boolean isDisconnected() {
+        return mState == STATE_DISCONNECTED;
+    }
+
+    /**
+     * Build the BillingClient without connecting, so the first connect() does not pay for it.
+     * May be called on a background thread.
+     */
+    synchronized void prepare() {
+        if (mBillingClient == null) {
+            mBillingClient = mClientFactory.create();
+        }
+    }
+
+    /**
+     * Start connecting unless already connected or connecting. Resets the backoff.
+     */
+    void connect() {
+        synchronized (this) {
+            mWanted = true;
+            if (mState != STATE_DISCONNECTED) {
+                return;
+            }
+            mHandler.removeCallbacks(mReconnect);
+            mRetryAttempts = 0;
+        }
+        startConnection();
+    }
+
+    /**
+     * End the connection. Queued operations stay queued until their deadline or the next connect().
+     */
+    void disconnect() {
+        BillingClient billingClient;
+        synchronized (this) {
+            mWanted = false;
+            mHandler.removeCallbacks(mReconnect);
+            billingClient = mBillingClient;
+            mBillingClient = null;
+            mState = STATE_DISCONNECTED;
+        }
+        if (billingClient != null) {
+            billingClient.endConnection();
+        }
+    }
+
+    void execute(@NonNull Operation operation) {
+        execute(operation, DEFAULT_DEADLINE_MILLIS);
+    }
+
+    /**
+     * Run the operation now if connected, otherwise queue it until the connection is set up
+     * @param deadlineMillis how long the operation may wait for the connection
+     */
+    void execute(@NonNull Operation operation, long deadlineMillis) {
+        BillingClient billingClient = null;
+        synchronized (this) {
+            if (isConnected()) {
+                billingClient = mBillingClient;
+            } else {
+                final PendingOperation pending = new PendingOperation(operation);
+                pending.timeout = new Runnable() {
+                    @Override
+                    public void run() {
+                        expire(pending);
+                    }
+                };
+                mPendingOperations.add(pending);
+                mHandler.postDelayed(pending.timeout, deadlineMillis);
+            }
+        }
+
+        if (billingClient != null) {
+            operation.run(billingClient);
+        } else {
+            connect();
+        }
+    }
+
+    private void startConnection() {
+        final BillingClient billingClient;
+        synchronized (this) {
+            if (!mWanted || mState != STATE_DISCONNECTED) {
+                return;
+            }
+            mState = STATE_CONNECTING;
+            if (mBillingClient == null || mBillingClient.getConnectionState() == BillingClient.ConnectionState.CLOSED) {
+                mBillingClient = mClientFactory.create();
+            }
+            billingClient = mBillingClient;
+        }
+
+        Log.d(TAG, "startConnection, attempt " + (mRetryAttempts + 1));
+        final long startNanos = mMetrics.begin(BillingMetrics.OP_CONNECT);
+        billingClient.startConnection(new BillingClientStateListener() {
+            @Override
+            public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
+                mMetrics.end(BillingMetrics.OP_CONNECT, startNanos, billingResult.getResponseCode());
+                onSetupFinished(billingClient, billingResult);
+            }
+
+            @Override
+            public void onBillingServiceDisconnected() {
+                onServiceDisconnected(billingClient);
+            }
+        });
+    }
+
+    private void onSetupFinished(BillingClient billingClient, BillingResult billingResult) {
+        List<PendingOperation> replay = null;
+        synchronized (this) {
+            if (billingClient != mBillingClient) {
+                // result of a client that was replaced or disconnected in the meantime
+                return;
+            }
+            if (billingResult.getResponseCode() == BillingResponseCode.OK) {
+                mState = STATE_CONNECTED;
+                mRetryAttempts = 0;
+                replay = new ArrayList<>(mPendingOperations);
+                mPendingOperations.clear();
+                for (PendingOperation pending : replay) {
+                    mHandler.removeCallbacks(pending.timeout);
+                }
+            } else {
+                mState = STATE_DISCONNECTED;
+            }
+        }
+
+        mStateListener.onSetupFinished(billingResult);
+        if (replay == null) {
+            scheduleReconnect();
+            return;
+        }
+        Log.d(TAG, "connected, replaying " + replay.size() + " queued operations");
+        for (PendingOperation pending : replay) {
+            pending.operation.run(billingClient);
+        }
+    }
+
+    private void onServiceDisconnected(BillingClient billingClient) {
+        synchronized (this) {
+            if (billingClient != mBillingClient) {
+                return;
+            }
+            mState = STATE_DISCONNECTED;
+        }
+        Log.d(TAG, "billing service disconnected");
+        mStateListener.onDisconnected();
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        List<PendingOperation> failed = null;
+        synchronized (this) {
+            if (!mWanted || mState != STATE_DISCONNECTED) {
+                return;
+            }
+            if (mRetryAttempts >= MAX_RETRY_ATTEMPTS) {
+                // give up until the next connect(), nobody should wait for a dead service
+                failed = new ArrayList<>(mPendingOperations);
+                mPendingOperations.clear();
+                for (PendingOperation pending : failed) {
+                    mHandler.removeCallbacks(pending.timeout);
+                }
+            } else {
+                long delay = Math.min(MAX_RETRY_DELAY_MILLIS, BASE_RETRY_DELAY_MILLIS << mRetryAttempts);
+                // full jitter on the upper half, so devices do not reconnect in lockstep
+                delay = delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+                mRetryAttempts++;
+                mMetrics.recordReconnect();
+                Log.d(TAG, "reconnecting in " + delay + "ms");
+                mHandler.postDelayed(mReconnect, delay);
+            }
+        }
+
+        if (failed != null) {
+            Log.e(TAG, "giving up after " + MAX_RETRY_ATTEMPTS + " connection attempts");
+            for (PendingOperation pending : failed) {
+                pending.operation.onUnavailable(BillingResponseCode.SERVICE_DISCONNECTED, "BillingClient could not connect");
+            }
+        }
+    }
+
+    private void expire(PendingOperation pending) {
+        synchronized (this) {
+            if (!mPendingOperations.remove(pending)) {
+                return;
+            }
+        }
+        pending.operation.onUnavailable(BillingResponseCode.SERVICE_TIMEOUT, "BillingClient did not connect in time");
+    }
+}
@@ -0,0 +1,178 @@
+package com.wrapper.iap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency, response code and in-flight counts of every billing operation.
+ *
+ * Recording only touches preallocated atomics, so it stays on in production. A snapshot
+ * is a flat JSON object ("query_products_p50_ms", "consume_rc_OK", "reconnects", ...)
+ * that can be logged as custom event params as is.
+ */
+class BillingMetrics {
+    private static final String TAG = "BillingMetrics";
+
+    static final int OP_CONNECT = 0;
+    static final int OP_QUERY_PRODUCTS = 1;
+    static final int OP_QUERY_PURCHASES = 2;
+    // launchBillingFlow -> onPurchasesUpdated
+    static final int OP_PURCHASE_FLOW = 3;
+    static final int OP_CONSUME = 4;
+    static final int OP_ACKNOWLEDGE = 5;
+    private static final String[] OP_NAMES = {
+            "connect", "query_products", "query_purchases", "purchase_flow", "consume", "acknowledge" };
+
+    // BillingResponseCode -3 (SERVICE_TIMEOUT) .. 12, the last slot counts anything else
+    private static final int MIN_RESPONSE_CODE = -3;
+    private static final int RESPONSE_CODE_SLOTS = 17;
+    private static final String[] RESPONSE_CODE_NAMES = {
+            "SERVICE_TIMEOUT", "FEATURE_NOT_SUPPORTED", "SERVICE_DISCONNECTED", "OK", "USER_CANCELED",
+            "SERVICE_UNAVAILABLE", "BILLING_UNAVAILABLE", "ITEM_UNAVAILABLE", "DEVELOPER_ERROR", "ERROR",
+            "ITEM_ALREADY_OWNED", "ITEM_NOT_OWNED", "RC_9", "RC_10", "RC_11", "NETWORK_ERROR", "OTHER" };
+
+    private final LatencyHistogram[] mLatencies = new LatencyHistogram[OP_NAMES.length];
+    private final AtomicLongArray mResponseCodes = new AtomicLongArray(OP_NAMES.length * RESPONSE_CODE_SLOTS);
+    private final AtomicIntegerArray mInFlight = new AtomicIntegerArray(OP_NAMES.length);
+    private final AtomicLong mReconnects = new AtomicLong();
+    // from PurchaseManager.init to the first successful setup, -1 until then
+    private volatile long mTimeToReadyMicros = -1;
+    private volatile String mConnectTrigger;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private MetricsExporter mExporter;
+    private long mExportIntervalMillis;
+    private final Runnable mExport = new Runnable() {
+        @Override
+        public void run() {
+            MetricsExporter exporter;
+            synchronized (BillingMetrics.this) {
+                exporter = mExporter;
+                if (exporter == null) {
+                    return;
+                }
+                mHandler.postDelayed(this, mExportIntervalMillis);
+            }
+            String snapshot = snapshot();
+            if (snapshot != null) {
+                exporter.export(snapshot);
+            }
+        }
+    };
+
+    BillingMetrics() {
+        for (int i = 0; i < mLatencies.length; i++) {
+            mLatencies[i] = new LatencyHistogram();
+        }
+    }
+
+    static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Operation started, counted in flight until end()
+     * @return start time to hand to end()
+     */
+    long begin(int op) {
+        mInFlight.incrementAndGet(op);
+        return now();
+    }
+
+    void end(int op, long startNanos, int responseCode) {
+        mInFlight.decrementAndGet(op);
+        record(op, startNanos, responseCode);
+    }
+
+    /**
+     * Completed operation that was not counted in flight
+     */
+    void record(int op, long startNanos, int responseCode) {
+        mLatencies[op].record((now() - startNanos) / 1000);
+        int slot = responseCode - MIN_RESPONSE_CODE;
+        if (slot < 0 || slot >= RESPONSE_CODE_SLOTS) {
+            slot = RESPONSE_CODE_SLOTS - 1;
+        }
+        mResponseCodes.incrementAndGet(op * RESPONSE_CODE_SLOTS + slot);
+    }
+
+    void recordReconnect() {
+        mReconnects.incrementAndGet();
+    }
+
+    /**
+     * @param trigger what started the first connection: startup, prewarm, idle or demand
+     */
+    void recordTimeToReady(long startNanos, @NonNull String trigger) {
+        mConnectTrigger = trigger;
+        mTimeToReadyMicros = (now() - startNanos) / 1000;
+    }
+
+    /**
+     * Export a snapshot every intervalMillis on the main thread, null stops exporting
+     */
+    void setExporter(@Nullable MetricsExporter exporter, long intervalMillis) {
+        synchronized (this) {
+            mHandler.removeCallbacks(mExport);
+            mExporter = exporter;
+            mExportIntervalMillis = intervalMillis;
+            if (exporter != null) {
+                mHandler.postDelayed(mExport, intervalMillis);
+            }
+        }
+    }
+
+    /**
+     * @return flat JSON object of every metric, null if it could not be written
+     */
+    @Nullable String snapshot() {
+        try {
+            StringWriter out = new StringWriter(2048);
+            JsonWriter writer = new JsonWriter(out);
+            writer.beginObject();
+            for (int op = 0; op < OP_NAMES.length; op++) {
+                String name = OP_NAMES[op];
+                LatencyHistogram latency = mLatencies[op];
+                writer.name(name + "_count").value(latency.getCount());
+                writer.name(name + "_in_flight").value(mInFlight.get(op));
+                if (latency.getCount() > 0) {
+                    writer.name(name + "_mean_ms").value(latency.getMeanMicros() / 1000.0);
+                    writer.name(name + "_p50_ms").value(latency.getPercentileMicros(50) / 1000.0);
+                    writer.name(name + "_p90_ms").value(latency.getPercentileMicros(90) / 1000.0);
+                    writer.name(name + "_p99_ms").value(latency.getPercentileMicros(99) / 1000.0);
+                    writer.name(name + "_max_ms").value(latency.getMaxMicros() / 1000.0);
+                }
+                for (int slot = 0; slot < RESPONSE_CODE_SLOTS; slot++) {
+                    long count = mResponseCodes.get(op * RESPONSE_CODE_SLOTS + slot);
+                    if (count > 0) {
+                        writer.name(name + "_rc_" + RESPONSE_CODE_NAMES[slot]).value(count);
+                    }
+                }
+            }
+            writer.name("reconnects").value(mReconnects.get());
+            long timeToReadyMicros = mTimeToReadyMicros;
+            if (timeToReadyMicros >= 0) {
+                writer.name("time_to_ready_ms").value(timeToReadyMicros / 1000.0);
+                writer.name("connect_trigger").value(mConnectTrigger);
+            }
+            writer.endObject();
+            writer.flush();
+            return out.toString();
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write metrics snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.ProductDetails;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable view of the configured products and their loaded ProductDetails.
+ *
+ * PurchaseManager publishes a new instance through a volatile field on every change, so a
+ * reader grabs the field once and iterates or looks up without locking, while billing
+ * callbacks and config updates on other threads build the next instance.
+ */
+final class CatalogState {
+    static final CatalogState EMPTY = new CatalogState(
+            Collections.<String, String>emptyMap(), Collections.<String, ProductDetails>emptyMap());
+
+    // productId => type(consumable, non_consumable or subs)
+    final Map<String, String> productTypes;
+    // productId => ProductDetails, only configured products
+    final Map<String, ProductDetails> productDetails;
+
+    private CatalogState(Map<String, String> productTypes, Map<String, ProductDetails> productDetails) {
+        this.productTypes = productTypes;
+        this.productDetails = productDetails;
+    }
+
+    @Nullable String getType(@NonNull String productId) {
+        return productTypes.get(productId);
+    }
+
+    @Nullable ProductDetails getDetails(@NonNull String productId) {
+        return productDetails.get(productId);
+    }
+
+    /**
+     * Apply a config diff, details of removed and retyped products are dropped and refetched
+     */
+    @NonNull CatalogState withConfig(@NonNull SkuConfig.Diff diff) {
+        HashMap<String, String> types = new HashMap<>(productTypes);
+        HashMap<String, ProductDetails> details = new HashMap<>(productDetails);
+        for (String productId : diff.removed) {
+            types.remove(productId);
+            details.remove(productId);
+        }
+        for (String productId : diff.retyped.keySet()) {
+            details.remove(productId);
+        }
+        types.putAll(diff.retyped);
+        types.putAll(diff.added);
+        return new CatalogState(Collections.unmodifiableMap(types), Collections.unmodifiableMap(details));
+    }
+
+    /**
+     * Add or replace details, products no longer configured, or moved between INAPP and SUBS
+     * while the query was in flight, are ignored
+     */
+    @NonNull CatalogState withDetails(@NonNull Collection<ProductDetails> productDetailsList) {
+        HashMap<String, ProductDetails> details = new HashMap<>(productDetails);
+        for (ProductDetails productDetails : productDetailsList) {
+            String type = productTypes.get(productDetails.getProductId());
+            if (type != null && ProductDetailsFetcher.toBillingProductType(type).equals(productDetails.getProductType())) {
+                details.put(productDetails.getProductId(), productDetails);
+            }
+        }
+        return new CatalogState(productTypes, Collections.unmodifiableMap(details));
+    }
+
+    /**
+     * Replace the loaded details with a complete catalog query, keeping the previous details
+     * of products whose chunk failed
+     * @param failedProductIds ids of the chunks that failed for good
+     */
+    @NonNull CatalogState withCatalog(@NonNull Collection<ProductDetails> productDetailsList, @NonNull Set<String> failedProductIds) {
+        HashMap<String, ProductDetails> details = new HashMap<>();
+        for (ProductDetails productDetails : productDetails.values()) {
+            if (failedProductIds.contains(productDetails.getProductId())) {
+                details.put(productDetails.getProductId(), productDetails);
+            }
+        }
+        CatalogState state = new CatalogState(productTypes, Collections.unmodifiableMap(details));
+        return state.withDetails(productDetailsList);
+    }
+}
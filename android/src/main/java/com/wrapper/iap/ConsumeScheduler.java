@@ -0,0 +1,232 @@
+package com.wrapper.iap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.ConsumeResponseListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Runs consumeAsync / acknowledgePurchase calls with bounded parallelism.
+ *
+ * A batch of tokens is submitted in one call and reported back once, after every token
+ * has settled. Transient response codes are retried with exponential backoff, and a token
+ * that is already queued or in flight is not sent twice: the later batch just waits for
+ * the running task.
+ */
+class ConsumeScheduler {
+    private static final String TAG = "ConsumeScheduler";
+    static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_RETRY_DELAY_MILLIS = 500L;
+
+    interface BatchCallback {
+        /**
+         * @param results one per submitted token, in submission order
+         */
+        void onBatchComplete(@NonNull List<Result> results);
+    }
+
+    static class Result {
+        final Product product;
+        final boolean acknowledge;
+        int responseCode = BillingResponseCode.ERROR;
+        String debugMessage = "";
+
+        Result(Product product, boolean acknowledge) {
+            this.product = product;
+            this.acknowledge = acknowledge;
+        }
+
+        boolean isSuccess() {
+            return responseCode == BillingResponseCode.OK;
+        }
+    }
+
+    private static class Batch {
+        final List<Result> results = new ArrayList<>();
+        final BatchCallback callback;
+        int remaining;
+
+        Batch(BatchCallback callback) {
+            this.callback = callback;
+        }
+    }
+
+    private static class Task {
+        final String purchaseToken;
+        final boolean acknowledge;
+        // results of every batch waiting on this token
+        final List<Result> waiting = new ArrayList<>();
+        final List<Batch> batches = new ArrayList<>();
+        int attempts = 0;
+
+        Task(String purchaseToken, boolean acknowledge) {
+            this.purchaseToken = purchaseToken;
+            this.acknowledge = acknowledge;
+        }
+    }
+
+    private final BillingConnection mConnection;
+    private final BillingMetrics mMetrics;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<Task> mQueue = new ArrayDeque<>();
+    // purchaseToken => queued or running task
+    private final HashMap<String, Task> mTasks = new HashMap<>();
+    private int mInFlight = 0;
+    private int mMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    ConsumeScheduler(@NonNull BillingConnection connection, @NonNull BillingMetrics metrics) {
+        mConnection = connection;
+        mMetrics = metrics;
+    }
+
+    synchronized void setMaxInFlight(int maxInFlight) {
+        mMaxInFlight = Math.max(1, maxInFlight);
+    }
+
+    void consume(@NonNull List<Product> products, @NonNull BatchCallback callback) {
+        submit(products, false, callback);
+    }
+
+    void acknowledge(@NonNull List<Product> products, @NonNull BatchCallback callback) {
+        submit(products, true, callback);
+    }
+
+    private void submit(List<Product> products, boolean acknowledge, BatchCallback callback) {
+        Batch batch = new Batch(callback);
+        synchronized (this) {
+            batch.remaining = products.size();
+            for (Product product : products) {
+                Result result = new Result(product, acknowledge);
+                batch.results.add(result);
+
+                Task task = mTasks.get(product.purchaseToken);
+                if (task == null || task.acknowledge != acknowledge) {
+                    task = new Task(product.purchaseToken, acknowledge);
+                    mTasks.put(product.purchaseToken, task);
+                    mQueue.add(task);
+                } else {
+                    Log.d(TAG, "token already in flight, joining: " + product.id);
+                }
+                task.waiting.add(result);
+                task.batches.add(batch);
+            }
+        }
+
+        if (products.isEmpty()) {
+            callback.onBatchComplete(batch.results);
+            return;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            while (mInFlight < mMaxInFlight && !mQueue.isEmpty()) {
+                Task task = mQueue.poll();
+                task.attempts++;
+                mInFlight++;
+                ready.add(task);
+            }
+        }
+
+        for (Task task : ready) {
+            run(task);
+        }
+    }
+
+    private void run(final Task task) {
+        mConnection.execute(new BillingConnection.Operation() {
+            @Override
+            public void run(@NonNull BillingClient billingClient) {
+                if (task.acknowledge) {
+                    final long startNanos = mMetrics.begin(BillingMetrics.OP_ACKNOWLEDGE);
+                    AcknowledgePurchaseParams params = AcknowledgePurchaseParams.newBuilder().setPurchaseToken(task.purchaseToken).build();
+                    billingClient.acknowledgePurchase(params, new AcknowledgePurchaseResponseListener() {
+                        @Override
+                        public void onAcknowledgePurchaseResponse(@NonNull BillingResult billingResult) {
+                            mMetrics.end(BillingMetrics.OP_ACKNOWLEDGE, startNanos, billingResult.getResponseCode());
+                            onTaskComplete(task, billingResult.getResponseCode(), billingResult.getDebugMessage());
+                        }
+                    });
+                } else {
+                    final long startNanos = mMetrics.begin(BillingMetrics.OP_CONSUME);
+                    ConsumeParams params = ConsumeParams.newBuilder().setPurchaseToken(task.purchaseToken).build();
+                    billingClient.consumeAsync(params, new ConsumeResponseListener() {
+                        @Override
+                        public void onConsumeResponse(@NonNull BillingResult billingResult, @NonNull String purchaseToken) {
+                            mMetrics.end(BillingMetrics.OP_CONSUME, startNanos, billingResult.getResponseCode());
+                            onTaskComplete(task, billingResult.getResponseCode(), billingResult.getDebugMessage());
+                        }
+                    });
+                }
+            }
+
+            @Override
+            public void onUnavailable(int responseCode, @NonNull String message) {
+                // the connection already retried, do not retry on top of it
+                task.attempts = MAX_ATTEMPTS;
+                onTaskComplete(task, responseCode, message);
+            }
+        });
+    }
+
+    private static boolean isRetryable(int responseCode) {
+        return responseCode == BillingResponseCode.SERVICE_UNAVAILABLE
+                || responseCode == BillingResponseCode.SERVICE_TIMEOUT
+                || responseCode == BillingResponseCode.SERVICE_DISCONNECTED
+                || responseCode == BillingResponseCode.ERROR;
+    }
+
+    private void onTaskComplete(final Task task, int responseCode, String debugMessage) {
+        List<Batch> completed = new ArrayList<>();
+        synchronized (this) {
+            mInFlight--;
+            if (isRetryable(responseCode) && task.attempts < MAX_ATTEMPTS) {
+                long delay = BASE_RETRY_DELAY_MILLIS << (task.attempts - 1);
+                Log.d(TAG, "retrying " + task.purchaseToken + " in " + delay + "ms, responseCode=" + responseCode);
+                mHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (ConsumeScheduler.this) {
+                            mQueue.addFirst(task);
+                        }
+                        schedule();
+                    }
+                }, delay);
+            } else {
+                mTasks.remove(task.purchaseToken, task);
+                for (Result result : task.waiting) {
+                    result.responseCode = responseCode;
+                    result.debugMessage = debugMessage != null ? debugMessage : "";
+                }
+                for (Batch batch : task.batches) {
+                    batch.remaining--;
+                    if (batch.remaining == 0) {
+                        completed.add(batch);
+                    }
+                }
+            }
+        }
+
+        for (Batch batch : completed) {
+            batch.callback.onBatchComplete(batch.results);
+        }
+        schedule();
+    }
+}
@@ -0,0 +1,152 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.Purchase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Owned products (PURCHASED state) by product id, so ownership checks are a map lookup
+ * instead of a queryPurchasesAsync round trip.
+ *
+ * Rebuilt per product type from each purchases snapshot and updated in between from
+ * onPurchasesUpdated and consume results. Watched product ids get a callback whenever
+ * their ownership or token changes.
+ */
+class EntitlementIndex {
+    interface Watcher {
+        void onEntitlementChanged(@NonNull String productId, boolean owned, @NonNull String purchaseToken);
+    }
+
+    private static class Entitlement {
+        final String purchaseToken;
+        // BillingClient.ProductType, a snapshot only replaces entries of its own type
+        final String productType;
+
+        Entitlement(String purchaseToken, String productType) {
+            this.purchaseToken = purchaseToken;
+            this.productType = productType;
+        }
+    }
+
+    // productId => Entitlement, readers never lock
+    private final ConcurrentHashMap<String, Entitlement> mEntitlements = new ConcurrentHashMap<>();
+    private final Set<String> mWatchedProductIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Watcher mWatcher;
+
+    EntitlementIndex(@NonNull Watcher watcher) {
+        mWatcher = watcher;
+    }
+
+    boolean isOwned(@NonNull String productId) {
+        return mEntitlements.containsKey(productId);
+    }
+
+    /**
+     * @return purchase token of the owned product, null if it is not owned
+     */
+    @Nullable String getToken(@NonNull String productId) {
+        Entitlement entitlement = mEntitlements.get(productId);
+        return entitlement != null ? entitlement.purchaseToken : null;
+    }
+
+    void watch(@NonNull String productId) {
+        mWatchedProductIds.add(productId);
+    }
+
+    void unwatch(@NonNull String productId) {
+        mWatchedProductIds.remove(productId);
+    }
+
+    /**
+     * Replace every entry of productType with the purchases of a complete snapshot
+     */
+    void replaceAll(@NonNull String productType, @NonNull List<Purchase> purchases) {
+        Map<String, String> owned = new HashMap<>();
+        for (Purchase purchase : purchases) {
+            if (purchase.getPurchaseState() != Purchase.PurchaseState.PURCHASED) {
+                continue;
+            }
+            for (String productId : purchase.getProducts()) {
+                owned.put(productId, purchase.getPurchaseToken());
+            }
+        }
+
+        List<String> changed = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Entitlement> entry : mEntitlements.entrySet()) {
+                if (entry.getValue().productType.equals(productType) && !owned.containsKey(entry.getKey())) {
+                    mEntitlements.remove(entry.getKey());
+                    changed.add(entry.getKey());
+                }
+            }
+            for (Map.Entry<String, String> entry : owned.entrySet()) {
+                if (put(entry.getKey(), entry.getValue(), productType)) {
+                    changed.add(entry.getKey());
+                }
+            }
+        }
+        notifyChanged(changed);
+    }
+
+    /**
+     * Single purchase from onPurchasesUpdated, only a PURCHASED one grants ownership
+     */
+    void onPurchaseUpdated(@NonNull Purchase purchase, @NonNull String productType) {
+        if (purchase.getPurchaseState() != Purchase.PurchaseState.PURCHASED) {
+            return;
+        }
+        List<String> changed = new ArrayList<>();
+        synchronized (this) {
+            for (String productId : purchase.getProducts()) {
+                if (put(productId, purchase.getPurchaseToken(), productType)) {
+                    changed.add(productId);
+                }
+            }
+        }
+        notifyChanged(changed);
+    }
+
+    /**
+     * The purchase was consumed, the product is no longer owned unless a newer token replaced it
+     */
+    void onConsumed(@NonNull String productId, @NonNull String purchaseToken) {
+        boolean removed;
+        synchronized (this) {
+            Entitlement entitlement = mEntitlements.get(productId);
+            removed = entitlement != null && entitlement.purchaseToken.equals(purchaseToken)
+                    && mEntitlements.remove(productId, entitlement);
+        }
+        if (removed) {
+            notifyChanged(productId);
+        }
+    }
+
+    // caller holds the lock
+    private boolean put(String productId, String purchaseToken, String productType) {
+        Entitlement previous = mEntitlements.put(productId, new Entitlement(purchaseToken, productType));
+        return previous == null || !previous.purchaseToken.equals(purchaseToken);
+    }
+
+    private void notifyChanged(List<String> productIds) {
+        for (String productId : productIds) {
+            notifyChanged(productId);
+        }
+    }
+
+    private void notifyChanged(String productId) {
+        if (!mWatchedProductIds.contains(productId)) {
+            return;
+        }
+        String purchaseToken = getToken(productId);
+        mWatcher.onEntitlementChanged(productId, purchaseToken != null, purchaseToken != null ? purchaseToken : "");
+    }
+}
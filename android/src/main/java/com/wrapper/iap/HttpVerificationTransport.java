@@ -0,0 +1,93 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * VerificationTransport posting JSON to an HTTP(S) endpoint, one request at a time on
+ * its own thread. Pointing it at a local server is enough to exercise the uploader.
+ */
+class HttpVerificationTransport implements VerificationTransport {
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final String mEndpointUrl;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    HttpVerificationTransport(@NonNull String endpointUrl) {
+        mEndpointUrl = endpointUrl;
+    }
+
+    /**
+     * Stop the request thread once the request in flight is answered, later posts fail
+     */
+    void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    @Override
+    public void post(@NonNull final String requestJson, @NonNull final Callback callback) {
+        try {
+            mExecutor.execute(newRequest(requestJson, callback));
+        } catch (RejectedExecutionException e) {
+            // replaced while the batch was being built, it is retried on the new transport
+            callback.onError("transport shut down");
+        }
+    }
+
+    private Runnable newRequest(@NonNull final String requestJson, @NonNull final Callback callback) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                HttpURLConnection connection = null;
+                try {
+                    connection = (HttpURLConnection) new URL(mEndpointUrl).openConnection();
+                    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+                    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+                    connection.setRequestMethod("POST");
+                    connection.setDoOutput(true);
+                    connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+                    byte[] body = requestJson.getBytes(StandardCharsets.UTF_8);
+                    connection.setFixedLengthStreamingMode(body.length);
+                    try (OutputStream out = connection.getOutputStream()) {
+                        out.write(body);
+                    }
+
+                    int statusCode = connection.getResponseCode();
+                    InputStream in = statusCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+                    callback.onResponse(statusCode, in != null ? readFully(in) : "");
+                } catch (IOException | ClassCastException e) {
+                    callback.onError(String.valueOf(e.getMessage()));
+                } finally {
+                    if (connection != null) {
+                        connection.disconnect();
+                    }
+                }
+            }
+        };
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.wrapper.iap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decides what activity stop / resume costs the billing connection.
+ *
+ * A stop only ends the connection once the keep-alive grace period has passed, so a quick
+ * switch to another app and back keeps the connected client. On resume the purchases
+ * refresh is skipped while the last snapshot is fresh, and the longer the app was in the
+ * background the younger a snapshot has to be to count as fresh.
+ */
+class LifecycleScheduler {
+    static final long DEFAULT_KEEP_ALIVE_MILLIS = 60 * 1000L;
+    // back within this, a snapshot younger than SHORT_BACKGROUND_FRESH_MILLIS is reused
+    private static final long SHORT_BACKGROUND_MILLIS = 30 * 1000L;
+    private static final long SHORT_BACKGROUND_FRESH_MILLIS = 5 * 60 * 1000L;
+    private static final long MEDIUM_BACKGROUND_FRESH_MILLIS = 60 * 1000L;
+    // away this long, purchases may have changed elsewhere (pending payments, promo codes, other devices)
+    private static final long LONG_BACKGROUND_MILLIS = 10 * 60 * 1000L;
+
+    interface Callback {
+        /**
+         * The app stayed in the background for the whole grace period, called on the main thread
+         */
+        void onKeepAliveExpired();
+    }
+
+    private final Callback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private long mKeepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+    // elapsedRealtime of the last stop, -1 while in the foreground
+    private long mStoppedAtMillis = -1;
+
+    private final Runnable mExpire = new Runnable() {
+        @Override
+        public void run() {
+            mCallback.onKeepAliveExpired();
+        }
+    };
+
+    LifecycleScheduler(@NonNull Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * @param keepAliveMillis 0 ends the connection as soon as the app stops
+     */
+    synchronized void setKeepAliveMillis(long keepAliveMillis) {
+        mKeepAliveMillis = Math.max(0, keepAliveMillis);
+    }
+
+    void onStop() {
+        long keepAliveMillis;
+        synchronized (this) {
+            mStoppedAtMillis = SystemClock.elapsedRealtime();
+            keepAliveMillis = mKeepAliveMillis;
+        }
+        mHandler.removeCallbacks(mExpire);
+        if (keepAliveMillis == 0) {
+            mCallback.onKeepAliveExpired();
+        } else {
+            mHandler.postDelayed(mExpire, keepAliveMillis);
+        }
+    }
+
+    /**
+     * Cancels a pending disconnect
+     * @param snapshotAgeMillis age of the last purchases snapshot, see PurchasesSnapshot.getAgeMillis()
+     * @return true if the resume refresh is due
+     */
+    boolean onResume(long snapshotAgeMillis) {
+        mHandler.removeCallbacks(mExpire);
+        long backgroundMillis;
+        synchronized (this) {
+            // a resume without a stop (dialog, billing flow overlay) counts as no time away
+            backgroundMillis = mStoppedAtMillis < 0 ? 0 : SystemClock.elapsedRealtime() - mStoppedAtMillis;
+            mStoppedAtMillis = -1;
+        }
+        return isRefreshDue(backgroundMillis, snapshotAgeMillis);
+    }
+
+    static boolean isRefreshDue(long backgroundMillis, long snapshotAgeMillis) {
+        if (backgroundMillis >= LONG_BACKGROUND_MILLIS) {
+            return true;
+        }
+        long freshMillis = backgroundMillis >= SHORT_BACKGROUND_MILLIS ? MEDIUM_BACKGROUND_FRESH_MILLIS : SHORT_BACKGROUND_FRESH_MILLIS;
+        return snapshotAgeMillis > freshMillis;
+    }
+}
@@ -0,0 +1,13 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives periodic billing metrics snapshots, see PurchaseManager.setMetricsExporter()
+ */
+public interface MetricsExporter {
+    /**
+     * @param snapshotJson flat JSON object, e.g. {"consume_count": 3, "consume_p50_ms": 212.9, ...}
+     */
+    void export(@NonNull String snapshotJson);
+}
@@ -1,63 +1,156 @@
 package com.wrapper.iap;
 
+import android.util.JsonWriter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.android.billingclient.api.ProductDetails;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Immutable; catalog instances are built once per ProductDetails (see ProductCache) and
+ * purchase data is attached with withPurchase(), which returns a copy. Instances are shared
+ * rather than pooled: a recycled Product could be overwritten while a queued event still
+ * holds it.
+ * Prices are kept as micros, priceValue is only derived for the float based native API.
+ */
 public class Product {
-    String id;
-    String type;
-    String title;
-    String description;
-    float priceValue;
-    String price;
-    String currencyCode;
-    String receiptCipheredPayload;
-    String receipt;
-    String transactionID;
-    String purchaseToken;
+    final String id;
+    final String type;
+    final String title;
+    final String description;
+    final float priceValue;
+    final long priceMicros;
+    final String price;
+    final String currencyCode;
+    final String receiptCipheredPayload;
+    final String receipt;
+    final String transactionID;
+    final String purchaseToken;
 
     public Product() {
-        id = "iap";
-        type = "t_y_p_e";
-        title = "title";
-        description = "desc";
-        priceValue = 100;
-        price = "Rs 100";
-        currencyCode = "Rs";
-        receiptCipheredPayload = "r";
-        receipt = "rt";
-        transactionID = "td";
-        purchaseToken = "nil";
+        this("iap", "t_y_p_e", "title", "desc", 100000000L, "Rs 100", "Rs", "rt", "r", "td", "nil");
+    }
+
+    Product(String id, String type, String title, String description, long priceMicros, String price, String currencyCode,
+            String receipt, String receiptCipheredPayload, String transactionID, String purchaseToken) {
+        this.id = id;
+        this.type = type;
+        this.title = title;
+        this.description = description;
+        this.priceMicros = priceMicros;
+        this.priceValue = (float) ((double) priceMicros / 1000000.0);
+        this.price = price;
+        this.currencyCode = currencyCode;
+        this.receipt = receipt;
+        this.receiptCipheredPayload = receiptCipheredPayload;
+        this.transactionID = transactionID;
+        this.purchaseToken = purchaseToken;
+    }
+
+    /**
+     * Placeholder for a product whose details are not loaded, only carries id and token
+     */
+    static @NonNull Product placeholder(String id, String purchaseToken) {
+        Product empty = new Product();
+        return new Product(id, empty.type, empty.title, empty.description, empty.priceMicros, empty.price, empty.currencyCode,
+                empty.receipt, empty.receiptCipheredPayload, empty.transactionID, purchaseToken);
     }
 
     public static Product createFromProductDetails(ProductDetails productDetails, String type) {
+        SubscriptionOffers.Offer offer = null;
+        if (type.equals("subs")) {
+            SubscriptionOffers offers = SubscriptionOffers.build(productDetails, SubscriptionOffers.POLICY_LOWEST_FIRST_PRICE, null);
+            offer = offers != null ? offers.getSelectedOffer() : null;
+        }
+        return createFromProductDetails(productDetails, type, offer);
+    }
 
-        Product product = new Product();
-        product.id = productDetails.getProductId(); //.replaceAll("_"," ") ;
-        product.type = type;
+    /**
+     * @param offer subscription offer the product is sold with, its recurring phase is the price
+     */
+    static Product createFromProductDetails(ProductDetails productDetails, String type, @Nullable SubscriptionOffers.Offer offer) {
+        String price;
+        String currencyCode;
+        long priceMicros;
         if (type.equals("subs")) {
-            ProductDetails.PricingPhase pricingPhase = productDetails.getSubscriptionOfferDetails().get(0).getPricingPhases().getPricingPhaseList().get(0);
-            product.price = pricingPhase.getFormattedPrice();
-            product.currencyCode = pricingPhase.getPriceCurrencyCode();
-            double priceValue = (double) pricingPhase.getPriceAmountMicros() / 1000000.0;
-            product.priceValue = (float)priceValue;
+            if (offer != null) {
+                SubscriptionOffers.PricingPhase pricingPhase = offer.getRecurringPhase();
+                price = pricingPhase.formattedPrice;
+                currencyCode = pricingPhase.currencyCode;
+                priceMicros = pricingPhase.priceMicros;
+            } else {
+                // no offer can be bought, listed without a price
+                price = "";
+                currencyCode = "";
+                priceMicros = 0;
+            }
         }
         else
         {
-            product.price = productDetails.getOneTimePurchaseOfferDetails().getFormattedPrice();
-            product.currencyCode = productDetails.getOneTimePurchaseOfferDetails().getPriceCurrencyCode();
-            double priceValue = (double)productDetails.getOneTimePurchaseOfferDetails().getPriceAmountMicros() / 1000000.0;
-            product.priceValue = (float)priceValue;
+            ProductDetails.OneTimePurchaseOfferDetails offerDetails = productDetails.getOneTimePurchaseOfferDetails();
+            price = offerDetails.getFormattedPrice();
+            currencyCode = offerDetails.getPriceCurrencyCode();
+            priceMicros = offerDetails.getPriceAmountMicros();
         }
-        product.title = productDetails.getTitle();
-        product.description = productDetails.getDescription();
-        product.receipt = "";
-        product.receiptCipheredPayload = "";
-        product.transactionID = "";
-        product.purchaseToken = "";
-        return product;
+        return new Product(productDetails.getProductId(), type, productDetails.getTitle(), productDetails.getDescription(),
+                priceMicros, price, currencyCode, "", "", "", "");
+    }
+
+    /**
+     * @return copy of this catalog product carrying the purchase
+     */
+    @NonNull Product withPurchase(String transactionID, String receipt, String receiptCipheredPayload, String purchaseToken) {
+        return new Product(id, type, title, description, priceMicros, price, currencyCode,
+                receipt, receiptCipheredPayload, transactionID, purchaseToken);
+    }
+
+    @NonNull Product withPurchaseToken(String purchaseToken) {
+        return withPurchase(transactionID, receipt, receiptCipheredPayload, purchaseToken);
+    }
+
+    void writeJson(@NonNull JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(id);
+        writer.name("type").value(type);
+        writer.name("title").value(title);
+        writer.name("description").value(description);
+        writer.name("price").value(price);
+        writer.name("priceValue").value(priceValue);
+        writer.name("priceMicros").value(priceMicros);
+        writer.name("currencyCode").value(currencyCode);
+        writer.name("receipt").value(receipt);
+        writer.name("receiptCipheredPayload").value(receiptCipheredPayload);
+        writer.name("transactionID").value(transactionID);
+        writer.name("purchaseToken").value(purchaseToken);
+        writer.endObject();
+    }
+
+    @NonNull String toJsonString() throws IOException {
+        StringWriter out = new StringWriter(512);
+        JsonWriter writer = new JsonWriter(out);
+        writeJson(writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    static @NonNull String toJsonString(@NonNull List<Product> products) throws IOException {
+        StringWriter out = new StringWriter(512 * Math.max(1, products.size()));
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginArray();
+        for (Product product : products) {
+            product.writeJson(writer);
+        }
+        writer.endArray();
+        writer.flush();
+        return out.toString();
     }
 
     public JSONObject toJson() throws JSONException {
@@ -69,6 +162,7 @@ public class Product {
         json.put("description", description);
         json.put("price", price);
         json.put("priceValue", priceValue);
+        json.put("priceMicros", priceMicros);
         json.put("currencyCode", currencyCode);
         json.put("receipt", receipt);
         json.put("receiptCipheredPayload", receiptCipheredPayload);
@@ -77,4 +171,19 @@ public class Product {
         return json;
     }
 
+    public static Product fromJson(JSONObject json) throws JSONException {
+        return new Product(
+                json.getString("id"),
+                json.getString("type"),
+                json.getString("title"),
+                json.getString("description"),
+                json.optLong("priceMicros", Math.round(json.getDouble("priceValue") * 1000000.0)),
+                json.getString("price"),
+                json.getString("currencyCode"),
+                json.optString("receipt", ""),
+                json.optString("receiptCipheredPayload", ""),
+                json.optString("transactionID", ""),
+                json.optString("purchaseToken", ""));
+    }
+
 }
@@ -0,0 +1,77 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.ProductDetails;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Catalog Product per ProductDetails, built once and shared by every callback until a
+ * refresh hands in a new ProductDetails instance for the product. Subscriptions also get
+ * their offer index here, so the offer to purchase is already picked at catalog load.
+ */
+class ProductCache {
+    private static class Entry {
+        final ProductDetails productDetails;
+        final Product product;
+        // null unless the product is a subscription with offers
+        final SubscriptionOffers offers;
+
+        Entry(ProductDetails productDetails, Product product, SubscriptionOffers offers) {
+            this.productDetails = productDetails;
+            this.product = product;
+            this.offers = offers;
+        }
+    }
+
+    // productId => Entry
+    private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private volatile String mOfferPolicy = SubscriptionOffers.POLICY_LOWEST_FIRST_PRICE;
+    private volatile String mPreferredOfferTag;
+
+    @NonNull Product get(@NonNull ProductDetails productDetails, @NonNull String type) {
+        return getEntry(productDetails, type).product;
+    }
+
+    /**
+     * @return offer index of a subscription, null for other products or a subscription without offers
+     */
+    @Nullable SubscriptionOffers getOffers(@NonNull ProductDetails productDetails, @NonNull String type) {
+        return getEntry(productDetails, type).offers;
+    }
+
+    private Entry getEntry(ProductDetails productDetails, String type) {
+        Entry entry = mEntries.get(productDetails.getProductId());
+        if (entry != null && entry.productDetails == productDetails && entry.product.type.equals(type)) {
+            return entry;
+        }
+        SubscriptionOffers offers = null;
+        if (type.equals("subs")) {
+            offers = SubscriptionOffers.build(productDetails, mOfferPolicy, mPreferredOfferTag);
+        }
+        Product product = Product.createFromProductDetails(productDetails, type,
+                offers != null ? offers.getSelectedOffer() : null);
+        entry = new Entry(productDetails, product, offers);
+        mEntries.put(productDetails.getProductId(), entry);
+        return entry;
+    }
+
+    /**
+     * Changing the policy drops every entry, offers are picked again on the next get()
+     */
+    void setOfferPolicy(@NonNull String policy, @Nullable String preferredTag) {
+        mOfferPolicy = policy;
+        mPreferredOfferTag = preferredTag;
+        mEntries.clear();
+    }
+
+    void remove(@NonNull String productId) {
+        mEntries.remove(productId);
+    }
+
+    void clear() {
+        mEntries.clear();
+    }
+}
@@ -0,0 +1,206 @@
+package com.wrapper.iap;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Last good product catalog, persisted to app-private storage so the shop can show
+ * prices on cold start before the BillingClient has connected.
+ *
+ * Entries are keyed by product id, locale and currency, and load() drops entries stored
+ * under another locale. The Play store country is not known before the client connects, so
+ * after a country change with the same locale the old prices are served until the first
+ * live fetch replaces the snapshot and reports the changed prices. Methods may be called
+ * from any thread.
+ */
+class ProductCatalogCache {
+    private static final String TAG = "ProductCatalogCache";
+    private static final String CACHE_FILE_NAME = "iap_product_catalog.json";
+    static final long DEFAULT_TTL_MILLIS = 6 * 60 * 60 * 1000L;
+
+    private final File mCacheFile;
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+
+    // id|locale|currency => Product
+    private final LinkedHashMap<String, Product> mProducts = new LinkedHashMap<>();
+    private long mUpdatedAtMillis = 0;
+    private long mTtlMillis = DEFAULT_TTL_MILLIS;
+
+    ProductCatalogCache(@NonNull Context context) {
+        mCacheFile = new File(context.getFilesDir(), CACHE_FILE_NAME);
+    }
+
+    synchronized void setTtlMillis(long ttlMillis) {
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * stale-while-revalidate: a stale snapshot is still served, but must be refreshed
+     */
+    synchronized boolean isStale() {
+        return System.currentTimeMillis() - mUpdatedAtMillis > mTtlMillis;
+    }
+
+    synchronized @NonNull List<Product> getProducts() {
+        return new ArrayList<>(mProducts.values());
+    }
+
+    /**
+     * Read the persisted snapshot, dropping entries stored under another locale
+     */
+    synchronized void load() {
+        if (!mCacheFile.exists()) {
+            return;
+        }
+        try {
+            JSONObject snapshot = new JSONObject(readFile(mCacheFile));
+            String locale = currentLocale();
+            JSONArray entries = snapshot.getJSONArray("products");
+
+            mProducts.clear();
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                if (!locale.equals(entry.getString("locale"))) {
+                    continue;
+                }
+                Product product = Product.fromJson(entry.getJSONObject("product"));
+                mProducts.put(cacheKey(product, locale), product);
+            }
+            mUpdatedAtMillis = snapshot.getLong("updatedAt");
+            Log.d(TAG, "loaded " + mProducts.size() + " cached products");
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "failed to load product catalog cache: " + e.getMessage());
+            mProducts.clear();
+            mUpdatedAtMillis = 0;
+        }
+    }
+
+    /**
+     * Replace the snapshot with a fresh catalog and persist it.
+     * @param keptProductIds products missing from the fresh catalog whose cached entry is kept, e.g. a failed chunk
+     * @return products that are new or whose price differs from the previous snapshot
+     */
+    synchronized @NonNull List<Product> update(@NonNull List<Product> products, @NonNull Set<String> keptProductIds) {
+        String locale = currentLocale();
+        List<Product> changed = new ArrayList<>();
+        LinkedHashMap<String, Product> updated = new LinkedHashMap<>();
+        for (Map.Entry<String, Product> entry : mProducts.entrySet()) {
+            if (keptProductIds.contains(entry.getValue().id)) {
+                updated.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Product product : products) {
+            String key = cacheKey(product, locale);
+            Product previous = mProducts.get(key);
+            if (previous == null || !previous.price.equals(product.price) || previous.priceMicros != product.priceMicros) {
+                changed.add(product);
+            }
+            updated.put(key, product);
+        }
+
+        mProducts.clear();
+        mProducts.putAll(updated);
+        mUpdatedAtMillis = System.currentTimeMillis();
+        save(locale);
+        return changed;
+    }
+
+    /**
+     * Drop products that were removed from the config
+     */
+    synchronized void remove(@NonNull Set<String> productIds) {
+        boolean removed = false;
+        for (Iterator<Product> it = mProducts.values().iterator(); it.hasNext(); ) {
+            if (productIds.contains(it.next().id)) {
+                it.remove();
+                removed = true;
+            }
+        }
+        if (removed) {
+            save(currentLocale());
+        }
+    }
+
+    // caller holds the lock, the snapshot is serialized before the write is queued
+    private void save(String locale) {
+        final String content;
+        try {
+            JSONArray entries = new JSONArray();
+            for (Product product : mProducts.values()) {
+                JSONObject entry = new JSONObject();
+                entry.put("locale", locale);
+                entry.put("product", product.toJson());
+                entries.put(entry);
+            }
+            JSONObject snapshot = new JSONObject();
+            snapshot.put("updatedAt", mUpdatedAtMillis);
+            snapshot.put("products", entries);
+            content = snapshot.toString();
+        } catch (JSONException e) {
+            Log.w(TAG, "failed to serialize product catalog cache: " + e.getMessage());
+            return;
+        }
+
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File tmpFile = new File(mCacheFile.getPath() + ".tmp");
+                try (OutputStream out = new FileOutputStream(tmpFile)) {
+                    out.write(content.getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    Log.w(TAG, "failed to write product catalog cache: " + e.getMessage());
+                    return;
+                }
+                if (!tmpFile.renameTo(mCacheFile)) {
+                    Log.w(TAG, "failed to replace product catalog cache");
+                }
+            }
+        });
+    }
+
+    private static String cacheKey(Product product, String locale) {
+        return product.id + "|" + locale + "|" + product.currencyCode;
+    }
+
+    private static String currentLocale() {
+        return Locale.getDefault().toString();
+    }
+
+    private static String readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < buffer.length) {
+                int read = in.read(buffer, offset, buffer.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+            return new String(buffer, 0, offset, StandardCharsets.UTF_8);
+        }
+    }
+}
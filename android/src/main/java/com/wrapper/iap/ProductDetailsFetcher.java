@@ -0,0 +1,225 @@
+package com.wrapper.iap;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetailsResponseListener;
+import com.android.billingclient.api.QueryProductDetailsParams;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fetches ProductDetails for the configured products, issuing the INAPP and SUBS
+ * queries concurrently. Each query only carries the ids of its own product type, and
+ * all results are merged into a single completion callback.
+ *
+ * Large catalogs are split into chunks of at most {@code chunkSize} ids with no more
+ * than {@code maxInFlight} queries running at once. A chunk that fails with a transient
+ * response code is retried on its own after a jittered backoff, and every completed chunk
+ * is reported as soon as it arrives. Failures are tracked per chunk, so a chunk that fails
+ * for good only costs the ids it carried and the fetch completes with the rest.
+ */
+class ProductDetailsFetcher {
+    static final int DEFAULT_CHUNK_SIZE = 20;
+    static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final int MAX_CHUNK_ATTEMPTS = 3;
+    private static final long BASE_RETRY_DELAY_MILLIS = 500L;
+    private static final long MAX_RETRY_DELAY_MILLIS = 4 * 1000L;
+
+    interface Callback {
+        /**
+         * Called once per successfully fetched chunk, before onFetchComplete
+         */
+        void onChunkFetched(@NonNull List<ProductDetails> productDetailsList);
+
+        /**
+         * Partial success when both are non-empty
+         * @param productDetailsList details of every chunk that was fetched successfully
+         * @param failures productId => last result of its chunk, for every chunk that failed for good
+         */
+        void onFetchComplete(@NonNull List<ProductDetails> productDetailsList, @NonNull Map<String, BillingResult> failures);
+    }
+
+    private static class Chunk {
+        final String productType;
+        final List<String> productIds;
+        int attempts = 0;
+
+        Chunk(String productType, List<String> productIds) {
+            this.productType = productType;
+            this.productIds = productIds;
+        }
+    }
+
+    private final BillingClient mBillingClient;
+    private final BillingMetrics mMetrics;
+    private final Callback mCallback;
+    private final int mMaxInFlight;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random();
+
+    private final ArrayDeque<Chunk> mQueue = new ArrayDeque<>();
+    private final List<ProductDetails> mProductDetailsList = new ArrayList<>();
+    private final Map<String, BillingResult> mFailures = new HashMap<>();
+    private int mInFlight = 0;
+    private int mPendingChunks = 0;
+
+    private ProductDetailsFetcher(BillingClient billingClient, BillingMetrics metrics, int maxInFlight, Callback callback) {
+        mBillingClient = billingClient;
+        mMetrics = metrics;
+        mMaxInFlight = Math.max(1, maxInFlight);
+        mCallback = callback;
+    }
+
+    /**
+     * @param productTypeMap productId => type(consumable, non_consumable or subs)
+     */
+    static void fetch(@NonNull BillingClient billingClient, @NonNull BillingMetrics metrics, @NonNull Map<String, String> productTypeMap,
+                      int chunkSize, int maxInFlight, @NonNull Callback callback) {
+        Map<String, List<String>> productIdsByType = new HashMap<>();
+        for (Map.Entry<String, String> entry : productTypeMap.entrySet()) {
+            String productType = toBillingProductType(entry.getValue());
+            List<String> productIds = productIdsByType.get(productType);
+            if (productIds == null) {
+                productIds = new ArrayList<>();
+                productIdsByType.put(productType, productIds);
+            }
+            productIds.add(entry.getKey());
+        }
+
+        ProductDetailsFetcher fetcher = new ProductDetailsFetcher(billingClient, metrics, maxInFlight, callback);
+        fetcher.start(productIdsByType, Math.max(1, chunkSize));
+    }
+
+    static @NonNull String toBillingProductType(@NonNull String type) {
+        return type.equals("subs") ? BillingClient.ProductType.SUBS : BillingClient.ProductType.INAPP;
+    }
+
+    private static boolean isRetryable(int responseCode) {
+        return responseCode == BillingResponseCode.SERVICE_UNAVAILABLE
+                || responseCode == BillingResponseCode.SERVICE_TIMEOUT
+                || responseCode == BillingResponseCode.SERVICE_DISCONNECTED
+                || responseCode == BillingResponseCode.ERROR;
+    }
+
+    private void start(Map<String, List<String>> productIdsByType, int chunkSize) {
+        synchronized (this) {
+            for (Map.Entry<String, List<String>> entry : productIdsByType.entrySet()) {
+                List<String> productIds = entry.getValue();
+                for (int from = 0; from < productIds.size(); from += chunkSize) {
+                    int to = Math.min(from + chunkSize, productIds.size());
+                    mQueue.add(new Chunk(entry.getKey(), new ArrayList<>(productIds.subList(from, to))));
+                }
+            }
+            mPendingChunks = mQueue.size();
+        }
+
+        if (mPendingChunks == 0) {
+            mCallback.onFetchComplete(mProductDetailsList, mFailures);
+            return;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        List<Chunk> ready = new ArrayList<>();
+        synchronized (this) {
+            while (mInFlight < mMaxInFlight && !mQueue.isEmpty()) {
+                Chunk chunk = mQueue.poll();
+                chunk.attempts++;
+                mInFlight++;
+                ready.add(chunk);
+            }
+        }
+
+        for (Chunk chunk : ready) {
+            query(chunk);
+        }
+    }
+
+    private void query(final Chunk chunk) {
+        List<QueryProductDetailsParams.Product> productList = new ArrayList<>();
+        for (String productId : chunk.productIds) {
+            productList.add(
+                    QueryProductDetailsParams.Product.newBuilder()
+                            .setProductId(productId)
+                            .setProductType(chunk.productType)
+                            .build()
+            );
+        }
+
+        QueryProductDetailsParams params = QueryProductDetailsParams.newBuilder()
+                .setProductList(productList)
+                .build();
+        final long startNanos = mMetrics.begin(BillingMetrics.OP_QUERY_PRODUCTS);
+        mBillingClient.queryProductDetailsAsync(params, new ProductDetailsResponseListener() {
+            @Override
+            public void onProductDetailsResponse(@NonNull BillingResult billingResult, @Nullable List<ProductDetails> productDetailsList) {
+                mMetrics.end(BillingMetrics.OP_QUERY_PRODUCTS, startNanos, billingResult.getResponseCode());
+                onQueryComplete(chunk, billingResult, productDetailsList);
+            }
+        });
+    }
+
+    private void onQueryComplete(Chunk chunk, BillingResult billingResult, @Nullable List<ProductDetails> productDetailsList) {
+        boolean fetched = false;
+        boolean complete;
+        Chunk retry = null;
+        synchronized (this) {
+            mInFlight--;
+            if (billingResult.getResponseCode() == BillingResponseCode.OK && productDetailsList != null) {
+                mProductDetailsList.addAll(productDetailsList);
+                mPendingChunks--;
+                fetched = true;
+            } else if (isRetryable(billingResult.getResponseCode()) && chunk.attempts < MAX_CHUNK_ATTEMPTS) {
+                retry = chunk;
+            } else {
+                for (String productId : chunk.productIds) {
+                    mFailures.put(productId, billingResult);
+                }
+                mPendingChunks--;
+            }
+            complete = mPendingChunks == 0;
+        }
+
+        if (fetched && !productDetailsList.isEmpty()) {
+            mCallback.onChunkFetched(productDetailsList);
+        }
+        if (complete) {
+            mCallback.onFetchComplete(mProductDetailsList, mFailures);
+            return;
+        }
+        if (retry != null) {
+            retryLater(retry);
+        }
+        // the freed slot goes to the next chunk while the failed one backs off
+        schedule();
+    }
+
+    private void retryLater(final Chunk chunk) {
+        long delay = Math.min(MAX_RETRY_DELAY_MILLIS, BASE_RETRY_DELAY_MILLIS << (chunk.attempts - 1));
+        // full jitter on the upper half, so the retries of a burst of chunks spread out
+        delay = delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ProductDetailsFetcher.this) {
+                    mQueue.add(chunk);
+                }
+                schedule();
+            }
+        }, delay);
+    }
+}
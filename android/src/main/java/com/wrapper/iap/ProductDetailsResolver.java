@@ -0,0 +1,90 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fetches the ProductDetails of a single product on demand, for purchase / consume of a
+ * product the catalog has not loaded (yet). Concurrent requests for the same id share
+ * one query, which goes through ProductDetailsFetcher and so gets its retries.
+ */
+class ProductDetailsResolver {
+    interface Callback {
+        /**
+         * @param productDetails null if the product could not be resolved, see responseCode
+         */
+        void onResolved(@Nullable ProductDetails productDetails, int responseCode);
+    }
+
+    private final BillingMetrics mMetrics;
+    // productId => callbacks waiting for its in-flight query
+    private final HashMap<String, List<Callback>> mWaiting = new HashMap<>();
+
+    ProductDetailsResolver(@NonNull BillingMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * @param type configured type of the product, consumable, non_consumable or subs
+     */
+    void resolve(@NonNull BillingClient billingClient, @NonNull final String productId, @NonNull String type, @NonNull Callback callback) {
+        synchronized (this) {
+            List<Callback> waiting = mWaiting.get(productId);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            mWaiting.put(productId, waiting);
+        }
+
+        Map<String, String> productTypeMap = new HashMap<>();
+        productTypeMap.put(productId, type);
+        ProductDetailsFetcher.fetch(billingClient, mMetrics, productTypeMap, 1, 1, new ProductDetailsFetcher.Callback() {
+            @Override
+            public void onChunkFetched(@NonNull List<ProductDetails> productDetailsList) {
+            }
+
+            @Override
+            public void onFetchComplete(@NonNull List<ProductDetails> productDetailsList, @NonNull Map<String, BillingResult> failures) {
+                ProductDetails productDetails = null;
+                for (ProductDetails details : productDetailsList) {
+                    if (details.getProductId().equals(productId)) {
+                        productDetails = details;
+                    }
+                }
+                int responseCode = BillingResponseCode.OK;
+                if (productDetails == null) {
+                    // an OK query without the product means Play does not know the id
+                    responseCode = failures.isEmpty() ? BillingResponseCode.ITEM_UNAVAILABLE
+                            : failures.values().iterator().next().getResponseCode();
+                }
+                complete(productId, productDetails, responseCode);
+            }
+        });
+    }
+
+    private void complete(String productId, @Nullable ProductDetails productDetails, int responseCode) {
+        List<Callback> waiting;
+        synchronized (this) {
+            waiting = mWaiting.remove(productId);
+        }
+        if (waiting == null) {
+            return;
+        }
+        for (Callback callback : waiting) {
+            callback.onResolved(productDetails, responseCode);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Binary encoding of product lists handed to native code as a direct ByteBuffer,
+ * read in place through GetDirectBufferAddress (see GoogleIAP_Java_Listener.h).
+ *
+ * Layout, native byte order:
+ * <pre>
+ * int32 productCount
+ * repeated productCount times:
+ *     string id, type, title, description, price, currencyCode,
+ *            receipt, receiptCipheredPayload, transactionID, purchaseToken
+ *     int64  priceMicros
+ * string := int32 byteLength, UTF-8 bytes
+ * </pre>
+ * Any change here has to be mirrored in readProductsFromBuffer() on the C++ side.
+ */
+class ProductWireFormat {
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    private ByteBuffer mBuffer = allocate(INITIAL_CAPACITY);
+
+    /**
+     * Encode into the reusable buffer. The returned buffer is only valid until the next call.
+     * @return buffer positioned at 0, limit set to the encoded length
+     */
+    @NonNull ByteBuffer encode(@NonNull List<Product> products) {
+        mBuffer.clear();
+        putInt(products.size());
+        for (Product product : products) {
+            putProduct(product);
+        }
+        mBuffer.flip();
+        return mBuffer;
+    }
+
+    @NonNull ByteBuffer encode(@NonNull Product product) {
+        mBuffer.clear();
+        putInt(1);
+        putProduct(product);
+        mBuffer.flip();
+        return mBuffer;
+    }
+
+    private void putProduct(Product product) {
+        putString(product.id);
+        putString(product.type);
+        putString(product.title);
+        putString(product.description);
+        putString(product.price);
+        putString(product.currencyCode);
+        putString(product.receipt);
+        putString(product.receiptCipheredPayload);
+        putString(product.transactionID);
+        putString(product.purchaseToken);
+        ensureCapacity(8);
+        mBuffer.putLong(product.priceMicros);
+    }
+
+    private void putInt(int value) {
+        ensureCapacity(4);
+        mBuffer.putInt(value);
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(4 + bytes.length);
+        mBuffer.putInt(bytes.length);
+        mBuffer.put(bytes);
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (mBuffer.remaining() >= bytes) {
+            return;
+        }
+        int capacity = mBuffer.capacity();
+        while (capacity - mBuffer.position() < bytes) {
+            capacity *= 2;
+        }
+        ByteBuffer buffer = allocate(capacity);
+        mBuffer.flip();
+        buffer.put(mBuffer);
+        mBuffer = buffer;
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,442 @@
+package com.wrapper.iap;
+
+import android.util.JsonWriter;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fans billing events out to the PurchaseEventListeners subscribed to their topic.
+ *
+ * An event of a topic nobody subscribed to is dropped before anything is serialized.
+ * Otherwise the payload is serialized once when the event is delivered and handed to
+ * every subscriber of the topic at that moment, so a listener unsubscribed while an
+ * event was queued does not receive it. Subscribing and unsubscribing is safe from any thread.
+ */
+class PurchaseEventBus {
+    private static final String TAG = "PurchaseEventBus";
+
+    private static class Subscription {
+        final PurchaseEventListener listener;
+        final int topics;
+
+        Subscription(PurchaseEventListener listener, int topics) {
+            this.listener = listener;
+            this.topics = topics;
+        }
+    }
+
+    private abstract static class Delivery {
+        abstract void deliver(@NonNull List<PurchaseEventListener> subscribers);
+    }
+
+    private abstract static class ProductDelivery {
+        abstract void deliver(@NonNull PurchaseEventListener subscriber, @NonNull String json);
+
+        abstract void deliver(@NonNull PurchaseEventListener subscriber, @NonNull ByteBuffer buffer);
+
+        void onSerializationFailed(@NonNull PurchaseEventListener subscriber, @NonNull String message) {
+        }
+    }
+
+    private final CopyOnWriteArrayList<Subscription> mSubscriptions = new CopyOnWriteArrayList<>();
+    // union of the subscribed topics, checked before an event is built
+    private volatile int mTopics = 0;
+    // when set, events are delivered on the thread draining the queue
+    private volatile PurchaseEventQueue mEventQueue;
+    // encode products with ProductWireFormat instead of JSON strings
+    private volatile boolean mBinaryTransport = false;
+    private final ProductWireFormat mWireFormat = new ProductWireFormat();
+
+    /**
+     * Subscribe to the given topics, replaces the topics of a listener that is already subscribed
+     * @param topics PurchaseEventListener.TOPIC_* flags
+     */
+    synchronized void subscribe(@NonNull PurchaseEventListener listener, int topics) {
+        removeSubscription(listener);
+        if (topics != 0) {
+            mSubscriptions.add(new Subscription(listener, topics));
+        }
+        updateTopics();
+    }
+
+    synchronized void unsubscribe(@NonNull PurchaseEventListener listener) {
+        removeSubscription(listener);
+        updateTopics();
+    }
+
+    boolean hasSubscribers(int topic) {
+        return (mTopics & topic) != 0;
+    }
+
+    void setEventQueue(@Nullable PurchaseEventQueue eventQueue) {
+        mEventQueue = eventQueue;
+    }
+
+    void setBinaryTransport(boolean binaryTransport) {
+        mBinaryTransport = binaryTransport;
+    }
+
+    // caller holds the lock
+    private void removeSubscription(PurchaseEventListener listener) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.listener.equals(listener)) {
+                mSubscriptions.remove(subscription);
+            }
+        }
+    }
+
+    // caller holds the lock
+    private void updateTopics() {
+        int topics = 0;
+        for (Subscription subscription : mSubscriptions) {
+            topics |= subscription.topics;
+        }
+        mTopics = topics;
+    }
+
+    private void dispatch(final int topic, @Nullable String coalesceKey, @NonNull final Delivery delivery) {
+        if (!hasSubscribers(topic)) {
+            return;
+        }
+        Runnable event = new Runnable() {
+            @Override
+            public void run() {
+                List<PurchaseEventListener> subscribers = new ArrayList<>();
+                for (Subscription subscription : mSubscriptions) {
+                    if ((subscription.topics & topic) != 0) {
+                        subscribers.add(subscription.listener);
+                    }
+                }
+                if (!subscribers.isEmpty()) {
+                    delivery.deliver(subscribers);
+                }
+            }
+        };
+        PurchaseEventQueue eventQueue = mEventQueue;
+        if (eventQueue == null) {
+            event.run();
+        } else {
+            eventQueue.post(coalesceKey, event);
+        }
+    }
+
+    private void dispatchProduct(int topic, @NonNull final Product product, @NonNull final ProductDelivery productDelivery) {
+        dispatch(topic, null, new Delivery() {
+            @Override
+            void deliver(@NonNull List<PurchaseEventListener> subscribers) {
+                synchronized (mWireFormat) {
+                    if (mBinaryTransport) {
+                        ByteBuffer buffer = mWireFormat.encode(product);
+                        for (PurchaseEventListener subscriber : subscribers) {
+                            productDelivery.deliver(subscriber, buffer);
+                        }
+                        return;
+                    }
+                }
+                String json;
+                try {
+                    json = product.toJsonString();
+                } catch (IOException e) {
+                    Log.w(TAG, "failed to serialize product: " + e.getMessage());
+                    return;
+                }
+                for (PurchaseEventListener subscriber : subscribers) {
+                    productDelivery.deliver(subscriber, json);
+                }
+            }
+        });
+    }
+
+    private void dispatchProducts(int topic, @Nullable String coalesceKey, @NonNull final List<Product> products, @NonNull final ProductDelivery productDelivery) {
+        dispatch(topic, coalesceKey, new Delivery() {
+            @Override
+            void deliver(@NonNull List<PurchaseEventListener> subscribers) {
+                synchronized (mWireFormat) {
+                    if (mBinaryTransport) {
+                        ByteBuffer buffer = mWireFormat.encode(products);
+                        for (PurchaseEventListener subscriber : subscribers) {
+                            productDelivery.deliver(subscriber, buffer);
+                        }
+                        return;
+                    }
+                }
+                String json;
+                try {
+                    json = Product.toJsonString(products);
+                } catch (IOException e) {
+                    Log.w(TAG, "failed to serialize products: " + e.getMessage());
+                    for (PurchaseEventListener subscriber : subscribers) {
+                        productDelivery.onSerializationFailed(subscriber, String.valueOf(e.getMessage()));
+                    }
+                    return;
+                }
+                for (PurchaseEventListener subscriber : subscribers) {
+                    productDelivery.deliver(subscriber, json);
+                }
+            }
+        });
+    }
+
+    void onInitialized(final boolean isSuccess) {
+        dispatch(PurchaseEventListener.TOPIC_SETUP, null, new Delivery() {
+            @Override
+            void deliver(@NonNull List<PurchaseEventListener> subscribers) {
+                for (PurchaseEventListener subscriber : subscribers) {
+                    subscriber.onInitialized(isSuccess);
+                }
+            }
+        });
+    }
+
+    void onQueryProductListSuccess(@NonNull List<Product> products) {
+        dispatchProducts(PurchaseEventListener.TOPIC_CATALOG, null, products, new ProductDelivery() {
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull String json) {
+                subscriber.onProductRequestSuccess(json);
+            }
+
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull ByteBuffer buffer) {
+                subscriber.onProductRequestSuccess(buffer);
+            }
+
+            @Override
+            void onSerializationFailed(@NonNull PurchaseEventListener subscriber, @NonNull String message) {
+                subscriber.onProductRequestFailure(message);
+            }
+        });
+    }
+
+    void onQueryProductListFailure(final String message) {
+        dispatch(PurchaseEventListener.TOPIC_CATALOG, null, new Delivery() {
+            @Override
+            void deliver(@NonNull List<PurchaseEventListener> subscribers) {
+                for (PurchaseEventListener subscriber : subscribers) {
+                    subscriber.onProductRequestFailure(message);
+                }
+            }
+        });
+    }
+
+    void onPurchaseHistoryPage(final int requestId, @NonNull final JSONArray page, final boolean last) {
+        dispatch(PurchaseEventListener.TOPIC_HISTORY, null, new Delivery() {
+            @Override
+            void deliver(@NonNull List<PurchaseEventListener> subscribers) {
+                String json = page.toString();
+                for (PurchaseEventListener subscriber : subscribers) {
+                    subscriber.onPurchaseHistoryPage(requestId, json, last);
+                }
+            }
+        });
+    }
+
+    void onPurchaseHistoryRequestSuccess(@NonNull final JSONArray historyList) {
+        dispatch(PurchaseEventListener.TOPIC_HISTORY, null, new Delivery() {
+            @Override
+            void deliver(@NonNull List<PurchaseEventListener> subscribers) {
+                String json = historyList.toString();
+                for (PurchaseEventListener subscriber : subscribers) {
+                    subscriber.onPurchaseHistoryRequestSuccess(json);
+                }
+            }
+        });
+    }
+
+    void onPurchaseSuccess(@NonNull Product product) {
+        dispatchProduct(PurchaseEventListener.TOPIC_PURCHASE, product, new ProductDelivery() {
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull String json) {
+                subscriber.onPurchaseSuccess(json);
+            }
+
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull ByteBuffer buffer) {
+                subscriber.onPurchaseSuccess(buffer);
+            }
+        });
+    }
+
+    void onPurchaseFailure(@NonNull Product product, final int responseCode, final String message) {
+        dispatchProduct(PurchaseEventListener.TOPIC_PURCHASE, product, new ProductDelivery() {
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull String json) {
+                subscriber.onPurchaseFailure(json, responseCode, message);
+            }
+
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull ByteBuffer buffer) {
+                subscriber.onPurchaseFailure(buffer, responseCode, message);
+            }
+        });
+    }
+
+    void onPurchaseCanceled(@NonNull Product product) {
+        dispatchProduct(PurchaseEventListener.TOPIC_PURCHASE, product, new ProductDelivery() {
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull String json) {
+                subscriber.onPurchaseCanceled(json);
+            }
+
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull ByteBuffer buffer) {
+                subscriber.onPurchaseCanceled(buffer);
+            }
+        });
+    }
+
+    void onConsumeSuccess(@NonNull Product product) {
+        dispatchProduct(PurchaseEventListener.TOPIC_CONSUME, product, new ProductDelivery() {
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull String json) {
+                subscriber.onConsumeSuccess(json);
+            }
+
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull ByteBuffer buffer) {
+                subscriber.onConsumeSuccess(buffer);
+            }
+        });
+    }
+
+    void onConsumeFailure(@NonNull Product product, final int responseCode, final String debugMessage) {
+        dispatchProduct(PurchaseEventListener.TOPIC_CONSUME, product, new ProductDelivery() {
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull String json) {
+                subscriber.onConsumeFailure(json, responseCode, debugMessage);
+            }
+
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull ByteBuffer buffer) {
+                subscriber.onConsumeFailure(buffer, responseCode, debugMessage);
+            }
+        });
+    }
+
+    /**
+     * one native call per batch: [{"product": {...}, "responseCode": 0, "message": ""}, ...]
+     */
+    void onConsumeBatchComplete(@NonNull final List<ConsumeScheduler.Result> results) {
+        dispatch(PurchaseEventListener.TOPIC_CONSUME, null, new Delivery() {
+            @Override
+            void deliver(@NonNull List<PurchaseEventListener> subscribers) {
+                StringWriter out = new StringWriter();
+                JsonWriter writer = new JsonWriter(out);
+                try {
+                    writer.beginArray();
+                    for (ConsumeScheduler.Result result : results) {
+                        writer.beginObject();
+                        writer.name("product");
+                        result.product.writeJson(writer);
+                        writer.name("responseCode").value(result.responseCode);
+                        writer.name("message").value(result.debugMessage);
+                        writer.endObject();
+                    }
+                    writer.endArray();
+                    writer.flush();
+                }catch(IOException e) {
+                    Log.e(TAG, "failed to encode consume results: " + e.getMessage());
+                    return;
+                }
+                String json = out.toString();
+                for (PurchaseEventListener subscriber : subscribers) {
+                    subscriber.onConsumeBatchComplete(json);
+                }
+            }
+        });
+    }
+
+    void onQueryPurchasesSuccess(@NonNull List<Product> products) {
+        dispatchProducts(PurchaseEventListener.TOPIC_RESTORE, null, products, new ProductDelivery() {
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull String json) {
+                subscriber.onQueryPurchasesSuccess(json);
+            }
+
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull ByteBuffer buffer) {
+                subscriber.onQueryPurchasesSuccess(buffer);
+            }
+
+            @Override
+            void onSerializationFailed(@NonNull PurchaseEventListener subscriber, @NonNull String message) {
+                subscriber.onQueryPurchasesFailure(-1, message);
+            }
+        });
+    }
+
+    void onQueryPurchasesFailure(final int responseCode, final String debugMessage) {
+        dispatch(PurchaseEventListener.TOPIC_RESTORE, null, new Delivery() {
+            @Override
+            void deliver(@NonNull List<PurchaseEventListener> subscribers) {
+                for (PurchaseEventListener subscriber : subscribers) {
+                    subscriber.onQueryPurchasesFailure(responseCode, debugMessage);
+                }
+            }
+        });
+    }
+
+    void onPlayPassStatusUpdate(final boolean active, final String productToken) {
+        dispatch(PurchaseEventListener.TOPIC_PLAY_PASS, PurchaseEventQueue.KEY_PLAY_PASS_STATUS, new Delivery() {
+            @Override
+            void deliver(@NonNull List<PurchaseEventListener> subscribers) {
+                for (PurchaseEventListener subscriber : subscribers) {
+                    subscriber.onPlayPassStatusUpdate(active, productToken);
+                }
+            }
+        });
+    }
+
+    void onEntitlementChanged(final String productId, final boolean owned, final String purchaseToken) {
+        dispatch(PurchaseEventListener.TOPIC_ENTITLEMENT, PurchaseEventQueue.KEY_ENTITLEMENT_PREFIX + productId, new Delivery() {
+            @Override
+            void deliver(@NonNull List<PurchaseEventListener> subscribers) {
+                for (PurchaseEventListener subscriber : subscribers) {
+                    subscriber.onEntitlementChanged(productId, owned, purchaseToken);
+                }
+            }
+        });
+    }
+
+    void onReceiptVerified(@NonNull final Product product, final String status, final String resultJson) {
+        dispatch(PurchaseEventListener.TOPIC_VERIFICATION, null, new Delivery() {
+            @Override
+            void deliver(@NonNull List<PurchaseEventListener> subscribers) {
+                String json;
+                try {
+                    json = product.toJsonString();
+                } catch (IOException e) {
+                    Log.w(TAG, "failed to serialize product: " + e.getMessage());
+                    return;
+                }
+                for (PurchaseEventListener subscriber : subscribers) {
+                    subscriber.onReceiptVerified(json, status, resultJson);
+                }
+            }
+        });
+    }
+
+    void onUnConsumedProductsUpdate(@NonNull List<Product> products) {
+        dispatchProducts(PurchaseEventListener.TOPIC_UNCONSUMED, PurchaseEventQueue.KEY_UNCONSUMED_PRODUCTS, products, new ProductDelivery() {
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull String json) {
+                subscriber.onUnConsumedProductsUpdate(json);
+            }
+
+            @Override
+            void deliver(@NonNull PurchaseEventListener subscriber, @NonNull ByteBuffer buffer) {
+                subscriber.onUnConsumedProductsUpdate(buffer);
+            }
+        });
+    }
+}
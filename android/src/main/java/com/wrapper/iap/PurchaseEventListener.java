@@ -1,32 +1,61 @@
 package com.wrapper.iap;
 
-import androidx.annotation.NonNull;
-
-import org.json.JSONArray;
-import org.json.JSONException;
+import java.nio.ByteBuffer;
 
+/**
+ * Native end of a PurchaseManager.subscribe() subscription, payloads arrive already
+ * serialized by PurchaseEventBus
+ */
 public class PurchaseEventListener {
+    // event topics of PurchaseManager.subscribe(), keep in sync with sdkbox::IAPEventTopic
+    public static final int TOPIC_SETUP = 1;
+    public static final int TOPIC_CATALOG = 1 << 1;
+    public static final int TOPIC_PURCHASE = 1 << 2;
+    public static final int TOPIC_CONSUME = 1 << 3;
+    public static final int TOPIC_PLAY_PASS = 1 << 4;
+    public static final int TOPIC_UNCONSUMED = 1 << 5;
+    // getPurchaseHistory and getPurchaseHistoryPaged
+    public static final int TOPIC_HISTORY = 1 << 6;
+    public static final int TOPIC_ENTITLEMENT = 1 << 7;
+    public static final int TOPIC_VERIFICATION = 1 << 8;
+    // queryPurchases, i.e. restore
+    public static final int TOPIC_RESTORE = 1 << 9;
+    public static final int TOPIC_ALL = (1 << 10) - 1;
 
     /**
      * C++ Listener pointer address
      */
-    private long mDelegate;
+    private final long mDelegate;
 
     private native void onInitialized(long delegate, boolean isSuccess);
     private native void onProductRequestSuccess(long delegate, String productListJsonString);
     private native void onProductRequestFailure(long delegate, String message);
     private native void onPurchaseHistoryRequestSuccess(long delegate, String purchaseListJsonString);
+    private native void onPurchaseHistoryPage(long delegate, int requestId, String purchaseListJsonString, boolean last);
     private native void onPurchaseSuccess(long delegate, String productJsonString);
     private native void onPurchaseFailure(long delegate, String productJsonString, int responseCode, String message);
     private native void onPurchaseCanceled(long delegate, String productJsonString);
     private native void onConsumeSuccess(long delegate, String productJsonString);
     private native void onConsumeFailure(long delegate, String productJsonString, int responseCode, String message);
+    private native void onConsumeBatchComplete(long delegate, String resultListJsonString);
     private native void onRestored(long delegate, String productListJsonString);
     private native void onRestoreFailure(long delegate, int responseCode, String message);
     private native void onQueryPurchasesSuccess(long delegate, String productListJsonString);
     private native void onQueryPurchasesFailure(long delegate, int responseCode, String message);
     private native void onPlayPassStatusUpdate(long delegate, boolean active, String productToken);
     private native void onUnConsumedProductsUpdate(long delegate, String productListJsonString);
+    private native void onEntitlementChanged(long delegate, String productId, boolean owned, String purchaseToken);
+    private native void onReceiptVerified(long delegate, String productJsonString, String status, String resultJsonString);
+
+    // ProductWireFormat transport, buffer is only valid for the duration of the call
+    private native void onProductRequestSuccessBinary(long delegate, ByteBuffer productList, int length);
+    private native void onPurchaseSuccessBinary(long delegate, ByteBuffer product, int length);
+    private native void onPurchaseFailureBinary(long delegate, ByteBuffer product, int length, int responseCode, String message);
+    private native void onPurchaseCanceledBinary(long delegate, ByteBuffer product, int length);
+    private native void onConsumeSuccessBinary(long delegate, ByteBuffer product, int length);
+    private native void onConsumeFailureBinary(long delegate, ByteBuffer product, int length, int responseCode, String message);
+    private native void onQueryPurchasesSuccessBinary(long delegate, ByteBuffer productList, int length);
+    private native void onUnConsumedProductsUpdateBinary(long delegate, ByteBuffer productList, int length);
 
     /**
      * set C++ PurchaseEventListener pointer address
@@ -36,70 +65,114 @@ public class PurchaseEventListener {
         mDelegate = delegate;
     }
 
+    // wrappers of the same C++ listener are the same subscriber
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PurchaseEventListener && ((PurchaseEventListener) other).mDelegate == mDelegate;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mDelegate ^ (mDelegate >>> 32));
+    }
+
     public void onInitialized(boolean isSuccess) {
         onInitialized(mDelegate, isSuccess);
     }
 
-    void onQueryProductListSuccess(@NonNull JSONArray products) {
-        onProductRequestSuccess(mDelegate, products.toString());
+    void onProductRequestSuccess(String productListJson) {
+        onProductRequestSuccess(mDelegate, productListJson);
+    }
+
+    void onProductRequestSuccess(ByteBuffer productList) {
+        onProductRequestSuccessBinary(mDelegate, productList, productList.limit());
     }
 
-    void onQueryProductListFailure(String message) {
+    void onProductRequestFailure(String message) {
         onProductRequestFailure(mDelegate, message);
     }
 
-    void onPurchaseHistoryRequestSuccess(@NonNull JSONArray historyList) {
-        onPurchaseHistoryRequestSuccess(mDelegate, historyList.toString());
+    void onPurchaseHistoryRequestSuccess(String purchaseListJson) {
+        onPurchaseHistoryRequestSuccess(mDelegate, purchaseListJson);
+    }
+
+    void onPurchaseHistoryPage(int requestId, String purchaseListJson, boolean last) {
+        onPurchaseHistoryPage(mDelegate, requestId, purchaseListJson, last);
+    }
+
+    void onPurchaseSuccess(String productJson) {
+        onPurchaseSuccess(mDelegate, productJson);
+    }
+
+    void onPurchaseSuccess(ByteBuffer product) {
+        onPurchaseSuccessBinary(mDelegate, product, product.limit());
+    }
+
+    void onPurchaseFailure(String productJson, int responseCode, String message) {
+        onPurchaseFailure(mDelegate, productJson, responseCode, message);
     }
 
-    void onPurchaseSuccess(Product product) {
-        try {
-            onPurchaseSuccess(mDelegate, product.toJson().toString());
-        }catch(JSONException ignored) {
-        }
+    void onPurchaseFailure(ByteBuffer product, int responseCode, String message) {
+        onPurchaseFailureBinary(mDelegate, product, product.limit(), responseCode, message);
     }
 
-    void onPurchaseFailure(Product product, int responseCode, String message) {
-        try {
-            onPurchaseFailure(mDelegate, product.toJson().toString(), responseCode, message);
-        }catch(JSONException ignored) {
-        }
+    void onPurchaseCanceled(String productJson) {
+        onPurchaseCanceled(mDelegate, productJson);
     }
 
-    void onPurchaseCanceled(Product product) {
-        try {
-            onPurchaseCanceled(mDelegate, product.toJson().toString());
-        }catch(JSONException ignored) {
-        }
+    void onPurchaseCanceled(ByteBuffer product) {
+        onPurchaseCanceledBinary(mDelegate, product, product.limit());
     }
 
-    void onConsumeSuccess(@NonNull Product product) {
-        try {
-            onConsumeSuccess(mDelegate, product.toJson().toString());
-        }catch(JSONException ignored) {
-        }
+    void onConsumeSuccess(String productJson) {
+        onConsumeSuccess(mDelegate, productJson);
     }
 
-    void onConsumeFailure(@NonNull Product product, int responseCode, String debugMessage) {
-        try {
-            onConsumeFailure(mDelegate, product.toJson().toString(), responseCode, debugMessage);
-        }catch(JSONException ignored) {
-        }
+    void onConsumeSuccess(ByteBuffer product) {
+        onConsumeSuccessBinary(mDelegate, product, product.limit());
     }
 
-    void onQueryPurchasesSuccess(@NonNull JSONArray products) {
-        onQueryPurchasesSuccess(mDelegate, products.toString());
+    void onConsumeFailure(String productJson, int responseCode, String message) {
+        onConsumeFailure(mDelegate, productJson, responseCode, message);
     }
 
-    void onQueryPurchasesFailure(int responseCode, String debugMessage) {
-        onQueryPurchasesFailure(mDelegate, responseCode, debugMessage);
+    void onConsumeFailure(ByteBuffer product, int responseCode, String message) {
+        onConsumeFailureBinary(mDelegate, product, product.limit(), responseCode, message);
+    }
+
+    void onConsumeBatchComplete(String resultListJson) {
+        onConsumeBatchComplete(mDelegate, resultListJson);
+    }
+
+    void onQueryPurchasesSuccess(String productListJson) {
+        onQueryPurchasesSuccess(mDelegate, productListJson);
+    }
+
+    void onQueryPurchasesSuccess(ByteBuffer productList) {
+        onQueryPurchasesSuccessBinary(mDelegate, productList, productList.limit());
+    }
+
+    void onQueryPurchasesFailure(int responseCode, String message) {
+        onQueryPurchasesFailure(mDelegate, responseCode, message);
     }
 
     void onPlayPassStatusUpdate(boolean active, String productToken) {
         onPlayPassStatusUpdate(mDelegate, active, productToken);
     }
-    
-    void onUnConsumedProductsUpdate(@NonNull JSONArray products) {
-        onUnConsumedProductsUpdate(mDelegate, products.toString());
+
+    void onEntitlementChanged(String productId, boolean owned, String purchaseToken) {
+        onEntitlementChanged(mDelegate, productId, owned, purchaseToken);
+    }
+
+    void onReceiptVerified(String productJson, String status, String resultJson) {
+        onReceiptVerified(mDelegate, productJson, status, resultJson);
+    }
+
+    void onUnConsumedProductsUpdate(String productListJson) {
+        onUnConsumedProductsUpdate(mDelegate, productListJson);
+    }
+
+    void onUnConsumedProductsUpdate(ByteBuffer productList) {
+        onUnConsumedProductsUpdateBinary(mDelegate, productList, productList.limit());
     }
 }
@@ -0,0 +1,81 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hands listener events from the Billing callback threads over to the game thread.
+ *
+ * Any thread may post; the game thread drains a bounded batch once per frame
+ * (see PurchaseManager.dispatchPendingEvents()). Events posted with a coalesce key
+ * replace an undelivered event with the same key, so only the latest state of
+ * e.g. the unconsumed product list reaches native code.
+ */
+class PurchaseEventQueue {
+    static final String KEY_UNCONSUMED_PRODUCTS = "unconsumed_products";
+    static final String KEY_PLAY_PASS_STATUS = "play_pass_status";
+    // followed by the product id
+    static final String KEY_ENTITLEMENT_PREFIX = "entitlement:";
+
+    private static class Event {
+        final String key;
+        final Runnable action;
+        volatile boolean superseded = false;
+
+        Event(String key, Runnable action) {
+            this.key = key;
+            this.action = action;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Event> mQueue = new ConcurrentLinkedQueue<>();
+    // coalesce key => last posted event with that key
+    private final ConcurrentHashMap<String, Event> mLatestEvents = new ConcurrentHashMap<>();
+
+    void post(@NonNull Runnable action) {
+        mQueue.add(new Event(null, action));
+    }
+
+    void post(@Nullable String coalesceKey, @NonNull Runnable action) {
+        if (coalesceKey == null) {
+            post(action);
+            return;
+        }
+        Event event = new Event(coalesceKey, action);
+        Event previous = mLatestEvents.put(coalesceKey, event);
+        if (previous != null) {
+            previous.superseded = true;
+        }
+        mQueue.add(event);
+    }
+
+    /**
+     * Run up to maxEvents queued events on the calling thread
+     * @return number of events delivered
+     */
+    int drain(int maxEvents) {
+        int delivered = 0;
+        int polled = 0;
+        Event event;
+        while (polled < maxEvents && (event = mQueue.poll()) != null) {
+            polled++;
+            if (event.key != null) {
+                mLatestEvents.remove(event.key, event);
+            }
+            if (event.superseded) {
+                continue;
+            }
+            event.action.run();
+            delivered++;
+        }
+        return delivered;
+    }
+
+    void clear() {
+        mQueue.clear();
+        mLatestEvents.clear();
+    }
+}
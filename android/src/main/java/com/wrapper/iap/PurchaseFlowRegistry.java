@@ -0,0 +1,121 @@
+package com.wrapper.iap;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.AccountIdentifiers;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.Purchase;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-flight purchase flows keyed by product id and obfuscated account id.
+ *
+ * Several flows can be outstanding at once, e.g. a pending purchase that completes
+ * while the player buys something else. A flow is resolved by the Purchase that
+ * carries its product, not by whichever flow happened to be launched last.
+ */
+class PurchaseFlowRegistry {
+    // a launched flow that saw no purchase update for this long was abandoned
+    static final long LAUNCHED_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+    // pending purchases can take days to complete (cash payments)
+    static final long PENDING_TIMEOUT_MILLIS = 3 * 24 * 60 * 60 * 1000L;
+
+    static final int STATE_LAUNCHED = 0;
+    static final int STATE_PENDING = 1;
+
+    static class Flow {
+        final String productId;
+        final String accountId;
+        final ProductDetails productDetails;
+        final long startedAtMillis;
+        volatile long updatedAtMillis;
+        volatile int state = STATE_LAUNCHED;
+
+        Flow(ProductDetails productDetails, String accountId) {
+            this.productId = productDetails.getProductId();
+            this.accountId = accountId;
+            this.productDetails = productDetails;
+            this.startedAtMillis = SystemClock.elapsedRealtime();
+            this.updatedAtMillis = startedAtMillis;
+        }
+    }
+
+    // productId|accountId => Flow
+    private final ConcurrentHashMap<String, Flow> mFlows = new ConcurrentHashMap<>();
+
+    /**
+     * Track a billing flow about to be launched, replacing an older flow for the same product
+     */
+    void begin(@NonNull ProductDetails productDetails, @Nullable String accountId) {
+        expireStale();
+        Flow flow = new Flow(productDetails, accountId);
+        mFlows.put(key(flow.productId, accountId), flow);
+    }
+
+    /**
+     * Flow that the purchase of productId belongs to, or null when it was not launched by this session
+     */
+    @Nullable Flow find(@NonNull Purchase purchase, @NonNull String productId) {
+        Flow flow = mFlows.get(key(productId, accountIdOf(purchase)));
+        if (flow == null) {
+            // account id not echoed back, fall back to any flow for the product
+            for (Flow candidate : mFlows.values()) {
+                if (candidate.productId.equals(productId)) {
+                    return candidate;
+                }
+            }
+        }
+        return flow;
+    }
+
+    void markPending(@NonNull Flow flow) {
+        flow.state = STATE_PENDING;
+        flow.updatedAtMillis = SystemClock.elapsedRealtime();
+    }
+
+    void complete(@NonNull Flow flow) {
+        mFlows.remove(key(flow.productId, flow.accountId), flow);
+    }
+
+    /**
+     * Remove and return the most recently launched flow that has not reached PENDING.
+     * Cancel and failure updates carry no Purchase, only the flow on screen can have caused them.
+     */
+    @Nullable Flow takeLatestLaunched() {
+        Flow latest = null;
+        for (Flow flow : mFlows.values()) {
+            if (flow.state == STATE_LAUNCHED && (latest == null || flow.startedAtMillis > latest.startedAtMillis)) {
+                latest = flow;
+            }
+        }
+        if (latest != null) {
+            complete(latest);
+        }
+        return latest;
+    }
+
+    void expireStale() {
+        long now = SystemClock.elapsedRealtime();
+        for (Iterator<Flow> it = mFlows.values().iterator(); it.hasNext(); ) {
+            Flow flow = it.next();
+            long timeout = flow.state == STATE_PENDING ? PENDING_TIMEOUT_MILLIS : LAUNCHED_TIMEOUT_MILLIS;
+            if (now - flow.updatedAtMillis > timeout) {
+                it.remove();
+            }
+        }
+    }
+
+    static @Nullable String accountIdOf(@NonNull Purchase purchase) {
+        AccountIdentifiers accountIdentifiers = purchase.getAccountIdentifiers();
+        return accountIdentifiers != null ? accountIdentifiers.getObfuscatedAccountId() : null;
+    }
+
+    private static String key(String productId, @Nullable String accountId) {
+        return productId + "|" + (accountId != null ? accountId : "");
+    }
+}
@@ -0,0 +1,202 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchaseHistoryRecord;
+import com.android.billingclient.api.PurchaseHistoryResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.QueryPurchaseHistoryParams;
+import com.android.billingclient.api.QueryPurchasesParams;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One purchase history request, INAPP and SUBS.
+ *
+ * Owned purchases (queryPurchasesAsync) are queried first, then the history
+ * (queryPurchaseHistoryAsync); a history record whose token was already emitted as an
+ * owned purchase is skipped, so the richer record wins. Records are emitted in pages of
+ * at most {@code pageSize} as the results arrive, the last page is flagged.
+ */
+class PurchaseHistoryStream {
+    static final int DEFAULT_PAGE_SIZE = 50;
+
+    interface Sink {
+        void onPage(@NonNull JSONArray page, boolean last);
+    }
+
+    private static final String[] PRODUCT_TYPES = { BillingClient.ProductType.INAPP, BillingClient.ProductType.SUBS };
+
+    private final BillingClient mBillingClient;
+    private final PurchasesSnapshot mInAppSnapshot;
+    private final int mPageSize;
+    private final Sink mSink;
+
+    private final Set<String> mEmittedTokens = new HashSet<>();
+    private JSONArray mPage = new JSONArray();
+    private int mPendingQueries = 0;
+
+    private PurchaseHistoryStream(BillingClient billingClient, PurchasesSnapshot inAppSnapshot, int pageSize, Sink sink) {
+        mBillingClient = billingClient;
+        mInAppSnapshot = inAppSnapshot;
+        mPageSize = Math.max(1, pageSize);
+        mSink = sink;
+    }
+
+    /**
+     * @param inAppSnapshot shared INAPP queryPurchasesAsync result, SUBS is always queried
+     */
+    static void start(@NonNull BillingClient billingClient, @NonNull PurchasesSnapshot inAppSnapshot, int pageSize, @NonNull Sink sink) {
+        new PurchaseHistoryStream(billingClient, inAppSnapshot, pageSize, sink).queryOwnedPurchases();
+    }
+
+    private void queryOwnedPurchases() {
+        synchronized (this) {
+            mPendingQueries = PRODUCT_TYPES.length;
+        }
+        mInAppSnapshot.request(mBillingClient, new PurchasesSnapshot.Consumer() {
+            @Override
+            public void onPurchases(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
+                onOwnedPurchases(billingResult, purchases, BillingClient.ProductType.INAPP);
+            }
+        });
+        QueryPurchasesParams params = QueryPurchasesParams.newBuilder().setProductType(BillingClient.ProductType.SUBS).build();
+        mBillingClient.queryPurchasesAsync(params, new PurchasesResponseListener() {
+            @Override
+            public void onQueryPurchasesResponse(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
+                onOwnedPurchases(billingResult, purchases, BillingClient.ProductType.SUBS);
+            }
+        });
+    }
+
+    private void onOwnedPurchases(BillingResult billingResult, List<Purchase> purchases, String productType) {
+        List<JSONArray> pages = new ArrayList<>();
+        boolean ownedComplete;
+        synchronized (this) {
+            if (billingResult.getResponseCode() == BillingResponseCode.OK && purchases != null) {
+                for (Purchase purchase : purchases) {
+                    add(purchase.getPurchaseToken(), toRecord(purchase, productType), pages);
+                }
+            }
+            ownedComplete = --mPendingQueries == 0;
+        }
+        emit(pages);
+
+        if (ownedComplete) {
+            queryHistory();
+        }
+    }
+
+    private void queryHistory() {
+        synchronized (this) {
+            mPendingQueries = PRODUCT_TYPES.length;
+        }
+        for (final String productType : PRODUCT_TYPES) {
+            QueryPurchaseHistoryParams params = QueryPurchaseHistoryParams.newBuilder().setProductType(productType).build();
+            mBillingClient.queryPurchaseHistoryAsync(params, new PurchaseHistoryResponseListener() {
+                @Override
+                public void onPurchaseHistoryResponse(@NonNull BillingResult billingResult, @Nullable List<PurchaseHistoryRecord> purchaseHistoryRecords) {
+                    onHistory(billingResult, purchaseHistoryRecords, productType);
+                }
+            });
+        }
+    }
+
+    private void onHistory(BillingResult billingResult, @Nullable List<PurchaseHistoryRecord> records, String productType) {
+        List<JSONArray> pages = new ArrayList<>();
+        boolean complete;
+        synchronized (this) {
+            if (billingResult.getResponseCode() == BillingResponseCode.OK && records != null) {
+                for (PurchaseHistoryRecord record : records) {
+                    add(record.getPurchaseToken(), toRecord(record, productType), pages);
+                }
+            }
+            complete = --mPendingQueries == 0;
+            if (complete) {
+                // the last page is always sent, possibly empty, to close the request
+                pages.add(mPage);
+                mPage = new JSONArray();
+            }
+        }
+
+        if (complete) {
+            emit(pages.subList(0, pages.size() - 1));
+            mSink.onPage(pages.get(pages.size() - 1), true);
+        } else {
+            emit(pages);
+        }
+    }
+
+    // caller holds the lock
+    private void add(String purchaseToken, @Nullable JSONObject record, List<JSONArray> fullPages) {
+        if (record == null || !mEmittedTokens.add(purchaseToken)) {
+            return;
+        }
+        mPage.put(record);
+        if (mPage.length() >= mPageSize) {
+            fullPages.add(mPage);
+            mPage = new JSONArray();
+        }
+    }
+
+    private void emit(List<JSONArray> pages) {
+        for (JSONArray page : pages) {
+            mSink.onPage(page, false);
+        }
+    }
+
+    private static @Nullable JSONObject toRecord(Purchase purchase, String productType) {
+        try {
+            JSONObject record = new JSONObject();
+            record.put("productId", purchase.getProducts().get(0));
+            record.put("productType", productType);
+            record.put("orderId", purchase.getOrderId());
+            record.put("purchaseTime", purchase.getPurchaseTime());
+            record.put("purchaseToken", purchase.getPurchaseToken());
+            record.put("originalJson", purchase.getOriginalJson());
+            record.put("signature", purchase.getSignature());
+            record.put("quantity", purchase.getQuantity());
+
+            String purchaseState = "UNKNOWN";
+            if(purchase.getPurchaseState() == Purchase.PurchaseState.PURCHASED) {
+                purchaseState = "PURCHASED";
+            }else if(purchase.getPurchaseState() == Purchase.PurchaseState.PENDING) {
+                purchaseState = "PENDING";
+            }else if(purchase.getPurchaseState() == Purchase.PurchaseState.UNSPECIFIED_STATE) {
+                purchaseState = "UNSPECIFIED_STATE";
+            }
+            record.put("purchaseState", purchaseState);
+            return record;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private static @Nullable JSONObject toRecord(PurchaseHistoryRecord purchaseHistoryRecord, String productType) {
+        try {
+            JSONObject record = new JSONObject();
+            record.put("productId", purchaseHistoryRecord.getProducts().get(0));
+            record.put("productType", productType);
+            record.put("purchaseTime", purchaseHistoryRecord.getPurchaseTime());
+            record.put("purchaseToken", purchaseHistoryRecord.getPurchaseToken());
+            record.put("originalJson", purchaseHistoryRecord.getOriginalJson());
+            record.put("signature", purchaseHistoryRecord.getSignature());
+            record.put("quantity", purchaseHistoryRecord.getQuantity());
+            return record;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
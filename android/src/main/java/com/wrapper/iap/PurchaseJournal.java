@@ -0,0 +1,330 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Append-only log of purchase state transitions, so a purchase granted just before a
+ * crash or kill is reconciled on the next start instead of being re-derived from Play.
+ *
+ * Every transition is one JSON line. Writes are batched on a single disk thread and
+ * synced once per batch; the log is rewritten with only the open purchases once it
+ * holds more than {@link #COMPACT_THRESHOLD} records. A torn last line is ignored on load.
+ *
+ * Only depends on java.io and org.json, so it runs on a plain JVM against a temp file.
+ * Errors are reported to the ErrorListener instead of being logged here.
+ */
+class PurchaseJournal {
+    static final String JOURNAL_FILE_NAME = "iap_purchase_journal.log";
+    private static final int COMPACT_THRESHOLD = 256;
+    // most recent rejections kept, an older one Play still reports is queued and rejected again
+    static final int MAX_REJECTED = 256;
+
+    static final String STATE_PURCHASED = "purchased";
+    static final String STATE_VERIFIED = "verified";
+    static final String STATE_CONSUMED = "consumed";
+    static final String STATE_ACKNOWLEDGED = "acknowledged";
+    // the verification server refused the receipt, never granted, queued or verified again
+    static final String STATE_REJECTED = "rejected";
+
+    static class Entry {
+        final String purchaseToken;
+        final String productId;
+        String state;
+        String orderId;
+        String receipt;
+        String signature;
+        long updatedAtMillis;
+
+        Entry(String purchaseToken, String productId) {
+            this.purchaseToken = purchaseToken;
+            this.productId = productId;
+        }
+    }
+
+    interface ErrorListener {
+        /**
+         * Called on the thread that hit the error, the disk thread for failed writes
+         */
+        void onJournalError(@NonNull String message);
+    }
+
+    private final File mJournalFile;
+    private final ErrorListener mErrorListener;
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+
+    // purchaseToken => open entry, consumed and acknowledged purchases are dropped
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+    // purchaseToken => productId of rejected purchases, kept so Play reporting them again does not reopen them
+    private final LinkedHashMap<String, String> mRejected = new LinkedHashMap<String, String>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_REJECTED;
+        }
+    };
+    // lines appended but not written yet
+    private final StringBuilder mPendingLines = new StringBuilder();
+    private boolean mFlushScheduled = false;
+    private int mRecordCount = 0;
+
+    PurchaseJournal(@NonNull File journalFile, @NonNull ErrorListener errorListener) {
+        mJournalFile = journalFile;
+        mErrorListener = errorListener;
+    }
+
+    static boolean isTerminal(@NonNull String state) {
+        return state.equals(STATE_CONSUMED) || state.equals(STATE_ACKNOWLEDGED) || state.equals(STATE_REJECTED);
+    }
+
+    /**
+     * Replay the log into memory, call once before recording
+     */
+    synchronized void load() {
+        mEntries.clear();
+        mRejected.clear();
+        mPendingLines.setLength(0);
+        mRecordCount = 0;
+        if (!mJournalFile.exists()) {
+            return;
+        }
+        int damagedCount = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    apply(new JSONObject(line));
+                    mRecordCount++;
+                } catch (JSONException e) {
+                    damagedCount++;
+                }
+            }
+        } catch (IOException e) {
+            mErrorListener.onJournalError("failed to read purchase journal: " + e.getMessage());
+        }
+        if (damagedCount > 0) {
+            mErrorListener.onJournalError("skipped " + damagedCount + " damaged journal records");
+        }
+        if (!endsWithNewline()) {
+            // terminate the torn record, the next append would otherwise be glued to it and lost
+            mPendingLines.append('\n');
+        }
+    }
+
+    private boolean endsWithNewline() {
+        try (RandomAccessFile file = new RandomAccessFile(mJournalFile, "r")) {
+            if (file.length() == 0) {
+                return true;
+            }
+            file.seek(file.length() - 1);
+            return file.read() == '\n';
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Purchases that were not consumed or acknowledged yet, in the order they were first recorded
+     */
+    synchronized @NonNull List<Entry> getOpenEntries() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    synchronized @Nullable String getState(@NonNull String purchaseToken) {
+        Entry entry = mEntries.get(purchaseToken);
+        return entry != null ? entry.state : null;
+    }
+
+    synchronized boolean contains(@NonNull String purchaseToken) {
+        return mEntries.containsKey(purchaseToken);
+    }
+
+    synchronized boolean isRejected(@NonNull String purchaseToken) {
+        return mRejected.containsKey(purchaseToken);
+    }
+
+    void recordPurchased(@NonNull String purchaseToken, @NonNull String productId,
+                         @Nullable String orderId, @Nullable String receipt, @Nullable String signature) {
+        try {
+            JSONObject record = newRecord(purchaseToken, productId, STATE_PURCHASED);
+            record.put("orderId", orderId);
+            record.put("receipt", receipt);
+            record.put("signature", signature);
+            append(record);
+        } catch (JSONException e) {
+            mErrorListener.onJournalError("failed to journal purchase: " + e.getMessage());
+        }
+    }
+
+    void record(@NonNull String purchaseToken, @NonNull String productId, @NonNull String state) {
+        try {
+            append(newRecord(purchaseToken, productId, state));
+        } catch (JSONException e) {
+            mErrorListener.onJournalError("failed to journal " + state + ": " + e.getMessage());
+        }
+    }
+
+    private static JSONObject newRecord(String purchaseToken, String productId, String state) throws JSONException {
+        JSONObject record = new JSONObject();
+        record.put("token", purchaseToken);
+        record.put("productId", productId);
+        record.put("state", state);
+        record.put("time", System.currentTimeMillis());
+        return record;
+    }
+
+    private void apply(JSONObject record) throws JSONException {
+        String purchaseToken = record.getString("token");
+        String state = record.getString("state");
+        if (isTerminal(state)) {
+            mEntries.remove(purchaseToken);
+            if (state.equals(STATE_REJECTED)) {
+                mRejected.put(purchaseToken, record.getString("productId"));
+            }
+            return;
+        }
+        Entry entry = mEntries.get(purchaseToken);
+        if (entry == null) {
+            entry = new Entry(purchaseToken, record.getString("productId"));
+            mEntries.put(purchaseToken, entry);
+        }
+        entry.state = state;
+        entry.updatedAtMillis = record.optLong("time");
+        if (record.has("receipt")) {
+            entry.orderId = record.optString("orderId", null);
+            entry.receipt = record.optString("receipt", null);
+            entry.signature = record.optString("signature", null);
+        }
+    }
+
+    private synchronized void append(JSONObject record) throws JSONException {
+        String state = record.getString("state");
+        String purchaseToken = record.getString("token");
+        if (state.equals(STATE_REJECTED) ? mRejected.containsKey(purchaseToken)
+                : isTerminal(state) && !mEntries.containsKey(purchaseToken)) {
+            // nothing open to close; a rejection is recorded even if the purchase was never journaled
+            return;
+        }
+        if (!isTerminal(state) && mRejected.containsKey(purchaseToken)) {
+            return;
+        }
+        apply(record);
+        mRecordCount++;
+        mPendingLines.append(record.toString()).append('\n');
+        if (mFlushScheduled) {
+            return;
+        }
+        mFlushScheduled = true;
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Blocks until every record appended so far is on disk
+     */
+    void awaitWrites() throws InterruptedException {
+        try {
+            mDiskExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void flush() {
+        String lines;
+        String compacted = null;
+        synchronized (this) {
+            mFlushScheduled = false;
+            lines = mPendingLines.toString();
+            mPendingLines.setLength(0);
+            int liveCount = mEntries.size() + mRejected.size();
+            if (mRecordCount > COMPACT_THRESHOLD && mRecordCount > 2 * liveCount) {
+                compacted = snapshot();
+                mRecordCount = liveCount;
+            }
+        }
+
+        if (compacted != null) {
+            rewrite(compacted);
+        } else if (!lines.isEmpty()) {
+            write(lines);
+        }
+    }
+
+    // one record per rejected purchase, then one purchased record per open entry carrying its current state
+    private String snapshot() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> rejected : mRejected.entrySet()) {
+            try {
+                builder.append(newRecord(rejected.getKey(), rejected.getValue(), STATE_REJECTED).toString()).append('\n');
+            } catch (JSONException e) {
+                mErrorListener.onJournalError("failed to compact journal entry: " + e.getMessage());
+            }
+        }
+        for (Entry entry : mEntries.values()) {
+            try {
+                JSONObject record = newRecord(entry.purchaseToken, entry.productId, entry.state);
+                record.put("time", entry.updatedAtMillis);
+                record.put("orderId", entry.orderId);
+                record.put("receipt", entry.receipt);
+                record.put("signature", entry.signature);
+                builder.append(record.toString()).append('\n');
+            } catch (JSONException e) {
+                mErrorListener.onJournalError("failed to compact journal entry: " + e.getMessage());
+            }
+        }
+        return builder.toString();
+    }
+
+    private void write(String lines) {
+        try (FileOutputStream out = new FileOutputStream(mJournalFile, true)) {
+            out.write(lines.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            mErrorListener.onJournalError("failed to append purchase journal: " + e.getMessage());
+        }
+    }
+
+    private void rewrite(String content) {
+        File tmpFile = new File(mJournalFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            mErrorListener.onJournalError("failed to compact purchase journal: " + e.getMessage());
+            return;
+        }
+        if (!tmpFile.renameTo(mJournalFile)) {
+            mErrorListener.onJournalError("failed to replace purchase journal");
+        }
+    }
+}
@@ -1,93 +1,212 @@
 package com.wrapper.iap;
 
 import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.android.billingclient.api.AcknowledgePurchaseParams;
-import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
 import com.android.billingclient.api.BillingClient;
 import com.android.billingclient.api.BillingClient.BillingResponseCode;
-import com.android.billingclient.api.BillingClientStateListener;
 import com.android.billingclient.api.BillingFlowParams;
 import com.android.billingclient.api.BillingResult;
-import com.android.billingclient.api.ConsumeParams;
-import com.android.billingclient.api.ConsumeResponseListener;
 import com.android.billingclient.api.ProductDetails;
-import com.android.billingclient.api.ProductDetailsResponseListener;
 import com.android.billingclient.api.Purchase;
-import com.android.billingclient.api.PurchaseHistoryRecord;
-import com.android.billingclient.api.PurchaseHistoryResponseListener;
 import com.android.billingclient.api.PurchasesResponseListener;
 import com.android.billingclient.api.PurchasesUpdatedListener;
-import com.android.billingclient.api.QueryProductDetailsParams;
-import com.android.billingclient.api.QueryPurchaseHistoryParams;
 import com.android.billingclient.api.QueryPurchasesParams;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.collect.ImmutableList;
 
 public class PurchaseManager {
     private static final String TAG = "PurchaseManager";
-
-    private static PurchaseManager mPurchaseManager;
-    private Activity mActivity;
-    private PurchaseEventListener mPurchaseEventListener;
-    private BillingClient mBillingClient;
-    private static String mPlayPassNoAdsPackId;
-
-    // productId => type(consumable or non_consumable)
-    private HashMap<String, String> mProductTypeMap = new HashMap<>();
-    // productId => ProductDetails
-    private HashMap<String, ProductDetails> mProductDetailsMap = new HashMap<>();
-
-    /**
-     * combined result queryPurchasesAsync() and queryPurchaseHistoryAsync()
-     */
-    private List<JSONObject> mPurchaseHistoryList = new ArrayList<>();
-    private ProductDetails mCurrentRequestPurchaseSkuDetails;
-    private String mLicenseKey;
-    private boolean mBillingInitialized = false;
+    private static final int MAX_EVENTS_PER_DISPATCH = 32;
+    private static final long PURCHASE_DEADLINE_MILLIS = 10 * 1000L;
+    static final long DEFAULT_PREWARM_DELAY_MILLIS = 5 * 1000L;
+
+    // what started the first connection, reported with time_to_ready_ms
+    static final String CONNECT_TRIGGER_STARTUP = "startup";
+    static final String CONNECT_TRIGGER_PREWARM = "prewarm";
+    static final String CONNECT_TRIGGER_IDLE = "idle";
+    static final String CONNECT_TRIGGER_DEMAND = "demand";
+
+    // published once fully initialised, see init(Activity)
+    private static volatile PurchaseManager mPurchaseManager;
+    private volatile Activity mActivity;
+    // subscribers of each event topic, events nobody subscribed to are not serialized
+    private final PurchaseEventBus mEvents = new PurchaseEventBus();
+    // set by setPurchaseEventListener(), subscribed to every topic
+    private PurchaseEventListener mPrimaryListener;
+    // listener events waiting for the game thread, null when dispatched inline
+    private volatile PurchaseEventQueue mEventQueue;
+    private BillingConnection mConnection;
+    // consume / acknowledge calls, deduplicated by purchase token
+    private ConsumeScheduler mConsumeScheduler;
+    // latency, response code and in-flight counts of every billing call
+    private final BillingMetrics mMetrics = new BillingMetrics();
+    // single-id ProductDetails queries for products the catalog has not loaded
+    private final ProductDetailsResolver mProductDetailsResolver = new ProductDetailsResolver(mMetrics);
+    // Play signature check of purchase receipts against mLicenseKey, off unless verifySignatures is set
+    private final ReceiptVerifier mReceiptVerifier = new ReceiptVerifier(ReceiptVerifier.DEFAULT_CACHE_SIZE);
+    private static volatile String mPlayPassNoAdsPackId;
+
+    // configured products and their ProductDetails, read once per operation, replaced under mCatalogLock
+    private volatile CatalogState mCatalog = CatalogState.EMPTY;
+    private final Object mCatalogLock = new Object();
+    // immutable catalog Product per ProductDetails
+    private final ProductCache mProductCache = new ProductCache();
+    // last good catalog, served before the BillingClient is ready
+    private ProductCatalogCache mCatalogCache;
+    // shared queryPurchasesAsync(INAPP) result for play pass, unconsumed, restore and history
+    private final PurchasesSnapshot mPurchasesSnapshot = new PurchasesSnapshot(mMetrics);
+    // owned products for synchronous isOwned / getToken, watched ids are reported on change
+    private final EntitlementIndex mEntitlements = new EntitlementIndex(new EntitlementIndex.Watcher() {
+        @Override
+        public void onEntitlementChanged(@NonNull String productId, boolean owned, @NonNull String purchaseToken) {
+            mEvents.onEntitlementChanged(productId, owned, purchaseToken);
+            if (productId.equals(mPlayPassNoAdsPackId)) {
+                mEvents.onPlayPassStatusUpdate(owned, purchaseToken);
+            }
+        }
+    });
+    // batched server verification of receipts, consumes or acknowledges what the server granted
+    private VerificationUploader mVerificationUploader;
+    private final VerificationUploader.Listener mVerificationListener = new VerificationUploader.Listener() {
+        @Override
+        public void onReceiptVerified(@NonNull Product product, @NonNull String status, @NonNull String resultJson) {
+            if (status.equals(VerificationUploader.STATUS_OK) || status.equals(VerificationUploader.STATUS_DUPLICATE)) {
+                mPurchaseJournal.record(product.purchaseToken, product.id, PurchaseJournal.STATE_VERIFIED);
+                if ("consumable".equals(mCatalog.getType(product.id))) {
+                    consumeAsync(product);
+                } else {
+                    // non-consumables, subscriptions and products no longer configured
+                    acknowledgePurchase(product.purchaseToken, product.id);
+                }
+            } else if (status.equals(VerificationUploader.STATUS_REJECTED)) {
+                // closed for good, otherwise every restore would queue the receipt again
+                mPurchaseJournal.record(product.purchaseToken, product.id, PurchaseJournal.STATE_REJECTED);
+            }
+            mEvents.onReceiptVerified(product, status, resultJson);
+        }
+    };
+    // written by applyConfig() on the init thread, read by billing callbacks
+    private volatile int mVerificationBatchSize = VerificationUploader.DEFAULT_BATCH_SIZE;
+    private volatile long mVerificationBatchDelayMillis = VerificationUploader.DEFAULT_BATCH_DELAY_MILLIS;
+    private volatile int mQueryChunkSize = ProductDetailsFetcher.DEFAULT_CHUNK_SIZE;
+    private volatile int mQueryMaxInFlight = ProductDetailsFetcher.DEFAULT_MAX_IN_FLIGHT;
+
+    private final AtomicInteger mNextHistoryRequestId = new AtomicInteger(1);
+    // billing flows waiting for their onPurchasesUpdated
+    private final PurchaseFlowRegistry mPurchaseFlows = new PurchaseFlowRegistry();
+    // purchased -> verified -> consumed/acknowledged (or rejected), survives crashes between grant and consume
+    private PurchaseJournal mPurchaseJournal;
+    // catalog cache, journal and verification queue are read from disk off the main thread
+    private final CountDownLatch mStorageLoaded = new CountDownLatch(1);
+    // obfuscated account id passed to launchBillingFlow, null when not set
+    private volatile String mObfuscatedAccountId;
+    private volatile String mLicenseKey;
+    private volatile boolean mBillingInitialized = false;
+    // onInitialized has been reported for the current setup result
+    private volatile boolean mSetupReported = false;
+    // init(String) loaded the sdkbox config
+    private volatile boolean mConfigured = false;
+    // the game loaded the catalog once, products added by a config update are fetched right away
+    private volatile boolean mCatalogRequested = false;
+
+    // initDeferred(): the connection waits for the first billing call, prewarm() or idle
+    private volatile boolean mDeferredConnect = false;
+    private volatile long mPrewarmDelayMillis = DEFAULT_PREWARM_DELAY_MILLIS;
+    private volatile long mInitStartedNanos;
+    // first trigger wins, connect() runs on the game, main and init threads
+    private final AtomicReference<String> mConnectTrigger = new AtomicReference<>();
+    // the first successful setup after init has been measured
+    private volatile boolean mReadyRecorded = false;
+    // calls that need the sku config, held while initDeferred() parses it
+    private final List<Runnable> mAwaitingConfig = new ArrayList<>();
+    private boolean mConfigPending = false;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // keeps the connection for a grace period after stop and rations resume refreshes
+    private final LifecycleScheduler mLifecycle = new LifecycleScheduler(new LifecycleScheduler.Callback() {
+        @Override
+        public void onKeepAliveExpired() {
+            if (mConnection != null) {
+                mConnection.disconnect();
+            }
+        }
+    });
+    private final Runnable mIdlePrewarm = new Runnable() {
+        @Override
+        public void run() {
+            // runs on the main thread, whose queue is the one that has to go idle
+            Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                @Override
+                public boolean queueIdle() {
+                    connect(CONNECT_TRIGGER_IDLE);
+                    return false;
+                }
+            });
+        }
+    };
 
     private PurchasesUpdatedListener mPurchasesUpdatedListener = new PurchasesUpdatedListener() {
         @Override
         public void onPurchasesUpdated(@NonNull BillingResult billingResult, @Nullable List<Purchase> purchases) {
+            mPurchasesSnapshot.invalidate();
             if (billingResult.getResponseCode() == BillingResponseCode.OK && purchases != null) {
-                for (Purchase purchase : purchases) {
-                    handlePurchase(purchase);
+                for (final Purchase purchase : purchases) {
+                    mReceiptVerifier.verify(ReceiptVerifier.Receipt.of(purchase), new ReceiptVerifier.Callback() {
+                        @Override
+                        public void onVerified(@NonNull Set<String> rejectedTokens) {
+                            if (!rejectedTokens.isEmpty()) {
+                                rejectPurchase(purchase);
+                                return;
+                            }
+                            mEntitlements.onPurchaseUpdated(purchase, getBillingProductType(purchase.getProducts().get(0)));
+                            handlePurchase(purchase);
+                        }
+                    });
                 }
             } else if (billingResult.getResponseCode() == BillingResponseCode.USER_CANCELED) {
-                Product product = getProductFromSkuDetails(mCurrentRequestPurchaseSkuDetails);
-                mPurchaseEventListener.onPurchaseCanceled(product);
+                PurchaseFlowRegistry.Flow flow = mPurchaseFlows.takeLatestLaunched();
+                recordPurchaseFlow(flow, billingResult.getResponseCode());
+                mEvents.onPurchaseCanceled(getProductFromFlow(flow));
             } else {
-                Product product = getProductFromSkuDetails(mCurrentRequestPurchaseSkuDetails);
-                mPurchaseEventListener.onPurchaseFailure(product, billingResult.getResponseCode(), billingResponseCodeToString(billingResult.getResponseCode()));
+                PurchaseFlowRegistry.Flow flow = mPurchaseFlows.takeLatestLaunched();
+                recordPurchaseFlow(flow, billingResult.getResponseCode());
+                mEvents.onPurchaseFailure(getProductFromFlow(flow), billingResult.getResponseCode(), billingResponseCodeToString(billingResult.getResponseCode()));
             }
         }
     };
 
     public static void onStop() {
-        if (mPurchaseManager == null || !mPurchaseManager.isInitialized()) {
-            return;
-        }
-
-        if (mPurchaseManager.mBillingClient == null) {
+        PurchaseManager manager = mPurchaseManager;
+        if (manager == null || manager.mConnection == null) {
             return;
         }
 
-        mPurchaseManager.mBillingClient.endConnection();
+        manager.mLifecycle.onStop();
     }
 
     public static boolean onBackPressed() {
@@ -98,454 +217,1362 @@ public class PurchaseManager {
     }
 
     private Product getProductFromSkuDetails(@NonNull ProductDetails productDetails) {
-        String type = getProductType(productDetails.getProductId());
-        return Product.createFromProductDetails(productDetails, type);
+        return mProductCache.get(productDetails, getProductType(productDetails));
+    }
+
+    /**
+     * launchBillingFlow -> first onPurchasesUpdated of the flow, a pending flow was already counted
+     */
+    private void recordPurchaseFlow(@Nullable PurchaseFlowRegistry.Flow flow, int responseCode) {
+        if (flow != null && flow.state == PurchaseFlowRegistry.STATE_LAUNCHED) {
+            mMetrics.record(BillingMetrics.OP_PURCHASE_FLOW, flow.startedAtMillis * 1000000L, responseCode);
+        }
+    }
+
+    private @NonNull Product getProductFromFlow(@Nullable PurchaseFlowRegistry.Flow flow) {
+        if (flow == null) {
+            return new Product();
+        }
+        return getProductFromSkuDetails(flow.productDetails);
+    }
+
+    /**
+     * Signature did not match the license key: nothing is granted, journaled or acknowledged
+     */
+    private void rejectPurchase(Purchase purchase) {
+        for (String productId : purchase.getProducts()) {
+            PurchaseFlowRegistry.Flow flow = mPurchaseFlows.find(purchase, productId);
+            recordPurchaseFlow(flow, BillingResponseCode.ERROR);
+            if (flow != null) {
+                mPurchaseFlows.complete(flow);
+            }
+            ProductDetails productDetails = getSkuDetailsByProductId(productId);
+            Product product = productDetails != null ? getProductFromSkuDetails(productDetails) : getProductFromFlow(flow);
+            mEvents.onPurchaseFailure(product, BillingResponseCode.ERROR, "Invalid purchase signature!");
+        }
+    }
+
+    /**
+     * Resolve each product of the purchase to its own ProductDetails, whether or not its
+     * billing flow was launched in this session (relaunch, pending purchase completing later)
+     */
+    private void handlePurchase(Purchase purchase) {
+        boolean needsAcknowledge = false;
+        for (String productId : purchase.getProducts()) {
+            ProductDetails productDetails = getSkuDetailsByProductId(productId);
+            PurchaseFlowRegistry.Flow flow = mPurchaseFlows.find(purchase, productId);
+            if (productDetails == null && flow != null) {
+                productDetails = flow.productDetails;
+            }
+            if (productDetails == null) {
+                // catalog not loaded yet, queryUnconsumedPurchases / queryPurchases pick it up later
+                Log.w(TAG, "purchase update for unknown product " + productId);
+                continue;
+            }
+
+            recordPurchaseFlow(flow, BillingResponseCode.OK);
+            if (purchase.getPurchaseState() == Purchase.PurchaseState.PENDING) {
+                if (flow != null) {
+                    mPurchaseFlows.markPending(flow);
+                }
+                continue;
+            }
+            if (purchase.getPurchaseState() != Purchase.PurchaseState.PURCHASED) {
+                continue;
+            }
+            if (flow != null) {
+                mPurchaseFlows.complete(flow);
+            }
+
+            Product product = getProductFromSkuDetails(productDetails)
+                    .withPurchase(purchase.getOrderId(), purchase.getOriginalJson(), purchase.getSignature(), purchase.getPurchaseToken());
+            boolean open = product.type.equals("consumable") || !purchase.isAcknowledged();
+            if (open && !mPurchaseJournal.contains(product.purchaseToken)) {
+                mPurchaseJournal.recordPurchased(product.purchaseToken, productId, product.transactionID, product.receipt, product.receiptCipheredPayload);
+            }
+            mEvents.onPurchaseSuccess(product);
+            if (!product.type.equals("consumable")) {
+                needsAcknowledge = true;
+            }
+        }
+        if (needsAcknowledge && !purchase.isAcknowledged()) {
+            acknowledgePurchase(purchase.getPurchaseToken(), purchase.getProducts().get(0));
+        }
+    }
+
+    private void consumeAsync(final Product product) {
+        List<Product> products = new ArrayList<>();
+        products.add(product);
+        mConsumeScheduler.consume(products, new ConsumeScheduler.BatchCallback() {
+            @Override
+            public void onBatchComplete(@NonNull List<ConsumeScheduler.Result> results) {
+                onConsumeResults(results);
+                ConsumeScheduler.Result result = results.get(0);
+                if(result.isSuccess()) {
+                    Log.d(TAG, "product consumed successfully");
+                    mEvents.onConsumeSuccess(product);
+                }else {
+                    Log.d(TAG, "product consumed failed: " + result.debugMessage);
+                    mEvents.onConsumeFailure(product, result.responseCode, result.debugMessage);
+                }
+            }
+        });
+    }
+
+    private void onConsumeResults(@NonNull List<ConsumeScheduler.Result> results) {
+        mPurchasesSnapshot.invalidate();
+        for(ConsumeScheduler.Result result : results) {
+            if(result.isSuccess() || result.responseCode == BillingResponseCode.ITEM_NOT_OWNED) {
+                // ITEM_NOT_OWNED: consumed before, only the journal did not know yet
+                mPurchaseJournal.record(result.product.purchaseToken, result.product.id, PurchaseJournal.STATE_CONSUMED);
+                mEntitlements.onConsumed(result.product.id, result.product.purchaseToken);
+            }
+        }
+    }
+
+    private void acknowledgePurchase(final String purchaseToken, final String productId) {
+        List<Product> products = new ArrayList<>();
+        products.add(Product.placeholder(productId, purchaseToken));
+        mConsumeScheduler.acknowledge(products, new ConsumeScheduler.BatchCallback() {
+            @Override
+            public void onBatchComplete(@NonNull List<ConsumeScheduler.Result> results) {
+                mPurchasesSnapshot.invalidate();
+                ConsumeScheduler.Result result = results.get(0);
+                Log.d(TAG, "Purchase acknowledge response: " + result.responseCode);
+                if(result.isSuccess()) {
+                    mPurchaseJournal.record(purchaseToken, productId, PurchaseJournal.STATE_ACKNOWLEDGED);
+                }
+                // otherwise the journal still holds it, acknowledged again on the next start
+            }
+        });
+    }
+    public static synchronized void init(Activity activity) {
+        PurchaseManager manager = mPurchaseManager;
+        if (manager != null) {
+            manager.mActivity = activity;
+            return;
+        }
+
+        final PurchaseManager created = new PurchaseManager();
+        created.mPurchasesSnapshot.setResultListener(new PurchasesSnapshot.Consumer() {
+            @Override
+            public void onPurchases(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
+                created.mEntitlements.replaceAll(BillingClient.ProductType.INAPP, purchases);
+            }
+        });
+        created.mActivity = activity;
+        created.mCatalogCache = new ProductCatalogCache(activity);
+        created.mPurchaseJournal = new PurchaseJournal(new File(activity.getFilesDir(), PurchaseJournal.JOURNAL_FILE_NAME), new PurchaseJournal.ErrorListener() {
+            @Override
+            public void onJournalError(@NonNull String message) {
+                Log.w(TAG, message);
+            }
+        });
+        created.mConnection = created.createConnection();
+        created.mConsumeScheduler = new ConsumeScheduler(created.mConnection, created.mMetrics);
+        created.mVerificationUploader = new VerificationUploader(new File(activity.getFilesDir(), VerificationUploader.QUEUE_FILE_NAME), created.mVerificationListener);
+        created.loadStorage();
+        // the volatile write publishes every field set above
+        mPurchaseManager = created;
+    }
+
+    /**
+     * Read the persisted state on a worker thread, so the activity's onCreate does not wait
+     * for the disk. Everything that reads it waits in awaitStorageLoaded().
+     */
+    private void loadStorage() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCatalogCache.load();
+                    mPurchaseJournal.load();
+                    mVerificationUploader.load();
+                } finally {
+                    mStorageLoaded.countDown();
+                }
+            }
+        }, "PurchaseManager-storage").start();
+    }
+
+    /**
+     * Only blocks when called within the first milliseconds after init(Activity)
+     */
+    private void awaitStorageLoaded() {
+        try {
+            mStorageLoaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    public static PurchaseManager getInstance()
+    {
+        return mPurchaseManager;
+    }
+
+    /**
+     * End the connection and drop the instance, so the next init(Activity) starts from scratch.
+     * For tests running several scenarios in one process.
+     */
+    static synchronized void resetForTests() {
+        PurchaseManager manager = mPurchaseManager;
+        if (manager == null) {
+            return;
+        }
+        mPurchaseManager = null;
+        mPlayPassNoAdsPackId = null;
+        manager.awaitStorageLoaded();
+        manager.mHandler.removeCallbacks(manager.mIdlePrewarm);
+        manager.mMetrics.setExporter(null, 0);
+        manager.mVerificationUploader.configure(null, "");
+        manager.mConnection.disconnect();
+    }
+
+    public static void onResume() {
+        PurchaseManager manager = mPurchaseManager;
+        if (manager == null) {
+            return;
+        }
+        if (manager.mConfigured && (!manager.mDeferredConnect || manager.mReadyRecorded)) {
+            // no-op while connected or reconnecting, queued work below is replayed on connect.
+            // A deferred connection that was never needed stays deferred.
+            manager.mConnection.connect();
+        }
+        if (!manager.mLifecycle.onResume(manager.mPurchasesSnapshot.getAgeMillis())) {
+            Log.d(TAG, "purchases snapshot is fresh, skipping resume refresh");
+            return;
+        }
+        String playPassNoAdsPackId = mPlayPassNoAdsPackId;
+        if (playPassNoAdsPackId != null && playPassNoAdsPackId.length() > 0) {
+            manager.checkPlayPassStatus();
+        }
+        if (manager.mCatalog.productDetails.size() > 0) {
+            manager.queryUnconsumedPurchases();
+        }
+    }
+
+    public static void onPause() {}
+
+    public Activity getActivity() {
+        return mActivity;
+    }
+
+    /**
+     * Replace the listener of every event topic, listeners added with subscribe() are kept
+     */
+    public synchronized void setPurchaseEventListener(PurchaseEventListener listener) {
+        if (mPrimaryListener != null && !mPrimaryListener.equals(listener)) {
+            mEvents.unsubscribe(mPrimaryListener);
+        }
+        mPrimaryListener = listener;
+        if (listener != null) {
+            mEvents.subscribe(listener, PurchaseEventListener.TOPIC_ALL);
+        }
+    }
+
+    /**
+     * Add a listener for some event topics next to the one set by setPurchaseEventListener().
+     * Subscribing the same listener again replaces its topics. Safe to call from any thread,
+     * queued events are delivered to the listeners subscribed when they are dispatched.
+     * @param topics PurchaseEventListener.TOPIC_* flags
+     */
+    public void subscribe(PurchaseEventListener listener, int topics) {
+        mEvents.subscribe(listener, topics);
+    }
+
+    public void unsubscribe(PurchaseEventListener listener) {
+        mEvents.unsubscribe(listener);
+    }
+
+    /**
+     * Defer listener callbacks until dispatchPendingEvents() runs on the game thread,
+     * instead of calling into native code from the Billing callback thread.
+     */
+    public synchronized void setQueuedEventDispatch(boolean queued) {
+        if (queued && mEventQueue == null) {
+            mEventQueue = new PurchaseEventQueue();
+        } else if (!queued && mEventQueue != null) {
+            mEventQueue.drain(Integer.MAX_VALUE);
+            mEventQueue = null;
+        }
+        mEvents.setEventQueue(mEventQueue);
+    }
+
+    /**
+     * Deliver a batch of queued listener events, called once per frame from the game thread
+     */
+    public void dispatchPendingEvents() {
+        PurchaseEventQueue eventQueue = mEventQueue;
+        if (eventQueue != null) {
+            eventQueue.drain(MAX_EVENTS_PER_DISPATCH);
+        }
+    }
+
+    public synchronized void removePurchaseEventListener() {
+        if (mPrimaryListener != null) {
+            mEvents.unsubscribe(mPrimaryListener);
+            mPrimaryListener = null;
+        }
+    }
+
+    public void init(String sdkboxConfigJsonString) {
+        mInitStartedNanos = BillingMetrics.now();
+        mDeferredConnect = false;
+        applyConfig(sdkboxConfigJsonString);
+    }
+
+    /**
+     * Startup mode that keeps billing off the boot path: the config is parsed and the
+     * BillingClient built on a background thread, and the connection is started by the first
+     * billing call, by prewarm(), or once the main thread goes idle prewarmDelayMs after init.
+     * Billing calls made before the config is parsed run right after it.
+     */
+    public void initDeferred(final String sdkboxConfigJsonString) {
+        beginDeferredInit();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                completeDeferredInit(sdkboxConfigJsonString);
+            }
+        }, "PurchaseManager-init").start();
+    }
+
+    /**
+     * initDeferred() for callers that load the config on a thread of their own: call this
+     * on the calling thread first, so billing calls made before the config is parsed are held,
+     * then completeDeferredInit() once the config is read.
+     */
+    public void beginDeferredInit() {
+        mInitStartedNanos = BillingMetrics.now();
+        mDeferredConnect = true;
+        synchronized (mAwaitingConfig) {
+            mConfigPending = true;
+        }
+    }
+
+    /**
+     * Parse the config on the calling thread, which should not be the main thread,
+     * and run the billing calls held since beginDeferredInit()
+     */
+    public void completeDeferredInit(String sdkboxConfigJsonString) {
+        List<Runnable> awaiting;
+        try {
+            applyConfig(sdkboxConfigJsonString);
+        } finally {
+            synchronized (mAwaitingConfig) {
+                mConfigPending = false;
+                awaiting = new ArrayList<>(mAwaitingConfig);
+                mAwaitingConfig.clear();
+            }
+        }
+        for (Runnable call : awaiting) {
+            call.run();
+        }
+    }
+
+    /**
+     * Start connecting ahead of the first billing call, e.g. when the player opens the shop.
+     * No-op while connected or connecting.
+     */
+    public void prewarm() {
+        if (deferUntilConfigured(new Runnable() {
+            @Override
+            public void run() {
+                prewarm();
+            }
+        })) {
+            return;
+        }
+        if (mConfigured) {
+            connect(CONNECT_TRIGGER_PREWARM);
+        }
+    }
+
+    /**
+     * @return true if the call was held until initDeferred() has parsed the config
+     */
+    private boolean deferUntilConfigured(@NonNull Runnable call) {
+        synchronized (mAwaitingConfig) {
+            if (!mConfigPending) {
+                return false;
+            }
+            mAwaitingConfig.add(call);
+            return true;
+        }
+    }
+
+    private void connect(@NonNull String trigger) {
+        if (mConnection.isDisconnected()) {
+            mConnectTrigger.compareAndSet(null, trigger);
+        }
+        mConnection.connect();
+    }
+
+    private void applyConfig(String sdkboxConfigJsonString) {
+        // the config filters the cached catalog and reconciles the journal
+        awaitStorageLoaded();
+        try {
+            JSONObject configJson = new JSONObject(sdkboxConfigJsonString);
+            JSONObject iapJson = configJson.getJSONObject("android").getJSONObject("iap");
+
+            mLicenseKey = iapJson.getString("key");
+            mReceiptVerifier.setLicenseKey(iapJson.optBoolean("verifySignatures", false) ? mLicenseKey : null);
+            if (iapJson.has("catalogCacheTtl")) {
+                setCatalogCacheTtl(iapJson.getLong("catalogCacheTtl") * 1000);
+            }
+            if (iapJson.has("purchasesCacheWindowMs")) {
+                setPurchasesCacheWindow(iapJson.getLong("purchasesCacheWindowMs"));
+            }
+            if (iapJson.has("connectionKeepAliveMs")) {
+                setConnectionKeepAlive(iapJson.getLong("connectionKeepAliveMs"));
+            }
+            mEvents.setBinaryTransport(iapJson.optBoolean("binaryTransport", false));
+            setProductQueryBatching(iapJson.optInt("queryChunkSize", mQueryChunkSize),
+                    iapJson.optInt("queryMaxInFlight", mQueryMaxInFlight));
+            if (iapJson.has("consumeParallelism")) {
+                setConsumeParallelism(iapJson.getInt("consumeParallelism"));
+            }
+            mVerificationBatchSize = iapJson.optInt("verificationBatchSize", mVerificationBatchSize);
+            mVerificationBatchDelayMillis = iapJson.optLong("verificationBatchDelayMs", mVerificationBatchDelayMillis);
+            mVerificationUploader.setBatching(mVerificationBatchSize, mVerificationBatchDelayMillis);
+            mPrewarmDelayMillis = iapJson.optLong("prewarmDelayMs", mPrewarmDelayMillis);
+            if (iapJson.has("subscriptionOfferPolicy") || iapJson.has("subscriptionOfferTag")) {
+                setSubscriptionOfferPolicy(iapJson.optString("subscriptionOfferPolicy", SubscriptionOffers.POLICY_LOWEST_FIRST_PRICE),
+                        iapJson.has("subscriptionOfferTag") ? iapJson.getString("subscriptionOfferTag") : null);
+            }
+            // a re-init only evicts / fetches the products that changed
+            applySkuConfig(SkuConfig.fromItems(iapJson.getJSONObject("items")));
+        }catch(JSONException e) {
+            Log.e(TAG, "invalid sdkbox config: " + e.getMessage());
+            if(mEvents.hasSubscribers(PurchaseEventListener.TOPIC_SETUP)) {
+                mEvents.onInitialized(false);
+            }
+            return;
+        }
+
+        mConfigured = true;
+        mPurchasesSnapshot.invalidate();
+        if (!mDeferredConnect) {
+            connect(CONNECT_TRIGGER_STARTUP);
+            reconcileJournal();
+            return;
+        }
+        // still on the init thread, the first connect() only has to bind the service
+        mConnection.prepare();
+        if (mPrewarmDelayMillis >= 0) {
+            mHandler.removeCallbacks(mIdlePrewarm);
+            mHandler.postDelayed(mIdlePrewarm, mPrewarmDelayMillis);
+        }
+    }
+
+    /**
+     * Apply a new items block at runtime, without re-initialising the billing client.
+     * Only added products are fetched and only removed ones are evicted, in-flight
+     * purchase flows are not affected.
+     * @param sdkboxConfigJsonString full sdkbox_config.json, only android.iap.items is read
+     */
+    public void updateSkuConfig(final String sdkboxConfigJsonString) {
+        if (deferUntilConfigured(new Runnable() {
+            @Override
+            public void run() {
+                updateSkuConfig(sdkboxConfigJsonString);
+            }
+        })) {
+            return;
+        }
+        Map<String, String> items;
+        try {
+            items = SkuConfig.parseItems(sdkboxConfigJsonString);
+        } catch (IOException e) {
+            Log.e(TAG, "invalid sku config: " + e.getMessage());
+            return;
+        }
+        applySkuConfig(items);
+    }
+
+    private void applySkuConfig(@NonNull Map<String, String> items) {
+        SkuConfig.Diff diff;
+        synchronized (mCatalogLock) {
+            diff = SkuConfig.diff(mCatalog.productTypes, items);
+            if (diff.isEmpty()) {
+                return;
+            }
+            mCatalog = mCatalog.withConfig(diff);
+        }
+        Log.d(TAG, String.format(Locale.ENGLISH, "sku config: %d added, %d removed, %d retyped",
+                diff.added.size(), diff.removed.size(), diff.retyped.size()));
+
+        // a retyped product is refetched, its cached Product and snapshot carry the old type
+        Set<String> evicted = new HashSet<>(diff.removed);
+        evicted.addAll(diff.retyped.keySet());
+        for (String productId : evicted) {
+            mProductCache.remove(productId);
+        }
+        if (mCatalogCache != null && !evicted.isEmpty()) {
+            mCatalogCache.remove(evicted);
+        }
+
+        Map<String, String> fetched = new HashMap<>(diff.added);
+        fetched.putAll(diff.retyped);
+        if (mCatalogRequested && !fetched.isEmpty()) {
+            fetchAddedProducts(fetched);
+        }
+    }
+
+    /**
+     * Fetch details of products added or retyped by a config update, streamed like catalog chunks
+     */
+    private void fetchAddedProducts(@NonNull final Map<String, String> productTypeMap) {
+        mConnection.execute(new BillingConnection.Operation() {
+            @Override
+            public void run(@NonNull BillingClient billingClient) {
+                ProductDetailsFetcher.fetch(billingClient, mMetrics, productTypeMap, mQueryChunkSize, mQueryMaxInFlight, new ProductDetailsFetcher.Callback() {
+                    @Override
+                    public void onChunkFetched(@NonNull List<ProductDetails> productDetailsList) {
+                        onProductDetailsChunkFetched(productDetailsList, false);
+                    }
+
+                    @Override
+                    public void onFetchComplete(@NonNull List<ProductDetails> productDetailsList, @NonNull Map<String, BillingResult> failures) {
+                        if (!failures.isEmpty()) {
+                            // the next queryProductListAsync() picks them up
+                            Log.w(TAG, "failed to fetch " + failures.size() + " products of the sku config update");
+                        }
+                        if (mCatalogCache != null && !productDetailsList.isEmpty()) {
+                            List<Product> products = new ArrayList<>();
+                            for (ProductDetails productDetails : mCatalog.productDetails.values()) {
+                                products.add(getProductFromSkuDetails(productDetails));
+                            }
+                            mCatalogCache.update(products, failures.keySet());
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onUnavailable(int responseCode, @NonNull String message) {
+                Log.w(TAG, "sku config update not fetched: " + message);
+            }
+        });
+    }
+
+    /**
+     * Purchase verified by the game or its server, recorded so a crash before consume is recoverable
+     */
+    public void markPurchaseVerified(final String productId, final String purchaseToken) {
+        if (deferUntilConfigured(new Runnable() {
+            @Override
+            public void run() {
+                markPurchaseVerified(productId, purchaseToken);
+            }
+        })) {
+            return;
+        }
+        awaitStorageLoaded();
+        mPurchaseJournal.record(purchaseToken, productId, PurchaseJournal.STATE_VERIFIED);
+    }
+
+    /**
+     * Finish what the journal shows was interrupted: acknowledge granted non-consumables.
+     * Unconsumed consumables are reported from the journal by queryUnconsumedPurchases().
+     */
+    private void reconcileJournal() {
+        for (PurchaseJournal.Entry entry : mPurchaseJournal.getOpenEntries()) {
+            String type = mCatalog.getType(entry.productId);
+            if (type != null && !type.equals("consumable")) {
+                Log.d(TAG, "acknowledging journaled purchase of " + entry.productId);
+                acknowledgePurchase(entry.purchaseToken, entry.productId);
+            }
+        }
+    }
+
+    /**
+     * Current catalog snapshot, for tests
+     */
+    @NonNull CatalogState getCatalog() {
+        return mCatalog;
+    }
+
+    public boolean isInitialized() { return mConnection != null && mBillingInitialized; }
+
+    public boolean isReady() { return isInitialized() && mConnection.isConnected(); }
+
+    /**
+     * @param ttlMillis age after which the cached catalog is revalidated against Play
+     */
+    public void setCatalogCacheTtl(long ttlMillis) {
+        if (mCatalogCache != null) {
+            mCatalogCache.setTtlMillis(ttlMillis);
+        }
+    }
+
+    /**
+     * @param windowMillis how long a queryPurchasesAsync result is shared between callers
+     */
+    public void setPurchasesCacheWindow(long windowMillis) {
+        mPurchasesSnapshot.setMaxAgeMillis(windowMillis);
+    }
+
+    /**
+     * @param keepAliveMillis how long the billing connection survives onStop, 0 ends it right away
+     */
+    public void setConnectionKeepAlive(long keepAliveMillis) {
+        mLifecycle.setKeepAliveMillis(keepAliveMillis);
+    }
+
+    /**
+     * @param chunkSize max product ids per queryProductDetailsAsync call
+     * @param maxInFlight max queryProductDetailsAsync calls running at once
+     */
+    public void setProductQueryBatching(int chunkSize, int maxInFlight) {
+        mQueryChunkSize = chunkSize;
+        mQueryMaxInFlight = maxInFlight;
+    }
+
+    /**
+     * @param maxInFlight max consumeAsync / acknowledgePurchase calls running at once
+     */
+    public void setConsumeParallelism(int maxInFlight) {
+        mConsumeScheduler.setMaxInFlight(maxInFlight);
+    }
+
+    public void queryProductListAsync() {
+        if (deferUntilConfigured(new Runnable() {
+            @Override
+            public void run() {
+                queryProductListAsync();
+            }
+        })) {
+            return;
+        }
+        if(!mEvents.hasSubscribers(PurchaseEventListener.TOPIC_CATALOG)) {
+            return;
+        }
+        mCatalogRequested = true;
+        final CatalogState catalog = mCatalog;
+
+        // serve the last good snapshot straight away and revalidate in the background
+        List<Product> cachedProducts = new ArrayList<>();
+        if(mCatalogCache != null) {
+            for(Product product : mCatalogCache.getProducts()) {
+                if(catalog.productTypes.containsKey(product.id)) {
+                    cachedProducts.add(product);
+                }
+            }
+        }
+        final boolean servedFromCache = cachedProducts.size() > 0;
+        if(servedFromCache) {
+            mEvents.onQueryProductListSuccess(cachedProducts);
+            // ProductDetails are not persisted, purchase() needs at least one live fetch
+            if(!mCatalogCache.isStale() && catalog.productDetails.size() > 0) {
+                queryUnconsumedPurchases();
+                return;
+            }
+        }
+
+        mConnection.execute(new BillingConnection.Operation() {
+            @Override
+            public void run(@NonNull BillingClient billingClient) {
+                ProductDetailsFetcher.fetch(billingClient, mMetrics, catalog.productTypes, mQueryChunkSize, mQueryMaxInFlight, new ProductDetailsFetcher.Callback() {
+                    @Override
+                    public void onChunkFetched(@NonNull List<ProductDetails> productDetailsList) {
+                        onProductDetailsChunkFetched(productDetailsList, servedFromCache);
+                    }
+
+                    @Override
+                    public void onFetchComplete(@NonNull List<ProductDetails> productDetailsList, @NonNull Map<String, BillingResult> failures) {
+                        onProductDetailsFetched(productDetailsList, failures, servedFromCache);
+                    }
+                });
+            }
+
+            @Override
+            public void onUnavailable(int responseCode, @NonNull String message) {
+                if(!servedFromCache) {
+                    mEvents.onQueryProductListFailure(message);
+                }
+            }
+        });
+    }
+
+    /**
+     * stream each chunk up as it arrives so the shop can render before the whole catalog is loaded
+     */
+    private void onProductDetailsChunkFetched(@NonNull List<ProductDetails> productDetailsList, boolean servedFromCache) {
+        synchronized (mCatalogLock) {
+            mCatalog = mCatalog.withDetails(productDetailsList);
+        }
+        List<Product> products = new ArrayList<>();
+        for(ProductDetails productDetails : productDetailsList) {
+            products.add(getProductFromSkuDetails(productDetails));
+        }
+
+        // a served snapshot is only updated once the whole catalog has been diffed
+        if(servedFromCache) {
+            return;
+        }
+        mEvents.onQueryProductListSuccess(products);
+    }
+
+    private void onProductDetailsFetched(@NonNull List<ProductDetails> productDetailsList, @NonNull Map<String, BillingResult> failures, boolean servedFromCache) {
+        if(!failures.isEmpty()) {
+            BillingResult billingResult = failures.values().iterator().next();
+            String message = String.format(Locale.ENGLISH,
+                    "queryProductListAsync failed for %d products: responseCode=%d(%s), debugMessage=%s",
+                    failures.size(),
+                    billingResult.getResponseCode(),
+                    billingResponseCodeToString(billingResult.getResponseCode()),
+                    billingResult.getDebugMessage());
+            Log.e(TAG, message);
+            if(productDetailsList.isEmpty()) {
+                if(!servedFromCache) {
+                    mEvents.onQueryProductListFailure(message);
+                }
+                return;
+            }
+            // partial success: the fetched chunks were streamed and are kept
+            Log.w(TAG, "loaded " + productDetailsList.size() + " products, failed: " + failures.keySet());
+        }
+
+        // keep the previous details of a product whose chunk failed this time
+        CatalogState catalog;
+        synchronized (mCatalogLock) {
+            catalog = mCatalog.withCatalog(productDetailsList, failures.keySet());
+            mCatalog = catalog;
+        }
+
+        List<Product> products = new ArrayList<>();
+        for(ProductDetails productDetails : catalog.productDetails.values()) {
+            products.add(getProductFromSkuDetails(productDetails));
+        }
+        List<Product> changedProducts = products;
+        if(mCatalogCache != null) {
+            changedProducts = mCatalogCache.update(products, failures.keySet());
+        }
+        // chunks were already streamed, a served snapshot only needs the products whose price moved
+        if(servedFromCache && changedProducts.size() > 0) {
+            mEvents.onQueryProductListSuccess(changedProducts);
+        }else if(!servedFromCache && productDetailsList.isEmpty()) {
+            mEvents.onQueryProductListSuccess(new ArrayList<Product>());
+        }
+        //Query unconsumed products
+        queryUnconsumedPurchases();
+    }
+
+    private void queryUnconsumedPurchases() {
+        Log.d(TAG, "queryUnconsumedPurchases");
+        requestPurchasesSnapshot(new PurchasesSnapshot.Consumer() {
+            @Override
+            public void onPurchases(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
+                // purchaseToken => product, so a purchase both journaled and reported by Play is verified and emitted once
+                Map<String, Product> products = new LinkedHashMap<>();
+                if(billingResult.getResponseCode() == BillingResponseCode.OK) {
+                    reconcileJournal(purchases);
+                }
+                // the journal is reconciled either way, nobody listening only skips building the event
+                if(!mEvents.hasSubscribers(PurchaseEventListener.TOPIC_UNCONSUMED)) {
+                    return;
+                }
+                // granted before a crash or kill, also emitted when Play cannot be reached
+                for(Product product : getJournaledUnconsumedProducts()) {
+                    products.put(product.purchaseToken, product);
+                }
+                if(billingResult.getResponseCode() == BillingResponseCode.OK) {
+                    Log.w(TAG, "un consume purchaseCount:" + purchases.size());
+                    for(Purchase purchase : purchases) {
+                        String productId = purchase.getProducts().get(0);
+                        ProductDetails productDetails = getSkuDetailsByProductId(productId);
+                        // a receipt the verification server refused is not offered to the game again
+                        if(productDetails == null || mPurchaseJournal.isRejected(purchase.getPurchaseToken())) {
+                            continue;
+                        }
+                        Product product = getProductFromSkuDetails(productDetails);
+                        if(product.type.equals("consumable")) {
+                            products.put(purchase.getPurchaseToken(), product.withPurchase(purchase.getOrderId(), purchase.getOriginalJson(), purchase.getSignature(), purchase.getPurchaseToken()));
+                        }
+                    }
+                }else if(products.isEmpty()) {
+                    return;
+                }
+                mReceiptVerifier.verifyProducts(new ArrayList<>(products.values()), new ReceiptVerifier.ProductsCallback() {
+                    @Override
+                    public void onVerified(@NonNull List<Product> verifiedProducts) {
+                        mEvents.onUnConsumedProductsUpdate(verifiedProducts);
+                    }
+                });
+            }
+        });
+    }
+
+    private @NonNull List<Product> getJournaledUnconsumedProducts() {
+        List<Product> productList = new ArrayList<>();
+        for(PurchaseJournal.Entry entry : mPurchaseJournal.getOpenEntries()) {
+            ProductDetails productDetails = getSkuDetailsByProductId(entry.productId);
+            if(productDetails == null || entry.receipt == null) {
+                continue;
+            }
+            Product product = getProductFromSkuDetails(productDetails);
+            if(product.type.equals("consumable")) {
+                productList.add(product.withPurchase(entry.orderId, entry.receipt, entry.signature, entry.purchaseToken));
+            }
+        }
+        return productList;
+    }
+
+    /**
+     * Bring the journal in line with the owned INAPP purchases Play reports
+     */
+    private void reconcileJournal(@NonNull List<Purchase> purchases) {
+        CatalogState catalog = mCatalog;
+        Set<String> ownedTokens = new HashSet<>();
+        for(Purchase purchase : purchases) {
+            ownedTokens.add(purchase.getPurchaseToken());
+            String type = catalog.getType(purchase.getProducts().get(0));
+            boolean open = "consumable".equals(type) || !purchase.isAcknowledged();
+            if(type != null && open && purchase.getPurchaseState() == Purchase.PurchaseState.PURCHASED
+                    && !mPurchaseJournal.contains(purchase.getPurchaseToken()) && !mPurchaseJournal.isRejected(purchase.getPurchaseToken())) {
+                mPurchaseJournal.recordPurchased(purchase.getPurchaseToken(), purchase.getProducts().get(0),
+                        purchase.getOrderId(), purchase.getOriginalJson(), purchase.getSignature());
+            }
+        }
+        for(PurchaseJournal.Entry entry : mPurchaseJournal.getOpenEntries()) {
+            // consumed on another device or refunded
+            if("consumable".equals(catalog.getType(entry.productId)) && !ownedTokens.contains(entry.purchaseToken)) {
+                mPurchaseJournal.record(entry.purchaseToken, entry.productId, PurchaseJournal.STATE_CONSUMED);
+            }
+        }
     }
 
-    private void handlePurchase(Purchase purchase) {
-        if (purchase.getPurchaseState() != Purchase.PurchaseState.PURCHASED) {
+    /**
+     * combined result queryPurchasesAsync() and queryPurchaseHistoryAsync(), INAPP and SUBS
+     */
+    public void getPurchaseHistory() {
+        if (deferUntilConfigured(new Runnable() {
+            @Override
+            public void run() {
+                getPurchaseHistory();
+            }
+        })) {
             return;
         }
-
-        // Returning in-case purchase update after app relaunch
-        // and allowing these purchases to go through the silent purchase flow
-        if (mCurrentRequestPurchaseSkuDetails == null) {
-           return;
+        if(!mEvents.hasSubscribers(PurchaseEventListener.TOPIC_HISTORY)) {
+            return;
         }
 
-        Product product = getProductFromSkuDetails(mCurrentRequestPurchaseSkuDetails);
-        product.transactionID = purchase.getOrderId();
-        product.receipt = purchase.getOriginalJson();
-        product.receiptCipheredPayload = purchase.getSignature();
-        product.purchaseToken = purchase.getPurchaseToken();
-        mPurchaseEventListener.onPurchaseSuccess(product);
-        if (!product.type.equals("consumable") && !purchase.isAcknowledged()) {
-            acknowledgePurchase(purchase.getPurchaseToken());
-        }
+        // per request accumulator, a concurrent call gets its own
+        final JSONArray historyList = new JSONArray();
+        streamPurchaseHistory(PurchaseHistoryStream.DEFAULT_PAGE_SIZE, new PurchaseHistoryStream.Sink() {
+            @Override
+            public void onPage(@NonNull JSONArray page, boolean last) {
+                for(int i = 0; i < page.length(); i++) {
+                    historyList.put(page.opt(i));
+                }
+                if(last) {
+                    mEvents.onPurchaseHistoryRequestSuccess(historyList);
+                }
+            }
+        });
     }
 
-    private void queryProductDetailsAsync(String productTYpe, ProductDetailsResponseListener listener) {
-        QueryProductDetailsParams queryProductDetailsParams = QueryProductDetailsParams.newBuilder()
-                .setProductList(getProductList(productTYpe))
-                .build();
-        mBillingClient.queryProductDetailsAsync(queryProductDetailsParams, listener);
+    /**
+     * Stream the purchase history in pages through onPurchaseHistoryPage instead of one blob
+     * @return request id passed with every page of this request
+     */
+    public int getPurchaseHistoryPaged(int pageSize) {
+        int requestId = mNextHistoryRequestId.getAndIncrement();
+        getPurchaseHistoryPaged(requestId, pageSize);
+        return requestId;
     }
 
-    private void consumeAsync(Product product) {
-        String purchaseToken = product.purchaseToken;
-        ConsumeParams params = ConsumeParams.newBuilder()
-                .setPurchaseToken(purchaseToken)
-                .build();
+    private void getPurchaseHistoryPaged(final int requestId, final int pageSize) {
+        if (deferUntilConfigured(new Runnable() {
+            @Override
+            public void run() {
+                getPurchaseHistoryPaged(requestId, pageSize);
+            }
+        })) {
+            return;
+        }
+        if(!mEvents.hasSubscribers(PurchaseEventListener.TOPIC_HISTORY)) {
+            return;
+        }
 
-        mBillingClient.consumeAsync(params, new ConsumeResponseListener() {
+        streamPurchaseHistory(pageSize, new PurchaseHistoryStream.Sink() {
             @Override
-            public void onConsumeResponse(@NonNull BillingResult billingResult, @NonNull String purchaseToken) {
-                if(billingResult.getResponseCode() == BillingResponseCode.OK) {
-                    Log.d(TAG, "product consumed successfully");
-                    mPurchaseEventListener.onConsumeSuccess(product);
-                }else {
-                    Log.d(TAG, "product consumed failed: " + billingResult.getDebugMessage());
-                    mPurchaseEventListener.onConsumeFailure(product, billingResult.getResponseCode(), billingResult.getDebugMessage());
-                }
+            public void onPage(@NonNull JSONArray page, boolean last) {
+                mEvents.onPurchaseHistoryPage(requestId, page, last);
             }
         });
     }
 
-    private void acknowledgePurchase(String purchaseToken) {
-        AcknowledgePurchaseParams params = AcknowledgePurchaseParams.newBuilder().setPurchaseToken(purchaseToken).build();
-        mBillingClient.acknowledgePurchase(params, new AcknowledgePurchaseResponseListener() {
+    private void streamPurchaseHistory(final int pageSize, @NonNull final PurchaseHistoryStream.Sink sink) {
+        mConnection.execute(new BillingConnection.Operation() {
+            @Override
+            public void run(@NonNull BillingClient billingClient) {
+                PurchaseHistoryStream.start(billingClient, mPurchasesSnapshot, pageSize, sink);
+            }
+
             @Override
-            public void onAcknowledgePurchaseResponse(@NonNull BillingResult billingResult) {
-                Log.d(TAG, "Purchase acknowledge response: " + billingResult.getResponseCode());
+            public void onUnavailable(int responseCode, @NonNull String message) {
+                // Returning a empty array
+                sink.onPage(new JSONArray(), true);
             }
         });
     }
-    public static void init(Activity activity) {
-        if (mPurchaseManager == null)
-        {
-            mPurchaseManager = new PurchaseManager();
-        }
-        mPurchaseManager.mActivity = activity;
-    }
-    public static PurchaseManager getInstance()
-    {
-        return mPurchaseManager;
-    }
 
-    public static void onResume() {
-        if (getInstance().isInitialized() && !getInstance().isBillingClientValid()) {
-           getInstance().createNewBillingClient();
-        }
-        if (mPlayPassNoAdsPackId != null && mPlayPassNoAdsPackId.length() > 0) {
-            getInstance().checkPlayPassStatus();
+    public void queryPurchases() {
+        if (deferUntilConfigured(new Runnable() {
+            @Override
+            public void run() {
+                queryPurchases();
+            }
+        })) {
+            return;
         }
-        if (getInstance().mProductDetailsMap.size() > 0) {
-            getInstance().queryUnconsumedPurchases();
+        if(!mEvents.hasSubscribers(PurchaseEventListener.TOPIC_RESTORE)) {
+            return;
         }
-    }
+        requestPurchasesSnapshot(new PurchasesSnapshot.Consumer() {
+            @Override
+            public void onPurchases(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
+                if(billingResult.getResponseCode() == BillingResponseCode.OK) {
+                  List<Product> productList = new ArrayList<>();
+                  for(Purchase purchase : purchases) {
+                      String productId = purchase.getProducts().get(0);
+                      ProductDetails productDetails = getSkuDetailsByProductId(productId);
+                      if(productDetails == null) {
+                          continue;
+                      }
 
-    public static void onPause() {}
+                      Product product = getProductFromSkuDetails(productDetails)
+                              .withPurchase(purchase.getOrderId(), purchase.getOriginalJson(), purchase.getSignature(), purchase.getPurchaseToken());
 
-    public Activity getActivity() {
-        return mActivity;
+                      productList.add(product);
+                  }
+
+                  // restore: repeat tokens are served from the verified cache without an RSA check
+                  mReceiptVerifier.verifyProducts(productList, new ReceiptVerifier.ProductsCallback() {
+                      @Override
+                      public void onVerified(@NonNull List<Product> verifiedProducts) {
+                          mEvents.onQueryPurchasesSuccess(verifiedProducts);
+                      }
+                  });
+                }else {
+                    mEvents.onQueryPurchasesFailure(billingResult.getResponseCode(), billingResult.getDebugMessage());
+                }
+            }
+        });
     }
 
-    public void setPurchaseEventListener(PurchaseEventListener listener) {
-        mPurchaseEventListener = listener;
+    /**
+     * @param accountId obfuscated id of the player's account, attached to every following purchase
+     */
+    public void setObfuscatedAccountId(@Nullable String accountId) {
+        mObfuscatedAccountId = accountId;
     }
 
-    public void removePurchaseEventListener() {
-        mPurchaseEventListener = null;
+    /**
+     * @param policy lowest_first_price (default), base_plan or longest_discount
+     * @param preferredTag offers carrying this tag win over the others, may be null
+     */
+    public void setSubscriptionOfferPolicy(@NonNull String policy, @Nullable String preferredTag) {
+        mProductCache.setOfferPolicy(policy, preferredTag);
     }
 
-    public void init(String sdkboxConfigJsonString) {
+    /**
+     * Every base plan, offer and pricing phase of a loaded subscription, the offer purchase()
+     * buys is flagged "selected"
+     * @return JSON array, empty when the product is not a loaded subscription
+     */
+    public String getSubscriptionOffers(String productId) {
+        ProductDetails productDetails = getSkuDetailsByProductId(productId);
+        if(productDetails == null) {
+            return "[]";
+        }
+        SubscriptionOffers offers = mProductCache.getOffers(productDetails, getProductType(productDetails));
+        if(offers == null) {
+            return "[]";
+        }
         try {
-            JSONObject configJson = new JSONObject(sdkboxConfigJsonString);
-            JSONObject iapJson = configJson.getJSONObject("android").getJSONObject("iap");
-
-            mLicenseKey = iapJson.getString("key");
-            JSONObject items = iapJson.getJSONObject("items");
-
-            mProductTypeMap.clear();
-            for (Iterator<String> it = items.keys(); it.hasNext(); ) {
-                String name = it.next();
-                JSONObject item = items.getJSONObject(name);
+            return offers.toJsonString();
+        } catch (IOException e) {
+            Log.e(TAG, "getSubscriptionOffers failed: " + e.getMessage());
+            return "[]";
+        }
+    }
 
-                String productId = item.getString("id");
-                String type = item.getString("type");
-                mProductTypeMap.put(productId, type);
-            }
-        }catch(JSONException e) {
-            if(mPurchaseEventListener != null) {
-                mPurchaseEventListener.onInitialized(false);
-                return;
+    public void purchase(final String productId) {
+        if (deferUntilConfigured(new Runnable() {
+            @Override
+            public void run() {
+                purchase(productId);
             }
+        })) {
+            return;
         }
+        // a billing flow popping up long after the tap is worse than a failure
+        mConnection.execute(new BillingConnection.Operation() {
+            @Override
+            public void run(@NonNull BillingClient billingClient) {
+                launchPurchaseFlow(billingClient, productId);
+            }
 
-        createNewBillingClient();
+            @Override
+            public void onUnavailable(int responseCode, @NonNull String message) {
+                mEvents.onPurchaseFailure(new Product(), BillingResponseCode.BILLING_UNAVAILABLE, "Billing Client not ready!");
+            }
+        }, PURCHASE_DEADLINE_MILLIS);
     }
 
-    public boolean isInitialized() { return mBillingClient != null && mBillingInitialized; }
-
-    public boolean isReady() { return isInitialized() && mBillingClient.isReady(); }
-
-    public void queryProductListAsync() {
-        if(!isReady() || mPurchaseEventListener == null) {
-            if(mPurchaseEventListener != null) {
-                mPurchaseEventListener.onQueryProductListFailure("BillingClient is not initialized");
-            }
+    private void launchPurchaseFlow(@NonNull final BillingClient billingClient, String productId) {
+        ProductDetails productDetails = getSkuDetailsByProductId(productId);
+        if(productDetails != null) {
+            launchPurchaseFlow(billingClient, productDetails);
             return;
         }
-        queryProductDetailsAsync(BillingClient.ProductType.INAPP, new ProductDetailsResponseListener() {
+
+        // not loaded by the catalog (yet), fetch just this product instead of the whole catalog
+        resolveProductDetails(billingClient, productId, new ProductDetailsResolver.Callback() {
             @Override
-            public void onProductDetailsResponse(@NonNull BillingResult billingResult, @Nullable List<ProductDetails> productDetailsList) {
-                mProductDetailsMap.clear();
-                if(productDetailsList == null) {
-                    mPurchaseEventListener.onQueryProductListFailure("productDetailsList is empty");
+            public void onResolved(@Nullable ProductDetails productDetails, int responseCode) {
+                if(productDetails == null) {
+                    mEvents.onPurchaseFailure(new Product(), BillingResponseCode.ITEM_UNAVAILABLE, "Product details not found!");
                     return;
                 }
-
-                if(billingResult.getResponseCode() == BillingResponseCode.OK) {
-                    for (ProductDetails productDetails : productDetailsList) {
-                        mProductDetailsMap.put(productDetails.getProductId(), productDetails);
-                    }
-
-                    queryProductDetailsAsync(BillingClient.ProductType.SUBS, new ProductDetailsResponseListener() {
-                        @Override
-                        public void onProductDetailsResponse(@NonNull BillingResult billingResult, @NonNull List<ProductDetails> subDetailsList) {
-                            if (subDetailsList != null && billingResult.getResponseCode() == BillingResponseCode.OK) {
-                                for (ProductDetails subDetails: subDetailsList) {
-                                    mProductDetailsMap.put(subDetails.getProductId(), subDetails);
-                                }
-                            }
-                            try {
-                                JSONArray products = new JSONArray();
-                                for(String productId : mProductDetailsMap.keySet()) {
-                                    String type = getProductType(productId);
-                                    Product product = Product.createFromProductDetails(mProductDetailsMap.get(productId), type);
-                                    products.put(product.toJson());
-                                }
-                                mPurchaseEventListener.onQueryProductListSuccess(products);
-                                //Query unconsumed products
-                                queryUnconsumedPurchases();
-                            }catch(JSONException e) {
-                                mPurchaseEventListener.onQueryProductListFailure(e.getMessage());
-                            }
-                        }
-                    });
-                }else {
-                    String message = String.format(Locale.ENGLISH,
-                            "queryProductListAsync failed: responseCode=%d(%s), debugMessage=%s",
-                            billingResult.getResponseCode(),
-                            billingResponseCodeToString(billingResult.getResponseCode()),
-                            billingResult.getDebugMessage());
-                    Log.e(TAG, message);
-                    mPurchaseEventListener.onQueryProductListFailure(message);
-                }
+                launchPurchaseFlow(billingClient, productDetails);
             }
         });
     }
 
-    private @NonNull List<QueryProductDetailsParams.Product> getProductList(String productType) {
-        List<String> productIdList = new ArrayList<>(mProductTypeMap.keySet());
-        List<QueryProductDetailsParams.Product> productList = new ArrayList<>();
-        for(String productId : productIdList) {
-            productList.add(
-                    QueryProductDetailsParams.Product.newBuilder()
-                            .setProductId(productId)
-                            .setProductType(productType)
-                            .build()
-            );
+    private void launchPurchaseFlow(@NonNull BillingClient billingClient, @NonNull ProductDetails productDetails) {
+        BillingFlowParams.ProductDetailsParams.Builder productDetailsParams = BillingFlowParams.ProductDetailsParams.newBuilder()
+                .setProductDetails(productDetails);
+        if (BillingClient.ProductType.SUBS.equals(productDetails.getProductType())) {
+            // picked when the catalog was loaded
+            SubscriptionOffers offers = mProductCache.getOffers(productDetails, getProductType(productDetails));
+            if(offers == null) {
+                mEvents.onPurchaseFailure(getProductFromSkuDetails(productDetails), BillingResponseCode.ITEM_UNAVAILABLE, "No subscription offer available!");
+                return;
+            }
+            productDetailsParams.setOfferToken(offers.getSelectedOffer().offerToken);
+        }
+        ImmutableList<BillingFlowParams.ProductDetailsParams> productDetailsParamsList =
+                ImmutableList.of(productDetailsParams.build());
+
+        BillingFlowParams.Builder paramsBuilder = BillingFlowParams.newBuilder()
+                .setProductDetailsParamsList(productDetailsParamsList);
+        String accountId = mObfuscatedAccountId;
+        if(accountId != null) {
+            paramsBuilder.setObfuscatedAccountId(accountId);
+        }
+        mPurchaseFlows.begin(productDetails, accountId);
+        BillingResult billingResult = billingClient.launchBillingFlow(getActivity(), paramsBuilder.build());
+        if(billingResult.getResponseCode() != BillingResponseCode.OK) {
+            Log.e(TAG, "launchBillingFlow failed: " + billingResponseCodeToString(billingResult.getResponseCode()));
         }
-        return productList;
     }
 
-    private void queryUnconsumedPurchases() {
-        Log.d(TAG, "queryUnconsumedPurchases");
-        if(mPurchaseEventListener == null) {
+    public void consume(final String productId, final String purchaseToken) {
+        if (deferUntilConfigured(new Runnable() {
+            @Override
+            public void run() {
+                consume(productId, purchaseToken);
+            }
+        })) {
             return;
         }
-        if(!isReady()) {
+        ProductDetails productDetails = getSkuDetailsByProductId(productId);
+        if(productDetails != null) {
+            consumeAsync(getProductFromSkuDetails(productDetails).withPurchaseToken(purchaseToken));
             return;
         }
-        QueryPurchasesParams queryPurchasesParams = QueryPurchasesParams.newBuilder().setProductType(BillingClient.ProductType.INAPP).build();
-        mBillingClient.queryPurchasesAsync(queryPurchasesParams, new PurchasesResponseListener() {
+
+        // consuming only needs the token, the details only fill in the reported product
+        mConnection.execute(new BillingConnection.Operation() {
             @Override
-            public void onQueryPurchasesResponse(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
-                if(billingResult.getResponseCode() == BillingResponseCode.OK) {
-                    JSONArray productList = new JSONArray();
-                    try {
-                        Log.w(TAG, "un consume purchaseCount:" + purchases.size());
-                        for(Purchase purchase : purchases) {
-                            String productId = purchase.getProducts().get(0);
-                            ProductDetails productDetails = getSkuDetailsByProductId(productId);
-                            if(productDetails == null) {
-                                continue;
-                            }
-                            Product product = getProductFromSkuDetails(productDetails);
-                            if(product.type.equals("consumable")) {
-                                product.transactionID = purchase.getOrderId();
-                                product.receipt = purchase.getOriginalJson();
-                                product.receiptCipheredPayload = purchase.getSignature();
-                                product.purchaseToken = purchase.getPurchaseToken();
-
-                                productList.put(product.toJson());
-                            }
-                        }
-                        if(mPurchaseEventListener != null) {
-                            mPurchaseEventListener.onUnConsumedProductsUpdate(productList);
+            public void run(@NonNull BillingClient billingClient) {
+                resolveProductDetails(billingClient, productId, new ProductDetailsResolver.Callback() {
+                    @Override
+                    public void onResolved(@Nullable ProductDetails productDetails, int responseCode) {
+                        if(productDetails != null) {
+                            consumeAsync(getProductFromSkuDetails(productDetails).withPurchaseToken(purchaseToken));
+                        } else {
+                            consumeAsync(Product.placeholder(productId, purchaseToken));
                         }
-                    }catch(JSONException e) {
-                        mPurchaseEventListener.onUnConsumedProductsUpdate(productList);
-                        Log.w(TAG, "query unconsumed product failed");
                     }
-                }
+                });
+            }
+
+            @Override
+            public void onUnavailable(int responseCode, @NonNull String message) {
+                consumeAsync(Product.placeholder(productId, purchaseToken));
             }
         });
     }
 
     /**
-     * combined result queryPurchasesAsync() and queryPurchaseHistoryAsync()
+     * Consume several purchases in one call, reported once through onConsumeBatchComplete
+     * @param productIds product id of each purchase token
      */
-    public void getPurchaseHistory() {
-        mPurchaseHistoryList.clear();
-
-        if(mPurchaseEventListener == null) {
+    public void consumeBatch(final String[] productIds, final String[] purchaseTokens) {
+        if (deferUntilConfigured(new Runnable() {
+            @Override
+            public void run() {
+                consumeBatch(productIds, purchaseTokens);
+            }
+        })) {
             return;
         }
-
-        if(!isReady()) {
-            // Returning a empty array
-            mPurchaseEventListener.onPurchaseHistoryRequestSuccess(new JSONArray());
-            return;
+        List<Product> products = new ArrayList<>();
+        for(int i = 0; i < productIds.length && i < purchaseTokens.length; i++) {
+            ProductDetails productDetails = getSkuDetailsByProductId(productIds[i]);
+            if(productDetails != null) {
+                products.add(getProductFromSkuDetails(productDetails).withPurchaseToken(purchaseTokens[i]));
+            } else {
+                products.add(Product.placeholder(productIds[i], purchaseTokens[i]));
+            }
         }
 
-        QueryPurchasesParams queryPurchasesParams = QueryPurchasesParams.newBuilder().setProductType(BillingClient.ProductType.INAPP).build();
+        mConsumeScheduler.consume(products, new ConsumeScheduler.BatchCallback() {
+            @Override
+            public void onBatchComplete(@NonNull List<ConsumeScheduler.Result> results) {
+                onConsumeResults(results);
+                mEvents.onConsumeBatchComplete(results);
+            }
+        });
+    }
 
-        mBillingClient.queryPurchasesAsync(queryPurchasesParams, new PurchasesResponseListener() {
+    private void initPlayPass(final String noAdsPackId) {
+        if (deferUntilConfigured(new Runnable() {
             @Override
-            public void onQueryPurchasesResponse(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
-                if(billingResult.getResponseCode() == BillingResponseCode.OK) {
-                    for(Purchase purchase : purchases) {
-                        try {
-                            JSONObject record = new JSONObject();
-                            record.put("productId", purchase.getProducts().get(0));
-                            record.put("orderId", purchase.getOrderId());
-                            record.put("purchaseTime", purchase.getPurchaseTime());
-                            record.put("purchaseToken", purchase.getPurchaseToken());
-                            record.put("originalJson", purchase.getOriginalJson());
-                            record.put("signature", purchase.getSignature());
-                            record.put("quantity", purchase.getQuantity());
-
-                            String purchaseState = "UNKNOWN";
-                            if(purchase.getPurchaseState() == Purchase.PurchaseState.PURCHASED) {
-                                purchaseState = "PURCHASED";
-                            }else if(purchase.getPurchaseState() == Purchase.PurchaseState.PENDING) {
-                                purchaseState = "PENDING";
-                            }else if(purchase.getPurchaseState() == Purchase.PurchaseState.UNSPECIFIED_STATE) {
-                                purchaseState = "UNSPECIFIED_STATE";
-                            }
-                            record.put("purchaseState", purchaseState);
+            public void run() {
+                initPlayPass(noAdsPackId);
+            }
+        })) {
+            return;
+        }
+        mPlayPassNoAdsPackId = noAdsPackId;
+        mEntitlements.watch(noAdsPackId);
+        checkPlayPassStatus();
+    }
 
-                            mPurchaseHistoryList.add(record);
-                        }catch(Exception e) {
-                        }
-                    }
+    /**
+     * Refresh the snapshot and report the play pass status read from the entitlement index
+     */
+    private void checkPlayPassStatus() {
+        requestPurchasesSnapshot(new PurchasesSnapshot.Consumer() {
+            @Override
+            public void onPurchases(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
+                String noAdsPackId = mPlayPassNoAdsPackId;
+                if (billingResult.getResponseCode() == BillingResponseCode.OK && noAdsPackId != null) {
+                    String noAdsPackToken = mEntitlements.getToken(noAdsPackId);
+                    mEvents.onPlayPassStatusUpdate(noAdsPackToken != null, noAdsPackToken != null ? noAdsPackToken : "");
                 }
-                QueryPurchaseHistoryParams purchaseHistoryParams = QueryPurchaseHistoryParams.newBuilder().setProductType(BillingClient.ProductType.INAPP).build();
-                mBillingClient.queryPurchaseHistoryAsync(purchaseHistoryParams, new PurchaseHistoryResponseListener() {
-                    @Override
-                    public void onPurchaseHistoryResponse(@NonNull BillingResult billingResult, @Nullable List<PurchaseHistoryRecord> purchaseHistoryRecords) {
-                        if(billingResult.getResponseCode() == BillingResponseCode.OK && purchaseHistoryRecords != null) {
-                            for(PurchaseHistoryRecord purchaseHistoryRecord : purchaseHistoryRecords) {
-                                try {
-                                    JSONObject record = new JSONObject();
-                                    record.put("productId", purchaseHistoryRecord.getProducts().get(0));
-                                    record.put("purchaseTime", purchaseHistoryRecord.getPurchaseTime());
-                                    record.put("purchaseToken", purchaseHistoryRecord.getPurchaseToken());
-                                    record.put("originalJson", purchaseHistoryRecord.getOriginalJson());
-                                    record.put("signature", purchaseHistoryRecord.getSignature());
-                                    record.put("quantity", purchaseHistoryRecord.getQuantity());
-
-                                    mPurchaseHistoryList.add(record);
-                                }catch(Exception e) {}
-                            }
-                        }
+            }
+        });
+    }
 
-                        if(mPurchaseEventListener != null) {
-                            JSONArray historyList = new JSONArray(mPurchaseHistoryList);
-                            mPurchaseEventListener.onPurchaseHistoryRequestSuccess(historyList);
+    /**
+     * Rebuild the entitlement index from fresh INAPP and SUBS snapshots
+     */
+    private void refreshEntitlements() {
+        requestPurchasesSnapshot(new PurchasesSnapshot.Consumer() {
+            @Override
+            public void onPurchases(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
+                // the snapshot result listener already updated the index
+            }
+        });
+        mConnection.execute(new BillingConnection.Operation() {
+            @Override
+            public void run(@NonNull BillingClient billingClient) {
+                QueryPurchasesParams params = QueryPurchasesParams.newBuilder().setProductType(BillingClient.ProductType.SUBS).build();
+                billingClient.queryPurchasesAsync(params, new PurchasesResponseListener() {
+                    @Override
+                    public void onQueryPurchasesResponse(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
+                        if (billingResult.getResponseCode() == BillingResponseCode.OK) {
+                            mEntitlements.replaceAll(BillingClient.ProductType.SUBS, purchases);
                         }
                     }
                 });
             }
-        });
-    }
 
-    public void queryPurchases() {
-        QueryPurchasesParams queryPurchasesParams = QueryPurchasesParams.newBuilder().setProductType(BillingClient.ProductType.INAPP).build();
-        mBillingClient.queryPurchasesAsync(queryPurchasesParams, new PurchasesResponseListener() {
             @Override
-            public void onQueryPurchasesResponse(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
-                if(billingResult.getResponseCode() == BillingResponseCode.OK) {
-                  try {
-                      JSONArray productList = new JSONArray();
-                      for(Purchase purchase : purchases) {
-                          String productId = purchase.getProducts().get(0);
-                          ProductDetails productDetails = getSkuDetailsByProductId(productId);
-                          if(productDetails == null) {
-                              continue;
-                          }
-
-                          Product product = getProductFromSkuDetails(productDetails);
-                          product.transactionID = purchase.getOrderId();
-                          product.receipt = purchase.getOriginalJson();
-                          product.receiptCipheredPayload = purchase.getSignature();
-                          product.purchaseToken = purchase.getPurchaseToken();
-
-                          productList.put(product.toJson());
-                      }
-
-                      mPurchaseEventListener.onQueryPurchasesSuccess(productList);
-                  }catch(JSONException e) {
-                      mPurchaseEventListener.onQueryPurchasesFailure(BillingResponseCode.ERROR, e.getMessage());
-                  }
-                }else {
-                    mPurchaseEventListener.onQueryPurchasesFailure(billingResult.getResponseCode(), billingResult.getDebugMessage());
-                }
+            public void onUnavailable(int responseCode, @NonNull String message) {
+                // index keeps its last state until the next refresh
             }
         });
     }
 
-    public void purchase(String productId) {
-        mCurrentRequestPurchaseSkuDetails = null;
-        if(mPurchaseEventListener == null) {
-            return;
+    /**
+     * @return flat JSON object of billing latencies, response code counts and in-flight calls
+     */
+    public String getMetricsSnapshot() {
+        String snapshot = mMetrics.snapshot();
+        return snapshot != null ? snapshot : "{}";
+    }
+
+    /**
+     * Push a metrics snapshot to exporter every intervalMillis, null stops exporting
+     */
+    public void setMetricsExporter(@Nullable MetricsExporter exporter, long intervalMillis) {
+        mMetrics.setExporter(exporter, intervalMillis);
+    }
+
+    /**
+     * Post receipts passed to verifyPurchase() to endpointUrl in batches, consume the
+     * consumables and acknowledge the other purchases the server grants, reported through
+     * onReceiptVerified.
+     * @param endpointUrl batch verification endpoint, empty stops uploading
+     */
+    public void setServerVerification(String endpointUrl, String userId) {
+        setVerificationTransport(endpointUrl == null || endpointUrl.isEmpty() ? null : new HttpVerificationTransport(endpointUrl), userId);
+    }
+
+    /**
+     * setServerVerification() with a custom transport, null stops uploading
+     */
+    public void setVerificationTransport(@Nullable VerificationTransport transport, String userId) {
+        // batch settings come from applyConfig(), which may run later with initDeferred()
+        mVerificationUploader.configure(transport, userId != null ? userId : "");
+    }
+
+    /**
+     * Queue an open purchase for the next verification batch, its receipt comes from the journal
+     * @return true if the receipt is queued, or held until initDeferred() has parsed the config,
+     * false if the caller has to verify it another way
+     */
+    public boolean verifyPurchase(final String productId, final String purchaseToken) {
+        if (deferUntilConfigured(new Runnable() {
+            @Override
+            public void run() {
+                verifyPurchase(productId, purchaseToken);
+            }
+        })) {
+            return true;
         }
-        if(!isReady()) {
-            Product emptyItem = new Product();
-            mPurchaseEventListener.onPurchaseFailure(emptyItem, BillingResponseCode.BILLING_UNAVAILABLE, "Billing Client not ready!");
-            return;
+        awaitStorageLoaded();
+        if (!mVerificationUploader.isEnabled()) {
+            Log.w(TAG, "verifyPurchase: server verification is not set up");
+            return false;
         }
-        ProductDetails productDetails = getSkuDetailsByProductId(productId);
-        if(productDetails == null) {
-            Product emptyItem = new Product();
-            mPurchaseEventListener.onPurchaseFailure(emptyItem, BillingResponseCode.ITEM_UNAVAILABLE, "Product details not found!");
-            return;
+        for (PurchaseJournal.Entry entry : mPurchaseJournal.getOpenEntries()) {
+            if (!entry.purchaseToken.equals(purchaseToken) || entry.receipt == null) {
+                continue;
+            }
+            ProductDetails productDetails = getSkuDetailsByProductId(productId);
+            Product product = productDetails != null ? getProductFromSkuDetails(productDetails) : Product.placeholder(productId, purchaseToken);
+            return mVerificationUploader.enqueue(Collections.singletonList(
+                    product.withPurchase(entry.orderId, entry.receipt, entry.signature, purchaseToken)));
         }
+        Log.w(TAG, "verifyPurchase: no open purchase of " + productId + " with this token");
+        return false;
+    }
 
-        mCurrentRequestPurchaseSkuDetails = productDetails;
-        String offerToken = "";
-        if ((productDetails.getProductType() == BillingClient.ProductType.SUBS)) {
-            productDetails.getSubscriptionOfferDetails().get(0).getOfferToken();
-        }
-        ImmutableList<BillingFlowParams.ProductDetailsParams> productDetailsParamsList =
-                ImmutableList.of(
-                        BillingFlowParams.ProductDetailsParams.newBuilder()
-                                .setProductDetails(productDetails)
-                                .setOfferToken(offerToken)
-                                .build()
-                );
+    /**
+     * Ownership from the entitlement index, no Play round trip
+     */
+    public boolean isOwned(String productId) {
+        return mEntitlements.isOwned(productId);
+    }
 
-        BillingFlowParams params = BillingFlowParams.newBuilder()
-                .setProductDetailsParamsList(productDetailsParamsList)
-                .build();
-        mBillingClient.launchBillingFlow(getActivity(), params);
+    /**
+     * @return purchase token of the owned product, empty if it is not owned
+     */
+    public String getToken(String productId) {
+        String purchaseToken = mEntitlements.getToken(productId);
+        return purchaseToken != null ? purchaseToken : "";
     }
 
-    public void consume(String productId, String purchaseToken) {
-        ProductDetails productDetails = getSkuDetailsByProductId(productId);
-        Product product = getProductFromSkuDetails(productDetails);
-        product.purchaseToken = purchaseToken;
-        consumeAsync(product);
+    /**
+     * Report ownership changes of productId through onEntitlementChanged
+     */
+    public void watchEntitlement(String productId) {
+        mEntitlements.watch(productId);
     }
 
-    private void initPlayPass(String noAdsPackId) {
-        mPlayPassNoAdsPackId = noAdsPackId;
-        checkPlayPassStatus();
+    public void unwatchEntitlement(String productId) {
+        mEntitlements.unwatch(productId);
     }
 
-    private void checkPlayPassStatus() {
-        if(mPurchaseEventListener == null) {
+    /**
+     * queryPurchasesAsync(INAPP) through the shared snapshot once the client is connected
+     */
+    private void requestPurchasesSnapshot(@NonNull final PurchasesSnapshot.Consumer consumer) {
+        mConnection.execute(new BillingConnection.Operation() {
+            @Override
+            public void run(@NonNull BillingClient billingClient) {
+                mPurchasesSnapshot.request(billingClient, consumer);
+            }
+
+            @Override
+            public void onUnavailable(int responseCode, @NonNull String message) {
+                BillingResult billingResult = BillingResult.newBuilder()
+                        .setResponseCode(responseCode)
+                        .setDebugMessage(message)
+                        .build();
+                consumer.onPurchases(billingResult, new ArrayList<Purchase>());
+            }
+        });
+    }
+
+    private @Nullable ProductDetails getSkuDetailsByProductId(String productId) {
+        return mCatalog.getDetails(productId);
+    }
+
+    /**
+     * ProductDetails from the catalog, or from a single-id query that is cached in the catalog
+     */
+    private void resolveProductDetails(@NonNull BillingClient billingClient, final String productId, @NonNull final ProductDetailsResolver.Callback callback) {
+        ProductDetails productDetails = getSkuDetailsByProductId(productId);
+        if(productDetails != null) {
+            callback.onResolved(productDetails, BillingResponseCode.OK);
             return;
         }
-
-        if(!isReady()) {
+        String type = mCatalog.getType(productId);
+        if(type == null) {
+            Log.e(TAG, "product " + productId + " is not configured");
+            callback.onResolved(null, BillingResponseCode.ITEM_UNAVAILABLE);
             return;
         }
 
-        QueryPurchasesParams queryPurchasesParams = QueryPurchasesParams.newBuilder().setProductType(BillingClient.ProductType.INAPP).build();
-
-        mBillingClient.queryPurchasesAsync(queryPurchasesParams, new PurchasesResponseListener() {
+        mProductDetailsResolver.resolve(billingClient, productId, type, new ProductDetailsResolver.Callback() {
             @Override
-            public void onQueryPurchasesResponse(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
-                if (billingResult.getResponseCode() == BillingResponseCode.OK) {
-                    boolean playPassActive = false;
-                    String noAdsPackToken = "";
-                    for (Purchase purchase : purchases) {
-                        try {
-                            if (mPlayPassNoAdsPackId.equals(purchase.getProducts().get(0))) {
-                                playPassActive = true;
-                                noAdsPackToken = purchase.getPurchaseToken();
-                                break;
-                            }
-                        }
-                        catch (Exception e) {
-                            Log.e(TAG, "Error::Query purchased items: " + e.toString());
+            public void onResolved(@Nullable ProductDetails productDetails, int responseCode) {
+                if(productDetails != null) {
+                    synchronized (mCatalogLock) {
+                        if(mCatalog.getDetails(productId) == null) {
+                            mCatalog = mCatalog.withDetails(Collections.singletonList(productDetails));
                         }
                     }
-                    mPurchaseEventListener.onPlayPassStatusUpdate(playPassActive, noAdsPackToken);
+                } else {
+                    Log.e(TAG, "failed to resolve " + productId + ": " + billingResponseCodeToString(responseCode));
                 }
+                // a config update may have removed the product meanwhile, the fetched details still describe it
+                ProductDetails cached = getSkuDetailsByProductId(productId);
+                callback.onResolved(cached != null ? cached : productDetails, responseCode);
             }
         });
     }
 
-    private @Nullable ProductDetails getSkuDetailsByProductId(String productId) {
-        return mProductDetailsMap.get(productId);
+    /**
+     * Configured type of the product, a product removed by a config update while its purchase
+     * was in flight is treated as non_consumable (subs for a subscription), so it is
+     * acknowledged rather than consumed
+     */
+    private @NonNull String getProductType(@NonNull ProductDetails productDetails) {
+        String type = mCatalog.getType(productDetails.getProductId());
+        if(type != null) {
+            return type;
+        }
+        Log.w(TAG, "product " + productDetails.getProductId() + " is no longer configured");
+        return BillingClient.ProductType.SUBS.equals(productDetails.getProductType()) ? "subs" : "non_consumable";
     }
 
-    private @NonNull String getProductType(String productId) {
-        return Objects.requireNonNull(mProductTypeMap.get(productId));
+    /**
+     * @return BillingClient.ProductType of a configured product, INAPP for unknown ones
+     */
+    private @NonNull String getBillingProductType(String productId) {
+        return "subs".equals(mCatalog.getType(productId)) ? BillingClient.ProductType.SUBS : BillingClient.ProductType.INAPP;
     }
 
     private static String billingResponseCodeToString(int responseCode) {
@@ -579,30 +1606,38 @@ public class PurchaseManager {
         }
     }
 
-    private boolean isBillingClientValid() {
-        return mBillingClient != null &&
-              (mBillingClient.getConnectionState() == BillingClient.ConnectionState.CONNECTED ||
-               mBillingClient.getConnectionState() == BillingClient.ConnectionState.CONNECTING);
-    }
-
-    private void createNewBillingClient() {
-        if (isBillingClientValid()) {
-            return;
+    private void onFirstReady() {
+        mHandler.removeCallbacks(mIdlePrewarm);
+        String trigger = mConnectTrigger.get();
+        if (trigger == null) {
+            trigger = CONNECT_TRIGGER_DEMAND;
         }
+        mMetrics.recordTimeToReady(mInitStartedNanos, trigger);
+        Log.d(TAG, "billing ready " + (BillingMetrics.now() - mInitStartedNanos) / 1000000 + "ms after init, started by " + trigger);
+        if (mDeferredConnect) {
+            // acknowledging journaled purchases is not worth connecting early for
+            reconcileJournal();
+        }
+    }
 
-        mBillingClient = BillingClient.newBuilder(getActivity())
-                .setListener(mPurchasesUpdatedListener)
-                .enablePendingPurchases()
-                .build();
+    private BillingConnection createConnection() {
+        BillingConnection.ClientFactory clientFactory = new BillingConnection.ClientFactory() {
+            @Override
+            public @NonNull BillingClient create() {
+                return BillingClient.newBuilder(getActivity())
+                        .setListener(mPurchasesUpdatedListener)
+                        .enablePendingPurchases()
+                        .build();
+            }
+        };
 
-        mBillingClient.startConnection(new BillingClientStateListener() {
+        return new BillingConnection(clientFactory, new BillingConnection.StateListener() {
             @Override
-            public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
+            public void onSetupFinished(@NonNull BillingResult billingResult) {
                 boolean isSuccess = false;
 
                 if(billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
                     Log.d(TAG, "BillingClient initialize success");
-                    mBillingInitialized = true;
                     isSuccess = true;
                 } else {
                     String message = String.format(Locale.ENGLISH,
@@ -611,24 +1646,33 @@ public class PurchaseManager {
                             billingResponseCodeToString(billingResult.getResponseCode()),
                             billingResult.getDebugMessage());
                     Log.e(TAG, message);
-                    mBillingInitialized = false;
                 }
 
-                if(mPurchaseEventListener != null) {
-                    mPurchaseEventListener.onInitialized(isSuccess);
+                // backoff retries repeat the same result, only report when it changes
+                boolean changed = !mSetupReported || isSuccess != mBillingInitialized;
+                mBillingInitialized = isSuccess;
+                mSetupReported = true;
+                if(changed) {
+                    mEvents.onInitialized(isSuccess);
                 }
-                if (mPlayPassNoAdsPackId != null && mPlayPassNoAdsPackId.length() > 0) {
+                if (isSuccess && !mReadyRecorded) {
+                    mReadyRecorded = true;
+                    onFirstReady();
+                }
+                if (isSuccess) {
+                    refreshEntitlements();
+                }
+                String noAdsPackId = mPlayPassNoAdsPackId;
+                if (isSuccess && noAdsPackId != null && noAdsPackId.length() > 0) {
                     checkPlayPassStatus();
                 }
             }
 
             @Override
-            public void onBillingServiceDisconnected() {
-                if(mBillingClient != null) {
-                    mBillingInitialized = false;
-                    mBillingClient = null;
-                }
+            public void onDisconnected() {
+                // owned items may change while disconnected, the connection reconnects on its own
+                mPurchasesSnapshot.invalidate();
             }
-        });
+        }, mMetrics);
     }
 }
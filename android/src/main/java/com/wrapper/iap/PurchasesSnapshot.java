@@ -0,0 +1,153 @@
+package com.wrapper.iap;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.QueryPurchasesParams;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Shared queryPurchasesAsync(INAPP) for play pass, unconsumed, restore and history.
+ *
+ * Concurrent requests are coalesced onto one in-flight query, and a successful result
+ * is reused for {@code maxAgeMillis} so a burst of requests on resume costs a single
+ * IPC to the Play service. A request made after invalidate() never joins a query that
+ * started before it, it gets a query of its own.
+ */
+class PurchasesSnapshot {
+    static final long DEFAULT_MAX_AGE_MILLIS = 2000;
+
+    interface Consumer {
+        void onPurchases(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases);
+    }
+
+    private static class Waiting {
+        final Consumer consumer;
+        // mGeneration when the consumer asked, any query started at or after it answers it
+        final int generation;
+
+        Waiting(Consumer consumer, int generation) {
+            this.consumer = consumer;
+            this.generation = generation;
+        }
+    }
+
+    private final BillingMetrics mMetrics;
+    private final List<Waiting> mWaitingConsumers = new ArrayList<>();
+    // sees every successful query result that was not invalidated, before the waiting consumers
+    private volatile Consumer mResultListener;
+    // generation of the latest query started, -1 while none is in flight
+    private int mInFlightGeneration = -1;
+    private BillingResult mBillingResult;
+    private List<Purchase> mPurchases;
+    private long mFetchedAtMillis;
+    private long mMaxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    // bumped by invalidate() so a query started before it is not cached
+    private int mGeneration = 0;
+
+    PurchasesSnapshot(@NonNull BillingMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    void setMaxAgeMillis(long maxAgeMillis) {
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    void setResultListener(Consumer resultListener) {
+        mResultListener = resultListener;
+    }
+
+    /**
+     * Drop the cached result, e.g. after a purchase or consume changed the owned items
+     */
+    synchronized void invalidate() {
+        mPurchases = null;
+        mGeneration++;
+    }
+
+    /**
+     * @return time since the last successful query, Long.MAX_VALUE if there is none or it was invalidated
+     */
+    synchronized long getAgeMillis() {
+        return mPurchases == null ? Long.MAX_VALUE : SystemClock.elapsedRealtime() - mFetchedAtMillis;
+    }
+
+    void request(@NonNull BillingClient billingClient, @NonNull Consumer consumer) {
+        BillingResult cachedResult = null;
+        List<Purchase> cachedPurchases = null;
+        final int generation;
+        synchronized (this) {
+            if (mPurchases != null && SystemClock.elapsedRealtime() - mFetchedAtMillis <= mMaxAgeMillis) {
+                cachedResult = mBillingResult;
+                cachedPurchases = mPurchases;
+            } else {
+                mWaitingConsumers.add(new Waiting(consumer, mGeneration));
+                if (mInFlightGeneration == mGeneration) {
+                    return;
+                }
+                // none in flight, or it started before an invalidate() and may miss the change
+                mInFlightGeneration = mGeneration;
+            }
+            generation = mGeneration;
+        }
+
+        if (cachedPurchases != null) {
+            consumer.onPurchases(cachedResult, cachedPurchases);
+            return;
+        }
+
+        final long startNanos = mMetrics.begin(BillingMetrics.OP_QUERY_PURCHASES);
+        QueryPurchasesParams queryPurchasesParams = QueryPurchasesParams.newBuilder().setProductType(BillingClient.ProductType.INAPP).build();
+        billingClient.queryPurchasesAsync(queryPurchasesParams, new PurchasesResponseListener() {
+            @Override
+            public void onQueryPurchasesResponse(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
+                mMetrics.end(BillingMetrics.OP_QUERY_PURCHASES, startNanos, billingResult.getResponseCode());
+                onQueryComplete(generation, billingResult, purchases);
+            }
+        });
+    }
+
+    private void onQueryComplete(int generation, BillingResult billingResult, List<Purchase> purchases) {
+        List<Consumer> consumers = new ArrayList<>();
+        List<Purchase> result = purchases != null ? Collections.unmodifiableList(new ArrayList<>(purchases)) : Collections.<Purchase>emptyList();
+        boolean current;
+        synchronized (this) {
+            if (mInFlightGeneration == generation) {
+                mInFlightGeneration = -1;
+            }
+            current = generation == mGeneration;
+            if (billingResult.getResponseCode() == BillingResponseCode.OK && current) {
+                mBillingResult = billingResult;
+                mPurchases = result;
+                mFetchedAtMillis = SystemClock.elapsedRealtime();
+            }
+            // consumers that asked after an invalidate() wait for the newer query
+            for (Iterator<Waiting> it = mWaitingConsumers.iterator(); it.hasNext(); ) {
+                Waiting waiting = it.next();
+                if (waiting.generation <= generation) {
+                    consumers.add(waiting.consumer);
+                    it.remove();
+                }
+            }
+        }
+
+        Consumer resultListener = mResultListener;
+        // an invalidated result must not overwrite what a newer query reports
+        if (resultListener != null && billingResult.getResponseCode() == BillingResponseCode.OK && current) {
+            resultListener.onPurchases(billingResult, result);
+        }
+        for (Consumer consumer : consumers) {
+            consumer.onPurchases(billingResult, result);
+        }
+    }
+}
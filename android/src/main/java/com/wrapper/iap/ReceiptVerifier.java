@@ -0,0 +1,210 @@
+package com.wrapper.iap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.Purchase;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks the Play signature of purchase receipts against the app's license key, so
+ * forged receipts are dropped before they reach the game or its verification server.
+ *
+ * Checks run in batches on a single worker thread and are reported on the main thread.
+ * Tokens that passed are kept in an LRU cache, so repeat restores skip the RSA check and
+ * a fully cached batch is reported synchronously. Without a usable key every receipt passes.
+ */
+class ReceiptVerifier {
+    private static final String TAG = "ReceiptVerifier";
+    private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+    static final int DEFAULT_CACHE_SIZE = 256;
+
+    static class Receipt {
+        final String purchaseToken;
+        // Purchase.getOriginalJson()
+        final String signedData;
+        // Purchase.getSignature(), base64
+        final String signature;
+
+        Receipt(String purchaseToken, String signedData, String signature) {
+            this.purchaseToken = purchaseToken;
+            this.signedData = signedData;
+            this.signature = signature;
+        }
+
+        static Receipt of(@NonNull Purchase purchase) {
+            return new Receipt(purchase.getPurchaseToken(), purchase.getOriginalJson(), purchase.getSignature());
+        }
+
+        static Receipt of(@NonNull Product product) {
+            return new Receipt(product.purchaseToken, product.receipt, product.receiptCipheredPayload);
+        }
+    }
+
+    interface Callback {
+        /**
+         * @param rejectedTokens purchase tokens whose signature did not match, empty if all passed
+         */
+        void onVerified(@NonNull Set<String> rejectedTokens);
+    }
+
+    interface ProductsCallback {
+        void onVerified(@NonNull List<Product> verifiedProducts);
+    }
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private PublicKey mPublicKey;
+    // purchaseToken => signature that passed, least recently used first
+    private final LinkedHashMap<String, String> mVerified;
+
+    ReceiptVerifier(final int cacheSize) {
+        mVerified = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param base64PublicKey license key of the app from the Play Console, null disables verification
+     */
+    synchronized void setLicenseKey(@Nullable String base64PublicKey) {
+        mPublicKey = null;
+        mVerified.clear();
+        if (base64PublicKey == null || base64PublicKey.isEmpty()) {
+            return;
+        }
+        try {
+            byte[] encodedKey = Base64.decode(base64PublicKey, Base64.DEFAULT);
+            mPublicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encodedKey));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            Log.e(TAG, "invalid license key, receipts are not verified: " + e.getMessage());
+        }
+    }
+
+    synchronized boolean isEnabled() {
+        return mPublicKey != null;
+    }
+
+    void verify(@NonNull Receipt receipt, @NonNull Callback callback) {
+        List<Receipt> receipts = new ArrayList<>();
+        receipts.add(receipt);
+        verify(receipts, callback);
+    }
+
+    /**
+     * Callback runs synchronously if verification is off or every receipt is cached,
+     * otherwise on the main thread once the whole batch has been checked
+     */
+    void verify(@NonNull List<Receipt> receipts, @NonNull final Callback callback) {
+        final PublicKey publicKey;
+        final List<Receipt> unverified = new ArrayList<>();
+        synchronized (this) {
+            publicKey = mPublicKey;
+            if (publicKey != null) {
+                for (Receipt receipt : receipts) {
+                    String signature = mVerified.get(receipt.purchaseToken);
+                    if (signature == null || !signature.equals(receipt.signature)) {
+                        unverified.add(receipt);
+                    }
+                }
+            }
+        }
+        if (unverified.isEmpty()) {
+            callback.onVerified(new HashSet<String>());
+            return;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Set<String> rejectedTokens = new HashSet<>();
+                List<Receipt> passed = new ArrayList<>();
+                for (Receipt receipt : unverified) {
+                    if (isValid(publicKey, receipt)) {
+                        passed.add(receipt);
+                    } else {
+                        Log.w(TAG, "signature mismatch for purchase token " + receipt.purchaseToken);
+                        rejectedTokens.add(receipt.purchaseToken);
+                    }
+                }
+                synchronized (ReceiptVerifier.this) {
+                    // a key change while this batch ran cleared the cache, do not refill it with the old key
+                    if (publicKey == mPublicKey) {
+                        for (Receipt receipt : passed) {
+                            mVerified.put(receipt.purchaseToken, receipt.signature);
+                        }
+                    }
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onVerified(rejectedTokens);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Batch check of purchased products, reported without the rejected ones
+     */
+    void verifyProducts(@NonNull final List<Product> products, @NonNull final ProductsCallback callback) {
+        List<Receipt> receipts = new ArrayList<>();
+        for (Product product : products) {
+            receipts.add(Receipt.of(product));
+        }
+        verify(receipts, new Callback() {
+            @Override
+            public void onVerified(@NonNull Set<String> rejectedTokens) {
+                if (rejectedTokens.isEmpty()) {
+                    callback.onVerified(products);
+                    return;
+                }
+                List<Product> verifiedProducts = new ArrayList<>();
+                for (Product product : products) {
+                    if (!rejectedTokens.contains(product.purchaseToken)) {
+                        verifiedProducts.add(product);
+                    }
+                }
+                callback.onVerified(verifiedProducts);
+            }
+        });
+    }
+
+    private static boolean isValid(PublicKey publicKey, Receipt receipt) {
+        if (receipt.purchaseToken == null || receipt.signedData == null || receipt.signature == null) {
+            return false;
+        }
+        try {
+            Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+            verifier.initVerify(publicKey);
+            verifier.update(receipt.signedData.getBytes(StandardCharsets.UTF_8));
+            return verifier.verify(Base64.decode(receipt.signature, Base64.DEFAULT));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            Log.w(TAG, "signature check failed: " + e.getMessage());
+            return false;
+        }
+    }
+}
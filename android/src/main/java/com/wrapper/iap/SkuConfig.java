@@ -0,0 +1,121 @@
+package com.wrapper.iap;
+
+import android.util.JsonReader;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * productId => type (consumable, non_consumable or subs) of the android.iap.items block
+ * of sdkbox_config.json, and the diff between two such maps for runtime config updates.
+ */
+class SkuConfig {
+    static class Diff {
+        // productId => type, new products or products that moved between INAPP and SUBS
+        final Map<String, String> added = new HashMap<>();
+        final Set<String> removed = new HashSet<>();
+        // productId => type, consumable <-> non_consumable, same query type but refetched
+        final Map<String, String> retyped = new HashMap<>();
+
+        boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && retyped.isEmpty();
+        }
+    }
+
+    /**
+     * Stream the config up to android.iap.items, everything after that block is never read
+     * @throws IOException malformed config or no items block
+     */
+    static @NonNull Map<String, String> parseItems(@NonNull String sdkboxConfigJsonString) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(sdkboxConfigJsonString));
+        try {
+            if (!seek(reader, "android") || !seek(reader, "iap") || !seek(reader, "items")) {
+                throw new IOException("android.iap.items not found");
+            }
+
+            Map<String, String> items = new HashMap<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                String productId = null;
+                String type = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String key = reader.nextName();
+                    if (key.equals("id")) {
+                        productId = reader.nextString();
+                    } else if (key.equals("type")) {
+                        type = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (productId == null || type == null) {
+                    throw new IOException("item " + name + " has no id or type");
+                }
+                items.put(productId, type);
+            }
+            return items;
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected tokens this way
+            throw new IOException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    static @NonNull Map<String, String> fromItems(@NonNull JSONObject items) throws JSONException {
+        Map<String, String> productTypes = new HashMap<>();
+        for (Iterator<String> it = items.keys(); it.hasNext(); ) {
+            JSONObject item = items.getJSONObject(it.next());
+            productTypes.put(item.getString("id"), item.getString("type"));
+        }
+        return productTypes;
+    }
+
+    static @NonNull Diff diff(@NonNull Map<String, String> current, @NonNull Map<String, String> updated) {
+        Diff diff = new Diff();
+        for (String productId : current.keySet()) {
+            if (!updated.containsKey(productId)) {
+                diff.removed.add(productId);
+            }
+        }
+        for (Map.Entry<String, String> entry : updated.entrySet()) {
+            String previousType = current.get(entry.getKey());
+            if (previousType == null) {
+                diff.added.put(entry.getKey(), entry.getValue());
+            } else if (!previousType.equals(entry.getValue())) {
+                if (ProductDetailsFetcher.toBillingProductType(previousType).equals(ProductDetailsFetcher.toBillingProductType(entry.getValue()))) {
+                    diff.retyped.put(entry.getKey(), entry.getValue());
+                } else {
+                    diff.removed.add(entry.getKey());
+                    diff.added.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return diff;
+    }
+
+    // caller is positioned before an object, leaves the reader at the value of name
+    private static boolean seek(JsonReader reader, String name) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(name)) {
+                return true;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+}
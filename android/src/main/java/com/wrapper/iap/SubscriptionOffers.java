@@ -0,0 +1,218 @@
+package com.wrapper.iap;
+
+import android.util.JsonWriter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.ProductDetails;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every base plan and offer of a subscription, indexed once when its ProductDetails
+ * are loaded. The offer to purchase is picked by policy at that point, so purchase()
+ * only looks up the precomputed offer token.
+ *
+ * Play only returns offers the user is eligible for, so every offer listed here can be
+ * bought; the policy only decides which one is preferred.
+ */
+class SubscriptionOffers {
+    // cheapest first billing phase, a free trial wins (default)
+    static final String POLICY_LOWEST_FIRST_PRICE = "lowest_first_price";
+    // always the base plan, developer offers are ignored
+    static final String POLICY_BASE_PLAN = "base_plan";
+    // longest run of discounted phases before the full price
+    static final String POLICY_LONGEST_DISCOUNT = "longest_discount";
+
+    static class PricingPhase {
+        final String formattedPrice;
+        final long priceMicros;
+        final String currencyCode;
+        // ISO 8601, e.g. P1W
+        final String billingPeriod;
+        final int billingCycleCount;
+        final int recurrenceMode;
+
+        PricingPhase(ProductDetails.PricingPhase pricingPhase) {
+            formattedPrice = pricingPhase.getFormattedPrice();
+            priceMicros = pricingPhase.getPriceAmountMicros();
+            currencyCode = pricingPhase.getPriceCurrencyCode();
+            billingPeriod = pricingPhase.getBillingPeriod();
+            billingCycleCount = pricingPhase.getBillingCycleCount();
+            recurrenceMode = pricingPhase.getRecurrenceMode();
+        }
+
+        boolean isFreeTrial() {
+            return priceMicros == 0;
+        }
+    }
+
+    static class Offer {
+        final String basePlanId;
+        // null for the base plan itself
+        final String offerId;
+        final String offerToken;
+        final List<String> tags;
+        final List<PricingPhase> pricingPhases;
+
+        Offer(ProductDetails.SubscriptionOfferDetails offerDetails) {
+            basePlanId = offerDetails.getBasePlanId();
+            offerId = offerDetails.getOfferId();
+            offerToken = offerDetails.getOfferToken();
+            tags = offerDetails.getOfferTags() != null ? offerDetails.getOfferTags() : Collections.<String>emptyList();
+            List<PricingPhase> phases = new ArrayList<>();
+            for (ProductDetails.PricingPhase pricingPhase : offerDetails.getPricingPhases().getPricingPhaseList()) {
+                phases.add(new PricingPhase(pricingPhase));
+            }
+            pricingPhases = Collections.unmodifiableList(phases);
+        }
+
+        boolean isBasePlan() {
+            return offerId == null;
+        }
+
+        @NonNull PricingPhase getFirstPhase() {
+            return pricingPhases.get(0);
+        }
+
+        /**
+         * Price the subscription renews at once intro and trial phases are over
+         */
+        @NonNull PricingPhase getRecurringPhase() {
+            return pricingPhases.get(pricingPhases.size() - 1);
+        }
+
+        int getDiscountedCycles() {
+            int cycles = 0;
+            for (int i = 0; i < pricingPhases.size() - 1; i++) {
+                cycles += Math.max(1, pricingPhases.get(i).billingCycleCount);
+            }
+            return cycles;
+        }
+    }
+
+    private final List<Offer> mOffers;
+    private final Offer mSelectedOffer;
+
+    private SubscriptionOffers(List<Offer> offers, Offer selectedOffer) {
+        mOffers = offers;
+        mSelectedOffer = selectedOffer;
+    }
+
+    /**
+     * @param policy one of the POLICY_ constants
+     * @param preferredTag offers carrying this tag are preferred over the others, may be null
+     * @return null if the product has no subscription offers
+     */
+    static @Nullable SubscriptionOffers build(@NonNull ProductDetails productDetails, @NonNull String policy, @Nullable String preferredTag) {
+        List<ProductDetails.SubscriptionOfferDetails> offerDetailsList = productDetails.getSubscriptionOfferDetails();
+        if (offerDetailsList == null || offerDetailsList.isEmpty()) {
+            return null;
+        }
+
+        List<Offer> offers = new ArrayList<>();
+        for (ProductDetails.SubscriptionOfferDetails offerDetails : offerDetailsList) {
+            offers.add(new Offer(offerDetails));
+        }
+        return new SubscriptionOffers(Collections.unmodifiableList(offers), select(offers, policy, preferredTag));
+    }
+
+    private static Offer select(List<Offer> offers, String policy, @Nullable String preferredTag) {
+        List<Offer> candidates = offers;
+        if (preferredTag != null) {
+            List<Offer> tagged = new ArrayList<>();
+            for (Offer offer : offers) {
+                if (offer.tags.contains(preferredTag)) {
+                    tagged.add(offer);
+                }
+            }
+            if (!tagged.isEmpty()) {
+                candidates = tagged;
+            }
+        }
+
+        Offer best = null;
+        for (Offer offer : candidates) {
+            if (best == null || isBetter(offer, best, policy)) {
+                best = offer;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isBetter(Offer offer, Offer best, String policy) {
+        if (policy.equals(POLICY_BASE_PLAN)) {
+            return offer.isBasePlan() && !best.isBasePlan();
+        }
+        if (policy.equals(POLICY_LONGEST_DISCOUNT) && offer.getDiscountedCycles() != best.getDiscountedCycles()) {
+            return offer.getDiscountedCycles() > best.getDiscountedCycles();
+        }
+        if (offer.getFirstPhase().priceMicros != best.getFirstPhase().priceMicros) {
+            return offer.getFirstPhase().priceMicros < best.getFirstPhase().priceMicros;
+        }
+        // same first price, the cheaper renewal wins
+        return offer.getRecurringPhase().priceMicros < best.getRecurringPhase().priceMicros;
+    }
+
+    @NonNull List<Offer> getOffers() {
+        return mOffers;
+    }
+
+    @NonNull Offer getSelectedOffer() {
+        return mSelectedOffer;
+    }
+
+    @Nullable Offer findOffer(@NonNull String basePlanId, @Nullable String offerId) {
+        for (Offer offer : mOffers) {
+            if (offer.basePlanId.equals(basePlanId) && (offerId == null ? offer.offerId == null : offerId.equals(offer.offerId))) {
+                return offer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * [{"basePlanId", "offerId", "offerToken", "tags", "selected", "pricingPhases": [...]}]
+     */
+    @NonNull String toJsonString() throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginArray();
+        for (Offer offer : mOffers) {
+            writer.beginObject();
+            writer.name("basePlanId").value(offer.basePlanId);
+            writer.name("offerId").value(offer.offerId);
+            writer.name("offerToken").value(offer.offerToken);
+            writer.name("selected").value(offer == mSelectedOffer);
+            writer.name("tags");
+            writer.beginArray();
+            for (String tag : offer.tags) {
+                writer.value(tag);
+            }
+            writer.endArray();
+            writer.name("pricingPhases");
+            writer.beginArray();
+            for (PricingPhase phase : offer.pricingPhases) {
+                writer.beginObject();
+                writer.name("price").value(phase.formattedPrice);
+                writer.name("priceMicros").value(phase.priceMicros);
+                writer.name("currencyCode").value(phase.currencyCode);
+                writer.name("billingPeriod").value(phase.billingPeriod);
+                writer.name("billingCycleCount").value(phase.billingCycleCount);
+                writer.name("recurrenceMode").value(phase.recurrenceMode);
+                writer.name("freeTrial").value(phase.isFreeTrial());
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.flush();
+        return out.toString();
+    }
+}
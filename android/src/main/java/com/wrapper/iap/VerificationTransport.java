@@ -0,0 +1,29 @@
+package com.wrapper.iap;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Posts a batch of purchase receipts to the verification server, see
+ * PurchaseManager.setVerificationTransport(). The default posts to an HTTP endpoint.
+ */
+public interface VerificationTransport {
+    interface Callback {
+        /**
+         * @param statusCode HTTP status code of the response
+         * @param body response body on success: {"results": [{"purchaseToken": "...", "status": "ok", ...}, ...]},
+         *             each result also carries the fields of the single receipt response
+         */
+        void onResponse(int statusCode, @NonNull String body);
+
+        /**
+         * The request did not get a response, the batch is retried with backoff
+         */
+        void onError(@NonNull String message);
+    }
+
+    /**
+     * May be called on any thread and may call back on any thread
+     * @param requestJson {"userId": "...", "os": "android", "receipts": [...]}
+     */
+    void post(@NonNull String requestJson, @NonNull Callback callback);
+}
@@ -0,0 +1,406 @@
+package com.wrapper.iap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends purchase receipts to the verification server in batches instead of one request
+ * per receipt.
+ *
+ * Receipts are collected until the batch is full or the batch delay has passed, and only
+ * one batch is in flight at a time. A batch without a usable response is retried with
+ * jittered exponential backoff. Receipts the server did not answer for stay queued.
+ * The queue is persisted to app-private storage, so unsent receipts survive a restart.
+ */
+class VerificationUploader {
+    private static final String TAG = "VerificationUploader";
+    static final String QUEUE_FILE_NAME = "iap_verification_queue.json";
+    static final int DEFAULT_BATCH_SIZE = 20;
+    static final long DEFAULT_BATCH_DELAY_MILLIS = 2 * 1000L;
+    private static final long BASE_RETRY_DELAY_MILLIS = 5 * 1000L;
+    private static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000L;
+
+    // result status of a receipt, ok and duplicate grant the purchase
+    static final String STATUS_OK = "ok";
+    static final String STATUS_DUPLICATE = "duplicate";
+    static final String STATUS_REJECTED = "rejected";
+    // the server refused the whole batch (4xx), the receipt is queued again on the next restore
+    static final String STATUS_ERROR = "error";
+
+    interface Listener {
+        /**
+         * Called on the main thread
+         * @param resultJson result object of the receipt from the server response
+         */
+        void onReceiptVerified(@NonNull Product product, @NonNull String status, @NonNull String resultJson);
+    }
+
+    private final File mQueueFile;
+    private final Listener mListener;
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random();
+
+    // purchaseToken => Product, oldest first, includes the batch in flight
+    private final LinkedHashMap<String, Product> mQueue = new LinkedHashMap<>();
+    private List<Product> mBatchInFlight;
+    private VerificationTransport mTransport;
+    private String mUserId = "";
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+    private long mBatchDelayMillis = DEFAULT_BATCH_DELAY_MILLIS;
+    private int mRetryAttempts = 0;
+    private long mBaseRetryDelayMillis = BASE_RETRY_DELAY_MILLIS;
+    private long mMaxRetryDelayMillis = MAX_RETRY_DELAY_MILLIS;
+    private boolean mFlushScheduled = false;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (VerificationUploader.this) {
+                mFlushScheduled = false;
+            }
+            flush();
+        }
+    };
+
+    VerificationUploader(@NonNull File queueFile, @NonNull Listener listener) {
+        mQueueFile = queueFile;
+        mListener = listener;
+    }
+
+    /**
+     * @param transport null pauses uploading, queued receipts are kept. A replaced
+     *                  HttpVerificationTransport is shut down.
+     */
+    void configure(@Nullable VerificationTransport transport, @NonNull String userId) {
+        VerificationTransport replaced;
+        synchronized (this) {
+            replaced = mTransport;
+            mTransport = transport;
+            mUserId = userId;
+            mRetryAttempts = 0;
+        }
+        if (replaced != transport && replaced instanceof HttpVerificationTransport) {
+            ((HttpVerificationTransport) replaced).shutdown();
+        }
+        scheduleFlush(0);
+    }
+
+    /**
+     * Batch settings from the config, independent of configure() since the config may be
+     * parsed after the transport is set, takes effect with the next flush
+     */
+    synchronized void setBatching(int batchSize, long batchDelayMillis) {
+        mBatchSize = Math.max(1, batchSize);
+        mBatchDelayMillis = Math.max(0, batchDelayMillis);
+    }
+
+    synchronized boolean isEnabled() {
+        return mTransport != null;
+    }
+
+    /**
+     * Backoff bounds of failed batches, tests shorten them
+     */
+    synchronized void setRetryDelays(long baseMillis, long maxMillis) {
+        mBaseRetryDelayMillis = baseMillis;
+        mMaxRetryDelayMillis = maxMillis;
+    }
+
+    /**
+     * Blocks until the queue as of now is on disk
+     */
+    void awaitWrites() throws InterruptedException {
+        try {
+            mDiskExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Read the persisted queue, sent on the next flush
+     */
+    synchronized void load() {
+        if (!mQueueFile.exists()) {
+            return;
+        }
+        try {
+            JSONArray entries = new JSONArray(readFile(mQueueFile));
+            for (int i = 0; i < entries.length(); i++) {
+                try {
+                    Product product = Product.fromJson(entries.getJSONObject(i));
+                    mQueue.put(product.purchaseToken, product);
+                } catch (JSONException e) {
+                    // the journal still holds the purchase, it is queued again on the next restore
+                    Log.w(TAG, "dropping unreadable receipt: " + e.getMessage());
+                }
+            }
+            Log.d(TAG, "loaded " + mQueue.size() + " unsent receipts");
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "failed to load verification queue: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queue purchased products, a token that is already queued is not sent twice
+     * @return true if every product is in the queue now, newly added or waiting from before
+     */
+    boolean enqueue(@NonNull List<Product> products) {
+        boolean full;
+        boolean queued = true;
+        synchronized (this) {
+            boolean added = false;
+            for (Product product : products) {
+                if (product.purchaseToken == null || product.purchaseToken.isEmpty()) {
+                    queued = false;
+                    continue;
+                }
+                if (mQueue.containsKey(product.purchaseToken)) {
+                    continue;
+                }
+                mQueue.put(product.purchaseToken, product);
+                added = true;
+            }
+            if (!added) {
+                return queued;
+            }
+            save();
+            // a full batch goes out right away, unless the server is being backed off
+            full = mQueue.size() >= mBatchSize && mRetryAttempts == 0;
+        }
+        scheduleFlush(full ? 0 : mBatchDelayMillis);
+        return queued;
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        synchronized (this) {
+            if (mFlushScheduled && delayMillis > 0) {
+                // the pending flush collects this receipt too
+                return;
+            }
+            mHandler.removeCallbacks(mFlush);
+            mFlushScheduled = true;
+        }
+        mHandler.postDelayed(mFlush, delayMillis);
+    }
+
+    private void flush() {
+        final List<Product> batch = new ArrayList<>();
+        VerificationTransport transport;
+        String requestJson;
+        synchronized (this) {
+            transport = mTransport;
+            if (transport == null || mBatchInFlight != null || mQueue.isEmpty()) {
+                return;
+            }
+            for (Product product : mQueue.values()) {
+                batch.add(product);
+                if (batch.size() >= mBatchSize) {
+                    break;
+                }
+            }
+            try {
+                requestJson = toRequestJson(batch);
+            } catch (JSONException e) {
+                Log.e(TAG, "failed to serialize receipts: " + e.getMessage());
+                return;
+            }
+            mBatchInFlight = batch;
+        }
+
+        Log.d(TAG, "posting " + batch.size() + " receipts");
+        transport.post(requestJson, new VerificationTransport.Callback() {
+            @Override
+            public void onResponse(final int statusCode, @NonNull final String body) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onBatchResponse(batch, statusCode, body);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(@NonNull String message) {
+                Log.w(TAG, "verification request failed: " + message);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        retryLater();
+                    }
+                });
+            }
+        });
+    }
+
+    private void onBatchResponse(List<Product> batch, int statusCode, String body) {
+        if (statusCode >= 500 || statusCode == 408 || statusCode == 429) {
+            Log.w(TAG, "verification server busy: " + statusCode);
+            retryLater();
+            return;
+        }
+
+        LinkedHashMap<Product, JSONObject> results = new LinkedHashMap<>();
+        if (statusCode >= 200 && statusCode < 300) {
+            JSONArray resultList;
+            try {
+                resultList = new JSONObject(body).getJSONArray("results");
+            } catch (JSONException e) {
+                Log.w(TAG, "invalid verification response: " + e.getMessage());
+                retryLater();
+                return;
+            }
+            LinkedHashMap<String, JSONObject> byToken = new LinkedHashMap<>();
+            for (int i = 0; i < resultList.length(); i++) {
+                JSONObject result = resultList.optJSONObject(i);
+                if (result != null && result.has("purchaseToken")) {
+                    byToken.put(result.optString("purchaseToken"), result);
+                }
+            }
+            for (Product product : batch) {
+                JSONObject result = byToken.get(product.purchaseToken);
+                if (result != null) {
+                    results.put(product, result);
+                }
+            }
+        } else {
+            // a malformed request does not get better by resending it, the journal keeps the purchases open
+            Log.e(TAG, "verification server refused the batch: " + statusCode);
+            for (Product product : batch) {
+                JSONObject result = new JSONObject();
+                try {
+                    result.put("purchaseToken", product.purchaseToken);
+                    result.put("status", STATUS_ERROR);
+                    result.put("statusCode", statusCode);
+                } catch (JSONException ignored) {
+                }
+                results.put(product, result);
+            }
+        }
+
+        synchronized (this) {
+            for (Product product : results.keySet()) {
+                mQueue.remove(product.purchaseToken);
+            }
+            mBatchInFlight = null;
+            mRetryAttempts = 0;
+            save();
+        }
+        for (Map.Entry<Product, JSONObject> entry : results.entrySet()) {
+            mListener.onReceiptVerified(entry.getKey(), entry.getValue().optString("status", STATUS_ERROR), entry.getValue().toString());
+        }
+
+        if (results.size() < batch.size()) {
+            // unanswered receipts stay at the head of the queue
+            retryLater();
+        } else {
+            scheduleFlush(0);
+        }
+    }
+
+    private void retryLater() {
+        long delay;
+        synchronized (this) {
+            mBatchInFlight = null;
+            delay = Math.min(mMaxRetryDelayMillis, mBaseRetryDelayMillis << Math.min(mRetryAttempts, 16));
+            // full jitter on the upper half, so devices coming back from an outage do not post in lockstep
+            delay = delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+            mRetryAttempts++;
+        }
+        Log.d(TAG, "retrying verification in " + delay + "ms");
+        scheduleFlush(delay);
+    }
+
+    private String toRequestJson(List<Product> batch) throws JSONException {
+        JSONArray receipts = new JSONArray();
+        for (Product product : batch) {
+            JSONObject receipt = new JSONObject();
+            receipt.put("productId", product.id);
+            receipt.put("receipt", product.receipt);
+            receipt.put("signature", product.receiptCipheredPayload);
+            receipt.put("transactionID", product.transactionID);
+            receipt.put("purchaseToken", product.purchaseToken);
+            receipts.put(receipt);
+        }
+        JSONObject request = new JSONObject();
+        request.put("userId", mUserId);
+        request.put("os", "android");
+        request.put("receipts", receipts);
+        return request.toString();
+    }
+
+    // caller holds the lock
+    private void save() {
+        final String content;
+        try {
+            JSONArray entries = new JSONArray();
+            for (Product product : mQueue.values()) {
+                entries.put(product.toJson());
+            }
+            content = entries.toString();
+        } catch (JSONException e) {
+            Log.w(TAG, "failed to serialize verification queue: " + e.getMessage());
+            return;
+        }
+
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File tmpFile = new File(mQueueFile.getPath() + ".tmp");
+                try (OutputStream out = new FileOutputStream(tmpFile)) {
+                    out.write(content.getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    Log.w(TAG, "failed to write verification queue: " + e.getMessage());
+                    return;
+                }
+                if (!tmpFile.renameTo(mQueueFile)) {
+                    Log.w(TAG, "failed to replace verification queue");
+                }
+            }
+        });
+    }
+
+    private static String readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < buffer.length) {
+                int read = in.read(buffer, offset, buffer.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+            return new String(buffer, 0, offset, StandardCharsets.UTF_8);
+        }
+    }
+}
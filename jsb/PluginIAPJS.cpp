@@ -231,6 +231,95 @@ static bool js_PluginIAPJS_IAP_getPurchaseHistory(se::State& s)
 }
 SE_BIND_FUNC(js_PluginIAPJS_IAP_getPurchaseHistory)
 
+static bool js_PluginIAPJS_IAP_updateConfig(se::State& s)
+{
+    const auto& args = s.args();
+    size_t argc = args.size();
+    CC_UNUSED bool ok = true;
+    if (argc == 0) {
+#ifdef IS_ANDROID
+        sdkbox::IAP::updateConfig();
+#endif
+        return true;
+    }
+    if (argc == 1) {
+        std::string arg0;
+        ok &= seval_to_std_string(args[0], &arg0);
+        SE_PRECONDITION2(ok, false, "js_PluginIAPJS_IAP_updateConfig : Error processing arguments");
+#ifdef IS_ANDROID
+        sdkbox::IAP::updateConfig(arg0.c_str());
+#endif
+        return true;
+    }
+    SE_REPORT_ERROR("wrong number of arguments: %d, was expecting %d", (int)argc, 1);
+    return false;
+}
+SE_BIND_FUNC(js_PluginIAPJS_IAP_updateConfig)
+
+static bool js_PluginIAPJS_IAP_getMetricsSnapshot(se::State& s)
+{
+    const auto& args = s.args();
+    size_t argc = args.size();
+    CC_UNUSED bool ok = true;
+    if (argc == 0) {
+        std::string result = "{}";
+#ifdef IS_ANDROID
+        result = sdkbox::IAP::getMetricsSnapshot();
+#endif
+        ok &= std_string_to_seval(result, &s.rval());
+        SE_PRECONDITION2(ok, false, "js_PluginIAPJS_IAP_getMetricsSnapshot : Error processing arguments");
+        return true;
+    }
+    SE_REPORT_ERROR("wrong number of arguments: %d, was expecting %d", (int)argc, 0);
+    return false;
+}
+SE_BIND_FUNC(js_PluginIAPJS_IAP_getMetricsSnapshot)
+
+static bool js_PluginIAPJS_IAP_setServerVerification(se::State& s)
+{
+    const auto& args = s.args();
+    size_t argc = args.size();
+    CC_UNUSED bool ok = true;
+    if (argc == 2) {
+        std::string arg0;
+        std::string arg1;
+        ok &= seval_to_std_string(args[0], &arg0);
+        ok &= seval_to_std_string(args[1], &arg1);
+        SE_PRECONDITION2(ok, false, "js_PluginIAPJS_IAP_setServerVerification : Error processing arguments");
+#ifdef IS_ANDROID
+        sdkbox::IAP::setServerVerification(arg0, arg1);
+#endif
+        return true;
+    }
+    SE_REPORT_ERROR("wrong number of arguments: %d, was expecting %d", (int)argc, 2);
+    return false;
+}
+SE_BIND_FUNC(js_PluginIAPJS_IAP_setServerVerification)
+
+static bool js_PluginIAPJS_IAP_verifyPurchase(se::State& s)
+{
+    const auto& args = s.args();
+    size_t argc = args.size();
+    CC_UNUSED bool ok = true;
+    if (argc == 2) {
+        std::string arg0;
+        std::string arg1;
+        ok &= seval_to_std_string(args[0], &arg0);
+        ok &= seval_to_std_string(args[1], &arg1);
+        SE_PRECONDITION2(ok, false, "js_PluginIAPJS_IAP_verifyPurchase : Error processing arguments");
+        bool result = false;
+#ifdef IS_ANDROID
+        result = sdkbox::IAP::verifyPurchase(arg0, arg1);
+#endif
+        ok &= boolean_to_seval(result, &s.rval());
+        SE_PRECONDITION2(ok, false, "js_PluginIAPJS_IAP_verifyPurchase : Error processing arguments");
+        return true;
+    }
+    SE_REPORT_ERROR("wrong number of arguments: %d, was expecting %d", (int)argc, 2);
+    return false;
+}
+SE_BIND_FUNC(js_PluginIAPJS_IAP_verifyPurchase)
+
 static bool js_PluginIAPJS_IAP_init(se::State& s)
 {
     const auto& args = s.args();
@@ -252,6 +341,38 @@ static bool js_PluginIAPJS_IAP_init(se::State& s)
 }
 SE_BIND_FUNC(js_PluginIAPJS_IAP_init)
 
+static bool js_PluginIAPJS_IAP_initDeferred(se::State& s)
+{
+    const auto& args = s.args();
+    size_t argc = args.size();
+    if (argc == 0) {
+#ifdef IS_ANDROID
+        sdkbox::IAP::initDeferred();
+#else
+        sdkbox::IAP::init();
+#endif
+        return true;
+    }
+    SE_REPORT_ERROR("wrong number of arguments: %d, was expecting %d", (int)argc, 0);
+    return false;
+}
+SE_BIND_FUNC(js_PluginIAPJS_IAP_initDeferred)
+
+static bool js_PluginIAPJS_IAP_prewarm(se::State& s)
+{
+    const auto& args = s.args();
+    size_t argc = args.size();
+    if (argc == 0) {
+#ifdef IS_ANDROID
+        sdkbox::IAP::prewarm();
+#endif
+        return true;
+    }
+    SE_REPORT_ERROR("wrong number of arguments: %d, was expecting %d", (int)argc, 0);
+    return false;
+}
+SE_BIND_FUNC(js_PluginIAPJS_IAP_prewarm)
+
 ///
 static bool js_PluginIAPJS_IAP_initPlayPass(se::State& s)
 {
@@ -415,7 +536,13 @@ bool js_register_PluginIAPJS_IAP(se::Object* obj)
     cls->defineStaticFunction("fetchStorePromotionVisibility", _SE(js_PluginIAPJS_IAP_fetchStorePromotionVisibility));
     cls->defineStaticFunction("setAutoFinishTransaction", _SE(js_PluginIAPJS_IAP_setAutoFinishTransaction));
     cls->defineStaticFunction("getPurchaseHistory", _SE(js_PluginIAPJS_IAP_getPurchaseHistory));
+    cls->defineStaticFunction("getMetricsSnapshot", _SE(js_PluginIAPJS_IAP_getMetricsSnapshot));
+    cls->defineStaticFunction("setServerVerification", _SE(js_PluginIAPJS_IAP_setServerVerification));
+    cls->defineStaticFunction("verifyPurchase", _SE(js_PluginIAPJS_IAP_verifyPurchase));
     cls->defineStaticFunction("init", _SE(js_PluginIAPJS_IAP_init));
+    cls->defineStaticFunction("initDeferred", _SE(js_PluginIAPJS_IAP_initDeferred));
+    cls->defineStaticFunction("prewarm", _SE(js_PluginIAPJS_IAP_prewarm));
+    cls->defineStaticFunction("updateConfig", _SE(js_PluginIAPJS_IAP_updateConfig));
     cls->defineStaticFunction("initPlayPass", _SE(js_PluginIAPJS_IAP_initPlayPass));
     cls->defineStaticFunction("setDebug", _SE(js_PluginIAPJS_IAP_setDebug));
     cls->defineStaticFunction("requestUpdateTransaction", _SE(js_PluginIAPJS_IAP_requestUpdateTransaction));
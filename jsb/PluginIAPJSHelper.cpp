@@ -25,6 +25,8 @@ cocos2d::ValueMap product_to_map(const sdkbox::Product& p)
     map["transactionID"] = p.transactionID;
 #ifdef IS_ANDROID
     map["purchaseToken"] = p.purchaseToken;
+    // a double holds every micros amount exactly up to 2^53
+    map["priceMicros"] = (double)p.priceMicros;
 #endif
     return map;
 }
@@ -320,6 +322,19 @@ public:
 
         RUN_ON_MAIN_THREAD_END
     }
+
+    void onReceiptVerified(const sdkbox::Product& p, const std::string& status, const std::string& result) {
+        RUN_ON_MAIN_THREAD_BEGIN
+        MAKE_V8_HAPPY
+
+        se::ValueArray args;
+        args.push_back(product_to_obj(p));
+        args.push_back(se::Value(status));
+        args.push_back(se::Value(result));
+        invokeJSFun(funcName, args);
+
+        RUN_ON_MAIN_THREAD_END
+    }
 #endif
 
 };
@@ -7,6 +7,8 @@ export interface IAPProduct extends IAPProductBase {
     description : string,
     price : string,
     priceValue : number,
+    // exact price in millionths of the currency unit, Google Play only
+    priceMicros? : number,
     currencyCode : string,
 }
 
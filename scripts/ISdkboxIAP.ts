@@ -14,10 +14,18 @@ export interface IAPListener {
     onProductRequestFailure(msg: string): void;
     onPlayPassStatusUpdate(active: boolean, token: string): void;
     onUnConsumedProductsUpdate(products: IAPProduct[]): void;
+    /** server verdict of a receipt passed to verifyPurchase, result is the JSON result object of the batch response */
+    onReceiptVerified?(product: IAPPurchaseProduct, status: string, result: string): void;
 }
 
 export interface ISdkboxIAP {
     init(): void;
+    /** init without slowing down game start, billing connects on first use, prewarm() or idle */
+    initDeferred(): void;
+    /** start connecting billing ahead of need, e.g. when the shop opens */
+    prewarm(): void;
+    /** apply new sku items at runtime, the bundled config is read again without configJson */
+    updateConfig(configJson?: string): void;
     initPlayPass(noAdsPackId: string): void;
     setListener(listener_: IAPListener): void;
     isEnabled(): boolean;
@@ -29,4 +37,10 @@ export interface ISdkboxIAP {
     queryUnconsumedPurchases(): void;
     onConsumed(product: IAPProduct): void;
     onConsumeFailure(product: IAPProduct, errorMsg: string, errorCode: number): void;
+    /** flat JSON object of billing latencies and response code counts, "{}" when unsupported */
+    getMetricsSnapshot(): string;
+    /** post receipts passed to verifyPurchase in batches, empty endpointUrl stops uploading */
+    setServerVerification(endpointUrl: string, userId: string): void;
+    /** queue an unconsumed purchase for batched verification, false when unsupported */
+    verifyPurchase(productId: string, token: string): boolean;
 }
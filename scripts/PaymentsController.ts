@@ -84,11 +84,16 @@ export interface PaymentsConfig {
     isDebug: boolean,
     osName: string,
     purchaseApiEndpoint: string,
+    // batch endpoint for unconsumed purchases, the native side batches, retries and consumes
+    batchVerificationEndpoint?: string,
+    // keep billing off the boot path, call prewarmStore() from the shop entry point
+    deferredStartup?: boolean,
 }
 enum TrackingEvents {
     SdkboxPackageFetchFailed = "pacakge_fetch_failed",
     ServerPurchaseSuccess = "server_purchase_success",
-    PurchaseVirtualCurrency = "PurchaseVirtualCurrency"
+    PurchaseVirtualCurrency = "PurchaseVirtualCurrency",
+    BillingMetrics = "iap_billing_metrics"
 }
 const BACKOFF_TIME_STEP = 10 * 1000;
 const MAX_BACKOFF_TIME = 30 * BACKOFF_TIME_STEP;
@@ -118,15 +123,50 @@ export class PaymentsController {
         this.eventDispatcher = new cc.EventTarget();
         this.startSetup();
         this.setupListeners();
-        this.iapLib.init();
+        if (config.deferredStartup) {
+            this.iapLib.initDeferred();
+        } else {
+            this.iapLib.init();
+        }
+        if (config.batchVerificationEndpoint) {
+            this.iapLib.setServerVerification(config.batchVerificationEndpoint, config.userId);
+        }
         if (playPassPackId) {
             this.iapLib.initPlayPass(playPassPackId);
         }
     }
 
+    /**
+     * Connect billing before the player needs it, no-op once connected.
+     * Time to ready is reported as time_to_ready_ms by logBillingMetrics
+     */
+    prewarmStore(): void {
+        this.iapLib.prewarm();
+    }
     isStoreAvailable(): boolean {
         return this.iapLib.isEnabled();
     }
+    /**
+     * Apply live-ops sku changes without restarting the store, added packs arrive through
+     * onProductRequestSuccess once fetched
+     */
+    updateSkuConfig(configJson?: string): void {
+        this.iapLib.updateConfig(configJson);
+    }
+    /**
+     * Ship the native billing latency / response code counters as one custom event
+     */
+    logBillingMetrics(): void {
+        const snapshot = this.iapLib.getMetricsSnapshot();
+        if (!snapshot || snapshot === "{}") {
+            return;
+        }
+        try {
+            this.requestor.logCustomEvent(TrackingEvents.BillingMetrics, JSON.parse(snapshot) as EventParams);
+        } catch (e) {
+            console.error("invalid billing metrics snapshot %s", snapshot);
+        }
+    }
     initiatePurchaseFlow(packID: string): void {
         this.consumeWaitEvent = null;
         this.consumeWaitProduct = null;
@@ -326,10 +366,13 @@ export class PaymentsController {
                 } else {
                     products.forEach(product => {
                         console.log(":: ", product.id);
-                        this.purchaseSilentServerTransaction(product);
+                        this.verifySilently(product as IAPPurchaseProduct);
                     });
                 }
             },
+            onReceiptVerified: (product: IAPPurchaseProduct, status: string, result: string) => {
+                this.onSilentReceiptVerified(product, status, result);
+            },
         });
     }
     private printProduct(product) {
@@ -377,6 +420,33 @@ export class PaymentsController {
             }
         });
     }
+    private verifySilently(product: IAPPurchaseProduct) {
+        if (this.config.batchVerificationEndpoint && this.iapLib.verifyPurchase(product.id, product.purchaseToken)) {
+            this.logPurchaseEvent(product.id, this.getStageForSilent(PurchaseStages.ServerStart));
+            return;
+        }
+        this.purchaseSilentServerTransaction(product);
+    }
+    private onSilentReceiptVerified(product: IAPPurchaseProduct, status: string, result: string) {
+        let response: IResponse = null;
+        try {
+            response = JSON.parse(result) as IResponse;
+        } catch (e) {
+            console.error("invalid receipt verification result %s", result);
+        }
+        // ok and duplicate receipts were already consumed by the native side
+        if (status == "ok" && response) {
+            this.productsGrantedSilently.push(response as PurchaseEventData);
+            this.logPurchaseEvent(product.id, this.getStageForSilent(PurchaseStages.ServerSuccess));
+            this.logPurchaseEvent(product.id, this.getStageForSilent(PurchaseStages.ConsumeSuccess));
+            this.eventDispatcher.dispatchEvent(
+                new cc.Event.EventCustom(StoreEvent.SilentPurchaseSuccess, true));
+        } else if (status == "duplicate") {
+            this.logPurchaseError(product.id, PurchaseErrorCodes.DuplicateOrder, this.getStageForSilent(PurchaseStages.Failed));
+        } else {
+            this.logPurchaseError(product.id, response?.error || status, this.getStageForSilent(PurchaseStages.Failed));
+        }
+    }
     private getStageForSilent(stage: PurchaseStages): string {
         return stage + SilentPurchaseStageSuffix;
     }
@@ -8,6 +8,15 @@ export class SdkboxIAPEmpty implements ISdkboxIAP {
     queryUnconsumedPurchases(): void {
         console.log("queryUnconsumedPurchases");
     }
+    getMetricsSnapshot(): string {
+        return "{}";
+    }
+    setServerVerification(endpointUrl: string, userId: string): void {
+        // no-op
+    }
+    verifyPurchase(productId: string, token: string): boolean {
+        return false;
+    }
     onConsumed(product: IAPProduct): void {
         console.log("onConsumed %s", JSON.stringify(product));
     }
@@ -24,6 +33,18 @@ export class SdkboxIAPEmpty implements ISdkboxIAP {
         // no-op
     }
 
+    initDeferred() {
+        // no-op
+    }
+
+    prewarm() {
+        // no-op
+    }
+
+    updateConfig(configJson?: string) {
+        // no-op
+    }
+
     isEnabled(): boolean {
         return false;
     }
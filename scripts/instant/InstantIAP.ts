@@ -67,11 +67,37 @@ export class IAP implements ISdkboxIAP {
         }
     }
 
+    initDeferred() {
+        // NOTE: FBInstant payments have no connection to defer
+        this.init();
+    }
+
+    prewarm(): void {
+        // NOTE: No op. See initDeferred
+    }
+
     initPlayPass(noAdsPackId: string): void {
         // NOTE: No op. Playpass is for google play only
         console.log("initPlayPass %s", noAdsPackId);
     }
 
+    updateConfig(configJson?: string): void {
+        // NOTE: No op. The catalog comes from FBInstant.payments.getCatalogAsync
+    }
+
+    getMetricsSnapshot(): string {
+        // NOTE: billing metrics are only collected by the google play implementation
+        return "{}";
+    }
+
+    setServerVerification(endpointUrl: string, userId: string): void {
+        // NOTE: No op. Batched receipt verification is only implemented for google play
+    }
+
+    verifyPurchase(productId: string, token: string): boolean {
+        return false;
+    }
+
     refresh() {
         FBInstant.payments.getCatalogAsync().then((catalog : FBInstant.Product[]) => {
             const products = new Array<IAPProduct>();
@@ -6,11 +6,17 @@ declare module sdkbox {
         consume(productId: string, token: string): void;
         isEnabled(): boolean;
         init(): void;
+        initDeferred(): void;
+        prewarm(): void;
+        updateConfig(configJson?: string): void;
         setListener(listener: IAPListener): void;
         refresh(): void;
         purchase(packID: string): void;
         queryPurchases(): void;
         queryUnconsumedPurchases(): void;
+        getMetricsSnapshot(): string;
+        setServerVerification(endpointUrl: string, userId: string): void;
+        verifyPurchase(productId: string, token: string): boolean;
     }
     export const IAP: IAPInterface;
 }
@@ -28,6 +34,19 @@ export class NativeIAP implements ISdkboxIAP, IAPListener {
     init(): void {
         sdkbox.IAP.init();
     }
+    initDeferred(): void {
+        sdkbox.IAP.initDeferred();
+    }
+    prewarm(): void {
+        sdkbox.IAP.prewarm();
+    }
+    updateConfig(configJson?: string): void {
+        if (configJson) {
+            sdkbox.IAP.updateConfig(configJson);
+        } else {
+            sdkbox.IAP.updateConfig();
+        }
+    }
     setListener(listener: IAPListener): void {
         this.listener = listener;
         sdkbox.IAP.setListener(this);
@@ -81,6 +100,15 @@ export class NativeIAP implements ISdkboxIAP, IAPListener {
         console.log("store queryUnconsumedPurchases");
         sdkbox.IAP.queryUnconsumedPurchases();
     }
+    getMetricsSnapshot(): string {
+        return sdkbox.IAP.getMetricsSnapshot();
+    }
+    setServerVerification(endpointUrl: string, userId: string): void {
+        sdkbox.IAP.setServerVerification(endpointUrl, userId);
+    }
+    verifyPurchase(productId: string, token: string): boolean {
+        return sdkbox.IAP.verifyPurchase(productId, token);
+    }
     onInitialized(success: boolean): void {
         this.listener.onInitialized(success);
     }
@@ -134,4 +162,7 @@ export class NativeIAP implements ISdkboxIAP, IAPListener {
     onUnConsumedProductsUpdate(products: IAPProduct[]): void {
         this.listener.onUnConsumedProductsUpdate(products);
     }
+    onReceiptVerified(product: IAPPurchaseProduct, status: string, result: string): void {
+        this.listener.onReceiptVerified?.(product, status, result);
+    }
 }
\ No newline at end of file